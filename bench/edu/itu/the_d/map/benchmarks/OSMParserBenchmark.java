@@ -0,0 +1,75 @@
+package edu.itu.the_d.map.benchmarks;
+
+import edu.itu.the_d.map.dataprocessing.ChunkPipe;
+import edu.itu.the_d.map.dataprocessing.OSMObject;
+import edu.itu.the_d.map.dataprocessing.OSMParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares the throughput of the two parse modes of the {@link OSMParser}. Each mode parses the file a number of times
+ * while a consumer thread drains the pipe, like the MapObjectFactory does, and the best run is reported.
+ * <p>
+ * Usage: OSMParserBenchmark [file] [runs]
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class OSMParserBenchmark {
+    private static final String DEFAULT_FILE = "resources/resources/amager.zip";
+    private static final int QUEUE_SIZE = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        String filename = args.length > 0 ? args[0] : DEFAULT_FILE;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double megabytes = xmlSize(filename) / (1024.0 * 1024.0);
+
+        System.out.printf("%s (%.1f MB of xml), best of %d runs%n", filename, megabytes, runs);
+        for (int mode : new int[]{OSMParser.STAX, OSMParser.SCANNER}) {
+            long best = Long.MAX_VALUE;
+            long objects = 0;
+            for (int i = 0; i < runs; i++) {
+                long[] count = new long[1];
+                long time = parse(filename, mode, count);
+                best = Math.min(best, time);
+                objects = count[0];
+            }
+            double seconds = best / 1e9;
+            System.out.printf("%-8s %8.0f ms %8.1f MB/s %12.0f objects/s (%d objects)%n",
+                    mode == OSMParser.STAX ? "StAX" : "Scanner", best / 1e6, megabytes / seconds, objects / seconds, objects);
+        }
+    }
+
+    /**
+     * @return the size of the xml in bytes, uncompressed if the file is zipped
+     */
+    private static long xmlSize(String filename) throws IOException {
+        if (!filename.endsWith(".zip")) return new File(filename).length();
+        try (ZipFile zip = new ZipFile(filename)) {
+            return zip.entries().nextElement().getSize();
+        }
+    }
+
+    /**
+     * Parses the file once while a separate thread drains the pipe.
+     *
+     * @return the time spent in nanoseconds
+     */
+    private static long parse(String filename, int mode, long[] count) throws InterruptedException {
+        ChunkPipe<OSMObject> queue = new ChunkPipe<>("OSM objects", QUEUE_SIZE);
+        Thread consumer = new Thread(() -> {
+            try {
+                while (queue.take() != null) count[0]++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        long start = System.nanoTime();
+        consumer.start();
+        new OSMParser(filename, queue, mode).run();
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+}
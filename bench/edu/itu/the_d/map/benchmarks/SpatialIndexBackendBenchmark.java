@@ -0,0 +1,134 @@
+package edu.itu.the_d.map.benchmarks;
+
+import edu.itu.the_d.map.datastructures.PackedRTree;
+import edu.itu.the_d.map.datastructures.SpatialIndex;
+import edu.itu.the_d.map.datastructures.TwoDTree;
+import edu.itu.the_d.map.datastructures.ZoomLayeredIndex;
+import edu.itu.the_d.map.model.Model;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the spatial index backends the model can use on the same map objects: a single {@link TwoDTree}, its
+ * compact copy, a {@link PackedRTree}, and the {@link ZoomLayeredIndex} the model is built with, with 2d-tree and with
+ * R-tree layers. For each backend the build time, the heap it retains, and the best time of a number of random tile
+ * queries at a number of scales is reported, along with the average number of objects a tile query returns, since
+ * the indexes may return objects just outside the range. Tiles are sized like in {@link TwoDTreeBucketBenchmark}.
+ * <p>
+ * Usage: SpatialIndexBackendBenchmark [file] [runs]
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class SpatialIndexBackendBenchmark {
+    private static final String DEFAULT_FILE = "resources/resources/amager.zip";
+    private static final int[] SCALES = {500, 2000, 10000, 50000, 200000};
+    private static final int TILE_WIDTH = 420, TILE_HEIGHT = 240;
+    private static final int QUERIES = 20000;
+
+    public static void main(String[] args) throws Exception {
+        String filename = args.length > 0 ? args[0] : DEFAULT_FILE;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Model model = new Model();
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = new ArrayList<>();
+        TwoDTreeBucketBenchmark.convert(filename, model, posinfo, objs);
+        int[] area = TwoDTreeBucketBenchmark.area(model);
+        System.out.printf("%s (%d objects), best of %d runs of %d tile queries%n", filename, objs.size(), runs, QUERIES);
+
+        System.out.printf("%-16s %9s %9s", "backend", "build ms", "heap MB");
+        for (int scale : SCALES) System.out.printf(" %20s", "scale " + scale);
+        System.out.println();
+        run("2d-tree", () -> {
+            TwoDTree tree = new TwoDTree();
+            tree.constructFromList(copy(posinfo), objs);
+            return tree;
+        }, area, runs);
+        run("flat 2d-tree", () -> {
+            TwoDTree tree = new TwoDTree();
+            tree.constructFromList(copy(posinfo), objs);
+            return tree.compact();
+        }, area, runs);
+        run("r-tree", () -> new PackedRTree(posinfo, objs), area, runs);
+        run("layered 2d-tree", () -> {
+            ZoomLayeredIndex index = new ZoomLayeredIndex();
+            index.constructFromList(copy(posinfo), objs);
+            return index;
+        }, area, runs);
+        run("layered r-tree", () -> {
+            ZoomLayeredIndex index = new ZoomLayeredIndex();
+            index.constructFromList(copy(posinfo), objs);
+            return index.pack();
+        }, area, runs);
+        System.exit(0);
+    }
+
+    /**
+     * Builds an index with the builder a number of times and queries the last one, printing a row of the results.
+     */
+    private static void run(String name, Supplier<SpatialIndex> builder, int[] area, int runs) {
+        long build = Long.MAX_VALUE;
+        SpatialIndex index = null;
+        for (int i = 0; i < runs; i++) {
+            index = null;
+            long before = usedHeap();
+            long start = System.nanoTime();
+            index = builder.get();
+            build = Math.min(build, System.nanoTime() - start);
+            // The heap retained by the index, without the garbage of building it
+            if (i == runs - 1) System.out.printf("%-16s %9.0f %9.1f", name, build / 1e6, (usedHeap() - before) / 1e6);
+        }
+        for (int scale : SCALES) {
+            long best = Long.MAX_VALUE;
+            long hits = 0;
+            for (int i = 0; i < runs; i++) {
+                long[] res = query(index, area, scale);
+                best = Math.min(best, res[0]);
+                hits = res[1];
+            }
+            System.out.printf(" %6.0f ms %6.0f objs", best / 1e6, (double) hits / QUERIES);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Queries the index with tiles at random positions within the area, the same positions for every index.
+     *
+     * @return the time spent in nanoseconds and the number of objects returned
+     */
+    private static long[] query(SpatialIndex index, int[] area, int scale) {
+        int width = (int) (TILE_WIDTH * 1e7 / scale);
+        int height = (int) (TILE_HEIGHT * 1e7 / scale);
+        Random random = new Random(scale);
+        long[] hits = new long[1];
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            int x = area[0] + random.nextInt(Math.max(1, area[2] - area[0]));
+            int y = area[1] + random.nextInt(Math.max(1, area[3] - area[1]));
+            index.query(x, y, x + width, y + height, scale, obj -> hits[0]++);
+        }
+        return new long[]{System.nanoTime() - start, hits[0]};
+    }
+
+    /**
+     * The 2d-trees partition the bounds they're given in place, so every build gets a copy.
+     */
+    private static List<int[]> copy(List<int[]> posinfo) {
+        List<int[]> copy = new ArrayList<>(posinfo.size());
+        for (int[] p : posinfo) copy.add(p.clone());
+        return copy;
+    }
+
+    /**
+     * @return the bytes of heap in use after a garbage collection
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,246 @@
+package edu.itu.the_d.map.benchmarks;
+
+import edu.itu.the_d.map.datastructures.SpatialIndex;
+import edu.itu.the_d.map.datastructures.TwoDTree;
+import edu.itu.the_d.map.model.Model;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reproducible performance numbers for the spatial index, meant to be run before a build is deployed (see the
+ * bench-index target of build.xml). The model is loaded from a fixed file, an osm file or a serialized model, and the
+ * following operations are measured:
+ * <ul>
+ * <li><b>constructFromList</b>: building a {@link TwoDTree} of all the map objects of the model</li>
+ * <li><b>getRange</b>: range queries of the model's index with viewports of a tile, the window and a large screen, at
+ * a number of scales, using the scale as zoom level like the tile workers do</li>
+ * <li><b>nearestNeighbor</b>: {@link Model#nearestNeighbor(Point2D)} at random points of the map</li>
+ * </ul>
+ * <p>
+ * Each operation is run in iterations of about {@link #ITERATION_NANOS}: first {@link #WARMUP_ITERATIONS} to let the
+ * JIT compile it and to find the number of operations an iteration takes, then {@link #ITERATIONS} that are measured.
+ * The mean time per operation is reported with its standard deviation over the iterations, along with the bytes the
+ * operation allocates, read from the thread's allocation counter. Setting up an iteration, like copying the bounds a
+ * build partitions in place, isn't measured.
+ * </p>
+ * <p>
+ * The results are written to a file, one operation per line. Given the results of an earlier run as a baseline, the
+ * benchmark exits with status 1 if an operation has become more than {@link #TOLERANCE} slower.
+ * </p>
+ * Usage: SpatialIndexRegressionBenchmark [file] [results] [baseline]
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class SpatialIndexRegressionBenchmark {
+    private static final String DEFAULT_FILE = "resources/resources/amager.zip";
+    private static final String DEFAULT_RESULTS = "bench-results.tsv";
+    private static final int WARMUP_ITERATIONS = 5, ITERATIONS = 10;
+    private static final long ITERATION_NANOS = 200000000L;
+    /**
+     * Part an operation may be slower than in the baseline before it's a regression.
+     */
+    public static final double TOLERANCE = 0.25;
+    // Viewports in pixels: a tile, the window and a large screen
+    private static final int[][] VIEWPORTS = {{420, 240}, {1400, 800}, {2800, 1600}};
+    private static final int[] SCALES = {2000, 10000, 50000};
+    // Number of random positions the queries cycle through
+    private static final int POSITIONS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        String filename = args.length > 0 ? args[0] : DEFAULT_FILE;
+        String results = args.length > 1 ? args[1] : DEFAULT_RESULTS;
+        String baseline = args.length > 2 ? args[2] : null;
+
+        Model model = Model.createModel(filename);
+        SpatialIndex index = model.getTreeRef();
+        int[] area = TwoDTreeBucketBenchmark.area(model);
+        List<int[]> posinfo = new ArrayList<>(index.size());
+        List<MapObject> objs = new ArrayList<>(index.size());
+        index.forEach(obj -> {
+            Rectangle2D r = obj.getShape().getBounds2D();
+            posinfo.add(new int[]{(int) (r.getMinX() * 1e7), (int) -(r.getMaxY() * 1e7),
+                    (int) (r.getMaxX() * 1e7), (int) -(r.getMinY() * 1e7)});
+            objs.add(obj);
+        });
+        System.out.printf("%s (%d objects), %d warmup and %d measured iterations of %d ms%n", filename, objs.size(),
+                WARMUP_ITERATIONS, ITERATIONS, ITERATION_NANOS / 1000000);
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Benchmark("constructFromList") {
+            private List<List<int[]>> copies;
+
+            @Override
+            void setup(int ops) {
+                copies = new ArrayList<>(ops);
+                for (int i = 0; i < ops; i++) {
+                    List<int[]> copy = new ArrayList<>(posinfo.size());
+                    for (int[] p : posinfo) copy.add(p.clone());
+                    copies.add(copy);
+                }
+            }
+
+            @Override
+            long run(int i) {
+                TwoDTree tree = new TwoDTree();
+                tree.constructFromList(copies.set(i, null), objs);
+                return tree.size();
+            }
+        });
+        int[][] positions = positions(area);
+        for (int[] viewport : VIEWPORTS) {
+            for (int scale : SCALES) {
+                int width = (int) (viewport[0] * 1e7 / scale), height = (int) (viewport[1] * 1e7 / scale);
+                benchmarks.add(new Benchmark("getRange " + viewport[0] + "x" + viewport[1] + " scale " + scale) {
+                    @Override
+                    long run(int i) {
+                        int[] p = positions[i % POSITIONS];
+                        return index.getRange(p[0], p[1], p[0] + width, p[1] + height, scale).size();
+                    }
+                });
+            }
+        }
+        benchmarks.add(new Benchmark("nearestNeighbor") {
+            @Override
+            long run(int i) {
+                int[] p = positions[i % POSITIONS];
+                return model.nearestNeighbor(new Point2D.Double(p[0] / 1e7, -p[1] / 1e7)) == null ? 0 : 1;
+            }
+        });
+
+        System.out.printf("%-36s %14s %12s %14s%n", "operation", "ns/op", "error", "bytes/op");
+        Map<String, double[]> measured = new HashMap<>();
+        try (PrintWriter out = new PrintWriter(new FileWriter(results))) {
+            for (Benchmark benchmark : benchmarks) {
+                double[] res = measure(benchmark);
+                measured.put(benchmark.name, res);
+                System.out.printf("%-36s %14.0f %12.0f %14.0f%n", benchmark.name, res[0], res[1], res[2]);
+                out.printf("%s\t%.0f\t%.0f\t%.0f%n", benchmark.name, res[0], res[1], res[2]);
+            }
+        }
+        System.out.println("Results written to " + results);
+
+        if (baseline != null && regressed(baseline, measured)) System.exit(1);
+        System.exit(0);
+    }
+
+    /**
+     * An operation to measure, run a number of times in each iteration.
+     */
+    private abstract static class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Prepares an iteration of the given number of operations. Not measured.
+         */
+        void setup(int ops) {
+        }
+
+        /**
+         * Runs the i'th operation of the iteration.
+         *
+         * @return a value depending on the result, which keeps the operation from being optimized away
+         */
+        abstract long run(int i);
+    }
+
+    /**
+     * Warms up and measures an operation.
+     *
+     * @return the mean nanoseconds per operation, the standard deviation of the iterations, and the bytes allocated per
+     * operation
+     */
+    private static double[] measure(Benchmark benchmark) {
+        long check = 0;
+        // Scale the operations per iteration during the warmup until an iteration takes long enough
+        int ops = 1;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            benchmark.setup(ops);
+            long start = System.nanoTime();
+            for (int k = 0; k < ops; k++) check += benchmark.run(k);
+            long time = System.nanoTime() - start;
+            if (time < ITERATION_NANOS) ops = (int) Math.min(1 << 24, ops * ITERATION_NANOS / Math.max(1, time) + 1);
+        }
+
+        double[] nanos = new double[ITERATIONS];
+        long allocated = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            benchmark.setup(ops);
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int k = 0; k < ops; k++) check += benchmark.run(k);
+            nanos[i] = (double) (System.nanoTime() - start) / ops;
+            allocated += allocatedBytes() - bytes;
+        }
+        // Keep the operations from being optimized away
+        if (check == Long.MIN_VALUE) System.out.println(check);
+
+        double mean = 0;
+        for (double n : nanos) mean += n / ITERATIONS;
+        double variance = 0;
+        for (double n : nanos) variance += (n - mean) * (n - mean) / Math.max(1, ITERATIONS - 1);
+        return new double[]{mean, Math.sqrt(variance), (double) allocated / ((long) ops * ITERATIONS)};
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or 0 if the JVM doesn't count them
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return 0;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return random positions within the area, the same every run
+     */
+    private static int[][] positions(int[] area) {
+        Random random = new Random(42);
+        int[][] positions = new int[POSITIONS][];
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = new int[]{area[0] + random.nextInt(Math.max(1, area[2] - area[0])),
+                    area[1] + random.nextInt(Math.max(1, area[3] - area[1]))};
+        }
+        return positions;
+    }
+
+    /**
+     * Compares the measured times to the times of a baseline run.
+     *
+     * @return true if an operation is more than {@link #TOLERANCE} slower than in the baseline
+     */
+    private static boolean regressed(String baseline, Map<String, double[]> measured) throws IOException {
+        boolean regressed = false;
+        try (BufferedReader in = new BufferedReader(new FileReader(baseline))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                double[] res = measured.get(fields[0]);
+                if (res == null) continue;
+                double before = Double.parseDouble(fields[1]);
+                if (res[0] > before * (1 + TOLERANCE)) {
+                    System.out.printf("Regression: %s takes %.0f ns/op, was %.0f ns/op%n", fields[0], res[0], before);
+                    regressed = true;
+                }
+            }
+        }
+        if (!regressed) System.out.println("No regressions against " + baseline);
+        return regressed;
+    }
+}
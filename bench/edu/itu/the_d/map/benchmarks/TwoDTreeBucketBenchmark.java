@@ -0,0 +1,142 @@
+package edu.itu.the_d.map.benchmarks;
+
+import edu.itu.the_d.map.dataprocessing.ChunkPipe;
+import edu.itu.the_d.map.dataprocessing.MapObjectFactory;
+import edu.itu.the_d.map.dataprocessing.OSMObject;
+import edu.itu.the_d.map.dataprocessing.OSMParser;
+import edu.itu.the_d.map.datastructures.FlatTwoDTree;
+import edu.itu.the_d.map.datastructures.Pair;
+import edu.itu.the_d.map.datastructures.SpatialIndex;
+import edu.itu.the_d.map.datastructures.TwoDTree;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.model.Model;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipFile;
+
+/**
+ * Sweeps the leaf bucket size of the {@link TwoDTree} (see {@link TwoDTree#getCutoffNodeSize()}). The map objects of
+ * the file are converted once, after which a tree is built for each bucket size and queried with the ranges of the
+ * tiles the MapView draws at a number of zoom levels. A tile is a fifth of one and a half times the 1400x800 window,
+ * so it spans 420x240 pixels, which at a scale of s is 420/s by 240/s map units. Queries use the scale as zoom level,
+ * like the tile workers do. The build time, node count and best query time of each size is reported.
+ * <p>
+ * Usage: TwoDTreeBucketBenchmark [file] [runs]
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class TwoDTreeBucketBenchmark {
+    private static final String DEFAULT_FILE = "resources/resources/amager.zip";
+    private static final int QUEUE_SIZE = 1000000;
+    private static final int[] BUCKET_SIZES = {1, 2, 4, 8, 16, 32, 64};
+    private static final int[] SCALES = {500, 2000, 10000, 50000, 200000};
+    private static final int TILE_WIDTH = 420, TILE_HEIGHT = 240;
+    private static final int QUERIES = 20000;
+
+    public static void main(String[] args) throws Exception {
+        String filename = args.length > 0 ? args[0] : DEFAULT_FILE;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Model model = new Model();
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = new ArrayList<>();
+        convert(filename, model, posinfo, objs);
+        int[] area = area(model);
+        System.out.printf("%s (%d objects), best of %d runs of %d tile queries%n", filename, objs.size(), runs, QUERIES);
+
+        System.out.printf("%-7s %9s %9s", "bucket", "build ms", "nodes");
+        for (int scale : SCALES) System.out.printf(" %12s", "scale " + scale);
+        System.out.printf(" %12s%n", "flat 10000");
+        for (int bucket : BUCKET_SIZES) {
+            long build = Long.MAX_VALUE;
+            TwoDTree tree = null;
+            for (int i = 0; i < runs; i++) {
+                // The tree partitions the bounds it's given in place, so every build gets a copy
+                List<int[]> copy = new ArrayList<>(posinfo.size());
+                for (int[] p : posinfo) copy.add(p.clone());
+                tree = new TwoDTree(bucket);
+                long start = System.nanoTime();
+                tree.constructFromList(copy, objs);
+                build = Math.min(build, System.nanoTime() - start);
+            }
+            FlatTwoDTree flat = tree.compact();
+            System.out.printf("%-7d %9.0f %9d", bucket, build / 1e6, flat.nodeCount());
+
+            for (int scale : SCALES) {
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < runs; i++) best = Math.min(best, query(tree, area, scale));
+                System.out.printf(" %9.0f ms", best / 1e6);
+            }
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) best = Math.min(best, query(flat, area, 10000));
+            System.out.printf(" %9.0f ms%n", best / 1e6);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Parses and converts the file, collecting the map objects and their bounds like the Structurer does.
+     */
+    static void convert(String filename, Model model, List<int[]> posinfo, List<MapObject> objs) throws Exception {
+        long size = xmlSize(filename);
+        model.objectMap = new IdMap((int) (size / 234f / 4f));
+        ChunkPipe<OSMObject> osmQueue = new ChunkPipe<>("OSM objects", QUEUE_SIZE);
+        ChunkPipe<Pair<int[], MapObject>> objQueue = new ChunkPipe<>("Map objects", QUEUE_SIZE);
+        Thread parser = new Thread(new OSMParser(filename, osmQueue, OSMParser.SCANNER));
+        Thread factory = new Thread(new MapObjectFactory(osmQueue, objQueue, model, size));
+        parser.start();
+        factory.start();
+        Pair<int[], MapObject> obj;
+        while ((obj = objQueue.take()) != null) {
+            posinfo.add(obj.valA);
+            objs.add(obj.valB);
+        }
+        factory.join();
+    }
+
+    /**
+     * @return the bounds of the model in tree coordinates, {minlon, minlat, maxlon, maxlat}
+     */
+    static int[] area(Model model) {
+        int lon1 = (int) (model.getMinlon() * 1e7), lon2 = (int) (model.getMaxlon() * 1e7);
+        int lat1 = (int) -(model.getMinlat() * 1e7), lat2 = (int) -(model.getMaxlat() * 1e7);
+        return new int[]{Math.min(lon1, lon2), Math.min(lat1, lat2), Math.max(lon1, lon2), Math.max(lat1, lat2)};
+    }
+
+    /**
+     * Queries the index with tiles at random positions within the area, the same positions for every index.
+     *
+     * @return the time spent in nanoseconds
+     */
+    static long query(SpatialIndex index, int[] area, int scale) {
+        int width = (int) (TILE_WIDTH * 1e7 / scale);
+        int height = (int) (TILE_HEIGHT * 1e7 / scale);
+        Random random = new Random(scale);
+        long hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            int x = area[0] + random.nextInt(Math.max(1, area[2] - area[0]));
+            int y = area[1] + random.nextInt(Math.max(1, area[3] - area[1]));
+            hits += index.getRange(x, y, x + width, y + height, scale).size();
+        }
+        long time = System.nanoTime() - start;
+        // Keep the queries from being optimized away
+        if (hits < 0) System.out.println(hits);
+        return time;
+    }
+
+    /**
+     * @return the size of the xml in bytes, uncompressed if the file is zipped
+     */
+    static long xmlSize(String filename) throws IOException {
+        if (!filename.endsWith(".zip")) return new File(filename).length();
+        try (ZipFile zip = new ZipFile(filename)) {
+            return zip.entries().nextElement().getSize();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package edu.itu.the_d.map;
 
 import edu.itu.the_d.map.controller.MapViewController;
 import edu.itu.the_d.map.controller.ViewController;
+import edu.itu.the_d.map.dataprocessing.IngestFilter;
 import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.mapobjects.ColorTheme;
 import edu.itu.the_d.map.utils.*;
@@ -33,9 +34,45 @@ public class Main {
 
         ColorTheme.setDefaultTheme();
         long t1 = System.currentTimeMillis();
+        // Options after the file name: "twopass" only keeps the nodes of the drawn ways, which takes far less memory.
+        // "bbox=minlat,minlon,maxlat,maxlon" only loads the given area, "tags=key,key" only the ways and relations
+        // with one of the keys, and "crossing=drop|clip|keep" decides what happens to ways leaving the area.
+        // "osc=file,file" applies osm change files to the map after it's loaded, and "compact" then compacts the 2d-trees,
+        // or "rtree" replaces them by packed R-trees. "mapped" keeps the nodes in a memory-mapped file instead of on the
+        // heap, for files with more nodes than fit in it.
+        boolean twoPass = false, compact = false, rtree = false, mapped = false;
+        String bbox = null, tags = null, changes = null;
+        IngestFilter.CrossingPolicy crossing = IngestFilter.CrossingPolicy.CLIP;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("twopass")) twoPass = true;
+            else if (args[i].equals("compact")) compact = true;
+            else if (args[i].equals("rtree")) rtree = true;
+            else if (args[i].equals("mapped")) mapped = true;
+            else if (args[i].startsWith("bbox=")) bbox = args[i].substring(5);
+            else if (args[i].startsWith("tags=")) tags = args[i].substring(5);
+            else if (args[i].startsWith("osc=")) changes = args[i].substring(4);
+            else if (args[i].startsWith("crossing=")) {
+                try {
+                    crossing = IngestFilter.CrossingPolicy.valueOf(args[i].substring(9).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Unknown crossing policy \"" + args[i].substring(9) + "\", use crossing=drop|clip|keep");
+                    System.exit(1);
+                }
+            }
+        }
+        IngestFilter filter = null;
+        if (bbox != null) {
+            String[] b = bbox.split(",");
+            filter = IngestFilter.bbox(Double.parseDouble(b[0]), Double.parseDouble(b[1]), Double.parseDouble(b[2]),
+                    Double.parseDouble(b[3]), crossing, tags != null ? tags.split(",") : new String[0]);
+        } else if (tags != null) {
+            // Without a bounding box the whole world is the area
+            filter = IngestFilter.bbox(-90, -180, 90, 180, crossing, tags.split(","));
+        }
+
         try {
-            if (args[0].equals("default")) new Main().run(null);
-            else new Main().run(args[0]);
+            if (args[0].equals("default")) new Main().run(null, false, false, null, null, false, false);
+            else new Main().run(args[0], twoPass, mapped, filter, changes != null ? changes.split(",") : new String[0], compact, rtree);
         } catch (Exception e) {
             LoadingView.turnOff();
             e.printStackTrace();
@@ -43,7 +80,7 @@ public class Main {
         Debugger.print(User.GLOBAL, System.currentTimeMillis() - t1 + " ms to load.");
     }
 
-    private void run(String filename) {
+    private void run(String filename, boolean twoPass, boolean mapped, IngestFilter filter, String[] changes, boolean compact, boolean rtree) throws IOException {
 		/**
          * The following try-catch is taken from <a href="https://gist.githubusercontent.com/bchapuis/1562406/raw/e0c485675ef6e14c233ba9177005812a171b0431/dockicon.java">Github.com</a>
          * and is a lame but nessecary hack make the application able to compile on non-windows machines
@@ -67,7 +104,10 @@ public class Main {
             // log exception
         }
 
-        Model m = Model.createModel(filename);
+        Model m = Model.createModel(filename, twoPass, filter, mapped);
+        if (changes != null) for (String change : changes) m.applyChanges(change);
+        if (rtree) m.packIndex();
+        else if (compact) m.compactIndex();
         MapView mv = new MapView(m);
         View v = new View(m, mv);
         mv.setView(v);
@@ -5,6 +5,7 @@ import edu.itu.the_d.map.datastructures.Dijkstra;
 import edu.itu.the_d.map.datastructures.NoPathFoundException;
 import edu.itu.the_d.map.datastructures.VehicleType;
 import edu.itu.the_d.map.model.Model;
+import edu.itu.the_d.map.model.Pin;
 import edu.itu.the_d.map.model.mapobjects.Address;
 import edu.itu.the_d.map.model.mapobjects.ColorTheme;
 import edu.itu.the_d.map.utils.Debugger;
@@ -514,7 +515,7 @@ public class ViewController implements KeyListener {
 	}
 
 	/**
-	 * Load OBJ, osm or xml files.
+	 * Load OBJ, osm, xml or pbf files.
 	 */
 	public void openL() {
 		String fileloc;
@@ -523,11 +524,13 @@ public class ViewController implements KeyListener {
 		if (rVal == JFileChooser.APPROVE_OPTION) {
 			fileloc = fileChooser.getSelectedFile().getName();
 			File file = fileChooser.getCurrentDirectory();
-			if (fileloc.endsWith(".osm") || fileloc.endsWith(".xml") || fileloc.endsWith(".obj")) {
+			if (fileloc.endsWith(".osm") || fileloc.endsWith(".xml") || fileloc.endsWith(".pbf") || fileloc.endsWith(".obj")) {
 				String c = file + "/" + fileloc;
 				view.setVisible(false);
 				view.dispose();
 
+				// Release the nodes kept outside the heap, which the garbage collector doesn't see
+				m.objectMap.close();
 				m.objectMap = null;
 				m.addressSearcher = null;
 				m.setGraph(null);
@@ -571,13 +574,15 @@ public class ViewController implements KeyListener {
 			return;
 		}
 		// Get nearest road ID from point
-		long fromID = m.nearestNeighbor(view.getAddressFrom().getPoint(), Dijkstra.getVehicleType()).getId();
-		long toID = m.nearestNeighbor(view.getAddressTo().getPoint(), Dijkstra.getVehicleType()).getId();
+		Pin from = m.nearestNeighbor(view.getAddressFrom().getPoint(), Dijkstra.getVehicleType());
+		Pin to = m.nearestNeighbor(view.getAddressTo().getPoint(), Dijkstra.getVehicleType());
+		long fromID = from.getId();
+		long toID = to.getId();
 
 		Debugger.print(User.JANB, Dijkstra.getVehicleType());
 		Debugger.print(User.JANB, "From: "+ fromID +" | to: "+ toID);
-		Debugger.print(User.JANB, "From Type: "+ m.objectMap.getRoad(fromID).getType());
-		Debugger.print(User.JANB, "To Type: "+ m.objectMap.getRoad(fromID).getType());
+		Debugger.print(User.JANB, "From Road: "+ from.getName());
+		Debugger.print(User.JANB, "To Road: "+ to.getName());
 
 
 		// Set pin positions
@@ -0,0 +1,345 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import edu.itu.the_d.map.datastructures.MutableSpatialIndex;
+import edu.itu.the_d.map.datastructures.Pair;
+import edu.itu.the_d.map.datastructures.SpatialIndex;
+import edu.itu.the_d.map.datastructures.WayEdge;
+import edu.itu.the_d.map.datastructures.WayUndirectedGraph;
+import edu.itu.the_d.map.datastructures.ZoomLayeredIndex;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.WayObjectMap;
+import edu.itu.the_d.map.model.Model;
+import edu.itu.the_d.map.model.mapobjects.Address;
+import edu.itu.the_d.map.model.mapobjects.AddressSearcher;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+import edu.itu.the_d.map.model.mapobjects.Road;
+import edu.itu.the_d.map.utils.Debugger;
+import edu.itu.the_d.map.utils.Haversine;
+import edu.itu.the_d.map.utils.User;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+
+/**
+ * <p>
+ * Applies the changes of an osm change file to a loaded {@link Model}, so a map can be kept up to date with the daily
+ * diffs without loading it again. Changed nodes are moved in the objectMap, changed ways are converted by the
+ * {@link MapObjectFactory} and replace the old {@link Road}s and {@link edu.itu.the_d.map.model.mapobjects.Region}s in
+ * the spatial index, the edges of roads are replaced in the graph, and the addresses of changed nodes are updated.
+ * </p>
+ * <p>
+ * The changes are applied in the order needed for the references to be valid: first created and modified nodes, then
+ * ways, and last deleted nodes. Roads referencing a moved node are rebuilt at the new coordinates even if their way
+ * isn't in the change file. Regions are only rebuilt when their own way changes, since they don't keep their
+ * references. Relations and coastlines are skipped, as they're merged from several ways while loading.
+ * </p>
+ * <p>
+ * To find the objects of a way the applier indexes the spatial index by way id the first time it's used. The roads on
+ * a moved node are found in the spatial index at the old location of the node, so no index of the roads by node is
+ * kept. The index isn't rebalanced, so after many change files the map should be loaded again.
+ * </p>
+ * <p>
+ * The changes are made to copies of the spatial index, the objectMap, the graph and the address searcher (see
+ * {@link MutableSpatialIndex#copy()}, {@link IdMap#copy()}, {@link WayUndirectedGraph#copy(IdMap)} and
+ * {@link AddressSearcher#copy()}), which replace the model's when they've all been applied, so tiles can be drawn,
+ * nodes looked up, routes found and addresses searched in the old ones meanwhile.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see OSCParser
+ */
+public class ChangeApplier {
+    private final Model model;
+    private final MapObjectFactory factory;
+
+    // The copies of the spatial index, objectMap and graph the changes are made to, while they're applied
+    private MutableSpatialIndex working;
+    private IdMap objectMap;
+    private WayUndirectedGraph graph;
+
+    // The map objects of each way, indexed from the spatial index when first needed
+    private WayObjectMap objectsByWay;
+
+    // Counts of the last change file
+    private int nodes, ways, rebuiltRoads, skipped;
+
+    /**
+     * Creates a new applier for the given model.
+     *
+     * @param model the loaded model to apply changes to
+     */
+    public ChangeApplier(Model model) {
+        this.model = model;
+        this.factory = new MapObjectFactory(model);
+    }
+
+    /**
+     * Applies the changes to the model. The spatial index, objectMap, graph and addresses of the model can be read
+     * while the changes are applied.
+     *
+     * @param changes the changes in the order of the change file
+     * @throws IllegalStateException if the model's index has been compacted, see {@link Model#compactIndex()}
+     */
+    public void apply(List<OSCParser.Change> changes) {
+        working = index().copy();
+        objectMap = model.objectMap.copy();
+        graph = model.getGraph().copy(objectMap);
+        if (objectsByWay == null) indexWays();
+        nodes = ways = rebuiltRoads = skipped = 0;
+        Map<String, Address> addresses = new HashMap<>();
+        Set<Point2D.Float> removedAddresses = new HashSet<>();
+
+        // Nodes first, so the ways can reference them. Moved nodes are kept with their old location
+        Map<Long, Point2D> moved = new LinkedHashMap<>();
+        for (OSCParser.Change change : changes) {
+            if (change.osmObject.getType() != OSMType.NODE || change.action == OSCParser.Action.DELETE) continue;
+            OSMObject node = change.osmObject;
+            float x = node.getLon() * model.lonfactor;
+            float y = -node.getLat();
+            Point2D old = objectMap.get(node.getId());
+            if (old != null) {
+                removedAddresses.add(new Point2D.Float((float) old.getX(), (float) old.getY()));
+                objectMap.move(node.getId(), x, y);
+                if (objectMap.isVertex(node.getId())) graph.setLocation(graph.getIndex(node.getId()), x, y);
+                moved.putIfAbsent(node.getId(), old);
+            } else objectMap.put(node.getId(), x, y, false);
+            factory.addToSearchList(node, addresses);
+            nodes++;
+        }
+
+        // Roads made from the change file are already at the new coordinates of the nodes
+        Set<Road> fresh = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (OSCParser.Change change : changes) {
+            switch (change.osmObject.getType()) {
+                case WAY:
+                    removeWay(change.osmObject.getId());
+                    if (change.action != OSCParser.Action.DELETE) addWay(change.osmObject, fresh);
+                    ways++;
+                    break;
+                case RELATION:
+                    skipped++;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (Map.Entry<Long, Point2D> node : moved.entrySet()) {
+            for (Road road : roadsAt(node.getKey(), node.getValue())) {
+                if (fresh.add(road)) fresh.add(rebuildRoad(road));
+            }
+        }
+
+        // Nodes are deleted last, when no way references them any more
+        for (OSCParser.Change change : changes) {
+            if (change.osmObject.getType() != OSMType.NODE || change.action != OSCParser.Action.DELETE) continue;
+            Point2D old = objectMap.get(change.osmObject.getId());
+            if (old == null) continue;
+            removedAddresses.add(new Point2D.Float((float) old.getX(), (float) old.getY()));
+            objectMap.remove(change.osmObject.getId());
+            nodes++;
+        }
+
+        AddressSearcher searcher = model.addressSearcher.copy();
+        searcher.update(addresses, removedAddresses);
+        model.publishChanges(objectMap, graph, searcher, working);
+        working = null;
+        objectMap = null;
+        graph = null;
+        Debugger.print(User.AESK, "Applied changes: " + nodes + " nodes, " + ways + " ways, " + rebuiltRoads +
+                " rebuilt roads, " + skipped + " skipped");
+    }
+
+    /**
+     * @return the spatial index of the model
+     * @throws IllegalStateException if the model's index has been compacted, which can't be changed
+     */
+    private MutableSpatialIndex index() {
+        SpatialIndex index = model.getTreeRef();
+        if (!(index instanceof MutableSpatialIndex) || index instanceof ZoomLayeredIndex && ((ZoomLayeredIndex) index).isCompact())
+            throw new IllegalStateException("Changes can't be applied to a compacted index");
+        return (MutableSpatialIndex) index;
+    }
+
+    /**
+     * Indexes the map objects of the spatial index by the way they were made from.
+     */
+    private void indexWays() {
+        SpatialIndex index = model.getTreeRef();
+        objectsByWay = new WayObjectMap(index.size());
+        index.forEach(obj -> {
+            if (obj.getOsmId() != 0) objectsByWay.add(obj.getOsmId(), obj);
+        });
+    }
+
+    /**
+     * Finds the roads referencing a node in the spatial index. The bounding box of a road holds every one of its nodes,
+     * so the roads are found by a query of the location of the node when the roads were made.
+     *
+     * @param id       the id of the node
+     * @param location the location of the node when the roads were made
+     * @return the roads referencing the node
+     */
+    private List<Road> roadsAt(long id, Point2D location) {
+        int lon = (int) (location.getX() * Math.pow(10, 7));
+        int lat = (int) -(location.getY() * Math.pow(10, 7));
+        List<Road> roads = new ArrayList<>();
+        working.query(lon - 1, lat - 1, lon + 1, lat + 1, Integer.MAX_VALUE, obj -> {
+            if (!(obj instanceof Road)) return;
+            for (long ref : ((Road) obj).getRefs()) {
+                if (ref == id) {
+                    roads.add((Road) obj);
+                    return;
+                }
+            }
+        });
+        return roads;
+    }
+
+    /**
+     * Removes the map objects of a way from the spatial index, along with the edges and node references of its roads.
+     *
+     * @param id the id of the way
+     */
+    private void removeWay(long id) {
+        MapObject[] objects = objectsByWay.remove(id);
+        if (objects == null) return;
+        for (MapObject obj : objects) {
+            working.remove(obj);
+            if (!(obj instanceof Road)) continue;
+            for (WayEdge edge : edgesOf((Road) obj)) {
+                graph.removeEdge(edge);
+                if (edge.getRoad() >= 0) graph.setRoad(edge.getRoad(), null);
+            }
+        }
+    }
+
+    /**
+     * Converts a created or modified way and adds its map objects to the spatial index and its edges to the graph. Ways
+     * referencing nodes that aren't in the objectMap, and coastlines, are skipped.
+     *
+     * @param way   the way from the change file
+     * @param fresh the roads made from the change file, which the new roads are added to
+     */
+    private void addWay(OSMObject way, Set<Road> fresh) {
+        if (!MapObjectFactory.isDrawn(way)) return;
+        if (way.getRefSize() < 2) {
+            skipped++;
+            return;
+        }
+        for (int i = 0; i < way.getRefSize(); i++) {
+            if (!objectMap.containsKey(way.getRef(i))) {
+                skipped++;
+                return;
+            }
+        }
+
+        if (way.hasTag(TagDictionary.HIGHWAY)) {
+            // Nodes first used by this way become vertices in the graph
+            for (int i = 0; i < way.getRefSize(); i++) {
+                if (objectMap.makeVertex(way.getRef(i))) graph.addVertex(way.getRef(i));
+            }
+        }
+
+        MapObjectFactory.WayBatch batch = factory.convertChangedWay(way, objectMap, graph);
+        if (!batch.coastlines.isEmpty()) {
+            skipped++;
+            return;
+        }
+        MapObject[] objects = new MapObject[batch.output.size()];
+        for (int i = 0; i < objects.length; i++) {
+            Pair<int[], MapObject> output = batch.output.get(i);
+            working.insert(output.valA, output.valB);
+            objects[i] = output.valB;
+        }
+        batch.addEdgesTo(graph);
+        fresh.addAll(batch.roads);
+        objectsByWay.put(way.getId(), objects);
+    }
+
+    /**
+     * Replaces a road by a copy at the current coordinates of its nodes, and reweighs its edges.
+     *
+     * @param road the road with moved nodes
+     * @return the rebuilt road
+     */
+    private Road rebuildRoad(Road road) {
+        Pair<int[], MapObject> rebuilt = factory.rebuildRoad(road, objectMap);
+        Road copy = (Road) rebuilt.valB;
+        working.remove(road);
+        working.insert(rebuilt.valA, copy);
+
+        MapObject[] objects = objectsByWay.get(road.getOsmId());
+        if (objects != null) {
+            for (int i = 0; i < objects.length; i++) if (objects[i] == road) objects[i] = copy;
+        }
+
+        for (WayEdge edge : edgesOf(road)) {
+            Point2D from = graph.getPoint(edge.fromV);
+            Point2D to = graph.getPoint(edge.toV);
+            float euclidDistance = (float) to.distance(from);
+            // Keep the speed of the old edge, which may come from a maxspeed tag
+            double speed = edge.timeWeight > 0 ? edge.euclidWeight / edge.timeWeight : road.getType().getDefaultSpeed();
+            graph.removeEdge(edge);
+            // The new edge keeps the place of the road in the road table, which now holds the copy
+            if (edge.getRoad() >= 0) graph.setRoad(edge.getRoad(), copy);
+            graph.addEdge(new WayEdge(edge.fromV, edge.toV, (float) (euclidDistance / speed), euclidDistance,
+                    (float) Haversine.distanceInMeters(from, to), edge.getDirFlags()), edge.getRoad());
+        }
+        rebuiltRoads++;
+        return copy;
+    }
+
+    /**
+     * Finds the edges of a road in the graph. Roads only have edges between consecutive nodes that are both vertices,
+     * and railways and waterways don't have any. Ways sharing consecutive nodes each have an edge between them, so the
+     * edges are matched by their road in the road table as well as by their vertices.
+     *
+     * @param road the road
+     * @return the edges of the road
+     */
+    private List<WayEdge> edgesOf(Road road) {
+        List<WayEdge> edges = new ArrayList<>();
+        long[] refs = road.getRefs();
+        for (int i = 1; i < refs.length; i++) {
+            if (!objectMap.isVertex(refs[i - 1]) || !objectMap.isVertex(refs[i])) continue;
+            int from = graph.getIndex(refs[i - 1]);
+            int to = graph.getIndex(refs[i]);
+            for (WayEdge edge : graph.adj(from)) {
+                if (edge.fromV == from && edge.toV == to && graph.getRoad(edge) == road) {
+                    edges.add(edge);
+                    break;
+                }
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * @return the number of nodes created, moved or deleted by the last change file
+     */
+    public int getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of ways created, modified or deleted by the last change file
+     */
+    public int getWayCount() {
+        return ways;
+    }
+
+    /**
+     * @return the number of roads rebuilt because their nodes were moved by the last change file
+     */
+    public int getRebuiltRoadCount() {
+        return rebuiltRoads;
+    }
+
+    /**
+     * @return the number of ways and relations of the last change file that couldn't be applied
+     */
+    public int getSkippedCount() {
+        return skipped;
+    }
+}
@@ -0,0 +1,203 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Bounded pipe between two stages of the ingestion, for instance the parser and the {@link MapObjectFactory}. The
+ * producer puts elements one at a time, but they're handed over in chunks of {@link #CHUNK_SIZE} elements through a
+ * bounded ring buffer of chunks, so the two threads only synchronize once per chunk rather than once per element. When
+ * the producer is done it closes the pipe, which hands over the last partial chunk followed by an end marker. The
+ * consumer simply takes elements until it gets null, so neither side polls or watches a separate end signal.
+ * </p>
+ * <p>
+ * Emptied chunks are returned to the producer and reused. The pipe counts how often, and for how long, each side had
+ * to wait for the other: a producer stall means the ring buffer was full (the consumer is the bottleneck), and a
+ * consumer stall means it was empty (the producer is the bottleneck). See {@link #getStallReport()}.
+ * </p>
+ * <p>
+ * The pipe supports one producer thread and one consumer thread.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @param <T> the type of the elements
+ * @see Dispatcher
+ */
+public class ChunkPipe<T> {
+    /**
+     * Number of elements per chunk.
+     */
+    public static final int CHUNK_SIZE = 4096;
+    // Marks the end of the stream. Identity is all that matters.
+    private static final Object[] END = new Object[0];
+
+    private final String name;
+    private final BlockingQueue<Object[]> chunks;
+    private final BlockingQueue<Object[]> emptyChunks;
+
+    // Producer side
+    private Object[] writeChunk;
+    private int writeIndex;
+    private boolean closed;
+
+    // Consumer side. A chunk ends at its first null.
+    private Object[] readChunk;
+    private int readIndex;
+    private boolean ended;
+
+    // Written by one side each, read by anyone
+    private volatile long elements, chunkCount;
+    private volatile long producerStalls, producerStallNanos;
+    private volatile long consumerStalls, consumerStallNanos;
+
+    /**
+     * Creates a new pipe which holds at most the given number of elements between the two stages. The capacity is
+     * rounded up to whole chunks.
+     *
+     * @param name     name of the pipe, used in the stall report
+     * @param capacity the number of elements that may be in the pipe at once
+     */
+    public ChunkPipe(String name, int capacity) {
+        this.name = name;
+        int chunkCapacity = Math.max(1, (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        // One slot more than the capacity, so the end marker always fits after the last chunk
+        this.chunks = new ArrayBlockingQueue<>(chunkCapacity + 1);
+        this.emptyChunks = new ArrayBlockingQueue<>(chunkCapacity + 1);
+    }
+
+    /**
+     * Adds an element to the pipe. The element is handed to the consumer once its chunk is full, waiting for room in
+     * the ring buffer if necessary.
+     *
+     * @param element the element, not null
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public void put(T element) throws InterruptedException {
+        if (closed) throw new IllegalStateException("Pipe " + name + " is closed");
+        if (writeChunk == null) {
+            writeChunk = emptyChunks.poll();
+            if (writeChunk == null) writeChunk = new Object[CHUNK_SIZE];
+        }
+        writeChunk[writeIndex++] = element;
+        if (writeIndex == CHUNK_SIZE) flush();
+    }
+
+    /**
+     * Hands the current chunk to the consumer, even if it isn't full.
+     *
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public void flush() throws InterruptedException {
+        if (writeChunk == null) return;
+        elements += writeIndex;
+        chunkCount++;
+        handOver(writeChunk);
+        writeChunk = null;
+        writeIndex = 0;
+    }
+
+    /**
+     * Hands over the remaining elements followed by the end marker. Nothing can be put into the pipe afterwards.
+     *
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public void close() throws InterruptedException {
+        if (closed) return;
+        flush();
+        closed = true;
+        handOver(END);
+    }
+
+    /**
+     * Puts a chunk into the ring buffer, counting a stall if it's full.
+     */
+    private void handOver(Object[] chunk) throws InterruptedException {
+        if (chunks.offer(chunk)) return;
+        long start = System.nanoTime();
+        chunks.put(chunk);
+        producerStalls++;
+        producerStallNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Takes the next element from the pipe, waiting for the producer if necessary.
+     *
+     * @return the next element, or null once the pipe is closed and every element has been taken
+     * @throws InterruptedException if interrupted while waiting for the producer
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws InterruptedException {
+        if (readChunk != null) {
+            if (readIndex < readChunk.length && readChunk[readIndex] != null) return (T) readChunk[readIndex++];
+            // The chunk is used up, so give it back to the producer
+            Arrays.fill(readChunk, 0, readIndex, null);
+            emptyChunks.offer(readChunk);
+            readChunk = null;
+        }
+        if (ended) return null;
+
+        Object[] chunk = chunks.poll();
+        if (chunk == null) {
+            long start = System.nanoTime();
+            chunk = chunks.take();
+            consumerStalls++;
+            consumerStallNanos += System.nanoTime() - start;
+        }
+        if (chunk == END) {
+            ended = true;
+            return null;
+        }
+        readChunk = chunk;
+        readIndex = 0;
+        return take();
+    }
+
+    /**
+     * Takes every remaining element from the pipe and adds it to the given collection. Returns once the pipe has been
+     * closed by the producer.
+     *
+     * @param collection the collection to add the elements to
+     * @return the number of elements added
+     * @throws InterruptedException if interrupted while waiting for the producer
+     */
+    public int drainTo(Collection<? super T> collection) throws InterruptedException {
+        int count = 0;
+        T element;
+        while ((element = take()) != null) {
+            collection.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times the producer had to wait for room in the ring buffer.
+     *
+     * @return the number of producer stalls
+     */
+    public long getProducerStalls() {
+        return producerStalls;
+    }
+
+    /**
+     * Returns the number of times the consumer had to wait for a chunk.
+     *
+     * @return the number of consumer stalls
+     */
+    public long getConsumerStalls() {
+        return consumerStalls;
+    }
+
+    /**
+     * Describes how many elements went through the pipe and how long each side spent waiting for the other.
+     *
+     * @return the stall report
+     */
+    public String getStallReport() {
+        return String.format("%s: %d elements in %d chunks, producer stalled %d times (%d ms), consumer stalled %d times (%d ms)",
+                name, elements, chunkCount, producerStalls, producerStallNanos / 1000000, consumerStalls, consumerStallNanos / 1000000);
+    }
+}
@@ -0,0 +1,107 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import edu.itu.the_d.map.datastructures.Pair;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+import edu.itu.the_d.map.model.mapobjects.Region;
+import edu.itu.the_d.map.model.mapobjects.RegionType;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits merged coastlines into chunks that can be put in a spatial index. A merged coastline is the outline of a whole
+ * island, so its bounding box covers most of the map and every tile would have to draw all of it. The chunker clips
+ * the filled area of each coastline to cells of a quadtree: a cell whose part of the coastline has more than
+ * {@link #MAX_CHUNK_SEGMENTS} segments is split in four, until the cells are {@link #MIN_CELL_SIZE} wide. Each chunk
+ * gets the bounds of its cell, so a tile only receives the chunks it overlaps.
+ * <p>
+ * Coastlines are only filled (see {@link Region#drawOutline(java.awt.Graphics2D)}), so the cut edges are never drawn.
+ * The cells overlap by {@link #OVERLAP} so antialiasing doesn't leave seams between neighbouring chunks.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class CoastlineChunker {
+    /**
+     * Maximum number of path segments in a chunk, unless its cell is already as small as allowed.
+     */
+    public static final int MAX_CHUNK_SEGMENTS = 256;
+    /**
+     * Minimum width and height of a cell in map units.
+     */
+    public static final double MIN_CELL_SIZE = 0.005;
+    /**
+     * Distance in map units that each cell is extended by on every side.
+     */
+    public static final double OVERLAP = 0.00001;
+
+    private CoastlineChunker() {
+    }
+
+    /**
+     * Splits each coastline into chunks.
+     *
+     * @param coastlines the coastlines, along with their bounds in tree coordinates
+     * @return the chunks, along with their bounds in tree coordinates
+     */
+    public static List<Pair<int[], MapObject>> chunk(List<Pair<int[], MapObject>> coastlines) {
+        List<Pair<int[], MapObject>> chunks = new ArrayList<>();
+        for (Pair<int[], MapObject> coastline : coastlines) {
+            Area area = new Area(coastline.valB.getShape());
+            chunk(area, area.getBounds2D(), chunks);
+        }
+        return chunks;
+    }
+
+    /**
+     * Adds the part of the area within the cell as a chunk, or splits the cell in four if the part is too detailed.
+     *
+     * @param area   the part of the coastline within the cell, possibly extending beyond it
+     * @param cell   the cell
+     * @param chunks the list to add the chunks to
+     */
+    private static void chunk(Area area, Rectangle2D cell, List<Pair<int[], MapObject>> chunks) {
+        Area clipped = new Area(new Rectangle2D.Double(cell.getX() - OVERLAP, cell.getY() - OVERLAP,
+                cell.getWidth() + 2 * OVERLAP, cell.getHeight() + 2 * OVERLAP));
+        clipped.intersect(area);
+        if (clipped.isEmpty()) return;
+
+        double w = cell.getWidth() / 2, h = cell.getHeight() / 2;
+        if (segments(clipped) <= MAX_CHUNK_SEGMENTS || (w < MIN_CELL_SIZE && h < MIN_CELL_SIZE)) {
+            chunks.add(toChunk(clipped));
+            return;
+        }
+        double x = cell.getX(), y = cell.getY();
+        chunk(clipped, new Rectangle2D.Double(x, y, w, h), chunks);
+        chunk(clipped, new Rectangle2D.Double(x + w, y, w, h), chunks);
+        chunk(clipped, new Rectangle2D.Double(x, y + h, w, h), chunks);
+        chunk(clipped, new Rectangle2D.Double(x + w, y + h, w, h), chunks);
+    }
+
+    /**
+     * @return the number of segments of the outline of the area
+     */
+    private static int segments(Area area) {
+        int count = 0;
+        for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) count++;
+        return count;
+    }
+
+    /**
+     * Creates a coastline region of the clipped area, with its bounds converted to tree coordinates like the bounds of
+     * the other map objects: longitudes are multiplied by 10^7 and latitudes by -10^7.
+     */
+    private static Pair<int[], MapObject> toChunk(Area clipped) {
+        Shape path = new Path2D.Float(clipped);
+        Rectangle2D bounds = path.getBounds2D();
+        int minLon = (int) (Math.pow(10, 7) * bounds.getMinX());
+        int minLat = (int) -(Math.pow(10, 7) * bounds.getMaxY());
+        int maxLon = (int) (Math.pow(10, 7) * bounds.getMaxX());
+        int maxLat = (int) -(Math.pow(10, 7) * bounds.getMinY());
+        return new Pair<>(new int[]{minLon, minLat, maxLon, maxLat}, new Region(minLat, minLon, RegionType.COASTLINE, path));
+    }
+}
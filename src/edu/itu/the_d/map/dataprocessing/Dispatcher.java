@@ -1,6 +1,7 @@
 package edu.itu.the_d.map.dataprocessing;
 
 import edu.itu.the_d.map.datastructures.TwoDTree;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
 import edu.itu.the_d.map.utils.Debugger;
 import edu.itu.the_d.map.utils.User;
 import edu.itu.the_d.map.datastructures.Pair;
@@ -8,13 +9,10 @@ import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.mapobjects.MapObject;
 import edu.itu.the_d.map.utils.LoadingView;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>
- * Class for orchestrating the construction of a model object from an .osm file. This happens through its only method
+ * Class for orchestrating the construction of a model object from an .osm, .zip or .pbf file. This happens through its only method
  * {@link #constructModelFromOSMFile(String, long, Model)}.
  * </p>
  * <p>
@@ -24,29 +22,30 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * </p>
  * <p>
  * The class itself mainly sets up the required environment for the {@link OSMParser}, {@link MapObjectFactory}, and {@link Structurer} to run.
- * Most importantly it creates two blocking queues for conveying information between the three threads. The osm object queue is filled by the parser
- * and consumed by the map object factory, and the map object queue is filled by the map object factory and consumed by the structurer.
+ * Most importantly it creates two {@link ChunkPipe}s for conveying information between the three threads. The osm object pipe is filled by the parser
+ * and consumed by the map object factory, and the map object pipe is filled by the map object factory and consumed by the structurer.
  * Thus the osm data is first converted by the parser to an internal representation of osm data {@link OSMObject}s, and then by the map object
  * factory these objects are converted to their final form {@link MapObject}s. Finally the structurer prepares and executes the construction of the final
- * data structures, namely {@link TwoDTree}.
+ * data structures, namely {@link TwoDTree}. For .pbf files the {@link PBFParser} takes the place of the {@link OSMParser}.
  * </p>
  * <p>
  * Because we don't want to handle both and enormous number of osm objects and map objects, these tasks run synchronously. In order for this to work,
- * the dispatcher creates the thread-safe blocking queues for sending information between threads, as well as a pair of {@link AtomicBoolean} variables
- * enabling the threads to signal each other when they finish their task.
+ * the dispatcher creates the thread-safe pipes for sending information between threads in chunks. Each thread closes its output pipe
+ * when it finishes its task, which signals the next thread that there's nothing more to come.
  * </p>
  *
  * Copyright 2016 The-D
  *
  * @see OSMParser
+ * @see PBFParser
  * @see MapObjectFactory
  * @see Structurer
  * @see TwoDTree
- * @see BlockingQueue
- * @see AtomicBoolean
+ * @see ChunkPipe
  */
 public class Dispatcher {
     private static final int QUEUE_SIZE = 1000000;
+    private static final int POOL_SIZE = 1 << 16;
 
     /**
      * This is the only method of this class and orchestrates the construction of the model object. See the class description for details.
@@ -55,19 +54,55 @@ public class Dispatcher {
      * @param modelRef a reference to a new model object. This is necessary since the reference is shared across threads.
      */
     public static void constructModelFromOSMFile(String filename, long s, Model modelRef) {
-        // Two blocking queues for passing information between the threads
-        BlockingQueue<OSMObject> osmobjQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-        BlockingQueue<Pair<int[], MapObject>> mapobjQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        constructModelFromOSMFile(filename, s, modelRef, false);
+    }
 
-        // Two atomic booleans for signalling other threads that the current one is finished
-        AtomicBoolean endOfParseSignal = new AtomicBoolean(false);
-        AtomicBoolean endOfConversionSignal = new AtomicBoolean(false);
+    /**
+     * Orchestrates the construction of the model object, optionally in two passes over the file. The first pass only
+     * finds the ways that are kept and the nodes they reference (see {@link ReferencedNodes}), so the second pass can
+     * leave out every other node and only make graph vertices of highway nodes. This reads the file twice, but takes
+     * far less memory and a much smaller graph.
+     *
+     * @param filename the path and name of the osm file to load
+     * @param modelRef a reference to a new model object. This is necessary since the reference is shared across threads.
+     * @param twoPass  whether to read the file twice and only keep the referenced nodes
+     */
+    public static void constructModelFromOSMFile(String filename, long s, Model modelRef, boolean twoPass) {
+        constructModelFromOSMFile(filename, s, modelRef, twoPass, null);
+    }
 
+    /**
+     * Orchestrates the construction of the model object from the part of the file accepted by the given filter. The
+     * parsers drop the rejected elements before they're put into the pipe. Keeping ways that cross the boundary of the
+     * area whole needs the nodes outside it they reference, so unless they're dropped that's always done in two passes.
+     * Clipping keeps closed ways and the ways of relations whole too.
+     *
+     * @param filename the path and name of the osm file to load
+     * @param modelRef a reference to a new model object. This is necessary since the reference is shared across threads.
+     * @param twoPass  whether to read the file twice and only keep the referenced nodes
+     * @param filter   the filter to read the file through, or null to load all of it
+     */
+    public static void constructModelFromOSMFile(String filename, long s, Model modelRef, boolean twoPass, IngestFilter filter) {
+        // Two pipes for passing information between the threads. Each is closed by its producer when it's finished
+        ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("OSM objects", QUEUE_SIZE);
+        ChunkPipe<Pair<int[], MapObject>> mapobjQueue = new ChunkPipe<>("Map objects", QUEUE_SIZE);
+
+        // The osm objects are recycled: the factory hands them back to the parser through the pool once converted
+        OSMObjectPool pool = new OSMObjectPool(POOL_SIZE);
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        ReferencedNodes referenced = null;
+        if (twoPass || filter != null && filter.getPolicy() != IngestFilter.CrossingPolicy.DROP) {
+            LoadingView.setInfoMsg("Finding the referenced nodes...");
+            referenced = ReferencedNodes.collect(filename, (int) (s / 234f / 16f), workers, pool, filter);
+            // Only the referenced nodes are put into the map, so it can be sized exactly, unless it keeps them in a store
+            if (!modelRef.objectMap.isMapped()) modelRef.objectMap = new IdMap(referenced.nodeCount());
+        }
 
         // Create the runnable objects
-        OSMParser parser = new OSMParser(filename, osmobjQueue, endOfParseSignal);
-        MapObjectFactory objectFactory = new MapObjectFactory(osmobjQueue, mapobjQueue, endOfParseSignal, endOfConversionSignal, modelRef, s);
-        Structurer structurer = new Structurer(mapobjQueue, modelRef, endOfConversionSignal);
+        Runnable parser = createParser(filename, osmobjQueue, workers, pool, filter);
+        MapObjectFactory objectFactory = new MapObjectFactory(osmobjQueue, mapobjQueue, modelRef, s, workers, pool, referenced, filter);
+        Structurer structurer = new Structurer(mapobjQueue, modelRef);
 
         // Create the threads responsible for executing the runnables
         Thread parserThread = new Thread(parser);
@@ -86,6 +121,25 @@ public class Dispatcher {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        // Show which stage had to wait for which
+        Debugger.print(User.AESK, osmobjQueue.getStallReport());
+        Debugger.print(User.AESK, mapobjQueue.getStallReport());
         Debugger.print(User.AESK, "Dataprocessing: All Done");
     }
+
+    /**
+     * Creates the parser for the given file. PBF files have their own parser, everything else is parsed as osm xml.
+     *
+     * @param filename the path and name of the osm file to load
+     * @param pipe     the pipe the parser puts the osm objects into
+     * @param workers  the number of threads the pbf parser decodes blocks with
+     * @param pool     the pool the parser takes its objects from
+     * @param filter   the filter the parsed objects must pass, or null
+     * @return the parser, which is run by a thread of its own
+     */
+    static Runnable createParser(String filename, ChunkPipe<OSMObject> pipe, int workers, OSMObjectPool pool, IngestFilter filter) {
+        return filename.endsWith(".pbf") ?
+                new PBFParser(filename, pipe, workers, pool, filter) :
+                new OSMParser(filename, pipe, OSMParser.SCANNER, pool, filter);
+    }
 }
@@ -0,0 +1,222 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.LongSet;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Filter for loading part of a larger osm file, for instance a city from a country file. The filter has an area (a
+ * bounding box or polygon in degrees, with the longitude as x and the latitude as y) and optionally an allow-list of
+ * tag keys. The parsers drop nodes outside the area, and ways and relations without any of the allowed keys, before
+ * they're put into the pipe, so unwanted elements never reach the {@link MapObjectFactory}.
+ * </p>
+ * <p>
+ * Ways crossing the boundary of the area are handled according to a {@link CrossingPolicy}. Ways without any of the
+ * tags the factory draws are let through regardless of the allow-list, since they may be parts of relations.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see Dispatcher
+ */
+public class IngestFilter {
+    /**
+     * What to do with ways that have nodes both inside and outside the area.
+     */
+    public enum CrossingPolicy {
+        /**
+         * Drop the way.
+         */
+        DROP,
+        /**
+         * Keep only the parts of the way inside the area. The way is split where it leaves the area. Closed ways and
+         * the ways of relations are outlines of areas, whose parts can't be filled on their own, so they're kept whole
+         * like with {@link #KEEP}.
+         */
+        CLIP,
+        /**
+         * Keep the whole way. This needs the nodes outside the area that the way references, so the file is read in
+         * two passes.
+         */
+        KEEP
+    }
+
+    private final Shape area;
+    private final CrossingPolicy policy;
+    // Allowed key codes, or null to allow every key
+    private final boolean[] allowedKeys;
+    // Nodes outside the area that are still needed, found by the first pass when keeping crossing ways
+    private final LongSet outsideNodes = new LongSet(1024);
+
+    /**
+     * Creates a new filter.
+     *
+     * @param area        the area to keep, with the longitude as x and the latitude as y
+     * @param policy      what to do with ways crossing the boundary of the area
+     * @param allowedKeys the tag keys that ways and relations must have one of, or none to allow every key
+     * @throws IllegalArgumentException if one of the keys isn't in the {@link TagDictionary}
+     */
+    public IngestFilter(Shape area, CrossingPolicy policy, String... allowedKeys) {
+        this.area = area;
+        this.policy = policy;
+        if (allowedKeys.length == 0) {
+            this.allowedKeys = null;
+            return;
+        }
+        this.allowedKeys = new boolean[TagDictionary.KEY_COUNT];
+        for (String key : allowedKeys) {
+            int code = TagDictionary.keyCode(key);
+            if (code == TagDictionary.UNKNOWN_KEY) throw new IllegalArgumentException("Unknown tag key " + key);
+            this.allowedKeys[code] = true;
+        }
+    }
+
+    /**
+     * Creates a new filter for a bounding box.
+     *
+     * @param minlat      the southern edge of the box
+     * @param minlon      the western edge of the box
+     * @param maxlat      the northern edge of the box
+     * @param maxlon      the eastern edge of the box
+     * @param policy      what to do with ways crossing the edges of the box
+     * @param allowedKeys the tag keys that ways and relations must have one of, or none to allow every key
+     * @return the filter
+     */
+    public static IngestFilter bbox(double minlat, double minlon, double maxlat, double maxlon, CrossingPolicy policy, String... allowedKeys) {
+        return new IngestFilter(new Rectangle2D.Double(minlon, minlat, maxlon - minlon, maxlat - minlat), policy, allowedKeys);
+    }
+
+    /**
+     * @return the policy for ways crossing the boundary of the area
+     */
+    public CrossingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the bounding box of the area, with the longitude as x and the latitude as y
+     */
+    public Rectangle2D getBounds() {
+        return area.getBounds2D();
+    }
+
+    /**
+     * Checks whether the node is inside the area.
+     *
+     * @param lat the latitude of the node
+     * @param lon the longitude of the node
+     * @return true if the node is inside
+     */
+    public boolean isInside(float lat, float lon) {
+        return area.contains(lon, lat);
+    }
+
+    /**
+     * Checks whether the parsers should put the object into the pipe. Nodes must be inside the area or be needed by a
+     * kept way, and ways and relations must have one of the allowed keys.
+     *
+     * @param osmObj the parsed object
+     * @return true if the object is let through
+     */
+    public boolean accepts(OSMObject osmObj) {
+        switch (osmObj.getType()) {
+            case NODE:
+                return isInside(osmObj.getLat(), osmObj.getLon()) || outsideNodes.contains(osmObj.getId());
+            case WAY:
+                // Ways which aren't drawn may be parts of relations, which are filtered by their own tags
+                return !MapObjectFactory.isDrawn(osmObj) || hasAllowedKey(osmObj);
+            case RELATION:
+                return hasAllowedKey(osmObj);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Checks whether the object has one of the allowed keys.
+     */
+    private boolean hasAllowedKey(OSMObject osmObj) {
+        if (allowedKeys == null) return true;
+        for (int key = 0; key < allowedKeys.length; key++) {
+            if (allowedKeys[key] && osmObj.hasTag(key)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a way crossing the boundary of the area is kept whole, rather than dropped or clipped.
+     *
+     * @param refs   the references of the way
+     * @param member whether the way is only kept as part of a relation
+     * @return true if the way needs its nodes outside the area
+     */
+    public boolean keepsWhole(long[] refs, boolean member) {
+        return policy == CrossingPolicy.KEEP || policy == CrossingPolicy.CLIP && (member || isClosed(refs));
+    }
+
+    /**
+     * @return true if the way ends where it starts, making it the outline of an area
+     */
+    private static boolean isClosed(long[] refs) {
+        return refs.length > 2 && refs[0] == refs[refs.length - 1];
+    }
+
+    /**
+     * Marks a node outside the area as needed by a kept way, so it's let through in the second pass.
+     *
+     * @param id the id of the node
+     */
+    void keepOutsideNode(long id) {
+        outsideNodes.add(id);
+    }
+
+    /**
+     * Applies the crossing policy to the references of a drawn way, given which nodes have been stored.
+     *
+     * @param refs      the references of the way
+     * @param objectMap the map holding the stored nodes
+     * @return the references of each part of the way to keep
+     * @see #clip(long[], boolean, IdMap)
+     */
+    public List<long[]> clip(long[] refs, IdMap objectMap) {
+        return clip(refs, false, objectMap);
+    }
+
+    /**
+     * Applies the crossing policy to the references of a way, given which nodes have been stored. A way whose nodes
+     * have all been stored is kept as it is, and a way without any of them is dropped. For a way crossing the
+     * boundary, {@link CrossingPolicy#DROP} drops the way, and the other policies keep each run of stored nodes with
+     * at least two nodes as a way of its own. A way that should have been kept whole (see
+     * {@link #keepsWhole(long[], boolean)}) but misses some of its nodes is dropped, since its parts would be filled
+     * as areas of their own.
+     *
+     * @param refs      the references of the way
+     * @param member    whether the way is only kept as part of a relation
+     * @param objectMap the map holding the stored nodes
+     * @return the references of each part of the way to keep
+     */
+    public List<long[]> clip(long[] refs, boolean member, IdMap objectMap) {
+        int stored = 0;
+        for (long ref : refs) if (objectMap.containsKey(ref)) stored++;
+        if (stored == refs.length) return Collections.singletonList(refs);
+        if (stored == 0 || policy == CrossingPolicy.DROP || keepsWhole(refs, member)) return Collections.emptyList();
+
+        List<long[]> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= refs.length; i++) {
+            if (i < refs.length && objectMap.containsKey(refs[i])) continue;
+            if (i - start >= 2) {
+                long[] part = new long[i - start];
+                System.arraycopy(refs, start, part, 0, part.length);
+                parts.add(part);
+            }
+            start = i + 1;
+        }
+        return parts;
+    }
+}
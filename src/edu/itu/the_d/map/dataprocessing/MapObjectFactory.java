@@ -1,6 +1,7 @@
 package edu.itu.the_d.map.dataprocessing;
 
 import edu.itu.the_d.map.datastructures.*;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
 import edu.itu.the_d.map.datastructures.nongeneric_maps.NameMap;
 import edu.itu.the_d.map.datastructures.nongeneric_maps.RelationWayMap;
 import edu.itu.the_d.map.model.Model;
@@ -17,46 +18,144 @@ import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>
  * Creates {@link MapObject}s from an input of {@link OSMObject}s. The convertion is based on the type of osm object
  * (node, way, etc.) and the type of object it represents on the map (coastline, road, etc.).
  * </p>
+ * <p>
+ * Nodes, bounds and relations are handled by the factory thread itself. Once the nodes are in the objectMap every way
+ * can be converted independently, so ways are collected in batches which are converted by a pool of worker threads.
+ * The workers write their results (map objects, graph edges, coastlines etc.) to a buffer per batch, and the factory
+ * thread merges the buffers into the output queue, graph and model in the order the ways were read. This keeps the
+ * result identical to converting the ways one at a time. Before any other object is handled, all pending batches are
+ * merged, so relations always see every way before them.
+ * </p>
  *
  * Copyright 2016 The-D
  */
 public class MapObjectFactory implements Runnable {
-    private HashMap<String, Address> l;
-    private BlockingQueue<OSMObject> inputQueue;
-    private BlockingQueue<Pair<int[], MapObject>> objOutputQueue;
+    private Map<String, Address> l;
+    private ChunkPipe<OSMObject> inputQueue;
+    private ChunkPipe<Pair<int[], MapObject>> objOutputQueue;
     private boolean boundsParsed, nodesParsed, waysParsed;
+    // Whether the input had bounds. Without them the bounds are the extent of the nodes, in degrees
+    private boolean boundsReceived;
+    private float nodeMinLon = Float.POSITIVE_INFINITY, nodeMinLat = Float.POSITIVE_INFINITY;
+    private float nodeMaxLon = Float.NEGATIVE_INFINITY, nodeMaxLat = Float.NEGATIVE_INFINITY;
     private RelationWayMap relationWayMap;
-    private AtomicBoolean endOfInput;
-    private AtomicBoolean endOfOutput;
     private long fsize;
     private Model modelRef;
 
     private static final int NAME_MAP_CAPACITY = 100000;
+    private static final int WAY_BATCH_SIZE = 1024;
+    // Number of way batches each worker may be ahead of the merging
+    private static final int BATCHES_PER_WORKER = 2;
+
+    // The tag values the factory checks for
+    private static final int MOTORWAY = TagDictionary.valueCode("motorway");
+    private static final int FOOTWAY = TagDictionary.valueCode("footway");
+    private static final int CYCLEWAY = TagDictionary.valueCode("cycleway");
+    private static final int PATH = TagDictionary.valueCode("path");
+    private static final int NO = TagDictionary.valueCode("no");
+    private static final int SUBWAY = TagDictionary.valueCode("subway");
+    private static final int COASTLINE = TagDictionary.valueCode("coastline");
+    private static final int VILLAGE = TagDictionary.valueCode("village");
+    private static final int CITY = TagDictionary.valueCode("city");
+    private static final int TOWN = TagDictionary.valueCode("town");
+
+    // Road types, region types and one-way directions of the tag values, indexed by value code
+    private static final RoadType[] ROAD_TYPES = new RoadType[TagDictionary.VALUE_COUNT];
+    private static final RegionType[] REGION_TYPES = new RegionType[TagDictionary.VALUE_COUNT];
+    private static final int[] DIRECTIONS = new int[TagDictionary.VALUE_COUNT];
+
+    static {
+        for (int value = 0; value < TagDictionary.VALUE_COUNT; value++) {
+            ROAD_TYPES[value] = getRoadType(TagDictionary.value(value));
+            REGION_TYPES[value] = getRegionType(TagDictionary.value(value));
+            DIRECTIONS[value] = getDirection(TagDictionary.value(value));
+        }
+    }
+
+    private final int workers;
+    private final OSMObjectPool pool;
+    private final ReferencedNodes referenced;
+    private final IngestFilter filter;
+    private ExecutorService wayWorkers;
+    private List<OSMObject> wayBatch = new ArrayList<>(WAY_BATCH_SIZE);
+    private ArrayDeque<Future<WayBatch>> pendingWays = new ArrayDeque<>();
+    private NameMap nameMap;
+    private List<CoastlineObject> coastlines;
+    // The node map and graph ways are converted against: the model's while loading, or the copies a change file is
+    // applied to
+    private IdMap objectMap;
+    private WayUndirectedGraph graph;
 
     /**
-     * Creates a new map object factory with references to a number of different queues and signals, and a reference to
-     * the model object.
+     * Creates a new map object factory with references to its input and output pipes, and a reference to the model
+     * object.
      *
-     * @param inputQueue     a queue of {@link OSMObject} which the factory reads from
-     * @param objOutputQueue the queue which holds the output of the object factory
-     * @param endOfInput     boolean signalling that the parser is done
-     * @param endOfOutput    boolean signalling that the {@link MapObjectFactory} is done
+     * @param inputQueue     a pipe of {@link OSMObject} which the factory reads from until it's closed by the parser
+     * @param objOutputQueue the pipe which holds the output of the object factory. It's closed when the factory is done
      * @param modelRef       reference to a model object. Used to set map bounds and add coastlines
      */
-    public MapObjectFactory(BlockingQueue<OSMObject> inputQueue, BlockingQueue<Pair<int[], MapObject>> objOutputQueue, AtomicBoolean endOfInput, AtomicBoolean endOfOutput, Model modelRef, long fsize) {
+    public MapObjectFactory(ChunkPipe<OSMObject> inputQueue, ChunkPipe<Pair<int[], MapObject>> objOutputQueue, Model modelRef, long fsize) {
+        this(inputQueue, objOutputQueue, modelRef, fsize, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), null);
+    }
+
+    /**
+     * Creates a new map object factory which converts ways using the given number of worker threads. Every
+     * {@link OSMObject} is released to the given pool once it has been converted.
+     *
+     * @param inputQueue     a pipe of {@link OSMObject} which the factory reads from until it's closed by the parser
+     * @param objOutputQueue the pipe which holds the output of the object factory. It's closed when the factory is done
+     * @param modelRef       reference to a model object. Used to set map bounds and add coastlines
+     * @param workers        the number of threads converting ways
+     * @param pool           the pool to release converted objects to, or null to leave them to the garbage collector
+     */
+    public MapObjectFactory(ChunkPipe<OSMObject> inputQueue, ChunkPipe<Pair<int[], MapObject>> objOutputQueue, Model modelRef, long fsize, int workers, OSMObjectPool pool) {
+        this(inputQueue, objOutputQueue, modelRef, fsize, workers, pool, null);
+    }
+
+    /**
+     * Creates a new map object factory for the second pass of the two-pass ingestion. Only the nodes referenced by the
+     * kept ways are stored, and only highway nodes become vertices of the graph.
+     *
+     * @param inputQueue     a pipe of {@link OSMObject} which the factory reads from until it's closed by the parser
+     * @param objOutputQueue the pipe which holds the output of the object factory. It's closed when the factory is done
+     * @param modelRef       reference to a model object. Used to set map bounds and add coastlines
+     * @param workers        the number of threads converting ways
+     * @param pool           the pool to release converted objects to, or null to leave them to the garbage collector
+     * @param referenced     the result of the first pass, or null to keep every node
+     */
+    public MapObjectFactory(ChunkPipe<OSMObject> inputQueue, ChunkPipe<Pair<int[], MapObject>> objOutputQueue, Model modelRef, long fsize, int workers, OSMObjectPool pool, ReferencedNodes referenced) {
+        this(inputQueue, objOutputQueue, modelRef, fsize, workers, pool, referenced, null);
+    }
+
+    /**
+     * Creates a new map object factory for input read through an {@link IngestFilter}. The map bounds are limited to
+     * the area of the filter, and ways crossing its boundary are handled according to its crossing policy.
+     *
+     * @param inputQueue     a pipe of {@link OSMObject} which the factory reads from until it's closed by the parser
+     * @param objOutputQueue the pipe which holds the output of the object factory. It's closed when the factory is done
+     * @param modelRef       reference to a model object. Used to set map bounds and add coastlines
+     * @param workers        the number of threads converting ways
+     * @param pool           the pool to release converted objects to, or null to leave them to the garbage collector
+     * @param referenced     the result of the first pass, or null to keep every node
+     * @param filter         the filter the input was read through, or null
+     */
+    public MapObjectFactory(ChunkPipe<OSMObject> inputQueue, ChunkPipe<Pair<int[], MapObject>> objOutputQueue, Model modelRef, long fsize, int workers, OSMObjectPool pool, ReferencedNodes referenced, IngestFilter filter) {
+        this.workers = workers;
+        this.pool = pool;
+        this.referenced = referenced;
+        this.filter = filter;
         this.inputQueue = inputQueue;
         this.objOutputQueue = objOutputQueue;
-        this.endOfInput = endOfInput;
-        this.endOfOutput = endOfOutput;
         this.modelRef = modelRef;
 
         this.fsize = fsize;
@@ -64,6 +163,74 @@ public class MapObjectFactory implements Runnable {
         relationWayMap = new RelationWayMap((int) (fsize/234f/100f));
     }
 
+    /**
+     * Creates a map object factory for converting single ways of a change file into an already loaded model, see
+     * {@link #convertChangedWay(OSMObject)}. It has no pipes, so it can't be run.
+     *
+     * @param modelRef the loaded model
+     */
+    MapObjectFactory(Model modelRef) {
+        this.modelRef = modelRef;
+        this.workers = 1;
+        this.pool = null;
+        this.referenced = null;
+        this.filter = null;
+    }
+
+    /**
+     * Converts a single way from a change file the same way as while loading. Every node of the way must be in the
+     * node map, and the nodes of highways must be vertices in the graph. The results are returned instead of being
+     * merged, and the way is only named by its own name tag. The node map and graph are the copies the changes are made
+     * to rather than the model's, so the model's can be read meanwhile.
+     *
+     * @param way       the created or modified way
+     * @param objectMap the node map holding the nodes of the way
+     * @param graph     the graph holding the vertices of the way, if it's a highway
+     * @return the map objects, edges and roads of the way
+     */
+    WayBatch convertChangedWay(OSMObject way, IdMap objectMap, WayUndirectedGraph graph) {
+        this.objectMap = objectMap;
+        this.graph = graph;
+        WayBatch batch = new WayBatch();
+        convertWay(way, way.copyRefs(), batch);
+        return batch;
+    }
+
+    /**
+     * Creates a copy of a road at the current coordinates of its nodes, for when some of its nodes have been moved by
+     * a change file but the way itself hasn't changed. The copy has the same type, name and bridge setting.
+     *
+     * @param road      the road to rebuild
+     * @param objectMap the node map holding the nodes of the road
+     * @return the bounds of the rebuilt road along with the road
+     */
+    Pair<int[], MapObject> rebuildRoad(Road road, IdMap objectMap) {
+        long[] refs = road.getRefs();
+        List<Point2D> point_list = new ArrayList<>(refs.length);
+        Point2D first = objectMap.get(refs[0]);
+        float minlon = (float) first.getX(), maxlon = minlon;
+        float minlat = (float) first.getY(), maxlat = minlat;
+        for (long ref : refs) {
+            Point2D o = objectMap.get(ref);
+            float lon = (float) o.getX();
+            float lat = (float) o.getY();
+            // Same bounds as in convertWay, where the latitudes are reversed
+            if (lon < minlon) minlon = lon;
+            else if (lon > maxlon) maxlon = lon;
+            if (lat > minlat) minlat = lat;
+            else if (lat < maxlat) maxlat = lat;
+            // The objectMap returns a copy of the coordinates, so the point can be kept as it is
+            point_list.add(o);
+        }
+
+        int[] boundaries = new int[]{(int) (minlon * Math.pow(10, 7)), (int) -(minlat * Math.pow(10, 7)),
+                (int) (maxlon * Math.pow(10, 7)), (int) -(maxlat * Math.pow(10, 7))};
+        Road outObj = new Road(boundaries[1], boundaries[0], road.getType(), new PolygonApprox(point_list), refs, road.getName());
+        outObj.setOsmId(road.getOsmId());
+        if (road.isBridge()) outObj.setBridge();
+        return new Pair<>(boundaries, outObj);
+    }
+
     /**
      * This is the main method of this class and works by reading all objects coming from the {@link OSMParser} and converting
      * them to {@link MapObject}s and also setting map bounds on the model and adds coastlines to the model. Read code comments for implementation details.
@@ -71,21 +238,20 @@ public class MapObjectFactory implements Runnable {
     public void run() {
         Thread.currentThread().setName("MapObjectFactory-Thread");
 
-        List<CoastlineObject> coastlines = new ArrayList<>();
+        coastlines = new ArrayList<>();
 
         // Variables used for debugging by outputting number of received objects
         long count = 0;
 
-        NameMap nameMap = new NameMap(NAME_MAP_CAPACITY);
+        nameMap = new NameMap(NAME_MAP_CAPACITY);
 
-        // Loop runs until the endOfInput signal is received and the inputQueue is empty
-        while (!endOfInput.get() || !inputQueue.isEmpty()) {
+        // Loop runs until the parser has closed the inputQueue and every object in it has been taken
+        while (true) {
             try {
-                // Poll the inputQueue for an object, waiting a maximum of 10 milliseconds in order to ensure the program
-                // doesn't hang.
-                OSMObject osmObj = inputQueue.poll(10, TimeUnit.MILLISECONDS);
-                // If the poll failed, continue from beginning of loop
-                if (osmObj == null) continue;
+                // Take the next object from the inputQueue, waiting for the parser if it's behind
+                OSMObject osmObj = inputQueue.take();
+                // The end of the input has been reached
+                if (osmObj == null) break;
 
                 // Debugging: test number of received osmobjects
                 count++;
@@ -94,31 +260,28 @@ public class MapObjectFactory implements Runnable {
                 }
 
                 // gennemgå tags
-                addToSearchList(osmObj);
+                if (l == null) l = modelRef.addressSearcher.tmp_addresses;
+                addToSearchList(osmObj, l);
+
+                // Every other kind of object must wait for the pending ways to be converted and merged
+                if (osmObj.getType() != OSMType.WAY) finishWays();
 
 
                 // Switch based on the type of OSMObject (Node, Bounds, Way, Relation)
                 caseSwitch: switch (osmObj.getType()) {
                     case BOUNDS:
                         // Sets the models map bounds to the bounds information from the osm file
-                        float floatLonMin = Float.parseFloat(osmObj.getTag("minlon"));
-                        float floatLonMax = Float.parseFloat(osmObj.getTag("maxlon"));
-                        float floatLatMin = Float.parseFloat(osmObj.getTag("minlat"));
-                        float floatLatMax = Float.parseFloat(osmObj.getTag("maxlat"));
-                        // The lonfactor is found by taking the cosine of the average latitude in radians.
-                        modelRef.lonfactor = (float) Math.cos(Math.PI / 180 * (floatLatMin + (floatLatMax - floatLatMin) / 2));
-                        // Correct projection
-                        modelRef.setMinlon(floatLonMin * modelRef.lonfactor);
-                        modelRef.setMaxlon(floatLonMax * modelRef.lonfactor);
-                        // Adapt to swings coordinate system (need to invert y-axis)
-                        modelRef.setMinlat(-floatLatMin);
-                        modelRef.setMaxlat(-floatLatMax);
+                        boundsReceived = true;
+                        setBounds(Float.parseFloat(osmObj.getTag("minlon")), Float.parseFloat(osmObj.getTag("maxlon")),
+                                Float.parseFloat(osmObj.getTag("minlat")), Float.parseFloat(osmObj.getTag("maxlat")), true);
                         break;
 
                     case NODE:
                         if (!boundsParsed) {
                             LoadingView.setInfoMsg("Parsing nodes from .osm file...");
                             boundsParsed = true;
+                            // Pbf files needn't have bounds, in which case the projection is centered on the first node
+                            if (!boundsReceived) modelRef.lonfactor = (float) Math.cos(Math.PI / 180 * osmObj.getLat());
                         }
 
                         // Modify the longitude of the object to compensate for stretched projection
@@ -129,251 +292,43 @@ public class MapObjectFactory implements Runnable {
                         //osmObj.setLat(-osmObj.getLat());
                         // Put the updated information into the models node map, with an id along with the nodes coordinates
                         //modelRef.objectMap.put(osmObj.getId(), osmObj.getLon(), osmObj.getLat());
-                        modelRef.objectMap.put(osmObj.getId(), olon, olat);
+                        // In the two-pass mode only the nodes of kept ways are stored, and only highway nodes are graph vertices
+                        if (referenced == null) modelRef.objectMap.put(osmObj.getId(), olon, olat);
+                        else if (referenced.keepsNode(osmObj.getId())) modelRef.objectMap.put(osmObj.getId(), olon, olat, referenced.isHighwayNode(osmObj.getId()));
+                        else break;
+                        if (!boundsReceived) {
+                            nodeMinLon = Math.min(nodeMinLon, osmObj.getLon());
+                            nodeMinLat = Math.min(nodeMinLat, osmObj.getLat());
+                            nodeMaxLon = Math.max(nodeMaxLon, osmObj.getLon());
+                            nodeMaxLat = Math.max(nodeMaxLat, osmObj.getLat());
+                        }
 
                         // Maps node to the name of the street name.
                         String name;
-                        if ((name = osmObj.getTag("name")) != null) nameMap.put(osmObj.getId(), name);
+                        if ((name = osmObj.getTagText(TagDictionary.NAME)) != null) nameMap.put(osmObj.getId(), name);
                         break;
 
                     case WAY:
                         // Nodes has been parsed and we therefore constructs the graph
                         if (!nodesParsed) {
                             LoadingView.setInfoMsg("Parsing ways from .osm file...");
-                            modelRef.setGraph(new WayUndirectedGraph(modelRef.objectMap));
+                            setBoundsFromNodes();
+                            objectMap = modelRef.objectMap;
+                            graph = new WayUndirectedGraph(objectMap);
+                            modelRef.setGraph(graph);
 
                             nodesParsed = true;
                         }
 
-                        // Create a new Path2D for the way object
-                        Path2D.Float path = new Path2D.Float();
-                        List<Point2D> point_list = new ArrayList<>();
-                        // Get all the id references from the osmobject. These id's reference node objects, which can
-                        // be found in the models objectMap
-                        List<Long> refs = osmObj.getRef();
-
-                        long prevRef = refs.get(0);
-                        // Now get the starting coordinates of the path by getting the coordinates from the models objectmap
-                        Point2D first = modelRef.objectMap.get(prevRef);
-
-                        // Add ways first point to object-map
-                        //modelRef.objectMap.put(osmObj.getId(), (float) first.getX(), (float) first.getY());
-
-
-                        // Set the ways starting minimum and maximum coordinates (bounds) to the first nodes coordinates
-                        float minlon = (float) first.getX();
-                        float maxlon = minlon;
-                        float minlat = (float) first.getY();
-                        float maxlat = minlat;
-
-                        // Move the path's starting point to the first nodes coordinates
-                        path.moveTo(first.getX(), first.getY());
-                        point_list.add(first);
-
-                        // Get road type
-                        RoadType roadType = getRoadType(osmObj.getTag("highway"));
-
-                        boolean skipFirst = true;
-
-                        String wayName = null;
-                        // Go through each reference in the way object
-                        for (long ref : refs) {
-                            if (skipFirst) {
-                                skipFirst = false;
-                                continue;
-                            }
-                            // Get the nodes coordinates from the model
-                            Point2D o = modelRef.objectMap.get(ref);
-
-                            // Make sure that we only try to get information from valid nodes (throws an exception otherwise)
-                            if (o != null) {
-                                // Get the nodes coordinates as floats
-                                float lon = (float) o.getX();
-                                float lat = (float) o.getY();
-
-                                // Add edges to the graph
-                                if (osmObj.getTag("highway") != null) {
-                                    float euclidDistance = (float) o.distance(modelRef.objectMap.get(prevRef));
-
-                                    // Get speed limit and use default if not set for particular road
-                                    int maxSpeed = roadType.getDefaultSpeed();
-                                    try {
-                                        if (osmObj.getTag("maxspeed") != null)
-                                            maxSpeed = Integer.parseInt(osmObj.getTag("maxspeed"));
-                                    } catch (NumberFormatException e) {
-                                        System.err.println("Maxspeed could not be parsed for: "+ osmObj.getId());
-                                    }
-
-                                    // Generate direction flag based on one-way and way type
-                                    String oneway = osmObj.getTag("oneway");
-
-                                    int dir;
-                                    if (oneway != null) {
-                                        switch(oneway) {
-                                            case "1":
-                                            case "true":
-                                                dir = 1;
-                                                break;
-                                            case "-1":
-                                            case "false":
-                                                dir = -1;
-                                                break;
-                                            default:
-                                                dir = 0;
-                                                break;
-                                        }
-                                    } else {
-                                        dir = 0;
-                                    }
-
-                                    byte dirFlags = 0;
-
-                                    // If motorway
-                                    if (osmObj.getTag("highway").equals("motorway")) {
-                                        if (dir == 0 || dir == 1) {
-                                            dirFlags |= VehicleType.CAR.getForwardFlag();
-                                        }
-                                        if (dir == 0 || dir == 1) {
-                                            dirFlags |= VehicleType.CAR.getBackwardFlag();
-                                        }
-                                    }
-                                    // If footway, cycleway or way has a "motorcar=no" tag, exclude cars
-                                    else if (osmObj.getTag("highway").equals("footway") || osmObj.getTag("highway").equals("cycleway") || osmObj.getTag("highway").equals("path")
-                                            || (osmObj.getTag("motorcar") != null && osmObj.getTag("motorcar").equals("no"))
-                                            || (osmObj.getTag("motor_vehicle") != null && osmObj.getTag("motor_vehicle").equals("no"))) {
-                                        if (dir == 0 || dir == 1) {
-                                            dirFlags |= VehicleType.WALK.getForwardFlag();
-                                            dirFlags |= VehicleType.BICYCLE.getForwardFlag();
-                                        }
-                                        if (dir == 0 || dir == -1) {
-                                            dirFlags |= VehicleType.WALK.getBackwardFlag();
-                                            dirFlags |= VehicleType.BICYCLE.getBackwardFlag();
-                                        }
-                                    }
-                                    else {
-                                        if (dir == 0 || dir == 1) {
-                                            dirFlags |= VehicleType.WALK.getForwardFlag();
-                                            dirFlags |= VehicleType.BICYCLE.getForwardFlag();
-                                            dirFlags |= VehicleType.CAR.getForwardFlag();
-                                        }
-                                        if (dir == 0 || dir == -1) {
-                                            dirFlags |= VehicleType.WALK.getBackwardFlag();
-                                            dirFlags |= VehicleType.BICYCLE.getBackwardFlag();
-                                            dirFlags |= VehicleType.CAR.getBackwardFlag();
-                                        }
-                                    }
-                                    float dist = (float) Haversine.distanceInMeters(modelRef.objectMap.get(prevRef), o);
-                                    modelRef.getGraph().addEdge(new WayEdge(modelRef.getGraph().getIndex(prevRef), modelRef.getGraph().getIndex(ref), euclidDistance/maxSpeed, euclidDistance, dist, dirFlags));
-
-                                    prevRef = ref;
-                                }
-
-                                // If the nodes longitude is less than the ways minimum longitude, set the minimum to this
-                                // nodes longitude
-                                if (lon < minlon) minlon = lon;
-                                    // Same with the maximum longitude. If this nodes longitude is greater than the current
-                                    // update the current value to this nodes longitude.
-                                else if (lon > maxlon) maxlon = lon;
-                                // Now exactly the same for the latitude. The only difference here is that the comparison
-                                // symbols are reversed. This is because the latitude values are negative
-                                if (lat > minlat) minlat = lat; // Reverted < & > because its -
-                                else if (lat < maxlat) maxlat = lat;
-
-                                // Finally we make a new line segment to the current nodes coordinates
-                                point_list.add(new Point2D.Float(lon, lat));
-                                path.lineTo(lon, lat);
-
-                                // Set the name if this node has any
-                                if (nameMap.get(ref) != null) wayName = nameMap.get(ref);
-                            } else throw new RuntimeException("Null pointer");
-                        }
-
-                        PolygonApprox outpath = new PolygonApprox(point_list);
-
-
-                        // Create a last point with the same coordinates as the last point in the way object
-                        Point2D last = modelRef.objectMap.get(refs.get(refs.size() - 1));
-
-                        // Since the kd-tree deals in integers instead of floats we multiply each coordinate by 10^7 because
-                        // The Openstreetmap Wiki specifies that each coordinate has exactly 7 decimal places.
-                        int objLon = (int) (minlon * Math.pow(10, 7));
-                        // Again the latitude is reversed because we don't want to deal with negative values in the kd-tree
-                        int objLat = (int) -(minlat * Math.pow(10, 7));
-                        int objLonMax = (int) (maxlon * Math.pow(10, 7));
-                        int objLatMax = (int) -(maxlat * Math.pow(10, 7));
-
-                        int[] boundaries = new int[]{objLon, objLat, objLonMax, objLatMax};
-
-                        MapObject outObj;
-
-                        // If the current osm object contains a highway tag, we try to find out which kind of road it is
-                        // in order to specify the road type in the outputted map object
-                        if (osmObj.getTag("highway") != null || osmObj.getTag("railway") != null || osmObj.getTag("waterway") != null) {
-                            if (wayName == null) wayName = osmObj.getTag("name");
-
-                            if (osmObj.getTag("waterway") != null) roadType = getRoadType(osmObj.getTag("waterway"));
-
-                            // draw railways but not subways (rails for the metro)
-                            if(osmObj.getTag("railway") != null && !osmObj.getTag("railway").equals("subway"))
-                                roadType = RoadType.RAILWAY;
-                            // Create a new map object of type road
-                            outObj = new Road(objLat, objLon, roadType, outpath, refs, wayName);
-
-                            // Sets a boolean to true if it's a bridge due to it having a higher z-index
-                            if (osmObj.getTag("bridge") != null) ((Road) outObj).setBridge();
-                            // Insert this object along with the bounds information into the output queue for insertion
-                            // into the kd-tree by the structurer thread
-                            objOutputQueue.add(new Pair<>(
-                                    boundaries,
-                                    outObj
-                            ));
-
-                            for (long ref : refs) {
-                                modelRef.objectMap.setRoad(ref, (Road) outObj);
-                            }
-                        }
-                        // Check if it's a railway
-
-                        // Regions
-                        else if (osmObj.getTag("natural") != null ||
-                                osmObj.getTag("leisure") != null ||
-                                osmObj.getTag("building") != null ||
-                                osmObj.getTag("landuse") != null ||
-                                osmObj.getTag("amenity") != null) {
-                            RegionType regionType = RegionType.UNSPECIFIED;
-
-                            if (osmObj.getTag("building") != null) regionType = RegionType.BUILDING;
-                            if (osmObj.getTag("landuse") != null) regionType = getRegionType(osmObj.getTag("landuse"));
-                            if (osmObj.getTag("leisure") != null) regionType = getRegionType(osmObj.getTag("leisure"));
-                            if (osmObj.getTag("amenity") != null) regionType = getRegionType(osmObj.getTag("amenity"));
-                            // Check all the different type indicator tags and set the regions type accordingly
-                            String typeTag;
-                            if ((typeTag = osmObj.getTag("natural")) != null) {
-                                regionType = getRegionType(typeTag);
-                                if (typeTag.equals("coastline")) {
-                                    coastlines.add(
-                                            new CoastlineObject(
-                                                    new Point2D.Float((float) first.getX(), (float) first.getY()),
-                                                    new Point2D.Float((float) last.getX(), (float) last.getY()),
-                                                    path, minlon, maxlon, minlat, maxlat)
-                                    );
-                                    continue; // (former to do) Does this really do anything?? Yes it does my friend
-                                }
-                            }
-
-
-                            // Create a new map object, this time of type Region
-                            outObj = new Region(objLat, objLon, regionType, outpath);
-                            // Insert this object along with the bounds information into the output queue for insertion
-                            // into the kd-tree by the structurer thread
-                            objOutputQueue.add(new Pair<>(
-                                    boundaries,
-                                    outObj
-                            ));
+                        // Ways the first pass didn't keep are never drawn, and their nodes haven't been stored
+                        if (referenced != null && !referenced.keepsWay(osmObj.getId())) {
+                            OSMObjectPool.releaseIfPooled(pool, osmObj);
+                            break;
                         }
 
-                        // Add current way to relationWayMap
-                        relationWayMap.put(osmObj.getId(), path, boundaries);
+                        // Collect the way in the current batch, which is converted by the workers once it's full
+                        wayBatch.add(osmObj);
+                        if (wayBatch.size() == WAY_BATCH_SIZE) submitWays();
 
                         break;
                     case RELATION:
@@ -382,8 +337,6 @@ public class MapObjectFactory implements Runnable {
                             waysParsed = true;
                         }
 
-                        Set<Pair<Long, String>> memberSet = osmObj.getMemberSet();
-
                         Path2D relInnerPath = new Path2D.Float();
                         Path2D relOuterPath = new Path2D.Float();
                         Integer minLon = null;
@@ -392,14 +345,15 @@ public class MapObjectFactory implements Runnable {
                         Integer maxLat = null;
 
 
-                        for (Pair<Long, String> memberPair : memberSet) {
+                        for (int i = 0; i < osmObj.getMemberCount(); i++) {
                             Pair<Path2D.Float, int[]> wayInfo;
                             // If just a single way within this relation is null, skip the entire relation
-                            if ((wayInfo = relationWayMap.get(memberPair.valA)) == null) break caseSwitch;
+                            if ((wayInfo = relationWayMap.get(osmObj.getMemberRef(i))) == null) break caseSwitch;
 
                             Shape curPath = wayInfo.valA;
-                            boolean isOuter = memberPair.valB.equals("outer");
-                            boolean isInner = memberPair.valB.equals("inner");
+                            String role = osmObj.getMemberRole(i);
+                            boolean isOuter = role.equals("outer");
+                            boolean isInner = role.equals("inner");
 
                             // Update lower and upper bounds of relation if needed
                             int[] posInfo = wayInfo.valB;
@@ -421,15 +375,15 @@ public class MapObjectFactory implements Runnable {
 
                         // Get tag by checking RegionType
                         RegionType regionType;
-                        if (osmObj.getTag("building") != null) regionType = RegionType.BUILDING;
-                        else if (osmObj.getTag("landuse") != null) regionType = getRegionType(osmObj.getTag("landuse"));
-                        else if (osmObj.getTag("leisure") != null) regionType = getRegionType(osmObj.getTag("leisure"));
-                        else if (osmObj.getTag("natural") != null) regionType = getRegionType(osmObj.getTag("natural"));
-                        else if (osmObj.getTag("amenity") != null) regionType = getRegionType(osmObj.getTag("amenity"));
-                        else if (osmObj.getTag("waterway") != null) regionType = getRegionType(osmObj.getTag("waterway"));
+                        if (osmObj.hasTag(TagDictionary.BUILDING)) regionType = RegionType.BUILDING;
+                        else if (osmObj.hasTag(TagDictionary.LANDUSE)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.LANDUSE)];
+                        else if (osmObj.hasTag(TagDictionary.LEISURE)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.LEISURE)];
+                        else if (osmObj.hasTag(TagDictionary.NATURAL)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.NATURAL)];
+                        else if (osmObj.hasTag(TagDictionary.AMENITY)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.AMENITY)];
+                        else if (osmObj.hasTag(TagDictionary.WATERWAY)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.WATERWAY)];
                         else regionType = RegionType.UNSPECIFIED;
 
-                        objOutputQueue.add(new Pair<>(
+                        objOutputQueue.put(new Pair<>(
                                 new int[]{minLon, minLat, maxLon, maxLat},
                                 new Region(minLat, minLon, regionType, relPath)
                         ));
@@ -441,14 +395,19 @@ public class MapObjectFactory implements Runnable {
                         break;
                 }
                 // Now we got all the information we wanted from the osmobject and constructed a new mapobject from this information.
-                // Therefore we set the osmobj reference to null in order to ensure that it gets deleted by Java's garbage collector
+                // Therefore we hand the osmobject back to the parser through the pool. Ways are released by the workers.
+                if (osmObj.getType() != OSMType.WAY) OSMObjectPool.releaseIfPooled(pool, osmObj);
                 osmObj = null;
 
-            } catch (InterruptedException e) { // If the queue polling gets interrupted this exception will be thrown
+            } catch (InterruptedException e) { // If waiting on the pipes gets interrupted this exception will be thrown
                 throw new RuntimeException(e.toString());
             }
         }
 
+        finishWays();
+        if (wayWorkers != null) wayWorkers.shutdown();
+        setBoundsFromNodes();
+
         LoadingView.setInfoMsg("Initializing addressSearcher...");
 
         //AddressObject preperation
@@ -466,38 +425,389 @@ public class MapObjectFactory implements Runnable {
                     new int[]{minLon, minLat, maxLon, maxLat},
                     new Region(minLat, minLon, RegionType.COASTLINE, coast.path)));
         }
+        LoadingView.setInfoMsg("Indexing Coastlines...");
+        modelRef.indexCoastlines();
 
         // Signal to the structurer that the creation of MapObjects is done
-        endOfOutput.set(true);
+        try {
+            objOutputQueue.close();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e.toString());
+        }
         Debugger.print(User.AESK, "Dataprocessing: ObjectFactory Done");
     }
 
+    /**
+     * Sets the map bounds of the model, limited to the area of the filter.
+     *
+     * @param lonMin the minimum longitude in degrees
+     * @param lonMax the maximum longitude in degrees
+     * @param latMin the minimum latitude in degrees
+     * @param latMax the maximum latitude in degrees
+     * @param center whether to center the projection on the bounds. This can only be done before any node is converted
+     */
+    private void setBounds(float lonMin, float lonMax, float latMin, float latMax, boolean center) {
+        // Only the area of the filter is loaded, so there's no need to show the rest
+        if (filter != null) {
+            lonMin = Math.max(lonMin, (float) filter.getBounds().getMinX());
+            lonMax = Math.min(lonMax, (float) filter.getBounds().getMaxX());
+            latMin = Math.max(latMin, (float) filter.getBounds().getMinY());
+            latMax = Math.min(latMax, (float) filter.getBounds().getMaxY());
+        }
+        // The lonfactor is found by taking the cosine of the average latitude in radians.
+        if (center) modelRef.lonfactor = (float) Math.cos(Math.PI / 180 * (latMin + (latMax - latMin) / 2));
+        // Correct projection
+        modelRef.setMinlon(lonMin * modelRef.lonfactor);
+        modelRef.setMaxlon(lonMax * modelRef.lonfactor);
+        // Adapt to swings coordinate system (need to invert y-axis)
+        modelRef.setMinlat(-latMin);
+        modelRef.setMaxlat(-latMax);
+    }
+
+    /**
+     * Sets the map bounds to the extent of the nodes if the input had no bounds, once every node has been read.
+     */
+    private void setBoundsFromNodes() {
+        if (boundsReceived || nodeMinLon > nodeMaxLon) return;
+        boundsReceived = true;
+        setBounds(nodeMinLon, nodeMaxLon, nodeMinLat, nodeMaxLat, false);
+    }
+
+    /**
+     * Hands the current batch of ways to the worker threads. If the workers are too far ahead, the oldest batches are
+     * merged first.
+     */
+    private void submitWays() {
+        if (wayBatch.isEmpty()) return;
+        if (wayWorkers == null) {
+            wayWorkers = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "MapObjectFactory-Worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        final List<OSMObject> ways = wayBatch;
+        wayBatch = new ArrayList<>(WAY_BATCH_SIZE);
+        pendingWays.add(wayWorkers.submit(() -> {
+            WayBatch batch = new WayBatch();
+            for (OSMObject way : ways) {
+                // The references are copied since the osmobject is reused once released
+                if (filter == null) convertWay(way, way.copyRefs(), batch);
+                else {
+                    // Ways crossing the boundary of the filter may be dropped or split into the parts inside
+                    for (long[] refs : filter.clip(way.copyRefs(), !isDrawn(way), objectMap)) convertWay(way, refs, batch);
+                }
+                OSMObjectPool.releaseIfPooled(pool, way);
+            }
+            return batch;
+        }));
+
+        while (pendingWays.size() >= workers * BATCHES_PER_WORKER) mergeWays(pendingWays.poll());
+    }
+
+    /**
+     * Submits the current batch of ways and waits for every pending batch to be merged.
+     */
+    private void finishWays() {
+        submitWays();
+        while (!pendingWays.isEmpty()) mergeWays(pendingWays.poll());
+    }
+
+    /**
+     * Waits for a batch to be converted and merges its results into the output queue, the graph and the model.
+     *
+     * @param future the pending batch
+     */
+    private void mergeWays(Future<WayBatch> future) {
+        try {
+            WayBatch batch = future.get();
+
+            batch.addEdgesTo(graph);
+            for (Pair<int[], MapObject> output : batch.output) objOutputQueue.put(output);
+            coastlines.addAll(batch.coastlines);
+            for (int i = 0; i < batch.relationWayIds.size(); i++) {
+                relationWayMap.put(batch.relationWayIds.get(i), batch.relationWayPaths.get(i), batch.relationWayBoundaries.get(i));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e.toString());
+        } catch (ExecutionException e) {
+            // Rethrow whatever went wrong while converting the ways
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause().toString());
+        }
+    }
+
+    /**
+     * Converts a single way to a {@link Road} or {@link Region}, computes the graph edges of roads and collects coastlines.
+     * This is run by the worker threads, so the results are written to the given batch instead of the shared data
+     * structures. The objectMap, nameMap and graph are only read, which is safe since no nodes are added while ways are
+     * being converted.
+     *
+     * @param osmObj the way to convert
+     * @param refs   the references of the way, or of the part of it to convert
+     * @param batch  the batch to write the results to
+     */
+    private void convertWay(OSMObject osmObj, long[] refs, WayBatch batch) {
+        // The edges of this way are the ones added to the batch from here on
+        int firstEdge = batch.edges.size();
+        // Create a new Path2D for the way object
+        Path2D.Float path = new Path2D.Float();
+        List<Point2D> point_list = new ArrayList<>();
+        // The id references of the way reference node objects, which can be found in the models objectMap
+        long prevRef = refs[0];
+        // Now get the starting coordinates of the path by getting the coordinates from the models objectmap
+        Point2D first = objectMap.get(prevRef);
+        Point2D prev = first;
+
+        // Add ways first point to object-map
+        //modelRef.objectMap.put(osmObj.getId(), (float) first.getX(), (float) first.getY());
+
+
+        // Set the ways starting minimum and maximum coordinates (bounds) to the first nodes coordinates
+        float minlon = (float) first.getX();
+        float maxlon = minlon;
+        float minlat = (float) first.getY();
+        float maxlat = minlat;
+
+        // Move the path's starting point to the first nodes coordinates
+        path.moveTo(first.getX(), first.getY());
+        point_list.add(first);
+
+        // Get road type
+        int highway = osmObj.getTagCode(TagDictionary.HIGHWAY);
+        RoadType roadType = ROAD_TYPES[highway];
+
+        // The speed limit and direction flags are the same for all the edges of the way
+        int maxSpeed = roadType.getDefaultSpeed();
+        byte dirFlags = 0;
+        if (highway != TagDictionary.ABSENT) {
+            // Get speed limit and use default if not set for particular road
+            try {
+                String maxspeed = osmObj.getTagText(TagDictionary.MAXSPEED);
+                if (maxspeed != null) maxSpeed = Integer.parseInt(maxspeed);
+            } catch (NumberFormatException e) {
+                System.err.println("Maxspeed could not be parsed for: "+ osmObj.getId());
+            }
+
+            // Generate direction flag based on one-way and way type
+            int dir = DIRECTIONS[osmObj.getTagCode(TagDictionary.ONEWAY)];
+
+            // If motorway
+            if (highway == MOTORWAY) {
+                if (dir == 0 || dir == 1) {
+                    dirFlags |= VehicleType.CAR.getForwardFlag();
+                }
+                if (dir == 0 || dir == 1) {
+                    dirFlags |= VehicleType.CAR.getBackwardFlag();
+                }
+            }
+            // If footway, cycleway or way has a "motorcar=no" tag, exclude cars
+            else if (highway == FOOTWAY || highway == CYCLEWAY || highway == PATH
+                    || osmObj.getTagCode(TagDictionary.MOTORCAR) == NO
+                    || osmObj.getTagCode(TagDictionary.MOTOR_VEHICLE) == NO) {
+                if (dir == 0 || dir == 1) {
+                    dirFlags |= VehicleType.WALK.getForwardFlag();
+                    dirFlags |= VehicleType.BICYCLE.getForwardFlag();
+                }
+                if (dir == 0 || dir == -1) {
+                    dirFlags |= VehicleType.WALK.getBackwardFlag();
+                    dirFlags |= VehicleType.BICYCLE.getBackwardFlag();
+                }
+            }
+            else {
+                if (dir == 0 || dir == 1) {
+                    dirFlags |= VehicleType.WALK.getForwardFlag();
+                    dirFlags |= VehicleType.BICYCLE.getForwardFlag();
+                    dirFlags |= VehicleType.CAR.getForwardFlag();
+                }
+                if (dir == 0 || dir == -1) {
+                    dirFlags |= VehicleType.WALK.getBackwardFlag();
+                    dirFlags |= VehicleType.BICYCLE.getBackwardFlag();
+                    dirFlags |= VehicleType.CAR.getBackwardFlag();
+                }
+            }
+        }
+
+        boolean skipFirst = true;
+
+        String wayName = null;
+        // Go through each reference in the way object
+        for (long ref : refs) {
+            if (skipFirst) {
+                skipFirst = false;
+                continue;
+            }
+            // Get the nodes coordinates from the model
+            Point2D o = objectMap.get(ref);
+
+            // Make sure that we only try to get information from valid nodes (throws an exception otherwise)
+            if (o != null) {
+                // Get the nodes coordinates as floats
+                float lon = (float) o.getX();
+                float lat = (float) o.getY();
+
+                // Add edges to the graph
+                if (highway != TagDictionary.ABSENT) {
+                    float euclidDistance = (float) o.distance(prev);
+                    float dist = (float) Haversine.distanceInMeters(prev, o);
+                    batch.edges.add(new WayEdge(graph.getIndex(prevRef), graph.getIndex(ref), euclidDistance/maxSpeed, euclidDistance, dist, dirFlags));
+
+                    prevRef = ref;
+                    prev = o;
+                }
+
+                // If the nodes longitude is less than the ways minimum longitude, set the minimum to this
+                // nodes longitude
+                if (lon < minlon) minlon = lon;
+                    // Same with the maximum longitude. If this nodes longitude is greater than the current
+                    // update the current value to this nodes longitude.
+                else if (lon > maxlon) maxlon = lon;
+                // Now exactly the same for the latitude. The only difference here is that the comparison
+                // symbols are reversed. This is because the latitude values are negative
+                if (lat > minlat) minlat = lat; // Reverted < & > because its -
+                else if (lat < maxlat) maxlat = lat;
+
+                // Finally we make a new line segment to the current nodes coordinates. The objectMap returns a copy
+                // of the coordinates, so the point can be kept as it is
+                point_list.add(o);
+                path.lineTo(lon, lat);
+
+                // Set the name if this node has any
+                if (nameMap != null && nameMap.get(ref) != null) wayName = nameMap.get(ref);
+            } else throw new RuntimeException("Null pointer");
+        }
+
+        PolygonApprox outpath = new PolygonApprox(point_list);
+
+
+        // Create a last point with the same coordinates as the last point in the way object
+        Point2D last = objectMap.get(refs[refs.length - 1]);
+
+        // Since the kd-tree deals in integers instead of floats we multiply each coordinate by 10^7 because
+        // The Openstreetmap Wiki specifies that each coordinate has exactly 7 decimal places.
+        int objLon = (int) (minlon * Math.pow(10, 7));
+        // Again the latitude is reversed because we don't want to deal with negative values in the kd-tree
+        int objLat = (int) -(minlat * Math.pow(10, 7));
+        int objLonMax = (int) (maxlon * Math.pow(10, 7));
+        int objLatMax = (int) -(maxlat * Math.pow(10, 7));
+
+        int[] boundaries = new int[]{objLon, objLat, objLonMax, objLatMax};
+
+        MapObject outObj;
+
+        // If the current osm object contains a highway tag, we try to find out which kind of road it is
+        // in order to specify the road type in the outputted map object
+        int railway = osmObj.getTagCode(TagDictionary.RAILWAY);
+        int waterway = osmObj.getTagCode(TagDictionary.WATERWAY);
+        if (highway != TagDictionary.ABSENT || railway != TagDictionary.ABSENT || waterway != TagDictionary.ABSENT) {
+            if (wayName == null) wayName = osmObj.getTagText(TagDictionary.NAME);
+
+            if (waterway != TagDictionary.ABSENT) roadType = ROAD_TYPES[waterway];
+
+            // draw railways but not subways (rails for the metro)
+            if(railway != TagDictionary.ABSENT && railway != SUBWAY)
+                roadType = RoadType.RAILWAY;
+            // Create a new map object of type road
+            outObj = new Road(objLat, objLon, roadType, outpath, refs, wayName);
+            outObj.setOsmId(osmObj.getId());
+
+            // Sets a boolean to true if it's a bridge due to it having a higher z-index
+            if (osmObj.hasTag(TagDictionary.BRIDGE)) ((Road) outObj).setBridge();
+            // Insert this object along with the bounds information into the batch output, which is put into the
+            // output queue for insertion into the kd-tree by the structurer thread when the batch is merged
+            batch.output.add(new Pair<>(
+                    boundaries,
+                    outObj
+            ));
+            // The road is put into the road table of the graph, along with its edges, when the batch is merged
+            batch.roads.add((Road) outObj);
+            batch.roadEdges.add(batch.edges.size() - firstEdge);
+        }
+        // Check if it's a railway
+
+        // Regions
+        else if (osmObj.hasTag(TagDictionary.NATURAL) ||
+                osmObj.hasTag(TagDictionary.LEISURE) ||
+                osmObj.hasTag(TagDictionary.BUILDING) ||
+                osmObj.hasTag(TagDictionary.LANDUSE) ||
+                osmObj.hasTag(TagDictionary.AMENITY)) {
+            RegionType regionType = RegionType.UNSPECIFIED;
+
+            if (osmObj.hasTag(TagDictionary.BUILDING)) regionType = RegionType.BUILDING;
+            if (osmObj.hasTag(TagDictionary.LANDUSE)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.LANDUSE)];
+            if (osmObj.hasTag(TagDictionary.LEISURE)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.LEISURE)];
+            if (osmObj.hasTag(TagDictionary.AMENITY)) regionType = REGION_TYPES[osmObj.getTagCode(TagDictionary.AMENITY)];
+            // Check all the different type indicator tags and set the regions type accordingly
+            int natural = osmObj.getTagCode(TagDictionary.NATURAL);
+            if (natural != TagDictionary.ABSENT) {
+                regionType = REGION_TYPES[natural];
+                if (natural == COASTLINE) {
+                    batch.coastlines.add(
+                            new CoastlineObject(
+                                    new Point2D.Float((float) first.getX(), (float) first.getY()),
+                                    new Point2D.Float((float) last.getX(), (float) last.getY()),
+                                    path, minlon, maxlon, minlat, maxlat)
+                    );
+                    return; // Coastlines are not added to the relationWayMap
+                }
+            }
+
+
+            // Create a new map object, this time of type Region
+            outObj = new Region(objLat, objLon, regionType, outpath);
+            outObj.setOsmId(osmObj.getId());
+            // Insert this object along with the bounds information into the batch output
+            batch.output.add(new Pair<>(
+                    boundaries,
+                    outObj
+            ));
+        }
+
+        // Add current way to relationWayMap when the batch is merged
+        batch.relationWayIds.add(osmObj.getId());
+        batch.relationWayPaths.add(path);
+        batch.relationWayBoundaries.add(boundaries);
+    }
+
+    /**
+     * Checks whether a way has one of the tags that make it a {@link Road} or {@link Region}. Ways without any of them
+     * are only used as parts of relations.
+     *
+     * @param osmObj the way to check
+     * @return true if the way is drawn on its own
+     */
+    static boolean isDrawn(OSMObject osmObj) {
+        return osmObj.hasTag(TagDictionary.HIGHWAY) || osmObj.hasTag(TagDictionary.RAILWAY) ||
+                osmObj.hasTag(TagDictionary.WATERWAY) || osmObj.hasTag(TagDictionary.NATURAL) ||
+                osmObj.hasTag(TagDictionary.LEISURE) || osmObj.hasTag(TagDictionary.BUILDING) ||
+                osmObj.hasTag(TagDictionary.LANDUSE) || osmObj.hasTag(TagDictionary.AMENITY);
+    }
+
     /**
      * Adds relevant data to the search list, based on tags.
      * @param obj of type OSMObject.
+     * @param l the map of addresses by name to add to
      */
-    private void addToSearchList(OSMObject obj) {
+    void addToSearchList(OSMObject obj, Map<String, Address> l) {
         if (obj.getLat() == 0F || obj.getLon() == 0F) return;
 
-        // Reference to the tmp_addreses hashmap
-        if (l == null) l = modelRef.addressSearcher.tmp_addresses;
-
-        String poi = obj.getTag("name");
-        String city = obj.getTag("addr:city");
-        String street = obj.getTag("addr:street");
-        String postcode = obj.getTag("addr:postcode");
-        String housenumber = obj.getTag("addr:housenumber");
-        String place = obj.getTag("place");
-        String postal_code = obj.getTag("postal_code");
+        String poi = obj.getTagText(TagDictionary.NAME);
+        String city = obj.getTagText(TagDictionary.ADDR_CITY);
+        String street = obj.getTagText(TagDictionary.ADDR_STREET);
+        String postcode = obj.getTagText(TagDictionary.ADDR_POSTCODE);
+        String housenumber = obj.getTagText(TagDictionary.ADDR_HOUSENUMBER);
+        int place = obj.getTagCode(TagDictionary.PLACE);
+        String postal_code = obj.getTagText(TagDictionary.POSTAL_CODE);
 
         // Get the point for this node
         Point2D.Float point = new Point2D.Float(obj.getLon() * modelRef.lonfactor, -obj.getLat());
 
         // If it's a size add that and return
-        if (place != null && poi != null) {
-            if (place.equals("village") || place.equals("city") || place.equals("town")) {
+        if (place != TagDictionary.ABSENT && poi != null) {
+            if (place == VILLAGE || place == CITY || place == TOWN) {
                 Address addr = new Address(poi, point, SuggestionType.CITY);
-                String population = obj.getTag("population");
+                String population = obj.getTagText(TagDictionary.POPULATION);
                 addr.setPopulation(population != null ? Integer.parseInt(population) : 0);
                 l.put(poi, addr);
                 if (postal_code == null) return;
@@ -631,7 +941,7 @@ public class MapObjectFactory implements Runnable {
      * @param s States whether it's a natural, leisure etc.
      * @return which RegionType the current osmObject contains.
      */
-    public RegionType getRegionType(String s) {
+    public static RegionType getRegionType(String s) {
         if (s == null) return RegionType.UNSPECIFIED;
         switch (s) {
             case "farmland":
@@ -730,13 +1040,33 @@ public class MapObjectFactory implements Runnable {
         }
     }
 
+    /**
+     * Gets the direction of a way from the value of its one-way tag: 1 if it's one-way, -1 if it's one-way against the
+     * direction of the way and 0 otherwise.
+     * @param oneway the value of the one-way tag, may be null
+     * @return the direction
+     */
+    private static int getDirection(String oneway) {
+        if (oneway == null) return 0;
+        switch (oneway) {
+            case "1":
+            case "true":
+                return 1;
+            case "-1":
+            case "false":
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
     /**
      * Checks the give string against all the relevant words
      * to categorise the RoadTypes.
      * @param s of type String.
      * @return the RoadType.
      */
-    public RoadType getRoadType(String s) {
+    public static RoadType getRoadType(String s) {
         if (s == null) return RoadType.UNSPECIFIED;
         switch (s) {
             case "motorway_link":
@@ -776,6 +1106,36 @@ public class MapObjectFactory implements Runnable {
         }
     }
 
+    /**
+     * The results of converting a batch of ways, in the order the ways were read.
+     */
+    class WayBatch {
+        List<Pair<int[], MapObject>> output = new ArrayList<>();
+        List<WayEdge> edges = new ArrayList<>();
+        List<Road> roads = new ArrayList<>();
+        // The number of edges of each road, which are in the order of the roads in the edges list
+        List<Integer> roadEdges = new ArrayList<>();
+        List<CoastlineObject> coastlines = new ArrayList<>();
+        List<Long> relationWayIds = new ArrayList<>();
+        List<Path2D.Float> relationWayPaths = new ArrayList<>();
+        List<int[]> relationWayBoundaries = new ArrayList<>();
+
+        /**
+         * Adds the edges of the batch to the graph, and the roads with edges to the road table of the graph.
+         *
+         * @param graph the graph
+         */
+        void addEdgesTo(WayUndirectedGraph graph) {
+            int edge = 0;
+            for (int i = 0; i < roads.size(); i++) {
+                int count = roadEdges.get(i);
+                if (count == 0) continue;
+                int road = graph.addRoad(roads.get(i));
+                for (int k = 0; k < count; k++) graph.addEdge(edges.get(edge++), road);
+            }
+        }
+    }
+
     /**
      * Represents a temporary Coastline storing a path, firstPoint and lastPoint.
      */
@@ -0,0 +1,148 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Parser for osm change files (.osc, or .osc.gz as the daily diffs are published). A change file holds create, modify
+ * and delete blocks of nodes, ways and relations in the same format as an osm file. Each element is read into an
+ * {@link OSMObject} with its tags resolved through the {@link TagDictionary}, like the {@link OSMParser} does, and
+ * returned along with the action of its block.
+ * </p>
+ * <p>
+ * Change files are small compared to a map, so they're read into a list rather than through a pipe.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see ChangeApplier
+ */
+public class OSCParser {
+    /**
+     * The actions of a change file.
+     */
+    public enum Action {
+        CREATE, MODIFY, DELETE
+    }
+
+    /**
+     * A single element of a change file and what to do with it.
+     */
+    public static class Change {
+        public final Action action;
+        public final OSMObject osmObject;
+
+        Change(Action action, OSMObject osmObject) {
+            this.action = action;
+            this.osmObject = osmObject;
+        }
+    }
+
+    /**
+     * Reads all changes from the given file. Files ending in .gz are decompressed.
+     *
+     * @param filename the path to the change file
+     * @return the changes in the order of the file
+     * @throws IOException if the file can't be read or isn't a valid change file
+     */
+    public static List<Change> parse(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+        if (filename.endsWith(".gz")) in = new GZIPInputStream(in, 1 << 16);
+        try {
+            return parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads all changes from the given stream.
+     *
+     * @param in the stream holding the change file
+     * @return the changes in the order of the stream
+     * @throws IOException if the stream isn't a valid change file
+     */
+    public static List<Change> parse(InputStream in) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        try {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            Action action = null;
+            OSMObject osmObject = null;
+            while (reader.hasNext()) {
+                int eventType = reader.next();
+                if (eventType == XMLStreamReader.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "create":
+                            action = Action.CREATE;
+                            break;
+                        case "modify":
+                            action = Action.MODIFY;
+                            break;
+                        case "delete":
+                            action = Action.DELETE;
+                            break;
+                        case "node":
+                            osmObject = start(reader, OSMType.NODE);
+                            // Deleted nodes don't need to have coordinates
+                            String lat = reader.getAttributeValue(null, "lat");
+                            String lon = reader.getAttributeValue(null, "lon");
+                            if (lat != null && lon != null) {
+                                osmObject.setLat(Float.parseFloat(lat));
+                                osmObject.setLon(Float.parseFloat(lon));
+                            }
+                            break;
+                        case "way":
+                            osmObject = start(reader, OSMType.WAY);
+                            break;
+                        case "relation":
+                            osmObject = start(reader, OSMType.RELATION);
+                            break;
+                        case "nd":
+                            osmObject.setRef(reader.getAttributeValue(null, "ref"));
+                            break;
+                        case "tag":
+                            // Only the keys we use are kept
+                            int key = TagDictionary.keyCode(reader.getAttributeValue(null, "k"));
+                            if (key != TagDictionary.UNKNOWN_KEY) osmObject.addTag(key, reader.getAttributeValue(null, "v"));
+                            break;
+                        case "member":
+                            osmObject.addMember(Long.parseLong(reader.getAttributeValue(null, "ref")), reader.getAttributeValue(null, "role"));
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (eventType == XMLStreamReader.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "node":
+                        case "way":
+                        case "relation":
+                            if (action == null) throw new IOException("Element " + osmObject.getId() + " outside of a create, modify or delete block");
+                            changes.add(new Change(action, osmObject));
+                            osmObject = null;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        return changes;
+    }
+
+    /**
+     * Creates the object of an element that starts at the current position of the reader.
+     */
+    private static OSMObject start(XMLStreamReader reader, OSMType type) {
+        OSMObject osmObject = new OSMObject();
+        osmObject.setType(type);
+        osmObject.setId(Long.parseLong(reader.getAttributeValue(null, "id")));
+        return osmObject;
+    }
+}
@@ -1,39 +1,70 @@
 package edu.itu.the_d.map.dataprocessing;
 
-import edu.itu.the_d.map.datastructures.Pair;
-
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * Class used to store data from the osm file.
  * <p>
+ * The object is a reusable record: refs, tags and members are kept in primitive and parallel arrays which only grow,
+ * and {@link #clear()} resets it so it can be filled with the next element. Tags with a key in the
+ * {@link TagDictionary} are stored by key code, as a value code or, for free text keys, as a string. Any other tags
+ * (such as the coordinates of the bounds) are kept as plain key/value strings. Objects are passed between the parser and
+ * the {@link MapObjectFactory} through an {@link OSMObjectPool}, so ingestion allocates almost nothing per element once
+ * the pool is warm. Since the arrays are reused, nothing returned by the object may be kept after it's released,
+ * except the strings themselves.
+ * <p>
  * Copyright 2016 The-D
  */
 public class OSMObject {
-    public Map<String, String> tagsMap;
-    public Set<Pair<Long, String>> memberSet;
+    private static final int INITIAL_CAPACITY = 8;
+
     private long id;
     private float lat;
     private float lon;
-    private List<Long> ref;
     private OSMType type = OSMType.UNKNOWN;
 
+    private long[] refs = new long[INITIAL_CAPACITY];
+    private int refCount;
+
+    // Value codes and free text values of the dictionary tags, indexed by key code
+    private final int[] tagCodes = new int[TagDictionary.KEY_COUNT];
+    private final String[] tagTexts = new String[TagDictionary.KEY_COUNT];
+
+    // Tags outside the dictionary
+    private String[] tagKeys = new String[0];
+    private String[] tagValues = new String[0];
+    private int tagCount;
+
+    private long[] memberRefs = new long[0];
+    private String[] memberRoles = new String[0];
+    private int memberCount;
+
     /**
-     * Constructor that creates a new OSMObject, with a HashMap, HashSet and ArrayList
+     * Resets the object so it can be reused for another element. The arrays are kept at their current size.
      */
-    public OSMObject() {
-        this.tagsMap = new HashMap<>();
-        this.memberSet = new HashSet<>();
-        this.ref = new ArrayList<>();
+    public void clear() {
+        id = 0;
+        lat = 0;
+        lon = 0;
+        type = OSMType.UNKNOWN;
+        refCount = 0;
+        // Let go of the strings so they can be garbage collected
+        Arrays.fill(tagCodes, TagDictionary.ABSENT);
+        Arrays.fill(tagTexts, null);
+        Arrays.fill(tagKeys, 0, tagCount, null);
+        Arrays.fill(tagValues, 0, tagCount, null);
+        tagCount = 0;
+        Arrays.fill(memberRoles, 0, memberCount, null);
+        memberCount = 0;
     }
 
     /**
      * Returns the reference on index k
-     * @param k of type string
-     * @return the reference as a string
+     * @param k of type int
+     * @return the reference as a long
      */
     public long getRef(int k) {
-        return ref.get(k);
+        return refs[k];
     }
 
     /**
@@ -41,7 +72,15 @@ public class OSMObject {
      * @return the size as an int.
      */
     public int getRefSize() {
-        return ref.size();
+        return refCount;
+    }
+
+    /**
+     * Returns a copy of the refs, which may be kept after the object is released.
+     * @return the refs as a new array
+     */
+    public long[] copyRefs() {
+        return Arrays.copyOf(refs, refCount);
     }
 
     /**
@@ -93,62 +132,188 @@ public class OSMObject {
     }
 
     /**
-     * Iterates over the tagsMap
-     * @return the tag.
+     * Adds tings to the ref list
+     * @param k of type string.
      */
-    public Iterator<Map.Entry<String, String>> getTagsIterator() {
-        return tagsMap.entrySet().iterator();
+    public void setRef(String k) {
+        addRef(Long.parseLong(k));
     }
 
     /**
-     * Returns the refs
-     * @return of type strings
+     * Adds a reference to the ref list
+     * @param k of type long
      */
-    public List<Long> getRef() {
-        return ref;
+    public void addRef(long k) {
+        if (refCount == refs.length) refs = Arrays.copyOf(refs, refCount * 2);
+        refs[refCount++] = k;
     }
 
     /**
-     * Adds tings to the ref list
-     * @param k of type string.
+     * Returns the value code of the tag with the given key code.
+     * @param key the key code
+     * @return the value code, {@link TagDictionary#ABSENT} if the object doesn't have the tag
      */
-    public void setRef(String k) {
-        ref.add(Long.parseLong(k));
+    public int getTagCode(int key) {
+        return tagCodes[key];
+    }
+
+    /**
+     * Returns whether the object has a tag with the given key code.
+     * @param key the key code
+     * @return true if the tag is there
+     */
+    public boolean hasTag(int key) {
+        return tagCodes[key] != TagDictionary.ABSENT;
+    }
+
+    /**
+     * Returns the value of the free text tag with the given key code.
+     * @param key the key code of a free text key
+     * @return the value, or null if the object doesn't have the tag
+     */
+    public String getTagText(int key) {
+        return tagTexts[key];
+    }
+
+    /**
+     * Sets the value code of the tag with the given key code.
+     * @param key   the key code
+     * @param value the value code
+     */
+    public void setTagCode(int key, int value) {
+        tagCodes[key] = value;
     }
 
     /**
-     * Returns the tags with the given key.
+     * Sets the value of the free text tag with the given key code.
+     * @param key   the key code of a free text key
+     * @param value the value
+     */
+    public void setTagText(int key, String value) {
+        tagCodes[key] = TagDictionary.OTHER;
+        tagTexts[key] = value;
+    }
+
+    /**
+     * Adds a tag with the given key code, storing the value as free text or as a value code depending on the key.
+     * @param key   the key code
+     * @param value the value
+     */
+    public void addTag(int key, String value) {
+        if (TagDictionary.isFreeText(key)) setTagText(key, value);
+        else setTagCode(key, TagDictionary.valueCode(value));
+    }
+
+    /**
+     * Returns the value of the tag with the given key. For keys coded by the {@link TagDictionary} only known values
+     * can be returned, so those are better read through {@link #getTagCode(int)}.
      * @param key of type string
      * @return tags as strings
      */
     public String getTag(String key) {
-        return tagsMap.get(key);
+        int code = TagDictionary.keyCode(key);
+        if (code != TagDictionary.UNKNOWN_KEY) {
+            return TagDictionary.isFreeText(code) ? tagTexts[code] : TagDictionary.value(tagCodes[code]);
+        }
+        for (int i = 0; i < tagCount; i++) {
+            if (tagKeys[i].equals(key)) return tagValues[i];
+        }
+        return null;
     }
 
     /**
-     * Adds tags to the hashMap
+     * Adds a tag. If the key is already there its value is replaced.
      * @param key   of type string
      * @param value of type string
      */
     public void addTags(String key, String value) {
-        tagsMap.put(key, value);
+        int code = TagDictionary.keyCode(key);
+        if (code != TagDictionary.UNKNOWN_KEY) {
+            addTag(code, value);
+            return;
+        }
+        for (int i = 0; i < tagCount; i++) {
+            if (tagKeys[i].equals(key)) {
+                tagValues[i] = value;
+                return;
+            }
+        }
+        if (tagCount == tagKeys.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, tagCount * 2);
+            tagKeys = Arrays.copyOf(tagKeys, capacity);
+            tagValues = Arrays.copyOf(tagValues, capacity);
+        }
+        tagKeys[tagCount] = key;
+        tagValues[tagCount] = value;
+        tagCount++;
+    }
+
+    /**
+     * Gets the number of tags outside the dictionary.
+     * @return the number of tags
+     */
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    /**
+     * Returns the key of the tag outside the dictionary on index k
+     * @param k of type int
+     * @return the key
+     */
+    public String getTagKey(int k) {
+        return tagKeys[k];
+    }
+
+    /**
+     * Returns the value of the tag outside the dictionary on index k
+     * @param k of type int
+     * @return the value
+     */
+    public String getTagValue(int k) {
+        return tagValues[k];
+    }
+
+    /**
+     * Adds a member
+     * @param ref  the id of the member
+     * @param role the role of the member
+     */
+    public void addMember(long ref, String role) {
+        if (memberCount == memberRefs.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, memberCount * 2);
+            memberRefs = Arrays.copyOf(memberRefs, capacity);
+            memberRoles = Arrays.copyOf(memberRoles, capacity);
+        }
+        memberRefs[memberCount] = ref;
+        memberRoles[memberCount] = role;
+        memberCount++;
+    }
+
+    /**
+     * Gets the number of members.
+     * @return the number of members
+     */
+    public int getMemberCount() {
+        return memberCount;
     }
 
     /**
-     * Adds members to the HashSet
-     * @param key   of type long
-     * @param value of type Pair
+     * Returns the id of the member on index k
+     * @param k of type int
+     * @return the id of the member
      */
-    public void addMember(long key, String value) {
-        memberSet.add(new Pair<>(key, value));
+    public long getMemberRef(int k) {
+        return memberRefs[k];
     }
 
     /**
-     * Gets the member set
-     * @return member set
+     * Returns the role of the member on index k
+     * @param k of type int
+     * @return the role of the member
      */
-    public Set<Pair<Long, String>> getMemberSet() {
-        return memberSet;
+    public String getMemberRole(int k) {
+        return memberRoles[k];
     }
 
     /**
@@ -178,4 +343,4 @@ public class OSMObject {
         return type.toString();
     }
 
-}
\ No newline at end of file
+}
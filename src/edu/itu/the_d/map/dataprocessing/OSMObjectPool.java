@@ -0,0 +1,112 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Pool of reusable {@link OSMObject}s shared by the parser and the {@link MapObjectFactory}. The parser acquires an
+ * object for each element it reads, and the factory releases it again once it has been converted. Once enough objects
+ * are circulating, ingestion no longer allocates new ones.
+ * </p>
+ * <p>
+ * The pool is thread-safe, so objects may be acquired and released from any thread (for instance the worker threads
+ * of the {@link PBFParser} and the {@link MapObjectFactory}). Like the {@link ChunkPipe}, the objects are handed
+ * between threads in chunks of {@link #CHUNK_SIZE}: each thread acquires from and releases to a chunk of its own, and
+ * only touches the shared queues when its chunk runs empty or full. A thread with an empty chunk swaps it for a full
+ * one, and a thread with a full chunk swaps it for an empty one, so the threads synchronize once per chunk rather than
+ * once per object.
+ * </p>
+ * <p>
+ * If there's no full chunk to take a new object is created, and if the pool is full a released chunk is simply left to
+ * the garbage collector, as are the objects in the chunk of a thread that ends.
+ * </p>
+ * Copyright 2016 The-D
+ */
+public class OSMObjectPool {
+    /**
+     * Number of objects per chunk.
+     */
+    public static final int CHUNK_SIZE = 256;
+
+    // Chunks of free objects, and emptied chunks to put released objects in
+    private final BlockingQueue<OSMObject[]> fullChunks;
+    private final BlockingQueue<OSMObject[]> emptyChunks;
+    // The chunk of each thread
+    private final ThreadLocal<Chunk> chunks = ThreadLocal.withInitial(Chunk::new);
+
+    /**
+     * Creates a new pool holding at most the given number of free objects, besides the chunks of the threads. The
+     * capacity is rounded up to whole chunks.
+     *
+     * @param capacity the maximum number of free objects kept in the pool
+     */
+    public OSMObjectPool(int capacity) {
+        int chunkCapacity = Math.max(1, (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        fullChunks = new ArrayBlockingQueue<>(chunkCapacity);
+        emptyChunks = new ArrayBlockingQueue<>(chunkCapacity);
+    }
+
+    /**
+     * Takes a cleared object from the pool, or creates a new one if the pool is empty.
+     *
+     * @return an empty {@link OSMObject}
+     */
+    public OSMObject acquire() {
+        Chunk chunk = chunks.get();
+        if (chunk.size == 0) {
+            OSMObject[] full = fullChunks.poll();
+            if (full == null) return new OSMObject();
+            emptyChunks.offer(chunk.objects);
+            chunk.objects = full;
+            chunk.size = CHUNK_SIZE;
+        }
+        return chunk.objects[--chunk.size];
+    }
+
+    /**
+     * Clears the object and returns it to the pool. The object must not be used by the caller afterwards.
+     *
+     * @param osmObject the object to return
+     */
+    public void release(OSMObject osmObject) {
+        osmObject.clear();
+        Chunk chunk = chunks.get();
+        if (chunk.size == CHUNK_SIZE) {
+            fullChunks.offer(chunk.objects);
+            OSMObject[] empty = emptyChunks.poll();
+            chunk.objects = empty != null ? empty : new OSMObject[CHUNK_SIZE];
+            chunk.size = 0;
+        }
+        chunk.objects[chunk.size++] = osmObject;
+    }
+
+    /**
+     * Takes an object from the given pool, or creates a new one if there is no pool.
+     *
+     * @param pool the pool to take the object from, may be null
+     * @return an empty {@link OSMObject}
+     */
+    static OSMObject acquireOrCreate(OSMObjectPool pool) {
+        return pool != null ? pool.acquire() : new OSMObject();
+    }
+
+    /**
+     * Returns the object to the given pool, if there is one.
+     *
+     * @param pool      the pool to return the object to, may be null
+     * @param osmObject the object to return
+     */
+    static void releaseIfPooled(OSMObjectPool pool, OSMObject osmObject) {
+        if (pool != null) pool.release(osmObject);
+    }
+
+    /**
+     * The objects a thread acquires from and releases to. Only the first size objects are free, the rest of the array
+     * may still refer to objects that have been acquired.
+     */
+    private static class Chunk {
+        OSMObject[] objects = new OSMObject[CHUNK_SIZE];
+        int size;
+    }
+}
@@ -14,8 +14,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.channels.Channels;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -24,23 +23,68 @@ import java.util.zip.ZipInputStream;
  * Copyright 2016 The-D
  */
 public class OSMParser implements Runnable {
-    public BlockingQueue<OSMObject> queue;
-    private AtomicBoolean endOfParseSignal;
+    /**
+     * Parse modes. SCANNER uses the byte level {@link OSMScanner}, STAX uses the StAX XMLStreamReader.
+     */
+    public static final int SCANNER = 0, STAX = 1;
+    public ChunkPipe<OSMObject> queue;
+    private final int mode;
+    private final OSMObjectPool pool;
+    private final IngestFilter filter;
     private XMLStreamReader streamReader;
+    private OSMScanner scanner;
     private int latlon = 0;
     private OSMObject osmObject;
 
     /**
-     * Creates a new OSMParser with a BlockingQueue and has
-     * a endOfParseSignal for when the parser is done.
+     * Creates a new OSMParser with a pipe to put the OSMObjects into. The pipe is closed when the parser is done.
+     *
+     * @param filename a string, to the osm file
+     * @param queue    a pipe to put OSMObjects
+     */
+    public OSMParser(String filename, ChunkPipe<OSMObject> queue) {
+        this(filename, queue, SCANNER);
+    }
+
+    /**
+     * Creates a new OSMParser using the given parse mode.
+     *
+     * @param filename a string, to the osm file
+     * @param queue    a pipe to put OSMObjects
+     * @param mode     either {@link #SCANNER} or {@link #STAX}
+     */
+    public OSMParser(String filename, ChunkPipe<OSMObject> queue, int mode) {
+        this(filename, queue, mode, null);
+    }
+
+    /**
+     * Creates a new OSMParser using the given parse mode, which takes the objects it puts into the pipe from the
+     * given pool.
+     *
+     * @param filename a string, to the osm file
+     * @param queue    a pipe to put OSMObjects
+     * @param mode     either {@link #SCANNER} or {@link #STAX}
+     * @param pool     the pool to take {@link OSMObject}s from, or null to create new ones
+     */
+    public OSMParser(String filename, ChunkPipe<OSMObject> queue, int mode, OSMObjectPool pool) {
+        this(filename, queue, mode, pool, null);
+    }
+
+    /**
+     * Creates a new OSMParser which only puts the objects accepted by the given filter into the pipe. The rejected
+     * objects are released to the pool right away.
      *
-     * @param filename         a string, to the osm file
-     * @param queue            a queue to put OSMObjects
-     * @param endOfParseSignal boolean signaling that {@link OSMParser} is done
+     * @param filename a string, to the osm file
+     * @param queue    a pipe to put OSMObjects
+     * @param mode     either {@link #SCANNER} or {@link #STAX}
+     * @param pool     the pool to take {@link OSMObject}s from, or null to create new ones
+     * @param filter   the filter the objects must pass, or null to put every object into the pipe
      */
-    public OSMParser(String filename, BlockingQueue<OSMObject> queue, AtomicBoolean endOfParseSignal) {
+    public OSMParser(String filename, ChunkPipe<OSMObject> queue, int mode, OSMObjectPool pool, IngestFilter filter) {
         this.queue = queue;
-        this.endOfParseSignal = endOfParseSignal;
+        this.mode = mode;
+        this.pool = pool;
+        this.filter = filter;
         try {
             //FileInputStream in = null;
             InputStream in;
@@ -57,6 +101,10 @@ public class OSMParser implements Runnable {
                 LoadingView.hasFailed("Specified map file could not be found: "+ filename);
                 return;
             }
+            if (mode == SCANNER) {
+                this.scanner = new OSMScanner(Channels.newChannel(in), pool);
+                return;
+            }
             XMLInputFactory factory = XMLInputFactory.newInstance();
             this.streamReader = factory.createXMLStreamReader(in);
             //this.eventReader = factory.createXMLEventReader(in);
@@ -82,13 +130,51 @@ public class OSMParser implements Runnable {
     }
 
     /**
-     * Creates a new {@link OSMObject} and runs through the data
-     * adding tags to the OSMObject and puts each OSMObject into the BlockingQueue.
+     * Runs through the data and puts each {@link OSMObject} into the pipe,
+     * using the parse mode given to the constructor. The pipe is closed once the whole file is parsed.
      */
     public void run() {
         Thread.currentThread().setName("OSMParser-Thread");
 
-        this.osmObject = new OSMObject();
+        if (mode == SCANNER) runScanner();
+        else runStax();
+
+        try {
+            queue.close();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e.toString());
+        }
+        Debugger.print(User.AESK, "Dataprocessing: OSMParser Done");
+    }
+
+    /**
+     * Pulls each {@link OSMObject} from the {@link OSMScanner} and puts it into the pipe.
+     */
+    private void runScanner() {
+        try {
+            OSMObject next;
+            while ((next = scanner.next()) != null) {
+                put(next);
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
+    /**
+     * Puts the object into the pipe if the filter accepts it, and otherwise releases it.
+     */
+    private void put(OSMObject osmObject) throws InterruptedException {
+        if (filter == null || filter.accepts(osmObject)) queue.put(osmObject);
+        else OSMObjectPool.releaseIfPooled(pool, osmObject);
+    }
+
+    /**
+     * Creates a new {@link OSMObject} and runs through the data
+     * adding tags to the OSMObject and puts each OSMObject into the pipe.
+     */
+    private void runStax() {
+        this.osmObject = OSMObjectPool.acquireOrCreate(pool);
         try {
             while (streamReader.hasNext()) {
                 int eventType = streamReader.next();
@@ -97,14 +183,14 @@ public class OSMParser implements Runnable {
                     String elementName = streamReader.getLocalName();
                     switch (elementName) {
                         case "bounds":
-                            OSMObject bounds = new OSMObject();
+                            OSMObject bounds = OSMObjectPool.acquireOrCreate(pool);
                             bounds.setType(OSMType.BOUNDS);
                             while (streamReader.getAttributeName(i) != null) {
                                 // adds the value of "minlat", "minlon", "maxlat" and "maxlon" bounds tags
                                 bounds.addTags(streamReader.getAttributeName(i).toString(), streamReader.getAttributeValue(i));
                                 i++;
                             }
-                            queue.put(bounds);
+                            put(bounds);
                             break;
                         case "node":
                             // gets the value from the ID of type node and sets it
@@ -133,8 +219,9 @@ public class OSMParser implements Runnable {
                             osmObject.setRef(streamReader.getAttributeValue(0));
                             break;
                         case "tag":
-                            // gets the value of type tag and adds them to a hashMap
-                            osmObject.addTags(streamReader.getAttributeValue(0), streamReader.getAttributeValue(1));
+                            // gets the value of type tag and adds it if the key is one we use
+                            int key = TagDictionary.keyCode(streamReader.getAttributeValue(0));
+                            if (key != TagDictionary.UNKNOWN_KEY) osmObject.addTag(key, streamReader.getAttributeValue(1));
                             break;
                         case "relation":
                             // gets the value of the ID of type relation and sets it
@@ -153,20 +240,20 @@ public class OSMParser implements Runnable {
                         case "way":
                             // sets the OSMType to WAY and adds it to the queue
                             osmObject.setType(OSMType.WAY);
-                            queue.put(osmObject);
-                            osmObject = new OSMObject();
+                            put(osmObject);
+                            osmObject = OSMObjectPool.acquireOrCreate(pool);
                             break;
                         case "relation":
                             // sets the OSMType to relation and adds it to the queue
                             osmObject.setType(OSMType.RELATION);
-                            queue.put(osmObject);
-                            osmObject = new OSMObject();
+                            put(osmObject);
+                            osmObject = OSMObjectPool.acquireOrCreate(pool);
                             break;
                         case "node":
                             // sets the OSMType to node and adds it to the queue
                             osmObject.setType(OSMType.NODE);
-                            queue.put(osmObject);
-                            osmObject = new OSMObject();
+                            put(osmObject);
+                            osmObject = OSMObjectPool.acquireOrCreate(pool);
                             break;
                     }
                 }
@@ -174,8 +261,6 @@ public class OSMParser implements Runnable {
         } catch (XMLStreamException | InterruptedException e) {
             throw new RuntimeException(e.toString());
         }
-        endOfParseSignal.set(true);
-        Debugger.print(User.AESK, "Dataprocessing: OSMParser Done");
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,585 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Byte level tokenizer for OSM XML files. The scanner reads the raw bytes of the file into one large NIO buffer and
+ * walks the markup directly, instead of going through a general purpose XML parser. This means that ids, references and
+ * coordinates are decoded straight from the bytes into primitives, and that no strings are created for element names,
+ * attribute names or attributes we don't use.
+ * </p>
+ * <p>
+ * Tags are only materialized if their key is in the {@link TagDictionary}, which holds the keys the
+ * {@link MapObjectFactory} actually asks for. All other tags are skipped without ever being decoded. Keys and coded
+ * values are looked up in the dictionary straight from the bytes, so only free text values become strings.
+ * </p>
+ * <p>
+ * The scanner produces exactly the same {@link OSMObject}s as the StAX based path of the {@link OSMParser}, one at a
+ * time through {@link #next()}.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see OSMParser
+ */
+public class OSMScanner {
+    // Size of the input buffer. The buffer grows if a single element doesn't fit.
+    private static final int BUFFER_SIZE = 1 << 22;
+    // Maximum number of decimal digits that can be converted exactly through a long mantissa
+    private static final int MAX_MANTISSA_DIGITS = 15;
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private final ReadableByteChannel channel;
+    private byte[] buf;
+    private ByteBuffer byteBuffer;
+    private int pos, limit;
+    private boolean eof;
+
+    // Attribute positions of the element currently being scanned
+    private int attrCount;
+    private int[] attrNameStart = new int[16], attrNameEnd = new int[16];
+    private int[] attrValueStart = new int[16], attrValueEnd = new int[16];
+
+    // Scratch buffer for values containing entities or non-ascii characters
+    private byte[] scratch = new byte[256];
+
+    // The pool objects are taken from (may be null) and the object currently being filled
+    private final OSMObjectPool pool;
+    private OSMObject osmObject;
+
+    /**
+     * Create a new scanner reading from the given channel. The channel is read until it's exhausted, but it's up to
+     * the caller to close it.
+     *
+     * @param channel the channel to read the osm xml from
+     */
+    public OSMScanner(ReadableByteChannel channel) {
+        this(channel, null);
+    }
+
+    /**
+     * Create a new scanner reading from the given channel, which takes the objects it returns from the given pool.
+     *
+     * @param channel the channel to read the osm xml from
+     * @param pool    the pool to take {@link OSMObject}s from, or null to create new ones
+     */
+    public OSMScanner(ReadableByteChannel channel, OSMObjectPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        this.osmObject = OSMObjectPool.acquireOrCreate(pool);
+        this.buf = new byte[BUFFER_SIZE];
+        this.byteBuffer = ByteBuffer.wrap(buf);
+    }
+
+    /**
+     * Scans forward to the next complete bounds, node, way or relation and returns it.
+     *
+     * @return the next {@link OSMObject} in the file, or null when the end of the file is reached
+     * @throws IOException if reading from the channel fails
+     * @throws IllegalStateException if the input is not well formed osm xml (for instance a node without coordinates)
+     */
+    public OSMObject next() throws IOException {
+        while (true) {
+            // Find the beginning of the next element
+            int start = indexOf((byte) '<');
+            if (start < 0) return null;
+            pos = start;
+
+            // Make sure the whole element is in the buffer
+            int end = elementEnd();
+            if (end < 0) throw new IllegalStateException("Unexpected end of file in element");
+            // Reading more input may have moved the element within the buffer
+            start = pos;
+
+            byte first = buf[start + 1];
+            OSMObject res;
+            if (first == '?' || first == '!') res = null; // Prolog, comments and doctype
+            else if (first == '/') res = endElement(start + 2, end);
+            else res = startElement(start + 1, end);
+
+            pos = end + 1;
+            if (res != null) return res;
+        }
+    }
+
+    /**
+     * Handles a start element (or a self closing element) spanning the bytes from start to end.
+     *
+     * @param start index of the first character of the element name
+     * @param end   index of the closing '&gt;'
+     * @return a finished object if the element completes one, null otherwise
+     */
+    private OSMObject startElement(int start, int end) {
+        int nameEnd = start;
+        while (nameEnd < end && !isNameEnd(buf[nameEnd])) nameEnd++;
+        int length = nameEnd - start;
+        boolean selfClosing = buf[end - 1] == '/';
+
+        switch (length) {
+            case 2:
+                if (is(start, "nd")) {
+                    parseAttributes(nameEnd, end);
+                    osmObject.addRef(parseLong(requireAttribute("ref")));
+                }
+                return null;
+            case 3:
+                if (is(start, "tag")) {
+                    parseAttributes(nameEnd, end);
+                    int k = requireAttribute("k");
+                    int key = TagDictionary.keyCode(buf, attrValueStart[k], attrValueEnd[k]);
+                    if (key != TagDictionary.UNKNOWN_KEY) {
+                        int v = requireAttribute("v");
+                        if (TagDictionary.isFreeText(key)) osmObject.setTagText(key, decode(v));
+                        else osmObject.setTagCode(key, valueCode(v));
+                    }
+                } else if (is(start, "way")) {
+                    parseAttributes(nameEnd, end);
+                    osmObject.setId(parseLong(requireAttribute("id")));
+                    if (selfClosing) return finish(OSMType.WAY);
+                }
+                return null;
+            case 4:
+                if (is(start, "node")) {
+                    parseAttributes(nameEnd, end);
+                    osmObject.setId(parseLong(requireAttribute("id")));
+                    osmObject.setLat(parseFloat(requireAttribute("lat")));
+                    osmObject.setLon(parseFloat(requireAttribute("lon")));
+                    if (selfClosing) return finish(OSMType.NODE);
+                }
+                return null;
+            case 6:
+                if (is(start, "member")) {
+                    parseAttributes(nameEnd, end);
+                    osmObject.addMember(parseLong(requireAttribute("ref")), decode(requireAttribute("role")));
+                } else if (is(start, "bounds")) {
+                    parseAttributes(nameEnd, end);
+                    OSMObject bounds = OSMObjectPool.acquireOrCreate(pool);
+                    bounds.setType(OSMType.BOUNDS);
+                    // Adds the value of "minlat", "minlon", "maxlat" and "maxlon" as tags
+                    for (int i = 0; i < attrCount; i++) {
+                        bounds.addTags(new String(buf, attrNameStart[i], attrNameEnd[i] - attrNameStart[i], StandardCharsets.ISO_8859_1), decode(i));
+                    }
+                    return bounds;
+                }
+                return null;
+            case 8:
+                if (is(start, "relation")) {
+                    parseAttributes(nameEnd, end);
+                    osmObject.setId(parseLong(requireAttribute("id")));
+                    if (selfClosing) return finish(OSMType.RELATION);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Handles an end element spanning the bytes from start to end.
+     *
+     * @param start index of the first character of the element name
+     * @param end   index of the closing '&gt;'
+     * @return a finished object if the element completes one, null otherwise
+     */
+    private OSMObject endElement(int start, int end) {
+        int nameEnd = start;
+        while (nameEnd < end && !isNameEnd(buf[nameEnd])) nameEnd++;
+        switch (nameEnd - start) {
+            case 3:
+                if (is(start, "way")) return finish(OSMType.WAY);
+                return null;
+            case 4:
+                if (is(start, "node")) return finish(OSMType.NODE);
+                return null;
+            case 8:
+                if (is(start, "relation")) return finish(OSMType.RELATION);
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sets the type of the current object and starts a new one.
+     *
+     * @param type the type of the finished object
+     * @return the finished object
+     */
+    private OSMObject finish(OSMType type) {
+        OSMObject res = osmObject;
+        res.setType(type);
+        osmObject = OSMObjectPool.acquireOrCreate(pool);
+        return res;
+    }
+
+    /**
+     * Records the positions of all attributes between from and end.
+     *
+     * @param from index right after the element name
+     * @param end  index of the closing '&gt;'
+     */
+    private void parseAttributes(int from, int end) {
+        attrCount = 0;
+        int i = from;
+        while (true) {
+            while (i < end && isWhitespace(buf[i])) i++;
+            if (i >= end || buf[i] == '/') return;
+
+            int nameStart = i;
+            while (i < end && buf[i] != '=' && !isWhitespace(buf[i])) i++;
+            int nameEnd = i;
+            while (i < end && buf[i] != '=') i++;
+            i++;
+            while (i < end && isWhitespace(buf[i])) i++;
+            if (i >= end) throw new IllegalStateException("Malformed attribute in element");
+
+            byte quote = buf[i++];
+            int valueStart = i;
+            while (i < end && buf[i] != quote) i++;
+            if (i >= end) throw new IllegalStateException("Unterminated attribute value in element");
+
+            if (attrCount == attrNameStart.length) growAttributes();
+            attrNameStart[attrCount] = nameStart;
+            attrNameEnd[attrCount] = nameEnd;
+            attrValueStart[attrCount] = valueStart;
+            attrValueEnd[attrCount] = i;
+            attrCount++;
+            i++;
+        }
+    }
+
+    /**
+     * Doubles the capacity of the attribute position arrays.
+     */
+    private void growAttributes() {
+        int capacity = attrNameStart.length * 2;
+        attrNameStart = java.util.Arrays.copyOf(attrNameStart, capacity);
+        attrNameEnd = java.util.Arrays.copyOf(attrNameEnd, capacity);
+        attrValueStart = java.util.Arrays.copyOf(attrValueStart, capacity);
+        attrValueEnd = java.util.Arrays.copyOf(attrValueEnd, capacity);
+    }
+
+    /**
+     * Finds the attribute with the given (ascii) name in the current element.
+     *
+     * @param name the attribute name
+     * @return the index of the attribute
+     * @throws IllegalStateException if the element doesn't have the attribute
+     */
+    private int requireAttribute(String name) {
+        for (int i = 0; i < attrCount; i++) {
+            if (attrNameEnd[i] - attrNameStart[i] == name.length() && is(attrNameStart[i], name)) return i;
+        }
+        throw new IllegalStateException("Missing attribute \"" + name + "\" for element with id " + osmObject.getId());
+    }
+
+    /**
+     * Checks whether the ascii string is found in the buffer at the given position.
+     */
+    private boolean is(int at, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[at + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the value of an attribute as a long without creating a string.
+     *
+     * @param attr index of the attribute
+     * @return the parsed value
+     */
+    private long parseLong(int attr) {
+        int i = attrValueStart[attr];
+        int end = attrValueEnd[attr];
+        boolean negative = i < end && buf[i] == '-';
+        if (negative) i++;
+        if (i >= end) throw new NumberFormatException("Empty number in element with id " + osmObject.getId());
+        long res = 0;
+        for (; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Illegal number in element with id " + osmObject.getId());
+            res = res * 10 + digit;
+        }
+        return negative ? -res : res;
+    }
+
+    /**
+     * Parses the value of an attribute as a float without creating a string. The result is identical to
+     * {@link Float#parseFloat(String)}, see {@link #toFloat(long, int)}.
+     *
+     * @param attr index of the attribute
+     * @return the parsed value
+     * @throws NumberFormatException if the value isn't a number, for instance if it has no digits
+     */
+    private float parseFloat(int attr) {
+        int start = attrValueStart[attr];
+        int end = attrValueEnd[attr];
+        int i = start;
+        boolean negative = i < end && buf[i] == '-';
+        if (negative) i++;
+
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean fraction = false, anyDigit = false;
+        for (; i < end; i++) {
+            byte b = buf[i];
+            if (b == '.' && !fraction) {
+                fraction = true;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                anyDigit = true;
+                if (mantissa != 0) digits++;
+                if (fraction) scale++;
+            } else {
+                digits = Integer.MAX_VALUE; // Exponents and the like
+                break;
+            }
+        }
+
+        if (digits <= MAX_MANTISSA_DIGITS) {
+            if (!anyDigit) throw new NumberFormatException("Empty number in element with id " + osmObject.getId());
+            float res = toFloat(mantissa, scale);
+            return negative ? -res : res;
+        }
+        return Float.parseFloat(new String(buf, start, end - start, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Converts the decimal unscaled * 10^-scale to the float {@link Float#parseFloat(String)} would give for it. The
+     * decimal is converted to a double through one exact division and then rounded to a float. In the rare cases where
+     * that double lies exactly halfway between two floats, or the number doesn't fit a double exactly, the decimal is
+     * parsed the regular way instead.
+     *
+     * @param unscaled the digits of the decimal
+     * @param scale    the number of digits after the decimal point
+     * @return the nearest float
+     */
+    static float toFloat(long unscaled, int scale) {
+        if (scale >= 0 && scale < POW10.length && Math.abs(unscaled) < 1L << 53) {
+            double d = unscaled / POW10[scale];
+            // Only fall back if rounding the double to a float could differ from rounding the exact decimal
+            if ((Double.doubleToRawLongBits(d) & 0x1FFFFFFFL) != 0x10000000L) return (float) d;
+        }
+        return Float.parseFloat(java.math.BigDecimal.valueOf(unscaled, scale).toString());
+    }
+
+    /**
+     * Looks up the value of an attribute in the {@link TagDictionary}. Plain ascii values are looked up from the bytes,
+     * anything else is decoded first.
+     *
+     * @param attr index of the attribute
+     * @return the value code
+     */
+    private int valueCode(int attr) {
+        int start = attrValueStart[attr];
+        int end = attrValueEnd[attr];
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b < 0 || b == '&') return TagDictionary.valueCode(decode(attr));
+        }
+        return TagDictionary.valueCode(buf, start, end);
+    }
+
+    /**
+     * Decodes the value of an attribute to a string, resolving entities and utf-8 sequences.
+     *
+     * @param attr index of the attribute
+     * @return the value as a string
+     */
+    private String decode(int attr) {
+        int start = attrValueStart[attr];
+        int end = attrValueEnd[attr];
+
+        // Fast path for plain ascii values
+        boolean plain = true;
+        for (int i = start; i < end && plain; i++) {
+            byte b = buf[i];
+            plain = b >= 0 && b != '&';
+        }
+        if (plain) return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+
+        if (scratch.length < (end - start) * 2) scratch = new byte[(end - start) * 2];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b != '&') {
+                scratch[n++] = b;
+                continue;
+            }
+            int semicolon = i + 1;
+            while (semicolon < end && buf[semicolon] != ';') semicolon++;
+            int codePoint = semicolon < end ? entity(i + 1, semicolon) : -1;
+            if (codePoint < 0) {
+                // Not a known entity, keep the ampersand as it is
+                scratch[n++] = b;
+                continue;
+            }
+            n = encodeUtf8(codePoint, n);
+            i = semicolon;
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Resolves the entity between start and end (without '&amp;' and ';').
+     *
+     * @return the code point of the entity or -1 if it's not recognized
+     */
+    private int entity(int start, int end) {
+        int length = end - start;
+        if (length <= 0) return -1;
+        if (buf[start] == '#') {
+            int radix = 10;
+            int i = start + 1;
+            if (i < end && (buf[i] == 'x' || buf[i] == 'X')) {
+                radix = 16;
+                i++;
+            }
+            if (i >= end) return -1;
+            int res = 0;
+            for (; i < end; i++) {
+                int digit = Character.digit(buf[i], radix);
+                if (digit < 0) return -1;
+                res = res * radix + digit;
+                if (res > Character.MAX_CODE_POINT) return -1;
+            }
+            return res;
+        }
+        if (length == 3 && is(start, "amp")) return '&';
+        if (length == 2 && is(start, "lt")) return '<';
+        if (length == 2 && is(start, "gt")) return '>';
+        if (length == 4 && is(start, "quot")) return '"';
+        if (length == 4 && is(start, "apos")) return '\'';
+        return -1;
+    }
+
+    /**
+     * Writes a code point to the scratch buffer as utf-8.
+     *
+     * @return the new length of the scratch buffer
+     */
+    private int encodeUtf8(int codePoint, int n) {
+        if (codePoint < 0x80) {
+            scratch[n++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            scratch[n++] = (byte) (0xC0 | (codePoint >> 6));
+            scratch[n++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            scratch[n++] = (byte) (0xE0 | (codePoint >> 12));
+            scratch[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            scratch[n++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            scratch[n++] = (byte) (0xF0 | (codePoint >> 18));
+            scratch[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            scratch[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            scratch[n++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        return n;
+    }
+
+    /**
+     * Finds the next occurrence of the byte from the current position, reading more input if needed. Everything before
+     * it is discarded.
+     *
+     * @return the index of the byte, or -1 if the end of the input is reached first
+     */
+    private int indexOf(byte b) throws IOException {
+        while (true) {
+            for (int i = pos; i < limit; i++) {
+                if (buf[i] == b) return i;
+            }
+            pos = limit;
+            if (!fill()) return -1;
+        }
+    }
+
+    /**
+     * Finds the '&gt;' closing the element starting at the current position, making sure the entire element is in the
+     * buffer. Quoted attribute values are skipped, since they may contain '&gt;' themselves. Comments and processing
+     * instructions are closed by "--&gt;" and "?&gt;" respectively.
+     *
+     * @return the index of the closing '&gt;', or -1 if the input ends before the element does
+     */
+    private int elementEnd() throws IOException {
+        while (true) {
+            int res = scanElementEnd();
+            if (res >= 0) return res;
+            if (!fill()) return -1;
+        }
+    }
+
+    /**
+     * Scans for the end of the element starting at the current position within the bytes already in the buffer.
+     *
+     * @return the index of the closing '&gt;', or -1 if it's not in the buffer
+     */
+    private int scanElementEnd() {
+        int i = pos + 1;
+        if (i + 2 < limit && buf[i] == '!' && buf[i + 1] == '-' && buf[i + 2] == '-') {
+            for (i += 3; i + 2 < limit; i++) {
+                if (buf[i] == '-' && buf[i + 1] == '-' && buf[i + 2] == '>') return i + 2;
+            }
+            return -1;
+        }
+        byte quote = 0;
+        for (; i < limit; i++) {
+            byte b = buf[i];
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the unconsumed bytes to the beginning of the buffer and reads more input after them. If the buffer is
+     * entirely unconsumed it's doubled in size.
+     *
+     * @return false if no more input could be read
+     */
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        if (pos == 0 && limit == buf.length) {
+            buf = java.util.Arrays.copyOf(buf, buf.length * 2);
+            byteBuffer = ByteBuffer.wrap(buf);
+        } else if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        byteBuffer.limit(buf.length);
+        byteBuffer.position(limit);
+        int read;
+        do {
+            read = channel.read(byteBuffer);
+        } while (read == 0);
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        limit = byteBuffer.position();
+        return true;
+    }
+
+    /**
+     * @return true if the byte ends an element or attribute name
+     */
+    private static boolean isNameEnd(byte b) {
+        return b == '/' || b == '>' || isWhitespace(b);
+    }
+
+    /**
+     * @return true if the byte is xml whitespace
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
@@ -0,0 +1,665 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import edu.itu.the_d.map.utils.Debugger;
+import edu.itu.the_d.map.utils.LoadingView;
+import edu.itu.the_d.map.utils.User;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Class for parsing OSM PBF files. A pbf file is a sequence of blobs, each holding a zlib compressed protocol buffer
+ * message. The first blob is a header block carrying the bounding box of the file, and the rest are primitive blocks
+ * with a few thousand nodes, ways or relations each. The bounding box is optional, and if the file has none the
+ * {@link MapObjectFactory} takes the bounds from the extent of the nodes.
+ * </p>
+ * <p>
+ * Since the primitive blocks are independent of each other, the parser only reads the raw blobs itself and hands them
+ * to a pool of worker threads which inflate and decode them. The decoded blocks are put into the queue in the order
+ * they appear in the file, so the {@link MapObjectFactory} receives the objects in the same order as from the
+ * {@link OSMParser}. Dense nodes are decoded into primitive arrays before any objects are created for them.
+ * </p>
+ * <p>
+ * Like the {@link OSMScanner}, only tags with a key in the {@link TagDictionary} are kept, and their keys and values are
+ * resolved to codes once per string table rather than once per tag.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see ProtobufReader
+ * @see OSMParser
+ */
+public class PBFParser implements Runnable {
+    // Maximum sizes of blob headers and blobs allowed by the file format
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    // Number of decoded blocks each worker may be ahead of the queue
+    private static final int BLOCKS_PER_WORKER = 2;
+    // Coordinates are stored in nanodegrees
+    private static final int COORDINATE_SCALE = 9;
+
+    public ChunkPipe<OSMObject> queue;
+    private DataInputStream in;
+    private final int threads;
+    private final OSMObjectPool pool;
+    private final IngestFilter filter;
+
+    /**
+     * Creates a new PBFParser which decodes blocks using one thread per available processor, except the one running the
+     * parser itself.
+     *
+     * @param filename a string, to the pbf file
+     * @param queue    a pipe to put OSMObjects, which is closed when the parser is done
+     */
+    public PBFParser(String filename, ChunkPipe<OSMObject> queue) {
+        this(filename, queue, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Creates a new PBFParser which decodes blocks using the given number of threads.
+     *
+     * @param filename a string, to the pbf file
+     * @param queue    a pipe to put OSMObjects, which is closed when the parser is done
+     * @param threads  the number of worker threads decoding blocks
+     */
+    public PBFParser(String filename, ChunkPipe<OSMObject> queue, int threads) {
+        this(filename, queue, threads, null);
+    }
+
+    /**
+     * Creates a new PBFParser which decodes blocks using the given number of threads, and takes the objects it puts
+     * into the pipe from the given pool.
+     *
+     * @param filename a string, to the pbf file
+     * @param queue    a pipe to put OSMObjects, which is closed when the parser is done
+     * @param threads  the number of worker threads decoding blocks
+     * @param pool     the pool to take {@link OSMObject}s from, or null to create new ones
+     */
+    public PBFParser(String filename, ChunkPipe<OSMObject> queue, int threads, OSMObjectPool pool) {
+        this(filename, queue, threads, pool, null);
+    }
+
+    /**
+     * Creates a new PBFParser which only puts the objects accepted by the given filter into the pipe. The rejected
+     * objects are released to the pool right away.
+     *
+     * @param filename a string, to the pbf file
+     * @param queue    a pipe to put OSMObjects, which is closed when the parser is done
+     * @param threads  the number of worker threads decoding blocks
+     * @param pool     the pool to take {@link OSMObject}s from, or null to create new ones
+     * @param filter   the filter the objects must pass, or null to put every object into the pipe
+     */
+    public PBFParser(String filename, ChunkPipe<OSMObject> queue, int threads, OSMObjectPool pool, IngestFilter filter) {
+        this.queue = queue;
+        this.threads = threads;
+        this.pool = pool;
+        this.filter = filter;
+        try {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+        } catch (FileNotFoundException e) {
+            System.err.println("Specified map file could not be found: " + filename);
+            LoadingView.hasFailed("Specified map file could not be found: " + filename);
+        }
+    }
+
+    /**
+     * Reads every blob in the file, decodes the header block right away and hands the primitive blocks to the worker
+     * threads. The decoded objects are put into the pipe in file order, and the pipe is closed at the end, also if the
+     * file can't be read, so the {@link MapObjectFactory} doesn't wait for objects that never come.
+     */
+    public void run() {
+        Thread.currentThread().setName("PBFParser-Thread");
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "PBFParser-Worker");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<List<OSMObject>>> pending = new ArrayDeque<>();
+        try {
+            String[] type = new String[1];
+            byte[] blob;
+            while ((blob = readBlob(type)) != null) {
+                switch (type[0]) {
+                    case "OSMHeader":
+                        OSMObject bounds = decodeHeader(inflate(blob));
+                        if (bounds != null) queue.put(bounds);
+                        break;
+                    case "OSMData":
+                        final byte[] data = blob;
+                        pending.add(workers.submit(() -> decodePrimitiveBlock(inflate(data), pool)));
+                        break;
+                    default:
+                        // Unknown blob types are skipped as required by the format
+                        break;
+                }
+                // Don't let the workers get too far ahead of the queue
+                while (pending.size() >= threads * BLOCKS_PER_WORKER) putAll(pending.poll().get());
+            }
+            while (!pending.isEmpty()) putAll(pending.poll().get());
+        } catch (ExecutionException e) {
+            LoadingView.hasFailed("Could not decode the pbf file: " + e.getCause());
+            throw new RuntimeException(e.getCause().toString());
+        } catch (IOException | InterruptedException e) {
+            LoadingView.hasFailed("Could not read the pbf file: " + e);
+            throw new RuntimeException(e.toString());
+        } catch (RuntimeException e) {
+            LoadingView.hasFailed("Could not read the pbf file: " + e);
+            throw e;
+        } finally {
+            workers.shutdownNow();
+            close();
+        }
+        Debugger.print(User.AESK, "Dataprocessing: PBFParser Done");
+    }
+
+    /**
+     * Closes the file and the pipe. The pipe is closed even if the file couldn't be opened.
+     */
+    private void close() {
+        try {
+            if (in != null) in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            queue.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts all the objects of a decoded block accepted by the filter into the pipe, and releases the others.
+     */
+    private void putAll(List<OSMObject> objects) throws InterruptedException {
+        for (OSMObject osmObject : objects) {
+            if (filter == null || filter.accepts(osmObject)) queue.put(osmObject);
+            else OSMObjectPool.releaseIfPooled(pool, osmObject);
+        }
+    }
+
+    /**
+     * Reads the next blob header and the blob following it.
+     *
+     * @param type array whose first element is set to the type of the blob
+     * @return the encoded blob, or null at the end of the file
+     */
+    private byte[] readBlob(String[] type) throws IOException {
+        int headerSize;
+        try {
+            headerSize = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) throw new IllegalStateException("Invalid blob header size in pbf file: " + headerSize);
+        byte[] header = new byte[headerSize];
+        in.readFully(header);
+
+        // BlobHeader: type = 1, indexdata = 2, datasize = 3
+        ProtobufReader reader = new ProtobufReader(header, 0, headerSize);
+        int dataSize = -1;
+        type[0] = null;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (ProtobufReader.field(key)) {
+                case 1:
+                    int start = reader.readLengthDelimited();
+                    type[0] = new String(header, start, reader.pos - start, StandardCharsets.UTF_8);
+                    break;
+                case 3:
+                    dataSize = (int) reader.readVarint();
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (type[0] == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE) throw new IllegalStateException("Invalid blob header in pbf file");
+
+        byte[] blob = new byte[dataSize];
+        in.readFully(blob);
+        return blob;
+    }
+
+    /**
+     * Extracts the data of a blob, inflating it if it's zlib compressed.
+     *
+     * @param blob the encoded blob
+     * @return the encoded block held by the blob
+     */
+    private static byte[] inflate(byte[] blob) {
+        // Blob: raw = 1, raw_size = 2, zlib_data = 3, lzma_data = 4
+        ProtobufReader reader = new ProtobufReader(blob, 0, blob.length);
+        int rawSize = -1, start = -1, end = -1;
+        boolean compressed = false;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (ProtobufReader.field(key)) {
+                case 1:
+                case 3:
+                    compressed = ProtobufReader.field(key) == 3;
+                    start = reader.readLengthDelimited();
+                    end = reader.pos;
+                    break;
+                case 2:
+                    rawSize = (int) reader.readVarint();
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    throw new IllegalStateException("Unsupported compression in pbf file, only zlib is supported");
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (start < 0) throw new IllegalStateException("Empty blob in pbf file");
+        if (!compressed) return java.util.Arrays.copyOfRange(blob, start, end);
+        if (rawSize < 0 || rawSize > MAX_BLOB_SIZE) throw new IllegalStateException("Invalid blob size in pbf file: " + rawSize);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, start, end - start);
+            byte[] res = new byte[rawSize];
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                int inflated = inflater.inflate(res, n, rawSize - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += inflated;
+            }
+            if (n != rawSize) throw new IllegalStateException("Corrupt blob in pbf file");
+            return res;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt blob in pbf file: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Decodes a header block to a bounds object like the one of an osm file.
+     *
+     * @param block the encoded header block
+     * @return an {@link OSMObject} of type {@link OSMType#BOUNDS}, or null if the header has no bounding box
+     */
+    static OSMObject decodeHeader(byte[] block) {
+        // HeaderBlock: bbox = 1, required_features = 4, optional_features = 5
+        ProtobufReader reader = new ProtobufReader(block, 0, block.length);
+        OSMObject bounds = null;
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (ProtobufReader.field(key)) {
+                case 1:
+                    bounds = decodeBoundingBox(reader.readMessage());
+                    break;
+                case 4:
+                    int start = reader.readLengthDelimited();
+                    String feature = new String(block, start, reader.pos - start, StandardCharsets.UTF_8);
+                    if (!feature.equals("OsmSchema-V0.6") && !feature.equals("DenseNodes")) {
+                        throw new IllegalStateException("Unsupported feature required by pbf file: " + feature);
+                    }
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Decodes a bounding box to a bounds object with the same tags as in an osm file.
+     */
+    private static OSMObject decodeBoundingBox(ProtobufReader reader) {
+        // HeaderBBox: left = 1, right = 2, top = 3, bottom = 4
+        long[] box = new long[5];
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            int field = ProtobufReader.field(key);
+            if (field >= 1 && field <= 4) box[field] = reader.readSignedVarint();
+            else reader.skip(key);
+        }
+        OSMObject bounds = new OSMObject();
+        bounds.setType(OSMType.BOUNDS);
+        bounds.addTags("minlat", toDegrees(box[4]));
+        bounds.addTags("minlon", toDegrees(box[1]));
+        bounds.addTags("maxlat", toDegrees(box[3]));
+        bounds.addTags("maxlon", toDegrees(box[2]));
+        return bounds;
+    }
+
+    /**
+     * @return the nanodegrees as a decimal string in degrees
+     */
+    private static String toDegrees(long nanodegrees) {
+        return BigDecimal.valueOf(nanodegrees, COORDINATE_SCALE).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Decodes a primitive block to the {@link OSMObject}s it holds.
+     *
+     * @param block the encoded primitive block
+     * @param pool  the pool to take {@link OSMObject}s from, or null to create new ones
+     * @return the objects in the order they appear in the block
+     */
+    static List<OSMObject> decodePrimitiveBlock(byte[] block, OSMObjectPool pool) {
+        // PrimitiveBlock: stringtable = 1, primitivegroup = 2, granularity = 17, lat_offset = 19, lon_offset = 20
+        ProtobufReader reader = new ProtobufReader(block, 0, block.length);
+        StringTable strings = null;
+        List<ProtobufReader> groups = new ArrayList<>();
+        Block b = new Block(pool);
+        while (reader.hasNext()) {
+            int key = reader.readKey();
+            switch (ProtobufReader.field(key)) {
+                case 1:
+                    strings = new StringTable(reader.readMessage());
+                    break;
+                case 2:
+                    groups.add(reader.readMessage());
+                    break;
+                case 17:
+                    b.granularity = reader.readVarint();
+                    break;
+                case 19:
+                    b.latOffset = reader.readVarint();
+                    break;
+                case 20:
+                    b.lonOffset = reader.readVarint();
+                    break;
+                default:
+                    reader.skip(key);
+            }
+        }
+        if (strings == null) throw new IllegalStateException("Primitive block without string table in pbf file");
+        b.strings = strings;
+
+        List<OSMObject> res = new ArrayList<>();
+        for (ProtobufReader group : groups) {
+            // PrimitiveGroup: nodes = 1, dense = 2, ways = 3, relations = 4, changesets = 5
+            while (group.hasNext()) {
+                int key = group.readKey();
+                switch (ProtobufReader.field(key)) {
+                    case 1:
+                        res.add(b.decodeNode(group.readMessage()));
+                        break;
+                    case 2:
+                        b.decodeDenseNodes(group.readMessage(), res);
+                        break;
+                    case 3:
+                        res.add(b.decodeWay(group.readMessage()));
+                        break;
+                    case 4:
+                        res.add(b.decodeRelation(group.readMessage()));
+                        break;
+                    default:
+                        group.skip(key);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The string table of a primitive block. Strings are only decoded when they're used, and tag keys and values are
+     * resolved to their {@link TagDictionary} codes the first time they're used.
+     */
+    private static class StringTable {
+        // Marks a key or value code that hasn't been looked up yet
+        private static final int UNRESOLVED = -2;
+
+        private final byte[] buf;
+        private int[] start = new int[256], end = new int[256];
+        private String[] decoded;
+        private int[] keyCodes, valueCodes;
+
+        StringTable(ProtobufReader reader) {
+            // StringTable: s = 1
+            buf = reader.buf;
+            int size = 0;
+            while (reader.hasNext()) {
+                int key = reader.readKey();
+                if (ProtobufReader.field(key) != 1) {
+                    reader.skip(key);
+                    continue;
+                }
+                if (size == start.length) {
+                    start = java.util.Arrays.copyOf(start, size * 2);
+                    end = java.util.Arrays.copyOf(end, size * 2);
+                }
+                start[size] = reader.readLengthDelimited();
+                end[size] = reader.pos;
+                size++;
+            }
+            decoded = new String[size];
+            keyCodes = new int[size];
+            valueCodes = new int[size];
+            java.util.Arrays.fill(keyCodes, UNRESOLVED);
+            java.util.Arrays.fill(valueCodes, UNRESOLVED);
+        }
+
+        /**
+         * @return the string with the given index
+         */
+        String get(int i) {
+            if (decoded[i] == null) decoded[i] = new String(buf, start[i], end[i] - start[i], StandardCharsets.UTF_8);
+            return decoded[i];
+        }
+
+        /**
+         * @return the key code of the string with the given index, or {@link TagDictionary#UNKNOWN_KEY}
+         */
+        int keyCode(int i) {
+            if (keyCodes[i] == UNRESOLVED) keyCodes[i] = TagDictionary.keyCode(buf, start[i], end[i]);
+            return keyCodes[i];
+        }
+
+        /**
+         * @return the value code of the string with the given index
+         */
+        int valueCode(int i) {
+            if (valueCodes[i] == UNRESOLVED) valueCodes[i] = TagDictionary.valueCode(buf, start[i], end[i]);
+            return valueCodes[i];
+        }
+
+        /**
+         * Adds the tag with the given key and value indices to the object, if its key is in the dictionary.
+         */
+        void addTag(OSMObject osmObject, int key, int value) {
+            int keyCode = keyCode(key);
+            if (keyCode == TagDictionary.UNKNOWN_KEY) return;
+            if (TagDictionary.isFreeText(keyCode)) osmObject.setTagText(keyCode, get(value));
+            else osmObject.setTagCode(keyCode, valueCode(value));
+        }
+    }
+
+    /**
+     * The state shared by all groups of a primitive block, and the reusable arrays used while decoding them.
+     */
+    private static class Block {
+        final OSMObjectPool pool;
+        StringTable strings;
+        long granularity = 100, latOffset, lonOffset;
+        private long[] ids = new long[16], lats = new long[16], lons = new long[16];
+        private int[] keys = new int[16], vals = new int[16];
+
+        Block(OSMObjectPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * @return the coordinate as a float, equal to parsing its decimal representation
+         */
+        private float coordinate(long offset, long value) {
+            return OSMScanner.toFloat(offset + granularity * value, COORDINATE_SCALE);
+        }
+
+        /**
+         * Adds the tags with dictionary keys to the object.
+         */
+        private void addTags(OSMObject osmObject, int[] keys, int[] vals, int count) {
+            for (int i = 0; i < count; i++) strings.addTag(osmObject, keys[i], vals[i]);
+        }
+
+        /**
+         * Decodes a single (not dense) node.
+         */
+        OSMObject decodeNode(ProtobufReader reader) {
+            // Node: id = 1, keys = 2, vals = 3, info = 4, lat = 8, lon = 9
+            OSMObject node = OSMObjectPool.acquireOrCreate(pool);
+            node.setType(OSMType.NODE);
+            int keyCount = 0, valCount = 0;
+            while (reader.hasNext()) {
+                int key = reader.readKey();
+                switch (ProtobufReader.field(key)) {
+                    case 1:
+                        node.setId(reader.readSignedVarint());
+                        break;
+                    case 2:
+                        keys = reader.readPackedInts(keys, 0);
+                        keyCount = reader.packedSize;
+                        break;
+                    case 3:
+                        vals = reader.readPackedInts(vals, 0);
+                        valCount = reader.packedSize;
+                        break;
+                    case 8:
+                        node.setLat(coordinate(latOffset, reader.readSignedVarint()));
+                        break;
+                    case 9:
+                        node.setLon(coordinate(lonOffset, reader.readSignedVarint()));
+                        break;
+                    default:
+                        reader.skip(key);
+                }
+            }
+            addTags(node, keys, vals, Math.min(keyCount, valCount));
+            return node;
+        }
+
+        /**
+         * Decodes a group of dense nodes. The delta coded ids and coordinates are decoded into arrays first, and then
+         * the objects are created.
+         */
+        void decodeDenseNodes(ProtobufReader reader, List<OSMObject> res) {
+            // DenseNodes: id = 1, denseinfo = 5, lat = 8, lon = 9, keys_vals = 10
+            int count = 0, keyValCount = 0;
+            while (reader.hasNext()) {
+                int key = reader.readKey();
+                switch (ProtobufReader.field(key)) {
+                    case 1:
+                        ids = reader.readPackedSignedLongs(ids, 0, true);
+                        count = reader.packedSize;
+                        break;
+                    case 8:
+                        lats = reader.readPackedSignedLongs(lats, 0, true);
+                        break;
+                    case 9:
+                        lons = reader.readPackedSignedLongs(lons, 0, true);
+                        break;
+                    case 10:
+                        keys = reader.readPackedInts(keys, 0);
+                        keyValCount = reader.packedSize;
+                        break;
+                    default:
+                        reader.skip(key);
+                }
+            }
+
+            // keys_vals holds key and value indices for each node in turn, each node terminated by a 0
+            int kv = 0;
+            for (int i = 0; i < count; i++) {
+                OSMObject node = OSMObjectPool.acquireOrCreate(pool);
+                node.setType(OSMType.NODE);
+                node.setId(ids[i]);
+                node.setLat(coordinate(latOffset, lats[i]));
+                node.setLon(coordinate(lonOffset, lons[i]));
+                while (kv < keyValCount && keys[kv] != 0) {
+                    strings.addTag(node, keys[kv], keys[kv + 1]);
+                    kv += 2;
+                }
+                kv++;
+                res.add(node);
+            }
+        }
+
+        /**
+         * Decodes a way.
+         */
+        OSMObject decodeWay(ProtobufReader reader) {
+            // Way: id = 1, keys = 2, vals = 3, info = 4, refs = 8
+            OSMObject way = OSMObjectPool.acquireOrCreate(pool);
+            way.setType(OSMType.WAY);
+            int keyCount = 0, valCount = 0;
+            while (reader.hasNext()) {
+                int key = reader.readKey();
+                switch (ProtobufReader.field(key)) {
+                    case 1:
+                        way.setId(reader.readVarint());
+                        break;
+                    case 2:
+                        keys = reader.readPackedInts(keys, 0);
+                        keyCount = reader.packedSize;
+                        break;
+                    case 3:
+                        vals = reader.readPackedInts(vals, 0);
+                        valCount = reader.packedSize;
+                        break;
+                    case 8:
+                        ids = reader.readPackedSignedLongs(ids, 0, true);
+                        for (int i = 0; i < reader.packedSize; i++) way.addRef(ids[i]);
+                        break;
+                    default:
+                        reader.skip(key);
+                }
+            }
+            addTags(way, keys, vals, Math.min(keyCount, valCount));
+            return way;
+        }
+
+        /**
+         * Decodes a relation.
+         */
+        OSMObject decodeRelation(ProtobufReader reader) {
+            // Relation: id = 1, keys = 2, vals = 3, info = 4, roles_sid = 8, memids = 9, types = 10
+            OSMObject relation = OSMObjectPool.acquireOrCreate(pool);
+            relation.setType(OSMType.RELATION);
+            int keyCount = 0, valCount = 0, roleCount = 0, memberCount = 0;
+            int[] roles = new int[0];
+            while (reader.hasNext()) {
+                int key = reader.readKey();
+                switch (ProtobufReader.field(key)) {
+                    case 1:
+                        relation.setId(reader.readVarint());
+                        break;
+                    case 2:
+                        keys = reader.readPackedInts(keys, 0);
+                        keyCount = reader.packedSize;
+                        break;
+                    case 3:
+                        vals = reader.readPackedInts(vals, 0);
+                        valCount = reader.packedSize;
+                        break;
+                    case 8:
+                        roles = reader.readPackedInts(roles, 0);
+                        roleCount = reader.packedSize;
+                        break;
+                    case 9:
+                        ids = reader.readPackedSignedLongs(ids, 0, true);
+                        memberCount = reader.packedSize;
+                        break;
+                    default:
+                        reader.skip(key);
+                }
+            }
+            addTags(relation, keys, vals, Math.min(keyCount, valCount));
+            for (int i = 0; i < Math.min(roleCount, memberCount); i++) relation.addMember(ids[i], strings.get(roles[i]));
+            return relation;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package edu.itu.the_d.map.dataprocessing;
+
+/**
+ * Minimal reader for the protocol buffer wire format, covering what the {@link PBFParser} needs: varints (plain and
+ * zigzag encoded), length delimited fields and packed repeated fields. The reader works on a slice of a byte array
+ * and never copies it.
+ * <p>
+ * Copyright 2016 The-D
+ *
+ * @see PBFParser
+ */
+class ProtobufReader {
+    // Wire types
+    static final int VARINT = 0, FIXED64 = 1, LENGTH_DELIMITED = 2, FIXED32 = 5;
+
+    final byte[] buf;
+    int pos;
+    int limit;
+    // The number of values in the array returned by the last call to readPackedInts or readPackedSignedLongs
+    int packedSize;
+
+    /**
+     * Creates a reader for the bytes from offset to limit.
+     *
+     * @param buf    the encoded message
+     * @param offset index of the first byte of the message
+     * @param limit  index after the last byte of the message
+     */
+    ProtobufReader(byte[] buf, int offset, int limit) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if there are more fields in the message
+     */
+    boolean hasNext() {
+        return pos < limit;
+    }
+
+    /**
+     * Reads the key of the next field.
+     *
+     * @return the key, which holds the field number shifted three bits left and the wire type in the lowest three bits
+     */
+    int readKey() {
+        return (int) readVarint();
+    }
+
+    /**
+     * @return the field number of a key returned by {@link #readKey()}
+     */
+    static int field(int key) {
+        return key >>> 3;
+    }
+
+    /**
+     * @return the wire type of a key returned by {@link #readKey()}
+     */
+    static int wireType(int key) {
+        return key & 7;
+    }
+
+    /**
+     * Reads an unsigned varint, which is how int32, int64, uint32, uint64, bool and enum are encoded.
+     *
+     * @return the value
+     */
+    long readVarint() {
+        long res = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) throw new IllegalStateException("Truncated varint in pbf file");
+            byte b = buf[pos++];
+            res |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return res;
+        }
+        throw new IllegalStateException("Malformed varint in pbf file");
+    }
+
+    /**
+     * Reads a zigzag encoded varint, which is how sint32 and sint64 are encoded.
+     *
+     * @return the value
+     */
+    long readSignedVarint() {
+        long raw = readVarint();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Reads the length of a length delimited field and moves past it.
+     *
+     * @return the index of the first byte of the field. The field ends at {@link #pos}.
+     */
+    int readLengthDelimited() {
+        int length = (int) readVarint();
+        int start = pos;
+        if (length < 0 || start + length > limit) throw new IllegalStateException("Truncated field in pbf file");
+        pos = start + length;
+        return start;
+    }
+
+    /**
+     * Creates a reader for an embedded message.
+     *
+     * @return a reader over the bytes of the message
+     */
+    ProtobufReader readMessage() {
+        int start = readLengthDelimited();
+        return new ProtobufReader(buf, start, pos);
+    }
+
+    /**
+     * Skips the value of a field with the given key.
+     *
+     * @param key the key of the field
+     */
+    void skip(int key) {
+        switch (wireType(key)) {
+            case VARINT:
+                readVarint();
+                break;
+            case FIXED64:
+                pos += 8;
+                break;
+            case LENGTH_DELIMITED:
+                readLengthDelimited();
+                break;
+            case FIXED32:
+                pos += 4;
+                break;
+            default:
+                throw new IllegalStateException("Unsupported wire type " + wireType(key) + " in pbf file");
+        }
+    }
+
+    /**
+     * Reads a packed repeated field of varints, such as the keys of a way.
+     *
+     * @param dest array to add the values to, grown if needed
+     * @param size the number of values already in dest
+     * @return the array holding the values, which is dest unless it had to grow
+     */
+    int[] readPackedInts(int[] dest, int size) {
+        int start = readLengthDelimited();
+        int end = pos;
+        pos = start;
+        while (pos < end) {
+            if (size == dest.length) dest = java.util.Arrays.copyOf(dest, Math.max(16, size * 2));
+            dest[size++] = (int) readVarint();
+        }
+        packedSize = size;
+        return dest;
+    }
+
+    /**
+     * Reads a packed repeated field of zigzag varints and optionally undoes delta coding, such as the refs of a way.
+     *
+     * @param dest  array to add the values to, grown if needed
+     * @param size  the number of values already in dest
+     * @param delta true if each value is stored as the difference to the previous one
+     * @return the array holding the values, which is dest unless it had to grow
+     */
+    long[] readPackedSignedLongs(long[] dest, int size, boolean delta) {
+        int start = readLengthDelimited();
+        int end = pos;
+        pos = start;
+        // A packed field may be split in several parts, in which case the delta coding continues across them
+        long previous = delta && size > 0 ? dest[size - 1] : 0;
+        while (pos < end) {
+            if (size == dest.length) dest = java.util.Arrays.copyOf(dest, Math.max(16, size * 2));
+            long value = readSignedVarint();
+            if (delta) value += previous;
+            dest[size++] = value;
+            previous = value;
+        }
+        packedSize = size;
+        return dest;
+    }
+}
@@ -0,0 +1,200 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import edu.itu.the_d.map.datastructures.nongeneric_maps.LongArrayMap;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.LongSet;
+import edu.itu.the_d.map.utils.Debugger;
+import edu.itu.the_d.map.utils.User;
+
+/**
+ * <p>
+ * The result of the first pass of the two-pass ingestion: the ways the {@link MapObjectFactory} keeps, the nodes they
+ * reference, and which of those nodes are on a highway. With this the factory only stores the coordinates of
+ * referenced nodes, and only the highway nodes become vertices of the graph. Most nodes are building corners or points
+ * without any tags, so this saves both memory and the time to set up the graph.
+ * </p>
+ * <p>
+ * A way is kept if it has one of the tags the factory draws, or if it's a member of a relation. Ways without tags come
+ * before the relations that use them, so their references are held on to until the relations have been read.
+ * </p>
+ * <p>
+ * With an {@link IngestFilter} the first pass also decides what happens to ways crossing the boundary of the area:
+ * dropped ways are not kept, clipped ways only reference their nodes inside the area, and for ways kept whole the
+ * nodes outside the area are handed to the filter, so the parser lets them through in the second pass. Closed ways
+ * and the ways of relations are kept whole when clipping, see {@link IngestFilter#keepsWhole(long[], boolean)}.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see Dispatcher
+ */
+public class ReferencedNodes {
+    private static final int QUEUE_SIZE = 100000;
+
+    private final LongSet ways;
+    private final LongSet nodes;
+    private final LongSet highwayNodes;
+    private final IngestFilter filter;
+    // Nodes inside the area of the filter
+    private final LongSet inside;
+    // References of the ways without tags, until it's known if a relation uses them
+    private final LongArrayMap untaggedWays;
+
+    /**
+     * Creates an empty result with room for the given number of nodes.
+     *
+     * @param capacity the expected number of referenced nodes
+     */
+    public ReferencedNodes(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates an empty result with room for the given number of nodes, for a first pass reading through the filter.
+     *
+     * @param capacity the expected number of referenced nodes
+     * @param filter   the filter the parser reads through, or null
+     */
+    public ReferencedNodes(int capacity, IngestFilter filter) {
+        ways = new LongSet(capacity / 8);
+        nodes = new LongSet(capacity);
+        highwayNodes = new LongSet(capacity / 2);
+        this.filter = filter;
+        inside = filter != null ? new LongSet(capacity) : null;
+        untaggedWays = new LongArrayMap(capacity / 8);
+    }
+
+    /**
+     * Runs the first pass over the given file, reading it with the same parser as the second pass.
+     *
+     * @param filename the path and name of the osm file
+     * @param capacity the expected number of referenced nodes
+     * @param workers  the number of threads the pbf parser decodes blocks with
+     * @param pool     the pool the parser takes its objects from, which they're released to again
+     * @return the ways and nodes to keep
+     */
+    public static ReferencedNodes collect(String filename, int capacity, int workers, OSMObjectPool pool) {
+        return collect(filename, capacity, workers, pool, null);
+    }
+
+    /**
+     * Runs the first pass over the given file, reading it through the given filter.
+     *
+     * @param filename the path and name of the osm file
+     * @param capacity the expected number of referenced nodes
+     * @param workers  the number of threads the pbf parser decodes blocks with
+     * @param pool     the pool the parser takes its objects from, which they're released to again
+     * @param filter   the filter to read the file through, or null to read all of it
+     * @return the ways and nodes to keep
+     */
+    public static ReferencedNodes collect(String filename, int capacity, int workers, OSMObjectPool pool, IngestFilter filter) {
+        ReferencedNodes referenced = new ReferencedNodes(capacity, filter);
+        ChunkPipe<OSMObject> pipe = new ChunkPipe<>("First pass", QUEUE_SIZE);
+        Thread parserThread = new Thread(Dispatcher.createParser(filename, pipe, workers, pool, filter));
+        parserThread.start();
+        try {
+            OSMObject osmObj;
+            while ((osmObj = pipe.take()) != null) {
+                referenced.add(osmObj);
+                OSMObjectPool.releaseIfPooled(pool, osmObj);
+            }
+            parserThread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e.toString());
+        }
+        referenced.untaggedWays.clear();
+        Debugger.print(User.AESK, "First pass: " + referenced.ways.size() + " ways, " + referenced.nodes.size() +
+                " nodes, " + referenced.highwayNodes.size() + " highway nodes");
+        return referenced;
+    }
+
+    /**
+     * Records the way, or the ways of the relation, if they're kept. Nodes are only recorded if there's a filter, to
+     * know which of them are inside its area.
+     *
+     * @param osmObj the object read in the first pass
+     */
+    public void add(OSMObject osmObj) {
+        switch (osmObj.getType()) {
+            case NODE:
+                if (inside != null && filter.isInside(osmObj.getLat(), osmObj.getLon())) inside.add(osmObj.getId());
+                break;
+            case WAY:
+                if (MapObjectFactory.isDrawn(osmObj)) keep(osmObj.getId(), osmObj.copyRefs(), osmObj.hasTag(TagDictionary.HIGHWAY), false);
+                else if (inside == null || isInside(osmObj)) untaggedWays.put(osmObj.getId(), osmObj.copyRefs());
+                break;
+            case RELATION:
+                for (int i = 0; i < osmObj.getMemberCount(); i++) {
+                    long[] refs = untaggedWays.remove(osmObj.getMemberRef(i));
+                    if (refs != null) keep(osmObj.getMemberRef(i), refs, false, true);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Checks whether any of the nodes of the way is inside the area of the filter.
+     */
+    private boolean isInside(OSMObject way) {
+        for (int i = 0; i < way.getRefSize(); i++) if (inside.contains(way.getRef(i))) return true;
+        return false;
+    }
+
+    /**
+     * Keeps a way and the nodes it references, applying the crossing policy of the filter if there is one.
+     *
+     * @param id      the id of the way
+     * @param refs    the references of the way
+     * @param highway whether the way is a highway, making its nodes graph vertices
+     * @param member  whether the way is only kept as part of a relation
+     */
+    private void keep(long id, long[] refs, boolean highway, boolean member) {
+        if (inside != null) {
+            int count = 0;
+            for (long ref : refs) if (inside.contains(ref)) count++;
+            if (count == 0 || count < refs.length && filter.getPolicy() == IngestFilter.CrossingPolicy.DROP) return;
+        }
+        ways.add(id);
+        boolean whole = inside != null && filter.keepsWhole(refs, member);
+        for (long ref : refs) {
+            if (inside != null && !inside.contains(ref)) {
+                // Clipped ways lose their nodes outside the area, ways kept whole need the parser to let them through
+                if (!whole) continue;
+                filter.keepOutsideNode(ref);
+            }
+            nodes.add(ref);
+            if (highway) highwayNodes.add(ref);
+        }
+    }
+
+    /**
+     * @param id the id of a way
+     * @return true if the way is kept
+     */
+    public boolean keepsWay(long id) {
+        return ways.contains(id);
+    }
+
+    /**
+     * @param id the id of a node
+     * @return true if the node is referenced by a kept way
+     */
+    public boolean keepsNode(long id) {
+        return nodes.contains(id);
+    }
+
+    /**
+     * @param id the id of a node
+     * @return true if the node is on a highway, and thus a vertex in the graph
+     */
+    public boolean isHighwayNode(long id) {
+        return highwayNodes.contains(id);
+    }
+
+    /**
+     * @return the number of nodes referenced by kept ways
+     */
+    public int nodeCount() {
+        return nodes.size();
+    }
+}
@@ -3,15 +3,13 @@ package edu.itu.the_d.map.dataprocessing;
 import edu.itu.the_d.map.utils.Debugger;
 import edu.itu.the_d.map.utils.User;
 import edu.itu.the_d.map.datastructures.Pair;
+import edu.itu.the_d.map.datastructures.ZoomLayeredIndex;
 import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.mapobjects.MapObject;
 import edu.itu.the_d.map.utils.LoadingView;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Responsible for receiving the finished {@link MapObject}s and position information of these objects and starting
@@ -25,25 +23,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class Structurer implements Runnable {
 	/**
-     * Input queue of objects from {@link MapObjectFactory}.
+     * Input pipe of objects from {@link MapObjectFactory}. It's closed when that thread is finished.
      */
-    private BlockingQueue<Pair<int[], MapObject>> objQueue;
-	/**
-     * Signal from {@link MapObjectFactory}. It's set to true when that thread is finished.
-     */
-    private AtomicBoolean endOfConversionSignal;
+    private ChunkPipe<Pair<int[], MapObject>> objQueue;
     private Model modelRef;
 
 	/**
      * Create a new instance
-     * @param objQueue the queue of map objects and their position information to process
+     * @param objQueue the pipe of map objects and their position information to process
      * @param modelRef a reference to the model. Used to get a reference to the output 2d-tree
-     * @param endOfConversionSignal becomes true when the factory constructing the objects on the queue is finished
      */
-    public Structurer(BlockingQueue<Pair<int[], MapObject>> objQueue, Model modelRef, AtomicBoolean endOfConversionSignal) {
+    public Structurer(ChunkPipe<Pair<int[], MapObject>> objQueue, Model modelRef) {
         this.objQueue = objQueue;
         this.modelRef = modelRef;
-        this.endOfConversionSignal = endOfConversionSignal;
     }
 
 	/**
@@ -59,13 +51,13 @@ public class Structurer implements Runnable {
         List<int[]> posinfoList = new ArrayList<>(1000000);
         List<MapObject> mapobjList = new ArrayList<>(1000000);
 
-        // Loop until there's no more items in the queue and the map object factory is finished processing
-        while (!endOfConversionSignal.get() || !objQueue.isEmpty()) {
+        // Loop until the map object factory has closed the pipe and there's no more items in it
+        while (true) {
             try {
-                // This basically pulls out the current item from the queue and adds each part to the their respective
+                // This basically takes out the current item from the pipe and adds each part to the their respective
                 // list
-                Pair<int[], MapObject> obj = objQueue.poll(10, TimeUnit.MILLISECONDS);
-                if (obj == null) continue;
+                Pair<int[], MapObject> obj = objQueue.take();
+                if (obj == null) break;
 
                 posinfoList.add(obj.valA);
                 mapobjList.add(obj.valB);
@@ -78,8 +70,10 @@ public class Structurer implements Runnable {
         // Set the loading view info message
         LoadingView.setInfoMsg("Constructing KD tree from Map Objects...");
 
-        // Construct the 2d-tree from the now finished input lists
-        modelRef.getTreeRef().constructFromList(posinfoList, mapobjList);
+        // Construct a 2d-tree for each zoom level from the now finished input lists, building the subtrees in parallel
+        ZoomLayeredIndex index = new ZoomLayeredIndex();
+        index.constructFromList(posinfoList, mapobjList, true);
+        modelRef.setTreeRef(index);
 
         Debugger.print(User.AESK, "size:" + modelRef.getTreeRef().size());
     }
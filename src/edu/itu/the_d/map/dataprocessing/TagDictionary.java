@@ -0,0 +1,235 @@
+package edu.itu.the_d.map.dataprocessing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * Global dictionary of the tags used by the {@link MapObjectFactory}. Every key it knows gets a small integer code, and
+ * so does every value the factory classifies by (road types, region types, one-way values etc.). The parsers resolve
+ * keys and values to these codes as they read them, straight from the raw bytes where they can, so classifying an
+ * object comes down to array lookups on the codes rather than string comparisons.
+ * </p>
+ * <p>
+ * Only the free text keys ({@code name}, {@code addr:*} and the like) keep their value as a string. For all other keys
+ * the value is stored as a code: {@link #ABSENT} if the object doesn't have the tag, {@link #OTHER} if it has a value
+ * the dictionary doesn't know, or the code of the known value. Keys that aren't in the dictionary are skipped by the
+ * parsers altogether.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see OSMObject
+ */
+public class TagDictionary {
+    /**
+     * Returned by the key lookups for keys that aren't in the dictionary.
+     */
+    public static final int UNKNOWN_KEY = -1;
+
+    /**
+     * Value code of a tag the object doesn't have.
+     */
+    public static final int ABSENT = 0;
+    /**
+     * Value code of a tag with a value that isn't in the dictionary, or with free text.
+     */
+    public static final int OTHER = 1;
+
+    // Key codes. The free text keys come first.
+    public static final int NAME = 0;
+    public static final int POPULATION = 1;
+    public static final int POSTAL_CODE = 2;
+    public static final int ADDR_CITY = 3;
+    public static final int ADDR_STREET = 4;
+    public static final int ADDR_POSTCODE = 5;
+    public static final int ADDR_HOUSENUMBER = 6;
+    public static final int MAXSPEED = 7;
+    public static final int PLACE = 8;
+    public static final int HIGHWAY = 9;
+    public static final int RAILWAY = 10;
+    public static final int WATERWAY = 11;
+    public static final int ONEWAY = 12;
+    public static final int MOTORCAR = 13;
+    public static final int MOTOR_VEHICLE = 14;
+    public static final int BRIDGE = 15;
+    public static final int NATURAL = 16;
+    public static final int LEISURE = 17;
+    public static final int BUILDING = 18;
+    public static final int LANDUSE = 19;
+    public static final int AMENITY = 20;
+
+    private static final String[] KEYS = {
+            "name", "population", "postal_code", "addr:city", "addr:street", "addr:postcode", "addr:housenumber", "maxspeed",
+            "place", "highway", "railway", "waterway", "oneway", "motorcar", "motor_vehicle", "bridge",
+            "natural", "leisure", "building", "landuse", "amenity"
+    };
+    private static final int FREE_TEXT_KEYS = MAXSPEED + 1;
+
+    /**
+     * The number of keys in the dictionary. Key codes are in the range [0, KEY_COUNT).
+     */
+    public static final int KEY_COUNT = KEYS.length;
+
+    // The known values, starting from code 2. Every value the MapObjectFactory distinguishes must be listed here.
+    private static final String[] VALUES = {
+            null, null,
+            // One-way and access values
+            "1", "-1", "true", "false", "yes", "no",
+            // Places
+            "village", "town", "city",
+            // Highways, railways and waterways
+            "motorway", "motorway_link", "trunk", "trunk_link", "primary", "primary_link", "secondary", "secondary_link",
+            "tertiary", "tertiary_link", "track", "unclassified", "service", "residential", "path", "pedestrian",
+            "footway", "cycleway", "railway", "subway", "river", "stream",
+            // Natural, landuse, leisure and amenity
+            "coastline", "farmland", "beach", "glacier", "river_terrace", "bay", "spring", "hot_spring", "wetland",
+            "geyser", "riverbank", "water", "tree_row", "tree", "wood", "fell", "heath", "moor", "scrub", "ridge",
+            "arete", "cliff", "saddle", "rock", "stone", "cave_entrance", "sinkhole", "mud", "scree", "peak", "volcano",
+            "valley", "shingle", "bare_rock", "sand", "common", "golf_course", "miniature_golf", "nature_reserve",
+            "garden", "greenfield", "construction", "grassland", "meadow", "pitch", "wildlife_hide", "sports_centre",
+            "stadium", "summer_camp", "playground", "bird_hide", "firepit", "bandstand", "dog_park", "park",
+            "adult_gaming_centre", "dance", "hackerspace", "amusement_arcade", "beach_resort", "fishing", "ice_rink",
+            "slipway", "swimming_area", "swimming_pool", "water_park", "marina", "university", "forest"
+    };
+
+    /**
+     * The number of value codes, including {@link #ABSENT} and {@link #OTHER}. Value codes are in the range
+     * [0, VALUE_COUNT), so they can be used directly as indices of lookup tables.
+     */
+    public static final int VALUE_COUNT = VALUES.length;
+
+    private static final Table KEY_TABLE = new Table(KEYS, 0);
+    private static final Table VALUE_TABLE = new Table(VALUES, OTHER + 1);
+
+    /**
+     * Returns the string of the given key code.
+     *
+     * @param key the key code
+     * @return the key
+     */
+    public static String key(int key) {
+        return KEYS[key];
+    }
+
+    /**
+     * Returns whether the values of the given key are kept as free text rather than as codes.
+     *
+     * @param key the key code
+     * @return true for free text keys
+     */
+    public static boolean isFreeText(int key) {
+        return key < FREE_TEXT_KEYS;
+    }
+
+    /**
+     * Returns the string of the given value code.
+     *
+     * @param value the value code
+     * @return the value, or null for {@link #ABSENT} and {@link #OTHER}
+     */
+    public static String value(int value) {
+        return VALUES[value];
+    }
+
+    /**
+     * Looks up the code of the given key.
+     *
+     * @param key the key
+     * @return the key code, or {@link #UNKNOWN_KEY} if the key isn't in the dictionary
+     */
+    public static int keyCode(String key) {
+        int code = KEY_TABLE.get(key);
+        return code < 0 ? UNKNOWN_KEY : code;
+    }
+
+    /**
+     * Looks up the code of the key held by the given (ascii) bytes from start to end, without creating a string.
+     *
+     * @param bytes the bytes holding the key
+     * @param start index of the first byte of the key
+     * @param end   index after the last byte of the key
+     * @return the key code, or {@link #UNKNOWN_KEY} if the key isn't in the dictionary
+     */
+    public static int keyCode(byte[] bytes, int start, int end) {
+        int code = KEY_TABLE.get(bytes, start, end);
+        return code < 0 ? UNKNOWN_KEY : code;
+    }
+
+    /**
+     * Looks up the code of the given value.
+     *
+     * @param value the value
+     * @return the value code, or {@link #OTHER} if the value isn't in the dictionary
+     */
+    public static int valueCode(String value) {
+        int code = VALUE_TABLE.get(value);
+        return code < 0 ? OTHER : code;
+    }
+
+    /**
+     * Looks up the code of the value held by the given (ascii) bytes from start to end, without creating a string.
+     *
+     * @param bytes the bytes holding the value
+     * @param start index of the first byte of the value
+     * @param end   index after the last byte of the value
+     * @return the value code, or {@link #OTHER} if the value isn't in the dictionary
+     */
+    public static int valueCode(byte[] bytes, int start, int end) {
+        int code = VALUE_TABLE.get(bytes, start, end);
+        return code < 0 ? OTHER : code;
+    }
+
+    /**
+     * Open addressing hash table from the strings of the dictionary to their codes. The strings are all ascii, so
+     * hashing their bytes gives the same hash as {@link String#hashCode()}, and lookups work on either.
+     */
+    private static class Table {
+        private final String[] strings;
+        private final byte[][] bytes;
+        private final int[] codes;
+        private final int mask;
+
+        Table(String[] strings, int first) {
+            this.strings = strings;
+            int capacity = Integer.highestOneBit(strings.length * 4);
+            mask = capacity - 1;
+            codes = new int[capacity];
+            java.util.Arrays.fill(codes, -1);
+            bytes = new byte[strings.length][];
+            for (int code = first; code < strings.length; code++) {
+                bytes[code] = strings[code].getBytes(StandardCharsets.US_ASCII);
+                int slot = slot(strings[code].hashCode());
+                while (codes[slot] >= 0) {
+                    if (strings[codes[slot]].equals(strings[code])) throw new IllegalStateException("Duplicate tag " + strings[code]);
+                    slot = (slot + 1) & mask;
+                }
+                codes[slot] = code;
+            }
+        }
+
+        private int slot(int hash) {
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        int get(String s) {
+            for (int slot = slot(s.hashCode()); codes[slot] >= 0; slot = (slot + 1) & mask) {
+                if (strings[codes[slot]].equals(s)) return codes[slot];
+            }
+            return -1;
+        }
+
+        int get(byte[] buf, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) hash = 31 * hash + (buf[i] & 0xff);
+            outer:
+            for (int slot = slot(hash); codes[slot] >= 0; slot = (slot + 1) & mask) {
+                byte[] candidate = bytes[codes[slot]];
+                if (candidate.length != end - start) continue;
+                for (int i = 0; i < candidate.length; i++) {
+                    if (candidate[i] != buf[start + i]) continue outer;
+                }
+                return codes[slot];
+            }
+            return -1;
+        }
+    }
+}
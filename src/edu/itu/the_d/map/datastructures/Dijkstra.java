@@ -2,9 +2,6 @@ package edu.itu.the_d.map.datastructures;
 
 import edu.itu.the_d.map.datastructures.algs4.IndexMinPQ;
 import edu.itu.the_d.map.datastructures.algs4.Stack;
-import edu.itu.the_d.map.model.Model;
-
-import java.awt.geom.Point2D;
 
 /**
  * A class to calculate shortest path routes for the specific {@link WayUndirectedGraph}.
@@ -21,8 +18,7 @@ public class Dijkstra {
     private IndexMinPQ<Double> pq;    // priority queue of vertices
     private WayUndirectedGraph graph;
     private int p;
-    private Model m;
-    private Point2D targetPoint;
+    private double targetX, targetY;
 
     /**
      * Computes a shortest-paths tree from the source vertex <tt>s</tt> to every
@@ -34,14 +30,14 @@ public class Dijkstra {
      * @throws IllegalArgumentException if an edge weight is negative
      * @throws IllegalArgumentException unless 0 &le; <tt>s</tt> &le; <tt>V</tt> - 1
      */
-    public Dijkstra(WayUndirectedGraph G, int s, int p, Model m) {
+    public Dijkstra(WayUndirectedGraph G, int s, int p) {
         // For Bicyle and Walk only use shortest distance
         if (vt == VehicleType.BICYCLE || vt == VehicleType.WALK) weightType = EUCLID;
 
-        this.m = m;
         this.graph = G;
         this.p = p;
-        targetPoint = m.objectMap.get(graph.getID(p)); /* 0 */
+        targetX = graph.getX(p); /* 0 */
+        targetY = graph.getY(p);
 
         distTo = new double[G.V()];
         edgeTo = new WayEdge[G.V()];
@@ -120,9 +116,11 @@ public class Dijkstra {
         }
     }
 
+    // Straight line distance from a vertex to the target, read from the coordinates kept by the graph
     private double h(int v) {
-        Point2D from = m.objectMap.get(graph.getID(v));
-        return from.distance(targetPoint);
+        double dx = graph.getX(v) - targetX;
+        double dy = graph.getY(v) - targetY;
+        return Math.sqrt(dx * dx + dy * dy);
     }
 
     /**
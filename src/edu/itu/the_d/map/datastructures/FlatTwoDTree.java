@@ -0,0 +1,242 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Compact, read-only layout of a {@link TwoDTree}. Instead of a {@link TwoDTree} node object with its own bounds
+ * array, object array and child references per map object, the nodes are stored implicitly in a few parallel arrays,
+ * indexed by the position of the node in a pre-order walk of the tree:
+ * </p>
+ * <ul>
+ * <li><b>bounds</b> holds the bounds of node i at 4*i (<b>{longitude, latitude, offset longitude, offset latitude}</b>)</li>
+ * <li><b>children</b> holds the index of the left child of node i at 2*i and of the right child at 2*i+1, or -1</li>
+ * <li><b>objects</b> holds the map objects of all nodes in pre-order, with the objects of node i from objStart[i] to
+ * objStart[i+1]</li>
+ * <li><b>objBounds</b> holds the bounds of object j at 4*j, which for objects in a leaf bucket are the object's own bounds
+ * and otherwise the bounds of its node</li>
+ * <li><b>subtreeCount</b> holds the number of objects in the subtree of node i, which is counted from the other arrays
+ * instead of being written</li>
+ * </ul>
+ * <p>
+ * This takes a fraction of the memory of the node objects, is far cheaper to serialize, and since a node's left child
+ * is right after it, a range query mostly reads the arrays in order. Range queries walk the tree iteratively with a
+ * stack of node indexes and return the same objects as the tree it was made from.
+ * </p>
+ * <p>
+ * The tree is made with {@link TwoDTree#compact()} once a {@link TwoDTree} has been built, and can't be changed.
+ * </p>
+ * Copyright 2016 The-D
+ */
+public class FlatTwoDTree implements SpatialIndex {
+	private static final long serialVersionUID = 111123124;
+
+	private static final int LON = TwoDTree.LON;
+	private static final int LAT = TwoDTree.LAT;
+	private static final int MAX = TwoDTree.MAX;
+
+	// Bounds of each node, 4 values per node
+	private final int[] bounds;
+	// Left and right child of each node, -1 if there's none
+	private final int[] children;
+	// Start of each node's objects in the objects array, with the end of the last node at the end
+	private final int[] objStart;
+	// Map objects of all nodes in pre-order
+	private final MapObject[] objects;
+	// Bounds of each map object, 4 values per object
+	private final int[] objBounds;
+	// Number of map objects in the subtree of each node
+	private transient int[] subtreeCount;
+
+	// Stack of the range query each thread last made, kept so a query doesn't allocate one
+	private static final ThreadLocal<int[]> STACK = new ThreadLocal<>();
+
+	/**
+	 * Creates a tree from its arrays, see the class docs for the layout.
+	 */
+	FlatTwoDTree(int[] bounds, int[] children, int[] objStart, MapObject[] objects, int[] objBounds) {
+		this.bounds = bounds;
+		this.children = children;
+		this.objStart = objStart;
+		this.objects = objects;
+		this.objBounds = objBounds;
+		countSubtrees();
+	}
+
+	/**
+	 * Reads the tree and counts the objects of each subtree, which aren't written.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		countSubtrees();
+	}
+
+	/**
+	 * Counts the objects of each subtree. The children of a node come after it in pre-order, so they're counted first
+	 * when going backwards.
+	 */
+	private void countSubtrees() {
+		subtreeCount = new int[objStart.length - 1];
+		for (int n = subtreeCount.length - 1; n >= 0; n--) {
+			subtreeCount[n] = objStart[n + 1] - objStart[n];
+			if (children[2 * n] >= 0) subtreeCount[n] += subtreeCount[children[2 * n]];
+			if (children[2 * n + 1] >= 0) subtreeCount[n] += subtreeCount[children[2 * n + 1]];
+		}
+	}
+
+	/**
+	 * Pass the map objects of every node intersecting the range to the sink, like
+	 * {@link TwoDTree#query(int, int, int, int, int, Consumer)}. The nodes to visit are kept on a stack together with the
+	 * dimension they split, instead of recursing. The stack is taken from the calling thread for the query and handed
+	 * back after it, so a sink that queries a tree itself gets a stack of its own.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel determines which objects to return based on presets in the respective map objects
+	 * @param sink      the sink to pass the objects to
+	 */
+	public void query(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel, Consumer<MapObject> sink) {
+		if (objStart.length == 1) return;
+
+		// Each entry is the node index times two plus the dimension the node splits
+		int[] stack = STACK.get();
+		STACK.set(null);
+		if (stack == null) stack = new int[64];
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int entry = stack[--sp];
+			int n = entry >>> 1;
+			int d = entry & 1;
+			int b = n * 4;
+
+			// If the node intersects the range, pass its objects that intersect it to the sink
+			if (minlon <= bounds[b + MAX + LON] && maxlon >= bounds[b + LON] &&
+					minlat <= bounds[b + MAX + LAT] && maxlat >= bounds[b + LAT]) {
+				for (int i = objStart[n]; i < objStart[n + 1]; i++) {
+					int o = i * 4;
+					if (objects[i].getZoomLevel() <= zoomLevel &&
+							minlon <= objBounds[o + MAX + LON] && maxlon >= objBounds[o + LON] &&
+							minlat <= objBounds[o + MAX + LAT] && maxlat >= objBounds[o + LAT]) sink.accept(objects[i]);
+				}
+			}
+
+			if (sp + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+			// Push the right child first, so the left child right after this node is visited next
+			int right = children[2 * n + 1];
+			if (right >= 0 && (d == LON ? maxlon : maxlat) >= bounds[b + d]) stack[sp++] = right << 1 | (d ^ 1);
+			int left = children[2 * n];
+			if (left >= 0 && (d == LON ? minlon : minlat) <= bounds[b + d + MAX]) stack[sp++] = left << 1 | (d ^ 1);
+		}
+		STACK.set(stack);
+	}
+
+	/**
+	 * Offers the root of the tree to a nearest neighbour search, like {@link TwoDTree#offerTo(NearestSearch)}.
+	 *
+	 * @param search the search to offer the root to
+	 */
+	public void offerTo(NearestSearch search) {
+		if (objStart.length > 1) offer(search, 0, 0, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	private void offer(NearestSearch search, int n, int d, int minlon, int minlat, int maxlon, int maxlat) {
+		search.offerNode(minlon, minlat, maxlon, maxlat, s -> expand(s, n, d, minlon, minlat, maxlon, maxlat));
+	}
+
+	/**
+	 * Offers the objects of a node and its children, with the boxes they lie in, to a nearest neighbour search.
+	 */
+	private void expand(NearestSearch search, int n, int d, int minlon, int minlat, int maxlon, int maxlat) {
+		for (int i = objStart[n]; i < objStart[n + 1]; i++) {
+			int o = i * 4;
+			search.offerObject(objBounds[o + LON], objBounds[o + LAT], objBounds[o + MAX + LON], objBounds[o + MAX + LAT], objects[i]);
+		}
+		int b = n * 4;
+		int left = children[2 * n], right = children[2 * n + 1];
+		if (left >= 0) {
+			offer(search, left, d ^ 1, minlon, minlat,
+					d == LON ? Math.min(maxlon, bounds[b + MAX + LON]) : maxlon,
+					d == LAT ? Math.min(maxlat, bounds[b + MAX + LAT]) : maxlat);
+		}
+		if (right >= 0) {
+			offer(search, right, d ^ 1,
+					d == LON ? Math.max(minlon, bounds[b + LON]) : minlon,
+					d == LAT ? Math.max(minlat, bounds[b + LAT]) : minlat, maxlon, maxlat);
+		}
+	}
+
+	/**
+	 * Estimates the number of map objects in a range without visiting most of them, like
+	 * {@link TwoDTree#estimateCount(int, int, int, int, int)}.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are counted one by one
+	 * @return the estimated number of objects
+	 */
+	public int estimateCount(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		if (objStart.length == 1) return 0;
+		int[] range = {minlon, minlat, maxlon, maxlat};
+		return estimate(0, 0, range, zoomLevel, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	private int estimate(int n, int d, int[] range, int zoomLevel, int minlon, int minlat, int maxlon, int maxlat) {
+		if (minlon > range[MAX + LON] || maxlon < range[LON] || minlat > range[MAX + LAT] || maxlat < range[LAT]) return 0;
+		if (minlon >= range[LON] && maxlon <= range[MAX + LON] && minlat >= range[LAT] && maxlat <= range[MAX + LAT])
+			return subtreeCount[n];
+
+		int count = 0;
+		for (int i = objStart[n]; i < objStart[n + 1]; i++) {
+			int o = i * 4;
+			if (objects[i].getZoomLevel() <= zoomLevel &&
+					range[LON] <= objBounds[o + MAX + LON] && range[MAX + LON] >= objBounds[o + LON] &&
+					range[LAT] <= objBounds[o + MAX + LAT] && range[MAX + LAT] >= objBounds[o + LAT]) count++;
+		}
+		int b = n * 4;
+		int left = children[2 * n], right = children[2 * n + 1];
+		if (left >= 0) {
+			count += estimate(left, d ^ 1, range, zoomLevel, minlon, minlat,
+					d == LON ? Math.min(maxlon, bounds[b + MAX + LON]) : maxlon,
+					d == LAT ? Math.min(maxlat, bounds[b + MAX + LAT]) : maxlat);
+		}
+		if (right >= 0) {
+			count += estimate(right, d ^ 1, range, zoomLevel,
+					d == LON ? Math.max(minlon, bounds[b + LON]) : minlon,
+					d == LAT ? Math.max(minlat, bounds[b + LAT]) : minlat, maxlon, maxlat);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of map objects in the tree
+	 */
+	public int size() {
+		return objects.length;
+	}
+
+	/**
+	 * @return the number of nodes in the tree
+	 */
+	public int nodeCount() {
+		return objStart.length - 1;
+	}
+
+	/**
+	 * Performs the given action for every map object in the tree, in pre-order.
+	 *
+	 * @param action the action to perform
+	 */
+	public void forEach(Consumer<MapObject> action) {
+		for (MapObject obj : objects) action.accept(obj);
+	}
+}
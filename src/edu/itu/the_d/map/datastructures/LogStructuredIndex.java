@@ -0,0 +1,379 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Spatial index that single map objects can be inserted into and removed from without rebuilding it or unbalancing it.
+ * {@link TwoDTree#insert(int[], MapObject)} puts new objects at the bottom of the tree, so many changes leave it
+ * unbalanced. This index instead keeps the objects in a log-structured set of static 2d-trees:
+ * </p>
+ * <ul>
+ * <li>the <b>base</b> tree the index was made from, which is only ever removed from</li>
+ * <li>a small <b>buffer</b> of inserted objects, which is searched linearly</li>
+ * <li><b>levels</b> of 2d-trees built by {@link TwoDTree#constructFromList(List, List, boolean)}, where level i holds at
+ * most {@link #BUFFER_SIZE} times 2<sup>i</sup> objects</li>
+ * </ul>
+ * <p>
+ * When the buffer is full its objects are merged with the objects of the lowest levels into the first empty level,
+ * like adding one to a binary counter. Every object is thereby rebuilt into a tree a logarithmic number of times, and a
+ * range query searches a logarithmic number of balanced trees. The trees are never changed once they're built: removed
+ * objects are kept in a set for each tree, which queries skip, and a level where more than half the objects have been
+ * removed is rebuilt from the rest.
+ * </p>
+ * <p>
+ * The levels keep the bounds of their objects, since the trees widen the bounds they're built from. The base tree
+ * doesn't, so it's never rebuilt.
+ * </p>
+ * <p>
+ * Since the trees aren't changed, {@link #copy()} only copies the buffer and the sets of removed objects, and the copy
+ * can be changed while this index is still queried by other threads.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see ZoomLayeredIndex
+ */
+public class LogStructuredIndex implements MutableSpatialIndex {
+	private static final long serialVersionUID = 111123126;
+
+	/**
+	 * Number of inserted objects kept in the buffer before they're built into a tree, and the size of the lowest level.
+	 */
+	public static final int BUFFER_SIZE = 256;
+
+	private static final int LON = TwoDTree.LON;
+	private static final int LAT = TwoDTree.LAT;
+	private static final int MAX = TwoDTree.MAX;
+
+	// The tree the index was made from, and the objects removed from it
+	private final TwoDTree base;
+	private final Set<MapObject> baseRemoved;
+	// Bounds of the objects in the buffer, 4 values per object
+	private final int[] bufferBounds = new int[BUFFER_SIZE * 4];
+	private final MapObject[] bufferObjs = new MapObject[BUFFER_SIZE];
+	private int bufferN;
+	// Level i holds up to BUFFER_SIZE * 2^i objects, or is null
+	private Level[] levels = new Level[0];
+	// Number of map objects in the index
+	private int size;
+	// List size to cut off the recursive generation of subtrees in the levels
+	private final int cutoffNodeSize;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public LogStructuredIndex() {
+		this(new TwoDTree());
+	}
+
+	/**
+	 * Creates an index holding the objects of a 2d-tree, which new objects are inserted next to.
+	 *
+	 * @param base the tree to start from
+	 */
+	public LogStructuredIndex(TwoDTree base) {
+		this.base = base;
+		this.baseRemoved = identitySet(Collections.emptySet());
+		this.size = base.size();
+		this.cutoffNodeSize = base.getCutoffNodeSize();
+	}
+
+	/**
+	 * Creates a copy of an index, sharing its trees.
+	 */
+	private LogStructuredIndex(LogStructuredIndex index) {
+		base = index.base;
+		baseRemoved = identitySet(index.baseRemoved);
+		System.arraycopy(index.bufferBounds, 0, bufferBounds, 0, index.bufferN * 4);
+		System.arraycopy(index.bufferObjs, 0, bufferObjs, 0, index.bufferN);
+		bufferN = index.bufferN;
+		levels = new Level[index.levels.length];
+		for (int k = 0; k < levels.length; k++) if (index.levels[k] != null) levels[k] = new Level(index.levels[k]);
+		size = index.size;
+		cutoffNodeSize = index.cutoffNodeSize;
+	}
+
+	/**
+	 * @return a set of map objects compared by identity, holding the given objects
+	 */
+	private static Set<MapObject> identitySet(Set<MapObject> objs) {
+		Set<MapObject> set = Collections.newSetFromMap(new IdentityHashMap<>());
+		set.addAll(objs);
+		return set;
+	}
+
+	/**
+	 * @return a sink passing the objects that aren't in the removed set on to the given sink
+	 */
+	private static Consumer<MapObject> skipping(Set<MapObject> removed, Consumer<MapObject> sink) {
+		if (removed.isEmpty()) return sink;
+		return obj -> {
+			if (!removed.contains(obj)) sink.accept(obj);
+		};
+	}
+
+	/**
+	 * @return the removed objects for a tree to skip, or null if there are none
+	 */
+	private static Set<MapObject> skipped(Set<MapObject> removed) {
+		return removed.isEmpty() ? null : removed;
+	}
+
+	/**
+	 * Passes the map objects within the range to the sink, from the base tree, the levels and the buffer. The trees skip
+	 * the removed objects themselves, so the sink isn't wrapped and the query allocates nothing.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are passed
+	 * @param sink      the sink to pass the objects to
+	 */
+	public void query(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel, Consumer<MapObject> sink) {
+		base.query(minlon, minlat, maxlon, maxlat, zoomLevel, skipped(baseRemoved), sink);
+		for (Level level : levels) {
+			if (level != null) level.tree.query(minlon, minlat, maxlon, maxlat, zoomLevel, skipped(level.removed), sink);
+		}
+		for (int i = 0; i < bufferN; i++) {
+			int b = i * 4;
+			if (bufferObjs[i].getZoomLevel() <= zoomLevel &&
+					minlon <= bufferBounds[b + MAX + LON] && maxlon >= bufferBounds[b + LON] &&
+					minlat <= bufferBounds[b + MAX + LAT] && maxlat >= bufferBounds[b + LAT]) sink.accept(bufferObjs[i]);
+		}
+	}
+
+	/**
+	 * Estimates the number of map objects in the range from the estimates of the base tree and the levels, and the
+	 * objects of the buffer within the range. Removed objects are still in the trees, so they may be counted too.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are counted one by one
+	 * @return the estimated number of objects
+	 */
+	public int estimateCount(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		int count = base.estimateCount(minlon, minlat, maxlon, maxlat, zoomLevel);
+		for (Level level : levels) if (level != null) count += level.tree.estimateCount(minlon, minlat, maxlon, maxlat, zoomLevel);
+		for (int i = 0; i < bufferN; i++) {
+			int b = i * 4;
+			if (bufferObjs[i].getZoomLevel() <= zoomLevel &&
+					minlon <= bufferBounds[b + MAX + LON] && maxlon >= bufferBounds[b + LON] &&
+					minlat <= bufferBounds[b + MAX + LAT] && maxlat >= bufferBounds[b + LAT]) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Offers the roots of the base tree and the levels, and the objects of the buffer, to a nearest neighbour search.
+	 *
+	 * @param search the search to offer them to
+	 */
+	public void offerTo(NearestSearch search) {
+		base.offerTo(search.excluding(baseRemoved));
+		for (Level level : levels) if (level != null) level.tree.offerTo(search.excluding(level.removed));
+		for (int i = 0; i < bufferN; i++) {
+			int b = i * 4;
+			search.offerObject(bufferBounds[b + LON], bufferBounds[b + LAT], bufferBounds[b + MAX + LON],
+					bufferBounds[b + MAX + LAT], bufferObjs[i]);
+		}
+	}
+
+	/**
+	 * Inserts a map object into the buffer, merging the buffer into the levels if it's full.
+	 *
+	 * @param posinfo the bounding box of the object (<b>int[] {longitude, latitude, offset longitude, offset latitude}</b>)
+	 * @param obj     the map object to insert
+	 */
+	public void insert(int[] posinfo, MapObject obj) {
+		if (bufferN == BUFFER_SIZE) flush();
+		System.arraycopy(posinfo, 0, bufferBounds, bufferN * 4, 4);
+		bufferObjs[bufferN++] = obj;
+		size++;
+	}
+
+	/**
+	 * Merges the buffer with the lowest levels into the first level with room for all of them.
+	 */
+	private void flush() {
+		List<int[]> bounds = new ArrayList<>();
+		List<MapObject> objs = new ArrayList<>();
+		for (int i = 0; i < bufferN; i++) {
+			bounds.add(Arrays.copyOfRange(bufferBounds, i * 4, i * 4 + 4));
+			objs.add(bufferObjs[i]);
+		}
+		Arrays.fill(bufferObjs, 0, bufferN, null);
+		bufferN = 0;
+
+		// Carry the objects up through the levels until there's a level they fit in
+		int k = 0;
+		for (; k < levels.length && levels[k] != null; k++) {
+			if (bounds.size() + levels[k].liveCount() <= capacity(k)) break;
+			levels[k].addLiveTo(bounds, objs);
+			levels[k] = null;
+		}
+		if (k < levels.length && levels[k] != null) {
+			levels[k].addLiveTo(bounds, objs);
+		}
+		if (k == levels.length) levels = Arrays.copyOf(levels, k + 1);
+		levels[k] = new Level(bounds, objs, cutoffNodeSize);
+	}
+
+	private static int capacity(int level) {
+		return BUFFER_SIZE << level;
+	}
+
+	/**
+	 * Removes a map object from the buffer, the level or the base tree holding it.
+	 *
+	 * @param obj the map object to remove, compared by identity
+	 * @return true if the object was in the index
+	 */
+	public boolean remove(MapObject obj) {
+		for (int i = 0; i < bufferN; i++) {
+			if (bufferObjs[i] != obj) continue;
+			// Move the last object of the buffer to the free spot
+			bufferN--;
+			bufferObjs[i] = bufferObjs[bufferN];
+			System.arraycopy(bufferBounds, bufferN * 4, bufferBounds, i * 4, 4);
+			bufferObjs[bufferN] = null;
+			size--;
+			return true;
+		}
+		for (int k = 0; k < levels.length; k++) {
+			Level level = levels[k];
+			if (level == null || !level.remove(obj)) continue;
+			// Rebuild levels that are mostly removed objects
+			if (level.liveCount() * 2 < level.objs.length) {
+				List<int[]> bounds = new ArrayList<>();
+				List<MapObject> objs = new ArrayList<>();
+				level.addLiveTo(bounds, objs);
+				levels[k] = objs.isEmpty() ? null : new Level(bounds, objs, cutoffNodeSize);
+			}
+			size--;
+			return true;
+		}
+		if (baseRemoved.contains(obj) || !base.contains(obj)) return false;
+		baseRemoved.add(obj);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Creates a copy of the index that can be changed without changing this one. The trees are shared, so this only
+	 * takes time in the number of objects in the buffer and removed objects.
+	 *
+	 * @return the copy
+	 */
+	public LogStructuredIndex copy() {
+		return new LogStructuredIndex(this);
+	}
+
+	/**
+	 * @return the number of map objects in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of levels holding inserted objects
+	 */
+	public int levelCount() {
+		int count = 0;
+		for (Level level : levels) if (level != null) count++;
+		return count;
+	}
+
+	/**
+	 * Performs the given action for every map object in the index.
+	 *
+	 * @param action the action to perform
+	 */
+	public void forEach(Consumer<MapObject> action) {
+		base.forEach(skipping(baseRemoved, action));
+		for (Level level : levels) if (level != null) level.tree.forEach(skipping(level.removed, action));
+		for (int i = 0; i < bufferN; i++) action.accept(bufferObjs[i]);
+	}
+
+	/**
+	 * Returns a compact copy of the base tree if no objects have been inserted, see {@link TwoDTree#compact()}.
+	 * Otherwise the index itself is returned, since the base tree can't be rebuilt with the inserted objects.
+	 *
+	 * @return the compact index
+	 */
+	public SpatialIndex compact() {
+		return bufferN == 0 && levelCount() == 0 && baseRemoved.isEmpty() ? base.compact() : this;
+	}
+
+	/**
+	 * A static 2d-tree of inserted objects, along with the bounds they were inserted with and the objects removed from
+	 * it since.
+	 */
+	private static class Level implements Serializable {
+		private static final long serialVersionUID = 111136;
+
+		final TwoDTree tree;
+		final int[][] bounds;
+		final MapObject[] objs;
+		final Set<MapObject> removed;
+
+		Level(List<int[]> bounds, List<MapObject> objs, int cutoffNodeSize) {
+			this.bounds = bounds.toArray(new int[bounds.size()][]);
+			this.objs = objs.toArray(new MapObject[objs.size()]);
+			this.removed = identitySet(Collections.emptySet());
+			// The tree widens the bounds it's built from, so it gets copies
+			List<int[]> copies = new ArrayList<>(bounds.size());
+			for (int[] b : bounds) copies.add(b.clone());
+			tree = new TwoDTree(cutoffNodeSize);
+			tree.constructFromList(copies, objs, true);
+		}
+
+		/**
+		 * Creates a copy of a level, sharing its tree.
+		 */
+		Level(Level level) {
+			tree = level.tree;
+			bounds = level.bounds;
+			objs = level.objs;
+			removed = identitySet(level.removed);
+		}
+
+		int liveCount() {
+			return objs.length - removed.size();
+		}
+
+		/**
+		 * Marks an object of the level as removed.
+		 *
+		 * @return true if the object was in the level
+		 */
+		boolean remove(MapObject obj) {
+			if (removed.contains(obj) || !tree.contains(obj)) return false;
+			removed.add(obj);
+			return true;
+		}
+
+		/**
+		 * Adds the objects that haven't been removed from the level, and their bounds, to the lists.
+		 */
+		void addLiveTo(List<int[]> bounds, List<MapObject> objs) {
+			for (int i = 0; i < this.objs.length; i++) {
+				if (removed.contains(this.objs[i])) continue;
+				bounds.add(this.bounds[i]);
+				objs.add(this.objs[i]);
+			}
+		}
+	}
+}
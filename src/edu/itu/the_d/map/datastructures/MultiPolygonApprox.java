@@ -45,6 +45,24 @@ public class MultiPolygonApprox extends PolygonApprox {
         return dist;
     }
 
+    /**
+     * Tests if a point is inside the polygons by the even-odd rule, so points in the holes are outside. Each polygon is
+     * closed from its last point back to its first.
+     */
+    public boolean contains(double x, double y) {
+        if (x < bx || x > bx + bw || y < by || y > by + bh) return false;
+        boolean inside = false;
+        int start = 0;
+        for (int i = 2; i <= coords.length; i += 2) {
+            // Close the polygon when the next point starts a new one, or at the end
+            if (i == coords.length || pointtypes[i >> 1] == PathIterator.SEG_MOVETO) {
+                if (crosses(coords[i - 2], coords[i - 1], coords[start], coords[start + 1], x, y)) inside = !inside;
+                start = i;
+            } else if (crosses(coords[i - 2], coords[i - 1], coords[i], coords[i + 1], x, y)) inside = !inside;
+        }
+        return inside;
+    }
+
     public PathIterator getPathIterator(AffineTransform at, float pixelsq) {
         return new MultiPolygonApproxIterator(at, pixelsq);
     }
@@ -0,0 +1,39 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+/**
+ * A {@link SpatialIndex} that single map objects can be added to and removed from after it's been built, which is
+ * what the {@link edu.itu.the_d.map.dataprocessing.ChangeApplier} needs to keep a loaded map up to date.
+ * <p>
+ * Copyright 2016 The-D
+ *
+ * @see TwoDTree
+ * @see ZoomLayeredIndex
+ */
+public interface MutableSpatialIndex extends SpatialIndex {
+	/**
+	 * Inserts a single map object into the index.
+	 *
+	 * @param posinfo the bounding box of the object (<b>int[] {longitude, latitude, offset longitude, offset latitude}</b>)
+	 * @param obj     the map object to insert
+	 */
+	void insert(int[] posinfo, MapObject obj);
+
+	/**
+	 * Removes a map object from the index.
+	 *
+	 * @param obj the map object to remove, compared by identity
+	 * @return true if the object was in the index
+	 */
+	boolean remove(MapObject obj);
+
+	/**
+	 * Creates a copy of the index that objects can be inserted into and removed from without changing this index, so
+	 * changes can be made to the copy while this index is being queried, and the copy put in its place when they're
+	 * done. The copy may share structure with this index, so this index must not be changed afterwards.
+	 *
+	 * @return the copy
+	 */
+	MutableSpatialIndex copy();
+}
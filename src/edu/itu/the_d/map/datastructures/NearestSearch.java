@@ -0,0 +1,245 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * <p>
+ * Best-first search for the map objects nearest to a point in a {@link SpatialIndex}. The search keeps a priority
+ * queue of nodes and objects ordered by the distance from the point to their bounding box, which no object inside the
+ * box can be closer than. The closest entry is taken off the queue: a node is expanded, putting its children and
+ * objects on the queue, an object is put back with its exact distance, and an object with its exact distance is the
+ * next nearest one, since nothing left on the queue can be closer. The search therefore only looks at the part of the
+ * index around the point, however sparse or dense the objects there are.
+ * </p>
+ * <p>
+ * The indexes take part through {@link SpatialIndex#offerTo(NearestSearch)}, where they offer their root nodes with
+ * {@link #offerNode(int, int, int, int, Expansion)} and, when a node is expanded, its children and objects with
+ * {@link #offerObject(int, int, int, int, MapObject)}. Coordinates and distances are in the integer coordinates of the
+ * bounding box arrays (see {@link TwoDTree#LON}), where the distance between two points is 10<sup>7</sup> times their
+ * distance in map coordinates.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see SpatialIndex#nearest(int, int, int, Predicate, ToDoubleFunction)
+ */
+public class NearestSearch {
+	/**
+	 * A node of an index that can be expanded once the search reaches it.
+	 */
+	public interface Expansion {
+		/**
+		 * Offers the children and objects of the node to the search.
+		 *
+		 * @param search the search to offer them to
+		 */
+		void expand(NearestSearch search);
+	}
+
+	/**
+	 * A map object found by the search, along with its exact distance to the point.
+	 */
+	public static class Neighbor {
+		public final MapObject obj;
+		public final double distance;
+
+		/**
+		 * @param obj      the map object
+		 * @param distance its distance to the point
+		 */
+		public Neighbor(MapObject obj, double distance) {
+			this.obj = obj;
+			this.distance = distance;
+		}
+	}
+
+	// Kinds of queue entries
+	private static final byte NODE = 0, BOX = 1, EXACT = 2;
+
+	private final double lon, lat;
+	private final int k;
+	private final Predicate<MapObject> filter;
+	private final ToDoubleFunction<MapObject> distance;
+	// The search whose queue the entries go on, and the objects this view of it skips
+	private final NearestSearch root;
+	private final Set<MapObject> excluded;
+
+	// Binary min-heap of the queue entries, ordered by key
+	private double[] keys = new double[64];
+	private Object[] items = new Object[64];
+	private byte[] kinds = new byte[64];
+	private int N;
+
+	/**
+	 * Creates a search for the objects nearest to a point.
+	 *
+	 * @param lon      the longitude of the point
+	 * @param lat      the latitude of the point
+	 * @param k        the number of objects to find
+	 * @param filter   only objects it accepts are found, or null to find any object
+	 * @param distance the exact distance from the point to an object, which can't be less than the distance to its
+	 *                 bounding box
+	 */
+	public NearestSearch(int lon, int lat, int k, Predicate<MapObject> filter, ToDoubleFunction<MapObject> distance) {
+		if (k < 1) throw new IllegalArgumentException("Number of objects to find must be at least 1");
+		this.lon = lon;
+		this.lat = lat;
+		this.k = k;
+		this.filter = filter;
+		this.distance = distance;
+		this.root = this;
+		this.excluded = null;
+	}
+
+	/**
+	 * Creates a view of a search that skips some objects.
+	 */
+	private NearestSearch(NearestSearch search, Set<MapObject> excluded) {
+		this.lon = search.lon;
+		this.lat = search.lat;
+		this.k = search.k;
+		this.filter = search.filter;
+		this.distance = search.distance;
+		this.root = search.root;
+		this.excluded = excluded;
+	}
+
+	/**
+	 * Returns a view of the search that puts its entries on the queue of this search, but skips the given objects,
+	 * along with any this search skips. Used by indexes that keep removed objects in their trees.
+	 *
+	 * @param excluded the objects to skip
+	 * @return the view, or this search if there are no objects to skip
+	 */
+	public NearestSearch excluding(Set<MapObject> excluded) {
+		if (excluded.isEmpty()) return this;
+		if (this.excluded == null) return new NearestSearch(this, excluded);
+		Set<MapObject> both = Collections.newSetFromMap(new IdentityHashMap<>());
+		both.addAll(this.excluded);
+		both.addAll(excluded);
+		return new NearestSearch(this, both);
+	}
+
+	/**
+	 * Puts a node on the queue, to be expanded when it's the closest entry.
+	 *
+	 * @param minlon    minimum longitude of a box holding every object of the node
+	 * @param minlat    minimum latitude of the box
+	 * @param maxlon    maximum longitude of the box
+	 * @param maxlat    maximum latitude of the box
+	 * @param expansion offers the children and objects of the node
+	 */
+	public void offerNode(int minlon, int minlat, int maxlon, int maxlat, Expansion expansion) {
+		if (root != this) {
+			// The node is expanded into this view, so its objects are skipped too
+			root.offerNode(minlon, minlat, maxlon, maxlat, search -> expansion.expand(this));
+			return;
+		}
+		push(boxDistance(minlon, minlat, maxlon, maxlat), expansion, NODE);
+	}
+
+	/**
+	 * Puts a map object on the queue, unless the filter rejects it.
+	 *
+	 * @param minlon minimum longitude of a box holding the object
+	 * @param minlat minimum latitude of the box
+	 * @param maxlon maximum longitude of the box
+	 * @param maxlat maximum latitude of the box
+	 * @param obj    the map object
+	 */
+	public void offerObject(int minlon, int minlat, int maxlon, int maxlat, MapObject obj) {
+		if (skips(obj)) return;
+		if (filter != null && !filter.test(obj)) return;
+		root.push(boxDistance(minlon, minlat, maxlon, maxlat), obj, BOX);
+	}
+
+	/**
+	 * @return true if the view skips the object
+	 */
+	private boolean skips(MapObject obj) {
+		return excluded != null && excluded.contains(obj);
+	}
+
+	/**
+	 * Runs the search on the entries offered so far.
+	 *
+	 * @return up to k objects, nearest first
+	 */
+	public List<Neighbor> run() {
+		if (root != this) return root.run();
+		List<Neighbor> res = new ArrayList<>(k);
+		while (N > 0 && res.size() < k) {
+			double key = keys[0];
+			Object item = items[0];
+			byte kind = kinds[0];
+			pop();
+			if (kind == NODE) {
+				((Expansion) item).expand(this);
+			} else if (kind == BOX) {
+				MapObject obj = (MapObject) item;
+				push(Math.max(key, distance.applyAsDouble(obj)), obj, EXACT);
+			} else {
+				res.add(new Neighbor((MapObject) item, key));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the distance from the point to the box, 0 if it's inside
+	 */
+	private double boxDistance(int minlon, int minlat, int maxlon, int maxlat) {
+		double dx = Math.max(0, Math.max(minlon - lon, lon - maxlon));
+		double dy = Math.max(0, Math.max(minlat - lat, lat - maxlat));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private void push(double key, Object item, byte kind) {
+		if (N == keys.length) {
+			keys = Arrays.copyOf(keys, N * 2);
+			items = Arrays.copyOf(items, N * 2);
+			kinds = Arrays.copyOf(kinds, N * 2);
+		}
+		// Move the entry up from the bottom until its parent is closer
+		int i = N++;
+		while (i > 0 && keys[(i - 1) / 2] > key) {
+			int parent = (i - 1) / 2;
+			set(i, keys[parent], items[parent], kinds[parent]);
+			i = parent;
+		}
+		set(i, key, item, kind);
+	}
+
+	private void pop() {
+		N--;
+		double key = keys[N];
+		Object item = items[N];
+		byte kind = kinds[N];
+		items[N] = null;
+		if (N == 0) return;
+		// Move the last entry down from the top until its children are further away
+		int i = 0;
+		while (2 * i + 1 < N) {
+			int child = 2 * i + 1;
+			if (child + 1 < N && keys[child + 1] < keys[child]) child++;
+			if (keys[child] >= key) break;
+			set(i, keys[child], items[child], kinds[child]);
+			i = child;
+		}
+		set(i, key, item, kind);
+	}
+
+	private void set(int i, double key, Object item, byte kind) {
+		keys[i] = key;
+		items[i] = item;
+		kinds[i] = kind;
+	}
+}
@@ -0,0 +1,376 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Static R-tree packed in Hilbert order, as an alternative to the {@link TwoDTree}. The 2d-tree splits the objects by
+ * the corner of their bounding box and widens the nodes to hold the rest of the box, so long roads and big regions
+ * make nodes overlap a lot. An R-tree instead groups whole bounding boxes: the objects are sorted by the Hilbert
+ * curve position of the centre of their box, every {@link #NODE_SIZE} consecutive objects become a leaf, every
+ * {@link #NODE_SIZE} consecutive leaves a node above them and so on up to the root. The Hilbert curve keeps objects
+ * that are close on the map close in the order, so the nodes are small and square.
+ * </p>
+ * <p>
+ * Since every node has a fixed number of children, the tree needs no child references. Nodes are stored level by
+ * level, leaves first and the root last, in a few parallel arrays:
+ * </p>
+ * <ul>
+ * <li><b>objects</b> and <b>objBounds</b> hold the map objects in Hilbert order and their bounds, 4 values per object</li>
+ * <li><b>bounds</b> holds the union bounds of node i at 4*i</li>
+ * <li><b>levelStart</b> holds the index of the first node of each level, with the end of the root level at the end</li>
+ * </ul>
+ * <p>
+ * The j'th node of a level has the nodes (or objects, for the leaves) from j*{@link #NODE_SIZE} of the level below as
+ * children, so the j'th node of level l holds the objects from j*{@link #NODE_SIZE}<sup>l+1</sup>, and the number of
+ * objects in a node doesn't need to be stored either. The tree can't be changed once it's built.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see SpatialIndex
+ */
+public class PackedRTree implements SpatialIndex {
+	private static final long serialVersionUID = 111123127;
+
+	/**
+	 * Default number of children of each node.
+	 */
+	public static final int NODE_SIZE = 16;
+
+	private static final int LON = TwoDTree.LON;
+	private static final int LAT = TwoDTree.LAT;
+	private static final int MAX = TwoDTree.MAX;
+	// Number of cells along each side of the grid the Hilbert curve is drawn on
+	private static final int HILBERT_SIDE = 1 << 15;
+
+	// Number of children of each node
+	private final int nodeSize;
+	// Map objects in Hilbert order
+	private final MapObject[] objects;
+	// Bounds of each map object, 4 values per object
+	private final int[] objBounds;
+	// Bounds of each node, 4 values per node
+	private final int[] bounds;
+	// Index of the first node of each level from the leaves up, with the number of nodes at the end
+	private final int[] levelStart;
+
+	// Traversal stack each thread last used, kept so queries and estimates don't allocate one
+	private static final ThreadLocal<long[]> STACK = new ThreadLocal<>();
+
+	/**
+	 * Builds a tree with nodes of {@link #NODE_SIZE} children from two input lists like
+	 * {@link TwoDTree#constructFromList(List, List)}. The bounds aren't changed.
+	 *
+	 * @param posinfo_list input list with the map objects bounds
+	 * @param obj_list     input list with the map objects themselves
+	 */
+	public PackedRTree(List<int[]> posinfo_list, List<MapObject> obj_list) {
+		this(posinfo_list, obj_list, NODE_SIZE);
+	}
+
+	/**
+	 * Builds a tree from two input lists.
+	 *
+	 * @param posinfo_list input list with the map objects bounds
+	 * @param obj_list     input list with the map objects themselves
+	 * @param nodeSize     the number of children of each node
+	 */
+	public PackedRTree(List<int[]> posinfo_list, List<MapObject> obj_list, int nodeSize) {
+		if (posinfo_list.size() != obj_list.size())
+			throw new IllegalArgumentException("Input lists are not the same size");
+		if (nodeSize < 2) throw new IllegalArgumentException("Node size must be at least 2");
+		this.nodeSize = nodeSize;
+		int n = obj_list.size();
+
+		// Sort the objects by the Hilbert position of their centre, keeping the position in the lists in the low bits
+		int minlon = Integer.MAX_VALUE, minlat = Integer.MAX_VALUE, maxlon = Integer.MIN_VALUE, maxlat = Integer.MIN_VALUE;
+		for (int[] p : posinfo_list) {
+			minlon = Math.min(minlon, p[LON]);
+			minlat = Math.min(minlat, p[LAT]);
+			maxlon = Math.max(maxlon, p[LON + MAX]);
+			maxlat = Math.max(maxlat, p[LAT + MAX]);
+		}
+		double lonScale = (HILBERT_SIDE - 1) / Math.max(1.0, (double) maxlon - minlon);
+		double latScale = (HILBERT_SIDE - 1) / Math.max(1.0, (double) maxlat - minlat);
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			int[] p = posinfo_list.get(i);
+			int x = (int) ((((double) p[LON] + p[LON + MAX]) / 2 - minlon) * lonScale);
+			int y = (int) ((((double) p[LAT] + p[LAT + MAX]) / 2 - minlat) * latScale);
+			keys[i] = (long) hilbert(x, y) << 32 | i;
+		}
+		Arrays.sort(keys);
+
+		objects = new MapObject[n];
+		objBounds = new int[n * 4];
+		for (int i = 0; i < n; i++) {
+			int j = (int) keys[i];
+			objects[i] = obj_list.get(j);
+			System.arraycopy(posinfo_list.get(j), 0, objBounds, i * 4, 4);
+		}
+
+		// Count the nodes of each level, up to a level with a single node
+		List<Integer> starts = new ArrayList<>();
+		int nodes = 0;
+		int count = n;
+		do {
+			starts.add(nodes);
+			count = (count + nodeSize - 1) / nodeSize;
+			nodes += count;
+		} while (count > 1);
+		starts.add(nodes);
+		levelStart = new int[starts.size()];
+		for (int i = 0; i < levelStart.length; i++) levelStart[i] = starts.get(i);
+
+		// The bounds of each node are the union of the bounds of its children
+		bounds = new int[nodes * 4];
+		union(objBounds, n, 0);
+		for (int level = 1; level < levelStart.length - 1; level++) {
+			int[] below = Arrays.copyOfRange(bounds, levelStart[level - 1] * 4, levelStart[level] * 4);
+			union(below, levelStart[level] - levelStart[level - 1], levelStart[level]);
+		}
+	}
+
+	/**
+	 * Sets the bounds of the nodes of a level from the bounds of the level below.
+	 *
+	 * @param below the bounds of the children, 4 values per child
+	 * @param count the number of children
+	 * @param first the index of the first node of the level
+	 */
+	private void union(int[] below, int count, int first) {
+		for (int c = 0; c < count; c += nodeSize) {
+			int b = (first + c / nodeSize) * 4;
+			bounds[b + LON] = bounds[b + LAT] = Integer.MAX_VALUE;
+			bounds[b + MAX + LON] = bounds[b + MAX + LAT] = Integer.MIN_VALUE;
+			for (int i = c; i < Math.min(c + nodeSize, count); i++) {
+				bounds[b + LON] = Math.min(bounds[b + LON], below[i * 4 + LON]);
+				bounds[b + LAT] = Math.min(bounds[b + LAT], below[i * 4 + LAT]);
+				bounds[b + MAX + LON] = Math.max(bounds[b + MAX + LON], below[i * 4 + MAX + LON]);
+				bounds[b + MAX + LAT] = Math.max(bounds[b + MAX + LAT], below[i * 4 + MAX + LAT]);
+			}
+		}
+	}
+
+	/**
+	 * Converts a point on a grid of {@link #HILBERT_SIDE} by {@link #HILBERT_SIDE} cells to its distance along the
+	 * Hilbert curve filling the grid.
+	 *
+	 * @param x the column of the point
+	 * @param y the row of the point
+	 * @return the distance along the curve
+	 */
+	static int hilbert(int x, int y) {
+		int d = 0;
+		for (int s = HILBERT_SIDE / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			// Rotate the quadrant so the curve continues from where it left off
+			if (ry == 0) {
+				if (rx == 1) {
+					x = HILBERT_SIDE - 1 - x;
+					y = HILBERT_SIDE - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Builds a tree of the objects in another index. The bounds of the objects are taken from their shapes, since the
+	 * 2d-trees widen the bounds they're built from.
+	 *
+	 * @param index the index to copy the objects of
+	 * @return the new tree
+	 */
+	public static PackedRTree of(SpatialIndex index) {
+		List<int[]> posinfo = new ArrayList<>(index.size());
+		List<MapObject> objs = new ArrayList<>(index.size());
+		index.forEach(obj -> {
+			Rectangle2D r = obj.getShape().getBounds2D();
+			// Latitudes are negated in the bounds, like in the map object factory
+			posinfo.add(new int[]{(int) (r.getMinX() * Math.pow(10, 7)), (int) -(r.getMaxY() * Math.pow(10, 7)),
+					(int) (r.getMaxX() * Math.pow(10, 7)), (int) -(r.getMinY() * Math.pow(10, 7))});
+			objs.add(obj);
+		});
+		return new PackedRTree(posinfo, objs);
+	}
+
+	/**
+	 * Pass the map objects whose bounds intersect the range to the sink. The nodes to visit are kept on a stack together
+	 * with their level, instead of recursing.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are passed
+	 * @param sink      the sink to pass the objects to
+	 */
+	public void query(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel, Consumer<MapObject> sink) {
+		if (objects.length == 0) return;
+
+		// Each entry is the node index times 32 plus its level
+		int top = levelStart.length - 2;
+		long[] stack = takeStack((top + 1) * nodeSize);
+		int sp = 0;
+		stack[sp++] = (long) levelStart[top] << 5 | top;
+		while (sp > 0) {
+			long entry = stack[--sp];
+			int n = (int) (entry >>> 5);
+			int level = (int) (entry & 31);
+			int b = n * 4;
+			if (minlon > bounds[b + MAX + LON] || maxlon < bounds[b + LON] ||
+					minlat > bounds[b + MAX + LAT] || maxlat < bounds[b + LAT]) continue;
+
+			int first = (n - levelStart[level]) * nodeSize;
+			if (level == 0) {
+				for (int i = first; i < Math.min(first + nodeSize, objects.length); i++) {
+					int o = i * 4;
+					if (objects[i].getZoomLevel() <= zoomLevel &&
+							minlon <= objBounds[o + MAX + LON] && maxlon >= objBounds[o + LON] &&
+							minlat <= objBounds[o + MAX + LAT] && maxlat >= objBounds[o + LAT]) sink.accept(objects[i]);
+				}
+				continue;
+			}
+			int end = Math.min(levelStart[level - 1] + first + nodeSize, levelStart[level]);
+			// Push the children in reverse, so they're visited in order
+			for (int c = end - 1; c >= levelStart[level - 1] + first; c--) stack[sp++] = (long) c << 5 | (level - 1);
+		}
+		STACK.set(stack);
+	}
+
+	/**
+	 * Takes the traversal stack of the calling thread, which is handed back with {@code STACK.set} when the traversal
+	 * is done. A traversal started while the stack is taken, by a sink querying a tree, gets a new one.
+	 *
+	 * @param length the number of entries the traversal needs
+	 * @return a stack of at least that length
+	 */
+	private static long[] takeStack(int length) {
+		long[] stack = STACK.get();
+		STACK.set(null);
+		return stack == null || stack.length < length ? new long[length] : stack;
+	}
+
+	/**
+	 * Estimates the number of map objects in a range without visiting most of them. A node whose bounds are inside the
+	 * range is counted as a whole by the number of objects in it, and only the leaves along the border of the range
+	 * have their objects counted one by one. The zoom level is only checked for those, so the estimate is at least the
+	 * number of objects {@link #query(int, int, int, int, int, Consumer)} passes on.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are counted one by one
+	 * @return the estimated number of objects
+	 */
+	public int estimateCount(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		if (objects.length == 0) return 0;
+
+		int top = levelStart.length - 2;
+		long[] stack = takeStack((top + 1) * nodeSize);
+		int sp = 0;
+		stack[sp++] = (long) levelStart[top] << 5 | top;
+		int count = 0;
+		while (sp > 0) {
+			long entry = stack[--sp];
+			int n = (int) (entry >>> 5);
+			int level = (int) (entry & 31);
+			int b = n * 4;
+			if (minlon > bounds[b + MAX + LON] || maxlon < bounds[b + LON] ||
+					minlat > bounds[b + MAX + LAT] || maxlat < bounds[b + LAT]) continue;
+
+			int first = (n - levelStart[level]) * nodeSize;
+			if (minlon <= bounds[b + LON] && maxlon >= bounds[b + MAX + LON] &&
+					minlat <= bounds[b + LAT] && maxlat >= bounds[b + MAX + LAT]) {
+				// The objects of the node follow each other, from the first object of its first leaf
+				long span = 1;
+				for (int l = 0; l <= level; l++) span *= nodeSize;
+				long start = (n - levelStart[level]) * span;
+				count += (int) (Math.min(start + span, objects.length) - start);
+				continue;
+			}
+			if (level == 0) {
+				for (int i = first; i < Math.min(first + nodeSize, objects.length); i++) {
+					int o = i * 4;
+					if (objects[i].getZoomLevel() <= zoomLevel &&
+							minlon <= objBounds[o + MAX + LON] && maxlon >= objBounds[o + LON] &&
+							minlat <= objBounds[o + MAX + LAT] && maxlat >= objBounds[o + LAT]) count++;
+				}
+				continue;
+			}
+			int end = Math.min(levelStart[level - 1] + first + nodeSize, levelStart[level]);
+			for (int c = levelStart[level - 1] + first; c < end; c++) stack[sp++] = (long) c << 5 | (level - 1);
+		}
+		STACK.set(stack);
+		return count;
+	}
+
+	/**
+	 * Offers the root of the tree to a nearest neighbour search. Expanding a node offers its children with their bounds,
+	 * or for a leaf its objects.
+	 *
+	 * @param search the search to offer the root to
+	 */
+	public void offerTo(NearestSearch search) {
+		if (objects.length > 0) offer(search, levelStart[levelStart.length - 2], levelStart.length - 2);
+	}
+
+	private void offer(NearestSearch search, int n, int level) {
+		int b = n * 4;
+		search.offerNode(bounds[b + LON], bounds[b + LAT], bounds[b + MAX + LON], bounds[b + MAX + LAT], s -> {
+			int first = (n - levelStart[level]) * nodeSize;
+			if (level == 0) {
+				for (int i = first; i < Math.min(first + nodeSize, objects.length); i++) {
+					int o = i * 4;
+					s.offerObject(objBounds[o + LON], objBounds[o + LAT], objBounds[o + MAX + LON], objBounds[o + MAX + LAT], objects[i]);
+				}
+				return;
+			}
+			int end = Math.min(levelStart[level - 1] + first + nodeSize, levelStart[level]);
+			for (int c = levelStart[level - 1] + first; c < end; c++) offer(s, c, level - 1);
+		});
+	}
+
+	/**
+	 * @return the number of map objects in the tree
+	 */
+	public int size() {
+		return objects.length;
+	}
+
+	/**
+	 * @return the number of nodes in the tree, leaves included
+	 */
+	public int nodeCount() {
+		return levelStart[levelStart.length - 1];
+	}
+
+	/**
+	 * @return the number of children of each node
+	 */
+	public int getNodeSize() {
+		return nodeSize;
+	}
+
+	/**
+	 * Performs the given action for every map object in the tree, in Hilbert order.
+	 *
+	 * @param action the action to perform
+	 */
+	public void forEach(Consumer<MapObject> action) {
+		for (MapObject obj : objects) action.accept(obj);
+	}
+}
@@ -53,12 +53,29 @@ public class PolygonApprox implements Shape, Serializable {
         return dist;
     }
 
-    public boolean contains(double _x, double _y) {
-        throw new UnsupportedOperationException("Unexpected call to PolygonApprox.contains(double,double)");
+    /**
+     * Tests if a point is inside the polygon by the even-odd rule, with the polygon closed from its last point back to
+     * its first.
+     */
+    public boolean contains(double x, double y) {
+        if (x < bx || x > bx + bw || y < by || y > by + bh) return false;
+        boolean inside = false;
+        for (int i = 0, j = coords.length - 2; i < coords.length; j = i, i += 2) {
+            if (crosses(coords[j], coords[j + 1], coords[i], coords[i + 1], x, y)) inside = !inside;
+        }
+        return inside;
+    }
+
+    /**
+     * Tests if a ray going right from a point crosses a segment.
+     */
+    static boolean crosses(float x1, float y1, float x2, float y2, double x, double y) {
+        if ((y1 > y) == (y2 > y)) return false;
+        return x < x1 + (y - y1) * (x2 - x1) / (y2 - y1);
     }
 
     public boolean contains(Point2D p) {
-        throw new UnsupportedOperationException("Unexpected call to PolygonApprox.contains(Point2D)");
+        return contains(p.getX(), p.getY());
     }
 
     public boolean intersects(double x, double y, double w, double h) {
@@ -0,0 +1,145 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.datastructures.algs4.MinPQ;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * <p>
+ * The range-query contract of the spatial indexes holding the {@link MapObject}s of the {@link edu.itu.the_d.map.model.Model}.
+ * Coordinates are the integer coordinates of the bounding box arrays (see {@link TwoDTree#LON}, {@link TwoDTree#LAT}
+ * and {@link TwoDTree#MAX}). A range query returns every object whose node in the index intersects the range, so an
+ * index may return objects just outside the range, but never leaves out one inside it.
+ * </p>
+ * Copyright 2016 The-D
+ *
+ * @see TwoDTree
+ * @see FlatTwoDTree
+ * @see ZoomLayeredIndex
+ * @see PackedRTree
+ */
+public interface SpatialIndex extends Serializable {
+	/**
+	 * Pass the map objects within a range to a sink as they're found, in no particular order. Unlike
+	 * {@link #getRange(int, int, int, int, int)} the query doesn't collect or sort the objects, so a sink that's reused
+	 * between queries, like {@link ZIndexBuckets}, makes a query without allocating anything.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are passed
+	 * @param sink      the sink to pass the objects to
+	 */
+	void query(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel, Consumer<MapObject> sink);
+
+	/**
+	 * Add the map objects within a range to a priority queue, which may already hold objects from other indexes.
+	 *
+	 * @param res       the priority queue to add the objects to
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are added
+	 */
+	default void getRange(MinPQ<MapObject> res, int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		query(minlon, minlat, maxlon, maxlat, zoomLevel, res::insert);
+	}
+
+	/**
+	 * Get the map objects within a range.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are returned
+	 * @return a minimum priority queue of map objects within the requested range
+	 */
+	default MinPQ<MapObject> getRange(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		MinPQ<MapObject> res = new MinPQ<>();
+		getRange(res, minlon, minlat, maxlon, maxlat, zoomLevel);
+		return res;
+	}
+
+	/**
+	 * Same as {@link #getRange(int, int, int, int, int)} but without zoom parameter
+	 *
+	 * @param minlon minimum longitude of the bounding box
+	 * @param minlat minimum latitude of the bounding box
+	 * @param maxlon maximum longitude of the bounding box
+	 * @param maxlat maximum latitude of the bounding box
+	 * @return a minimum priority queue of map objects within the requested range
+	 */
+	default MinPQ<MapObject> getRange(int minlon, int minlat, int maxlon, int maxlat) {
+		return getRange(minlon, minlat, maxlon, maxlat, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Estimates the number of map objects a query of the range would pass on, without visiting most of them. The
+	 * indexes keep the number of objects under each node, so a node inside the range is counted as a whole, and only
+	 * the nodes along the border of the range are visited. The zoom level is only checked for the objects that are
+	 * visited, so the estimate may count objects of higher zoom levels inside the range. Used to find out how much a
+	 * tile will take to draw before querying it.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are counted, when they're visited
+	 * @return the estimated number of objects
+	 */
+	int estimateCount(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel);
+
+	/**
+	 * Offers the root nodes of the index, or objects that aren't in a node, to a nearest neighbour search.
+	 *
+	 * @param search the search to offer them to
+	 */
+	void offerTo(NearestSearch search);
+
+	/**
+	 * Finds the map objects nearest to a point by a best-first search of the index, see {@link NearestSearch}.
+	 *
+	 * @param lon      the longitude of the point
+	 * @param lat      the latitude of the point
+	 * @param k        the number of objects to find
+	 * @param filter   only objects it accepts are found, or null to find any object
+	 * @param distance the exact distance from the point to an object, in the coordinates of the index
+	 * @return up to k objects with their exact distances, nearest first
+	 */
+	default List<NearestSearch.Neighbor> nearest(int lon, int lat, int k, Predicate<MapObject> filter,
+	                                             ToDoubleFunction<MapObject> distance) {
+		NearestSearch search = new NearestSearch(lon, lat, k, filter, distance);
+		offerTo(search);
+		return search.run();
+	}
+
+	/**
+	 * @return the number of map objects in the index
+	 */
+	int size();
+
+	/**
+	 * Performs the given action for every map object in the index.
+	 *
+	 * @param action the action to perform
+	 */
+	void forEach(Consumer<MapObject> action);
+
+	/**
+	 * Creates a compact, read-only copy of the index that returns the same objects, or returns the index itself if it
+	 * has no more compact form.
+	 *
+	 * @return the compact index
+	 */
+	default SpatialIndex compact() {
+		return this;
+	}
+}
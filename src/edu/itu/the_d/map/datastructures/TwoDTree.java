@@ -4,9 +4,15 @@ import edu.itu.the_d.map.datastructures.algs4.MinPQ;
 import edu.itu.the_d.map.model.mapobjects.MapObject;
 
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 /**
  * <p>
@@ -18,13 +24,13 @@ import java.util.Random;
  * Each node in the tree is comprised of one integer array of positional information and a list of map objects. The
  * integer array defines a splitting coordinate and an offset coordinate, used for determining which subtree to traverse.
  * (<b>int[] {longitude, latitude, offset longitude, offset latitude}</b>). Instead of storing just a single map object
- * each node stores up to {@link MapObject##CUTOFF_NODE_SIZE} objects, thus decreasing the amount of nodes needed to store
- * a map.
+ * each leaf stores a bucket of up to {@link #getCutoffNodeSize()} objects, thus decreasing the amount of nodes needed to
+ * store a map. The bucket size is set when the tree is created, and defaults to {@link #CUTOFF_NODE_SIZE}.
  * </p>
  * <p>
  * <p>
  * <b>Tree construction:</b> The tree is constructed by using the {@link #constructFromList(List, List)} method.
- * Construction is done by using a Quicksort like partition method {@link #partition(List, List, int, int, int)}
+ * Construction is done by using a Quicksort like partition method {@link #partition(int[][], MapObject[], int, int, int)}
  * which takes a depth as an extra parameter. The method picks a pivot and then places every lesser element to the left of this
  * pivot. In contrast with the regular partition method from a normal Quicksort implementation, this method compares either
  * the x-coordinate or the y-coordinate of the input depending on the depth parameter (alternating between the two dimensions).
@@ -46,21 +52,28 @@ import java.util.Random;
  * <p>
  * <p>
  * After partitioning the list into two sublists, the {@link #constructFromList(List, List)} method recursively splits
- * the list on each pivot index until at certain minimum amount of objects is reached (defined by {@link #CUTOFF_NODE_SIZE}.
- * After the cutoff is reached all map objects in the current sub list is added to a single node, this time adjusting the coordinates
- * as well as the offsets.
+ * the list on each pivot index until at certain minimum amount of objects is reached (defined by {@link #getCutoffNodeSize()}).
+ * After the cutoff is reached all map objects in the current sub list is added to a single leaf node, with bounds covering
+ * all of them, and the bounds of each object kept next to it. The subtrees on either side of a pivot are independent, so they can be built in parallel by
+ * {@link #constructFromList(List, List, boolean)}.
  * </p>
  * <p>
  * <p>
  * <b>Range query:</b> To get data from the data structure, one must define a bounding box or range of objects that
  * should be returned. The TwoDTree then checks recursively through itself, adding a node if it intersects the bounding box
  * and checking the left and right sub node if the range of their subdivision of the trees area is within the bounding box (check
- * {@link #getRange(int, int, int, int, int)} for details).
+ * {@link #getRange(int, int, int, int, int)} for details). The objects of a leaf whose bounds intersect the range are
+ * checked one by one against their own bounds, so a bigger bucket doesn't return more objects outside the range.
+ * </p>
+ * <p>
+ * <p>
+ * <b>Count estimates:</b> Every node knows the number of objects in its subtree, so the number of objects in a range can
+ * be estimated without visiting them, see {@link #estimateCount(int, int, int, int, int)}.
  * </p>
  *
  * Copyright 2016 The-D
  */
-public class TwoDTree implements Serializable {
+public class TwoDTree implements MutableSpatialIndex {
 	private static final long serialVersionUID = 111123123;
 
 	// Constants for posinfo arrays
@@ -79,8 +92,13 @@ public class TwoDTree implements Serializable {
 
 	// Number of dimensions (always 2 for this tree, but makes it easier to read the code)
 	private static final int DIMENSIONS = 2;
-	// List size to cut off the recursive generation of subtrees
-	private static final int CUTOFF_NODE_SIZE = 1;
+	/**
+	 * Default list size to cut off the recursive generation of subtrees, which is the maximum number of objects in a leaf.
+	 * Picked by sweeping the bucket sizes against tile sized queries with the TwoDTreeBucketBenchmark.
+	 */
+	public static final int CUTOFF_NODE_SIZE = 16;
+	// Range size below which the subtrees of a parallel build are built sequentially
+	private static final int PARALLEL_CUTOFF = 1 << 13;
 
 	// The root node of the tree
 	private Node root;
@@ -88,26 +106,34 @@ public class TwoDTree implements Serializable {
 	// Size of the tree (number of nodes)
 	private int size;
 
-	// Random object used for getting pivot indexes
-	private static Random random = new Random();
+	// List size to cut off the recursive generation of subtrees
+	private final int cutoffNodeSize;
 
 	/**
-	 * Constructs a new empty 2d-tree. Used in conjunction with {@link #constructFromList(List, List)}.
+	 * Constructs a new empty 2d-tree with leaves of up to {@link #CUTOFF_NODE_SIZE} objects. Used in conjunction with
+	 * {@link #constructFromList(List, List)}.
 	 */
 	public TwoDTree() {
+		this(CUTOFF_NODE_SIZE);
+	}
+
+	/**
+	 * Constructs a new empty 2d-tree. Used in conjunction with {@link #constructFromList(List, List)}.
+	 *
+	 * @param cutoffNodeSize the maximum number of objects in a leaf, 1 for a tree with a single object per node
+	 * @throws IllegalArgumentException if the size is less than 1
+	 */
+	public TwoDTree(int cutoffNodeSize) {
+		if (cutoffNodeSize < 1) throw new IllegalArgumentException("Cutoff node size must be at least 1");
+		this.cutoffNodeSize = cutoffNodeSize;
 	}
 
 	/**
 	 * <p>
 	 * Constructs the data structure from two input lists, one containing map objects and the other containing the bounding
 	 * box for the corresponding map object. The bounding box is represented as an integer array with four values
-	 * (<b>int[] {longitude, latitude, offset longitude, offset latitude}</b>).
-	 * </p>
-	 * <p>
-	 * <p>
-	 * The method first partitions the lists into two and creates a root note with the map object and position information
-	 * at the resulting pivot. Then it calls a private method {@link #constructFromList(Node, List, List, int, int, int)}
-	 * which recursively partitions the lists and add's splitting nodes to the tree.
+	 * (<b>int[] {longitude, latitude, offset longitude, offset latitude}</b>). The tree is built on the calling thread,
+	 * see {@link #constructFromList(List, List, boolean)}.
 	 * </p>
 	 *
 	 * @param posinfo_list
@@ -115,88 +141,129 @@ public class TwoDTree implements Serializable {
 	 * @see TwoDTree
 	 */
 	public void constructFromList(List<int[]> posinfo_list, List<MapObject> obj_list) {
+		constructFromList(posinfo_list, obj_list, false);
+	}
+
+	/**
+	 * <p>
+	 * Constructs the data structure from two input lists like {@link #constructFromList(List, List)}, optionally
+	 * building it in parallel.
+	 * </p>
+	 * <p>
+	 * <p>
+	 * The lists are copied into arrays, which are partitioned in place. The method then calls a private method
+	 * {@link #build(int[][], MapObject[], int, int, int)} which recursively partitions the arrays and creates the
+	 * splitting nodes of the tree. Once a range has been partitioned, the ranges to the left and right of the pivot are
+	 * independent of each other, so in parallel mode they're built as tasks in the common fork-join pool, until the
+	 * ranges are smaller than {@link #PARALLEL_CUTOFF} and are built sequentially. Since the pivots don't depend on
+	 * the order the ranges are built in, both modes build the exact same tree.
+	 * </p>
+	 *
+	 * @param posinfo_list input list with the map objects bounds
+	 * @param obj_list     input list with the map objects themselves
+	 * @param parallel     whether to build the subtrees in parallel
+	 */
+	public void constructFromList(List<int[]> posinfo_list, List<MapObject> obj_list, boolean parallel) {
 		// Check if input lists are same size
 		if (posinfo_list.size() != obj_list.size())
 			throw new IllegalArgumentException("Input lists are not the same size");
 
 		// Save the size of the lists
 		size = posinfo_list.size();
-		// Partition the lists and get the resulting pivot position. Set lo to 0 and hi to the size of the lists.
-		// Start with depth 0
-		int p = partition(posinfo_list, obj_list, 0, size, 0);
+		int[][] posinfo = posinfo_list.toArray(new int[size][]);
+		MapObject[] objs = obj_list.toArray(new MapObject[size]);
 
-		// Create a new root node with the objects contained at the pivot position in the lists
-		root = new Node(posinfo_list.get(p), obj_list.get(p));
-		// Create new empty nodes for the left and right subtree
-		root.left = new Node();
-		root.right = new Node();
-		// Construct the left subtree from all objects less than or equal to the pivot
-		constructFromList(root.left, posinfo_list, obj_list, 0, p, 1);
-		// Construct the right subtree from all objects strictly greater than the pivot
-		constructFromList(root.right, posinfo_list, obj_list, p + 1, size, 1);
+		// Build the tree from all the objects, starting with depth 0
+		if (parallel) root = ForkJoinPool.commonPool().invoke(new BuildTask(posinfo, objs, 0, size, 0));
+		else root = build(posinfo, objs, 0, size, 0);
 	}
 
-	private void constructFromList(Node n, List<int[]> posinfo_list, List<MapObject> obj_list, int lo, int hi, int depth) {
-		if (lo >= size || hi <= 0) return;
+	/**
+	 * Recursively builds the subtree of the objects from lo (inclusive) to hi (exclusive).
+	 *
+	 * @param posinfo array with the map objects bounds
+	 * @param objs    array with the map objects themselves
+	 * @param lo      the starting index of the range to build the subtree of
+	 * @param hi      the ending index of the range to build the subtree of
+	 * @param depth   the depth of the subtree's root
+	 * @return the root of the subtree, or null if the range is empty
+	 */
+	private Node build(int[][] posinfo, MapObject[] objs, int lo, int hi, int depth) {
+		if (lo >= hi) return null;
 
 		// Check if the cutoff size is reached and the rest of the objects should be put in a single node.
-		if (hi - lo < CUTOFF_NODE_SIZE) {
-			int[] posinfo = posinfo_list.get(lo);
-			for (int i = lo; i < hi; i++) {
-				int[] cur_posinfo = posinfo_list.get(i);
-				// Check if bounds of current object exceed the nodes bounds.
-				// Used in range search to check if this nodes objects should be drawn.
-				if (cur_posinfo[LON] < posinfo[LON])
-					posinfo[LON] = cur_posinfo[LON];
-				if (cur_posinfo[LAT] < posinfo[LAT])
-					posinfo[LAT] = cur_posinfo[LAT];
-				if (cur_posinfo[MAX + LON] > posinfo[MAX + LON])
-					posinfo[MAX + LON] = cur_posinfo[MAX + LON]; // Check if lon_offset is greater than minimum
-				if (cur_posinfo[MAX + LAT] > posinfo[MAX + LAT])
-					posinfo[MAX + LAT] = cur_posinfo[MAX + LAT]; // Check if lat_offset is greater than minimum
-
-				// Add map object to the node's object list
-				n.add(obj_list.get(i));
-			}
-			// Set the node's bounds
-			n.posinfo = posinfo;
-		} else {
-			// Partition the current subrange of the lists by using the partition method
-			int p = partition(posinfo_list, obj_list, lo, hi, depth);
-
-			// Set the nodes bounds and object to the pivot object
-			n.posinfo = posinfo_list.get(p);
-			n.add(obj_list.get(p));
-
-			// Create new empty nodes for left and right subtree
-			n.left = new Node();
-			n.right = new Node();
-
-			// Construct left subtree from all objects less than the pivot
-			constructFromList(n.left, posinfo_list, obj_list, lo, p, depth + 1);
-			// Construct right subtree from all objects bigger than the pivot
-			constructFromList(n.right, posinfo_list, obj_list, p + 1, hi, depth + 1);
+		if (hi - lo <= cutoffNodeSize) return leaf(posinfo, objs, lo, hi);
+
+		// Partition the current range of the arrays and set the nodes bounds and object to the pivot object
+		int p = partition(posinfo, objs, lo, hi, depth);
+		Node n = new Node(posinfo[p], objs[p]);
+		n.subtreeCount = hi - lo;
+
+		// Construct left subtree from all objects less than or equal to the pivot
+		n.left = build(posinfo, objs, lo, p, depth + 1);
+		// Construct right subtree from all objects strictly greater than the pivot
+		n.right = build(posinfo, objs, p + 1, hi, depth + 1);
+		return n;
+	}
+
+	/**
+	 * Puts all the objects from lo (inclusive) to hi (exclusive) in a single node, with bounds covering all of them. A
+	 * leaf with more than one object also keeps the bounds of each object, so they can be checked one by one in range
+	 * queries.
+	 *
+	 * @param posinfo array with the map objects bounds
+	 * @param objs    array with the map objects themselves
+	 * @param lo      the starting index of the range
+	 * @param hi      the ending index of the range
+	 * @return the leaf node
+	 */
+	private Node leaf(int[][] posinfo, MapObject[] objs, int lo, int hi) {
+		if (hi - lo == 1) return new Node(posinfo[lo], objs[lo]);
+		Node n = new Node();
+		n.obj_list = new MapObject[hi - lo];
+		n.obj_posinfo = new int[(hi - lo) * 4];
+		int[] bounds = posinfo[lo].clone();
+		for (int i = lo; i < hi; i++) {
+			int[] cur_posinfo = posinfo[i];
+			// Check if bounds of current object exceed the nodes bounds.
+			// Used in range search to check if this nodes objects should be drawn.
+			if (cur_posinfo[LON] < bounds[LON])
+				bounds[LON] = cur_posinfo[LON];
+			if (cur_posinfo[LAT] < bounds[LAT])
+				bounds[LAT] = cur_posinfo[LAT];
+			if (cur_posinfo[MAX + LON] > bounds[MAX + LON])
+				bounds[MAX + LON] = cur_posinfo[MAX + LON]; // Check if lon_offset is greater than minimum
+			if (cur_posinfo[MAX + LAT] > bounds[MAX + LAT])
+				bounds[MAX + LAT] = cur_posinfo[MAX + LAT]; // Check if lat_offset is greater than minimum
+
+			// Add map object and its bounds to the node's object list
+			System.arraycopy(cur_posinfo, 0, n.obj_posinfo, n.N * 4, 4);
+			n.add(objs[i]);
 		}
+		// Set the node's bounds
+		n.posinfo = bounds;
+		n.subtreeCount = hi - lo;
+		return n;
 	}
 
 	/**
 	 * <p>
-	 * Partitions the two input list in two halves. The partitioning depends on the depth parameter, which for even
-	 * values result in a partition along the x-axis of the inputs and for odd values result in a partition along
-	 * the y-axis of the inputs.
+	 * Partitions the range of the two input arrays in two halves. The partitioning depends on the depth parameter, which
+	 * for even values result in a partition along the x-axis of the inputs and for odd values result in a partition
+	 * along the y-axis of the inputs.
 	 * </p>
 	 * <p>
 	 * <p>
-	 * The partitioning itself works by selecting a random pivot and placing it at the end of the list. Then the method
-	 * iterates over the list, moving every item smaller than the pivot (in the given dimension) to the beginning of the
-	 * list. Also, if the moved item's offset coordinates are bigger than the pivot's, the pivot's offsets are modified
-	 * in order to keep track of how far right or below the pivot (depending on direction) nodes in the left subtree
-	 * will go.
+	 * The partitioning itself works by selecting a pseudo random pivot and placing it at the end of the range. Then the
+	 * method iterates over the range, moving every item smaller than the pivot (in the given dimension) to the beginning
+	 * of the range. Also, if the moved item's offset coordinates are bigger than the pivot's, the pivot's offsets are
+	 * modified in order to keep track of how far right or below the pivot (depending on direction) nodes in the left
+	 * subtree will go.
 	 * </p>
 	 * <p>
 	 * <p>
-	 * The method operates on two lists simultaneously, since each object in both belong together. This is done to
-	 * eliminate the need for extra classes and method calls.
+	 * The pivot is picked by hashing the range instead of from a shared random generator, so ranges can be partitioned
+	 * on several threads at once, and the tree is the same every time it's built from the same input.
 	 * </p>
 	 * <p>
 	 * <p>
@@ -204,67 +271,116 @@ public class TwoDTree implements Serializable {
 	 * identical to this one, and certainly identical in overall principle.
 	 * </p>
 	 *
-	 * @param posinfo_list input list with the map objects bounds
-	 * @param obj_list     input list with the map objects themselves
-	 * @param lo           the starting index of the sub-range of the lists to partition
-	 * @param hi           the ending index of the sub-range of the lists to partition
-	 * @param depth        the current node depth, used for determining the dimension to compare against (x for even depths, y for
-	 *                     odd)
+	 * @param posinfo array with the map objects bounds
+	 * @param objs    array with the map objects themselves
+	 * @param lo      the starting index of the range to partition
+	 * @param hi      the ending index of the range to partition
+	 * @param depth   the current node depth, used for determining the dimension to compare against (x for even depths, y for
+	 *                odd)
 	 * @return the final position of the pivot element
 	 */
-	private int partition(List<int[]> posinfo_list, List<MapObject> obj_list, int lo, int hi, int depth) {
+	private int partition(int[][] posinfo, MapObject[] objs, int lo, int hi, int depth) {
 		// Get the current dimension
 		int dimension = depth % DIMENSIONS;
-		//if (hi == 0) hi = 1;
 
 		// Set the pivot index
 		int pivot = hi - 1;
-		// Find a random pivot element and move it to the end of the list
-		// Note: swapInList swaps elements in both input lists
-		swapInList(posinfo_list, obj_list, hi - 1, lo+random.nextInt(hi-lo));
+		// Find a pseudo random pivot element and move it to the end of the range
+		swap(posinfo, objs, pivot, pivotIndex(lo, hi));
+		int[] pivot_posinfo = posinfo[pivot];
 
 		// This variable represents the current index to put values less than the pivot in. It starts at the bottom
 		// of the range to partition
 		int i = lo;
-		// Go through each element in the sub-range defined by lo and hi
-		for (int j = lo; j < hi - 1; j++) {
+		// Go through each element in the range defined by lo and hi
+		for (int j = lo; j < pivot; j++) {
 			// Check if the current element is less than or equal to the pivot element
 			// Either longitude or latitude (x or y) is chosen as comparison based on the current tree depth
-			if (posinfo_list.get(j)[dimension] <= posinfo_list.get(pivot)[dimension]) {
+			if (posinfo[j][dimension] <= pivot_posinfo[dimension]) {
 				// Check if the offset of the current element is bigger than the pivot's
 				// This is only done to elements in the left subtree, since only these might pass the coordinates of
 				// the splitting nodes (see class docs for details)
-				if (posinfo_list.get(j)[dimension + MAX] > posinfo_list.get(pivot)[dimension + MAX])
-					posinfo_list.get(pivot)[dimension + MAX] = posinfo_list.get(j)[dimension + MAX];
+				if (posinfo[j][dimension + MAX] > pivot_posinfo[dimension + MAX])
+					pivot_posinfo[dimension + MAX] = posinfo[j][dimension + MAX];
 				// Swap the element at position i with the current element, thus building the lesser elements from the beginning
 				// of the partitioning range
-				swapInList(posinfo_list, obj_list, i, j);
+				swap(posinfo, objs, i, j);
 				i++;
 			}
 		}
 		// Finally swap the pivot to its final location determined by i (index of the element after all elements less
 		// than the pivot)
-		swapInList(posinfo_list, obj_list, i, pivot);
+		swap(posinfo, objs, i, pivot);
 		// Return this index for use in creating subtrees
 		return i;
 	}
 
 	/**
-	 * Simply swaps the elements at position k and i in both input lists.
+	 * Picks a pivot index in the range by hashing its bounds (the finalizer of the SplitMix64 generator).
 	 *
-	 * @param posinfo_list input list with the map objects bounds
-	 * @param obj_list     input list with the map objects themselves
+	 * @param lo the starting index of the range
+	 * @param hi the ending index of the range
+	 * @return an index from lo (inclusive) to hi (exclusive)
+	 */
+	private static int pivotIndex(int lo, int hi) {
+		long h = ((long) lo << 32 | hi) * 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		h ^= h >>> 31;
+		return lo + (int) ((h >>> 1) % (hi - lo));
+	}
+
+	/**
+	 * Simply swaps the elements at position k and j in both input arrays.
+	 *
+	 * @param posinfo array with the map objects bounds
+	 * @param objs    array with the map objects themselves
 	 * @param k
 	 * @param j
 	 */
-	private void swapInList(List<int[]> posinfo_list, List<MapObject> obj_list, int k, int j) {
-		int[] posinfo_tmp = posinfo_list.get(k);
-		MapObject obj_tmp = obj_list.get(k);
+	private static void swap(int[][] posinfo, MapObject[] objs, int k, int j) {
+		int[] posinfo_tmp = posinfo[k];
+		MapObject obj_tmp = objs[k];
+
+		posinfo[k] = posinfo[j];
+		objs[k] = objs[j];
+		posinfo[j] = posinfo_tmp;
+		objs[j] = obj_tmp;
+	}
+
+	/**
+	 * Task for building a subtree in the fork-join pool. The range is partitioned on the current thread, after which the
+	 * left subtree is forked and the right subtree is built by the current task. Ranges smaller than
+	 * {@link #PARALLEL_CUTOFF} are built sequentially by {@link #build(int[][], MapObject[], int, int, int)}.
+	 */
+	private class BuildTask extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 201603141;
+
+		private final int[][] posinfo;
+		private final MapObject[] objs;
+		private final int lo, hi, depth;
 
-		posinfo_list.set(k, posinfo_list.get(j));
-		obj_list.set(k, obj_list.get(j));
-		posinfo_list.set(j, posinfo_tmp);
-		obj_list.set(j, obj_tmp);
+		BuildTask(int[][] posinfo, MapObject[] objs, int lo, int hi, int depth) {
+			this.posinfo = posinfo;
+			this.objs = objs;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Node compute() {
+			if (hi - lo < PARALLEL_CUTOFF || hi - lo <= cutoffNodeSize) return build(posinfo, objs, lo, hi, depth);
+
+			int p = partition(posinfo, objs, lo, hi, depth);
+			Node n = new Node(posinfo[p], objs[p]);
+			n.subtreeCount = hi - lo;
+			BuildTask left = new BuildTask(posinfo, objs, lo, p, depth + 1);
+			left.fork();
+			n.right = new BuildTask(posinfo, objs, p + 1, hi, depth + 1).compute();
+			n.left = left.join();
+			return n;
+		}
 	}
 
 	/**
@@ -281,7 +397,7 @@ public class TwoDTree implements Serializable {
 
 	/**
 	 * Public method for getting a certain range of objects in the tree. The range query itself is run by the private
-	 * method {@link #getRange(MinPQ, Node, int[], int[], int, int)}.
+	 * method {@link #query(Consumer, Node, int, int, int, int, int, int)}.
 	 * @param minlon minimum longitude of the bounding box
 	 * @param minlat minimum latitude of the bounding box
 	 * @param maxlon maximum longitude of the bounding box
@@ -294,46 +410,339 @@ public class TwoDTree implements Serializable {
 	 */
 	public MinPQ<MapObject> getRange(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
 		MinPQ<MapObject> res = new MinPQ<>();
-		getRange(res, root, new int[]{minlon, minlat}, new int[]{maxlon, maxlat}, 0, zoomLevel);
+		getRange(res, minlon, minlat, maxlon, maxlat, zoomLevel);
 		return res;
 	}
 
+	/**
+	 * Same as {@link #getRange(int, int, int, int, int)}, but passes the objects to the given sink instead of collecting
+	 * them, so the query itself doesn't allocate anything.
+	 * @param minlon minimum longitude of the bounding box
+	 * @param minlat minimum latitude of the bounding box
+	 * @param maxlon maximum longitude of the bounding box
+	 * @param maxlat maximum latitude of the bounding box
+	 * @param zoomLevel determines which objects to return based on presets in the respective map objects
+	 * @param sink the sink to pass the objects to
+	 */
+	public void query(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel, Consumer<MapObject> sink) {
+		query(sink, null, root, minlon, minlat, maxlon, maxlat, 0, zoomLevel);
+	}
+
+	/**
+	 * Same as {@link #query(int, int, int, int, int, Consumer)}, but skips the objects in the given set, so a caller
+	 * keeping removed objects in a set doesn't have to wrap the sink for each query.
+	 * @param minlon minimum longitude of the bounding box
+	 * @param minlat minimum latitude of the bounding box
+	 * @param maxlon maximum longitude of the bounding box
+	 * @param maxlat maximum latitude of the bounding box
+	 * @param zoomLevel determines which objects to return based on presets in the respective map objects
+	 * @param skip the objects not to pass on, or null
+	 * @param sink the sink to pass the objects to
+	 */
+	void query(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel, Set<MapObject> skip, Consumer<MapObject> sink) {
+		query(sink, skip, root, minlon, minlat, maxlon, maxlat, 0, zoomLevel);
+	}
+
 	/**
 	 * Recursively searches the data structure for objects within the range passed to the method. If the current node's
-	 * object/objects intersect the range they're added to the priority queue. Then if the minimum coordinate of the range
+	 * object/objects intersect the range they're passed to the sink, checking the bounds of each object in
+	 * leaves with more than one. Then if the minimum coordinate of the range
 	 * is less than the maximum offset of the node, the left subtree is searched. Similarly, if the maximum coordinate of
 	 * the range is greater than the minimum coordinate of the node, the right subtree is searched. This is done recursively
 	 * until no matches are found or the bottom of the tree is reached.
-	 * @param res the priority queue to add matching objects to. This is what is later returned to the caller by the public method calling this
+	 * @param sink the sink to pass matching objects to
+	 * @param skip the objects not to pass on, or null
 	 * @param n the current node to use for comparisons
-	 * @param pos_lower the lower coordinate of the range
-	 * @param pos_upper the upper coordinate of the range
+	 * @param minlon minimum longitude of the range
+	 * @param minlat minimum latitude of the range
+	 * @param maxlon maximum longitude of the range
+	 * @param maxlat maximum latitude of the range
 	 * @param depth the current depth - used for determining the splitting dimension
 	 * @param zoomLevel the zoom level to return objects for (determined by each map object)
 	 *
 	 * @see MapObject
 	 */
-	private void getRange(MinPQ<MapObject> res, Node n, int[] pos_lower, int[] pos_upper, int depth, int zoomLevel) {
+	private void query(Consumer<MapObject> sink, Set<MapObject> skip, Node n, int minlon, int minlat, int maxlon, int maxlat, int depth, int zoomLevel) {
 		// If node is null, just return (means bottom of tree has been reached)
 		if (n == null) return;
 
 		// Choose dimension based on current depth
 		int d = depth % DIMENSIONS;
 
-		// If the two rectangles intersect each other, add the node's objects to the priority queue
-		if (pos_lower[LON] <= n.posinfo[MAX+LON] && pos_upper[LON] >= n.posinfo[LON] &&
-				pos_lower[LAT] <= n.posinfo[MAX+LAT] && pos_upper[LAT] >= n.posinfo[LAT]) {
-			n.appendToPQ(res, zoomLevel);
+		// If the two rectangles intersect each other, pass the node's objects to the sink
+		if (minlon <= n.posinfo[MAX+LON] && maxlon >= n.posinfo[LON] &&
+				minlat <= n.posinfo[MAX+LAT] && maxlat >= n.posinfo[LAT]) {
+			n.emit(sink, skip, zoomLevel, minlon, minlat, maxlon, maxlat);
 		}
 
 		// If the lower coordinate of the query range is smaller than the maximum offset of the node, search the left subtree
-		if (pos_lower[d] <= n.posinfo[d + MAX]) {
-			getRange(res, n.left, pos_lower, pos_upper, depth + 1, zoomLevel);
+		if ((d == LON ? minlon : minlat) <= n.posinfo[d + MAX]) {
+			query(sink, skip, n.left, minlon, minlat, maxlon, maxlat, depth + 1, zoomLevel);
 		}
 		// If the upper coordinate of the query range is bigger than the minimum offset of the node, search the right subtree
-		if (pos_upper[d] >= n.posinfo[d]) {
-			getRange(res, n.right, pos_lower, pos_upper, depth + 1, zoomLevel);
+		if ((d == LON ? maxlon : maxlat) >= n.posinfo[d]) {
+			query(sink, skip, n.right, minlon, minlat, maxlon, maxlat, depth + 1, zoomLevel);
+		}
+	}
+
+	/**
+	 * Offers the root of the tree to a nearest neighbour search. Nodes have no bounds of their whole subtree, so each
+	 * node is offered with the box its subtree is known to lie in from the nodes above it: a left subtree ends before
+	 * the offset of its parent in the parent's splitting dimension, and a right subtree starts after its coordinate.
+	 *
+	 * @param search the search to offer the root to
+	 */
+	public void offerTo(NearestSearch search) {
+		if (root != null) offer(search, root, 0, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	private void offer(NearestSearch search, Node n, int depth, int minlon, int minlat, int maxlon, int maxlat) {
+		search.offerNode(minlon, minlat, maxlon, maxlat, s -> expand(s, n, depth, minlon, minlat, maxlon, maxlat));
+	}
+
+	/**
+	 * Offers the objects of a node and its children, with the boxes they lie in, to a nearest neighbour search.
+	 */
+	private void expand(NearestSearch search, Node n, int depth, int minlon, int minlat, int maxlon, int maxlat) {
+		for (int i = 0; i < n.N; i++) {
+			int[] bounds = n.obj_posinfo != null ? n.obj_posinfo : n.posinfo;
+			int b = n.obj_posinfo != null ? i * 4 : 0;
+			search.offerObject(bounds[b + LON], bounds[b + LAT], bounds[b + MAX + LON], bounds[b + MAX + LAT], n.obj_list[i]);
+		}
+		int d = depth % DIMENSIONS;
+		if (n.left != null) {
+			offer(search, n.left, depth + 1, minlon, minlat,
+					d == LON ? Math.min(maxlon, n.posinfo[MAX + LON]) : maxlon,
+					d == LAT ? Math.min(maxlat, n.posinfo[MAX + LAT]) : maxlat);
+		}
+		if (n.right != null) {
+			offer(search, n.right, depth + 1,
+					d == LON ? Math.max(minlon, n.posinfo[LON]) : minlon,
+					d == LAT ? Math.max(minlat, n.posinfo[LAT]) : minlat, maxlon, maxlat);
+		}
+	}
+
+	/**
+	 * Estimates the number of map objects in a range without visiting most of them. Like in
+	 * {@link #offerTo(NearestSearch)} each subtree is known to lie in a box from the nodes above it. A subtree whose box
+	 * is inside the range is counted as a whole by the number of objects in it, and one whose box is outside the range
+	 * isn't counted at all, so only the nodes along the border of the range are visited, and their objects counted one
+	 * by one. The zoom level is only checked for the objects that are counted one by one, so the estimate is at least
+	 * the number of objects {@link #query(int, int, int, int, int, Consumer)} passes on, and at most the number of
+	 * objects of every zoom level in the range.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are counted one by one
+	 * @return the estimated number of objects
+	 */
+	public int estimateCount(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		int[] range = {minlon, minlat, maxlon, maxlat};
+		return estimate(root, 0, range, zoomLevel, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	private int estimate(Node n, int depth, int[] range, int zoomLevel, int minlon, int minlat, int maxlon, int maxlat) {
+		if (n == null) return 0;
+		if (minlon > range[MAX + LON] || maxlon < range[LON] || minlat > range[MAX + LAT] || maxlat < range[LAT]) return 0;
+		if (minlon >= range[LON] && maxlon <= range[MAX + LON] && minlat >= range[LAT] && maxlat <= range[MAX + LAT])
+			return n.subtreeCount;
+
+		int count = 0;
+		if (range[LON] <= n.posinfo[MAX + LON] && range[MAX + LON] >= n.posinfo[LON] &&
+				range[LAT] <= n.posinfo[MAX + LAT] && range[MAX + LAT] >= n.posinfo[LAT]) {
+			count += n.count(zoomLevel, range[LON], range[LAT], range[MAX + LON], range[MAX + LAT]);
+		}
+		int d = depth % DIMENSIONS;
+		count += estimate(n.left, depth + 1, range, zoomLevel, minlon, minlat,
+				d == LON ? Math.min(maxlon, n.posinfo[MAX + LON]) : maxlon,
+				d == LAT ? Math.min(maxlat, n.posinfo[MAX + LAT]) : maxlat);
+		count += estimate(n.right, depth + 1, range, zoomLevel,
+				d == LON ? Math.max(minlon, n.posinfo[LON]) : minlon,
+				d == LAT ? Math.max(minlat, n.posinfo[LAT]) : minlat, maxlon, maxlat);
+		return count;
+	}
+
+	/**
+	 * <p>
+	 * Inserts a single map object into the tree. The object goes down the tree the same way the partitioning would
+	 * have put it: to the left of a node if its coordinate in the node's splitting dimension is less than or equal to
+	 * the node's, otherwise to the right. Like in {@link #partition(int[][], MapObject[], int, int, int)} the offsets of every
+	 * node it passes on the left are widened to cover it. It's placed in the first leaf with a bucket of objects it
+	 * reaches, widening its bounds, or otherwise in the first empty node at the bottom. Buckets may grow beyond the
+	 * cutoff size this way.
+	 * </p>
+	 * <p>
+	 * Inserting does not rebalance the tree, so it's meant for a limited number of changes to a tree built by
+	 * {@link #constructFromList(List, List)}, for instance from an osm change file.
+	 * </p>
+	 *
+	 * @param posinfo the bounding box of the object (<b>int[] {longitude, latitude, offset longitude, offset latitude}</b>)
+	 * @param obj     the map object to insert
+	 */
+	public void insert(int[] posinfo, MapObject obj) {
+		size++;
+		if (root == null) {
+			root = new Node(posinfo.clone(), obj);
+			return;
+		}
+		Node n = root;
+		for (int depth = 0; ; depth++) {
+			n.subtreeCount++;
+			// Empty nodes at the bottom of the tree take the object
+			if (n.N == 0 && n.left == null && n.right == null) {
+				n.posinfo = posinfo.clone();
+				n.add(obj);
+				return;
+			}
+			// So do leaves with a bucket of objects, which don't have a splitting coordinate to go down by
+			if (n.obj_posinfo != null) {
+				n.addToBucket(posinfo, obj);
+				return;
+			}
+			int d = depth % DIMENSIONS;
+			if (posinfo[d] <= n.posinfo[d]) {
+				if (posinfo[d + MAX] > n.posinfo[d + MAX]) n.posinfo[d + MAX] = posinfo[d + MAX];
+				if (n.left == null) n.left = new Node();
+				n = n.left;
+			} else {
+				if (n.right == null) n.right = new Node();
+				n = n.right;
+			}
+		}
+	}
+
+	/**
+	 * Finds out whether a map object is in the tree, following the same path as {@link #remove(MapObject)}.
+	 *
+	 * @param obj the map object to look for, compared by identity
+	 * @return true if the object is in the tree
+	 */
+	public boolean contains(MapObject obj) {
+		int[] pos = new int[]{obj.getLon(), obj.getLat()};
+		Node n = root;
+		for (int depth = 0; n != null; depth++) {
+			for (int i = 0; i < n.N; i++) if (n.obj_list[i] == obj) return true;
+			int d = depth % DIMENSIONS;
+			n = pos[d] <= n.posinfo[d] ? n.left : n.right;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a copy of the tree that can be changed without changing the tree. The copy is a
+	 * {@link LogStructuredIndex} around the tree, which doesn't change it, so making it doesn't copy any nodes.
+	 *
+	 * @return the copy
+	 */
+	public LogStructuredIndex copy() {
+		return new LogStructuredIndex(this);
+	}
+
+	/**
+	 * Removes a map object from the tree. The object is found by following the path it would be inserted along, using
+	 * its own coordinates ({@link MapObject#getLon()} and {@link MapObject#getLat()} are the minimum coordinates of its
+	 * bounding box). The bounds of the nodes are left as they are, which only makes them a little too wide.
+	 *
+	 * @param obj the map object to remove, compared by identity
+	 * @return true if the object was in the tree
+	 */
+	public boolean remove(MapObject obj) {
+		int[] pos = new int[]{obj.getLon(), obj.getLat()};
+		Node n = root;
+		for (int depth = 0; n != null; depth++) {
+			if (n.remove(obj)) {
+				size--;
+				// Take the object off the counts of the nodes on the path down to it
+				Node p = root;
+				for (int k = 0; ; k++) {
+					p.subtreeCount--;
+					if (p == n) break;
+					int d = k % DIMENSIONS;
+					p = pos[d] <= p.posinfo[d] ? p.left : p.right;
+				}
+				return true;
+			}
+			int d = depth % DIMENSIONS;
+			n = pos[d] <= n.posinfo[d] ? n.left : n.right;
+		}
+		return false;
+	}
+
+	/**
+	 * Performs the given action for every map object in the tree.
+	 *
+	 * @param action the action to perform
+	 */
+	public void forEach(Consumer<MapObject> action) {
+		forEach(root, action);
+	}
+
+	private void forEach(Node n, Consumer<MapObject> action) {
+		if (n == null) return;
+		for (int i = 0; i < n.N; i++) action.accept(n.obj_list[i]);
+		forEach(n.left, action);
+		forEach(n.right, action);
+	}
+
+	/**
+	 * Creates a compact, read-only copy of the tree in a few primitive arrays, see {@link FlatTwoDTree}. Range queries
+	 * on the copy return the same objects as on this tree.
+	 *
+	 * @return the compact copy
+	 */
+	public FlatTwoDTree compact() {
+		int nodes = countNodes(root);
+		int[] bounds = new int[nodes * 4];
+		int[] children = new int[nodes * 2];
+		int[] objStart = new int[nodes + 1];
+		MapObject[] objects = new MapObject[size];
+		int[] objBounds = new int[size * 4];
+		flatten(root, bounds, children, objStart, objects, objBounds, new int[2]);
+		objStart[nodes] = size;
+		return new FlatTwoDTree(bounds, children, objStart, objects, objBounds);
+	}
+
+	private static int countNodes(Node n) {
+		return n == null ? 0 : 1 + countNodes(n.left) + countNodes(n.right);
+	}
+
+	/**
+	 * Writes the subtree into the arrays of a {@link FlatTwoDTree} in pre-order.
+	 *
+	 * @param next the index of the next node and of the next object in the arrays
+	 * @return the index of the subtree's root, or -1 if it's empty
+	 */
+	private static int flatten(Node n, int[] bounds, int[] children, int[] objStart, MapObject[] objects, int[] objBounds,
+							   int[] next) {
+		if (n == null) return -1;
+		int i = next[0]++;
+		System.arraycopy(n.posinfo, 0, bounds, i * 4, 4);
+		objStart[i] = next[1];
+		for (int k = 0; k < n.N; k++) {
+			// Objects outside buckets get the bounds of their node
+			if (n.obj_posinfo != null) System.arraycopy(n.obj_posinfo, k * 4, objBounds, next[1] * 4, 4);
+			else System.arraycopy(n.posinfo, 0, objBounds, next[1] * 4, 4);
+			objects[next[1]++] = n.obj_list[k];
 		}
+		children[2 * i] = flatten(n.left, bounds, children, objStart, objects, objBounds, next);
+		children[2 * i + 1] = flatten(n.right, bounds, children, objStart, objects, objBounds, next);
+		return i;
+	}
+
+	/**
+	 * Reads the tree and counts the objects of each subtree, which aren't written.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		countSubtrees(root);
+	}
+
+	private static int countSubtrees(Node n) {
+		if (n == null) return 0;
+		n.subtreeCount = n.N + countSubtrees(n.left) + countSubtrees(n.right);
+		return n.subtreeCount;
 	}
 
 	/**
@@ -343,6 +752,13 @@ public class TwoDTree implements Serializable {
 		return size;
 	}
 
+	/**
+	 * @return the maximum number of objects in a leaf when the tree is built
+	 */
+	public int getCutoffNodeSize() {
+		return cutoffNodeSize;
+	}
+
 	/**
 	 * Class for storing nodes in the tree. Each node contains a bounds array, specifying the nodes splitting coordinates
 	 * and offsets, and an array of map objects.
@@ -360,6 +776,11 @@ public class TwoDTree implements Serializable {
 		 * Array of map objects contained in the node.
 		 */
 		MapObject[] obj_list;
+		/**
+		 * Bounds of each map object in a leaf with a bucket of objects, 4 values per object, or null in nodes whose
+		 * bounds are those of their single object.
+		 */
+		int[] obj_posinfo;
 		/**
 		 * References to left and right subtree
 		 */
@@ -368,6 +789,10 @@ public class TwoDTree implements Serializable {
 		 * Number of elements in object list.
 		 */
 		private int N;
+		/**
+		 * Number of map objects in the subtree of the node, the node's own included. Counted again when the tree is read.
+		 */
+		transient int subtreeCount;
 
 		/**
 		 * Create new empty node
@@ -386,6 +811,7 @@ public class TwoDTree implements Serializable {
 			this.posinfo = posinfo;
 			obj_list = new MapObject[]{obj};
 			N = 1;
+			subtreeCount = 1;
 		}
 
 		/**
@@ -415,15 +841,81 @@ public class TwoDTree implements Serializable {
 		}
 
 		/**
-		 * Add all map objects in the node to the specified priority queue. This is used by the 2d-tree's range search
-		 * @param pq priority queue to add objects to.
+		 * Removes a map object from the list, keeping the order of the others.
+		 * @param obj the object to remove, compared by identity
+		 * @return true if the object was in the list
+		 */
+		public boolean remove(MapObject obj) {
+			for (int i = 0; i < N; i++) {
+				if (obj_list[i] != obj) continue;
+				System.arraycopy(obj_list, i + 1, obj_list, i, N - i - 1);
+				if (obj_posinfo != null) System.arraycopy(obj_posinfo, (i + 1) * 4, obj_posinfo, i * 4, (N - i - 1) * 4);
+				obj_list[--N] = null;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Adds a map object to a leaf with a bucket of objects, widening the leaf's bounds to cover it.
+		 * @param posinfo the bounds of the object
+		 * @param obj the object to add
+		 */
+		public void addToBucket(int[] posinfo, MapObject obj) {
+			if (obj_posinfo.length < (N + 1) * 4) obj_posinfo = Arrays.copyOf(obj_posinfo, obj_posinfo.length * 2);
+			System.arraycopy(posinfo, 0, obj_posinfo, N * 4, 4);
+			add(obj);
+			if (posinfo[LON] < this.posinfo[LON]) this.posinfo[LON] = posinfo[LON];
+			if (posinfo[LAT] < this.posinfo[LAT]) this.posinfo[LAT] = posinfo[LAT];
+			if (posinfo[MAX + LON] > this.posinfo[MAX + LON]) this.posinfo[MAX + LON] = posinfo[MAX + LON];
+			if (posinfo[MAX + LAT] > this.posinfo[MAX + LAT]) this.posinfo[MAX + LAT] = posinfo[MAX + LAT];
+		}
+
+		/**
+		 * Pass all map objects in the node to the specified sink. This is used by the 2d-tree's range search.
+		 * In a leaf with a bucket of objects only the objects whose own bounds intersect the range are passed.
+		 * @param sink the sink to pass objects to
+		 * @param skip the objects not to pass on, or null
 		 * @param zoomLevel used for deciding which objects to draw at a certain level of zoom
+		 * @param minlon minimum longitude of the range
+		 * @param minlat minimum latitude of the range
+		 * @param maxlon maximum longitude of the range
+		 * @param maxlat maximum latitude of the range
+		 */
+		public void emit(Consumer<MapObject> sink, Set<MapObject> skip, int zoomLevel, int minlon, int minlat, int maxlon, int maxlat) {
+			for (int i = 0; i < N; i++) {
+				// If the object's zoom level is less than the specified minimum, pass it to the sink
+				if (obj_list[i].getZoomLevel() > zoomLevel) continue;
+				if (obj_posinfo != null) {
+					int b = i * 4;
+					if (minlon > obj_posinfo[b + MAX + LON] || maxlon < obj_posinfo[b + LON] ||
+							minlat > obj_posinfo[b + MAX + LAT] || maxlat < obj_posinfo[b + LAT]) continue;
+				}
+				if (skip == null || !skip.contains(obj_list[i])) sink.accept(obj_list[i]);
+			}
+		}
+
+		/**
+		 * Count the map objects in the node that {@link #emit(Consumer, Set, int, int, int, int, int)} would pass on.
+		 * @param zoomLevel used for deciding which objects to count
+		 * @param minlon minimum longitude of the range
+		 * @param minlat minimum latitude of the range
+		 * @param maxlon maximum longitude of the range
+		 * @param maxlat maximum latitude of the range
+		 * @return the number of objects
 		 */
-		public void appendToPQ(MinPQ<MapObject> pq, int zoomLevel) {
+		public int count(int zoomLevel, int minlon, int minlat, int maxlon, int maxlat) {
+			int count = 0;
 			for (int i = 0; i < N; i++) {
-				// If the object's zoom level is less than the specified minimum, add it to the priority queue
-				if (obj_list[i].getZoomLevel() <= zoomLevel) pq.insert(obj_list[i]);
+				if (obj_list[i].getZoomLevel() > zoomLevel) continue;
+				if (obj_posinfo != null) {
+					int b = i * 4;
+					if (minlon > obj_posinfo[b + MAX + LON] || maxlon < obj_posinfo[b + LON] ||
+							minlat > obj_posinfo[b + MAX + LAT] || maxlat < obj_posinfo[b + LAT]) continue;
+				}
+				count++;
 			}
+			return count;
 		}
 	}
 }
\ No newline at end of file
@@ -7,12 +7,14 @@ import java.io.Serializable;
  * Is used by the {@link WayUndirectedGraph} and {@link Dijkstra} for path finding.
  */
 public class WayEdge implements Serializable {
-    public static final long serialVersionUID = 123551;
+    public static final long serialVersionUID = 123552;
 
     public final double timeWeight, euclidWeight;
     public final int fromV, toV;
     public final float length;
     private final byte dirFlags;
+    // Index of the road of the edge in the road table of the graph, set when the edge is added to the graph
+    int road = -1;
 
     /**
      * Is used in the WayUndirectedGraph instead of the given edges
@@ -67,4 +69,19 @@ public class WayEdge implements Serializable {
     public boolean isOncomingAllowed(VehicleType v) {
         return (dirFlags & v.getBackwardFlag()) != 0;
     }
+
+    /**
+     * @return the {@link WayEdge#dirFlags} of this WayEdge, for creating an edge with the same directions.
+     */
+    public byte getDirFlags() {
+        return dirFlags;
+    }
+
+    /**
+     * @return the index of the road of this WayEdge in the road table of the graph, see
+     * {@link WayUndirectedGraph#getRoad(WayEdge)}, or -1 if it has no road.
+     */
+    public int getRoad() {
+        return road;
+    }
 }
@@ -2,37 +2,51 @@ package edu.itu.the_d.map.datastructures;
 
 import edu.itu.the_d.map.datastructures.algs4.Bag;
 import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.model.mapobjects.Road;
 
+import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 
 /**
  * A modified undirected graph over all ways in the {@link edu.itu.the_d.map.model.mapobjects.Road roads} originally taken from
  * <i>Algorithms, 4th Edition</i> by Robert Sedgewick and Kevin Wayne.
  * <p>
+ * A {@link #copy(IdMap)} of the graph can be changed while the graph itself is still used for routing. The copy shares
+ * the adjacency lists of the graph until it changes them.
+ * <p>
  *
  * @author Robert Sedgewick
  * @author Kevin Wayne
  */
 public class WayUndirectedGraph implements Iterable<WayEdge>, Serializable {
-	public static final long serialVersionUID = 1212331;
+	public static final long serialVersionUID = 1212333;
 
-	private final int V;
+	private int V;
 	private Bag<WayEdge>[] adj;
 
 	private long[] nodeIDs;
 	private IdMap indexMap;
+	// The coordinates of the vertices, indexed like nodeIDs, so the routing doesn't have to look up the IDs
+	private float[] xs, ys;
+	// The roads of the edges, which the edges refer to by their index
+	private Road[] roads = new Road[16];
+	private int roadCount;
+	// The vertices whose adjacency lists are shared with the graph this is a copy of, or null
+	private transient BitSet shared;
 
 	/**
-	 * Generate a graph based on an {@link IdMap}. No Vertices will be connected by edges after this operation.
+	 * Generate a graph based on an {@link IdMap}. Only the nodes put into the map as vertices become vertices of the
+	 * graph, and their coordinates are copied into the graph. No Vertices will be connected by edges after this
+	 * operation.
 	 *
 	 * @param indexMap
 	 */
 	public WayUndirectedGraph(IdMap indexMap) {
-		nodeIDs = indexMap.getAllKeys();
-		// Sort the array
-		Arrays.sort(nodeIDs);
+		// The IDs ordered by their index in the graph
+		nodeIDs = indexMap.getVertexKeys();
 
 		if (nodeIDs.length < 0) throw new IllegalArgumentException("Number of vertices must be nonnegative");
 
@@ -40,6 +54,13 @@ public class WayUndirectedGraph implements Iterable<WayEdge>, Serializable {
 		this.indexMap = indexMap;
 		this.V = nodeIDs.length;
 
+		xs = new float[V];
+		ys = new float[V];
+		for (int v = 0; v < V; v++) {
+			xs[v] = indexMap.getX(nodeIDs[v]);
+			ys[v] = indexMap.getY(nodeIDs[v]);
+		}
+
 		// Create a bag for each Vertice that will act as it's adjacency list.
 		adj = (Bag<WayEdge>[]) new Bag[V];
 		for (int v = 0; v < V; v++) {
@@ -47,6 +68,45 @@ public class WayUndirectedGraph implements Iterable<WayEdge>, Serializable {
 		}
 	}
 
+	/**
+	 * Creates a copy of a graph.
+	 */
+	private WayUndirectedGraph(WayUndirectedGraph graph, IdMap indexMap) {
+		V = graph.V;
+		adj = graph.adj.clone();
+		nodeIDs = graph.nodeIDs.clone();
+		this.indexMap = indexMap;
+		xs = graph.xs.clone();
+		ys = graph.ys.clone();
+		roads = graph.roads.clone();
+		roadCount = graph.roadCount;
+		shared = new BitSet(V);
+		shared.set(0, V);
+	}
+
+	/**
+	 * Creates a copy of the graph, which can be changed without changing this graph. The adjacency lists are copied
+	 * when the copy first changes them, so this graph must not be changed afterwards.
+	 *
+	 * @param indexMap The copy of the {@link IdMap} this graph was made from, which the copy looks up IDs in.
+	 * @return The copy.
+	 */
+	public WayUndirectedGraph copy(IdMap indexMap) {
+		return new WayUndirectedGraph(this, indexMap);
+	}
+
+	/**
+	 * @param v The vertex.
+	 * @return The adjacency list of the vertex, copied first if it's shared with the graph this is a copy of.
+	 */
+	private Bag<WayEdge> ownAdj(int v) {
+		if (shared != null && shared.get(v)) {
+			adj[v] = adj[v].copy();
+			shared.clear(v);
+		}
+		return adj[v];
+	}
+
 	/**
 	 * @return The number of vertices in the graph.
 	 */
@@ -63,8 +123,82 @@ public class WayUndirectedGraph implements Iterable<WayEdge>, Serializable {
 		int v = e.fromV; // Get the vertex at the fromV end
 		int w = e.toV; // Get the vertex at the toV end
 		// Add the edge to both the vertices' adjacency lists.
-		adj[v].add(e);
-		adj[w].add(e);
+		ownAdj(v).add(e);
+		ownAdj(w).add(e);
+	}
+
+	/**
+	 * Adds the given edge to the graph as part of a road.
+	 *
+	 * @param e    The {@link WayEdge} to add to the graph.
+	 * @param road The index of the road in the road table, see {@link #addRoad(Road)}.
+	 */
+	public void addEdge(WayEdge e, int road) {
+		e.road = road;
+		addEdge(e);
+	}
+
+	/**
+	 * Adds a road to the road table, which its edges refer to by its index.
+	 *
+	 * @param road The road.
+	 * @return The index of the road.
+	 */
+	public int addRoad(Road road) {
+		if (roadCount == roads.length) roads = Arrays.copyOf(roads, roadCount * 2);
+		roads[roadCount] = road;
+		return roadCount++;
+	}
+
+	/**
+	 * Replaces a road in the road table, for instance by a rebuilt copy of it, or by null once it's removed.
+	 *
+	 * @param index The index of the road.
+	 * @param road  The new road.
+	 */
+	public void setRoad(int index, Road road) {
+		roads[index] = road;
+	}
+
+	/**
+	 * @param e The edge.
+	 * @return The road the edge is part of, or null if it has none.
+	 */
+	public Road getRoad(WayEdge e) {
+		return e.road < 0 ? null : roads[e.road];
+	}
+
+	/**
+	 * Removes the given edge from the adjacency lists of both its vertices.
+	 *
+	 * @param e The {@link WayEdge} to remove from the graph.
+	 * @return True if the edge was in the graph.
+	 */
+	public boolean removeEdge(WayEdge e) {
+		ownAdj(e.toV).remove(e);
+		return ownAdj(e.fromV).remove(e);
+	}
+
+	/**
+	 * Adds a vertex for a node which has been made a vertex in the {@link IdMap} after the graph was created. Since
+	 * the map numbers its vertices in the order they're made, the new vertex is always the next index.
+	 *
+	 * @param ID The ID of the node.
+	 * @return The index of the new vertex.
+	 */
+	public int addVertex(long ID) {
+		if (indexMap.getGraphVertexIndex(ID) != V) throw new IllegalStateException("Vertex of " + ID + " is out of order");
+		if (V == adj.length) {
+			adj = Arrays.copyOf(adj, Math.max(1, V * 2));
+			nodeIDs = Arrays.copyOf(nodeIDs, adj.length);
+			xs = Arrays.copyOf(xs, adj.length);
+			ys = Arrays.copyOf(ys, adj.length);
+		}
+		adj[V] = new Bag<>();
+		nodeIDs[V] = ID;
+		xs[V] = indexMap.getX(ID);
+		ys[V] = indexMap.getY(ID);
+		return V++;
 	}
 
 	/**
@@ -121,4 +255,41 @@ public class WayUndirectedGraph implements Iterable<WayEdge>, Serializable {
 	public long getID(int index) {
 		return nodeIDs[index];
 	}
+
+	/**
+	 * @param v The index in the graph.
+	 * @return The x coordinate of the vertex.
+	 */
+	public float getX(int v) {
+		return xs[v];
+	}
+
+	/**
+	 * @param v The index in the graph.
+	 * @return The y coordinate of the vertex.
+	 */
+	public float getY(int v) {
+		return ys[v];
+	}
+
+	/**
+	 * @param v The index in the graph.
+	 * @return A new point at the coordinates of the vertex.
+	 */
+	public Point2D getPoint(int v) {
+		return new Point2D.Float(xs[v], ys[v]);
+	}
+
+	/**
+	 * Moves a vertex to new coordinates. Must be called along with {@link IdMap#move(long, float, float)} when the
+	 * node is a vertex, since the graph keeps a copy of the coordinates.
+	 *
+	 * @param v The index in the graph.
+	 * @param x The new x coordinate.
+	 * @param y The new y coordinate.
+	 */
+	public void setLocation(int v, float x, float y) {
+		xs[v] = x;
+		ys[v] = y;
+	}
 }
\ No newline at end of file
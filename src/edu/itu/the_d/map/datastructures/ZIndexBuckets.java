@@ -0,0 +1,120 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Reusable sink for the range queries of a {@link SpatialIndex}, which collects the map objects and sorts them by
+ * z-index, so they can be drawn in the same order as from the {@link edu.itu.the_d.map.datastructures.algs4.MinPQ}
+ * returned by {@link SpatialIndex#getRange(int, int, int, int, int)}.
+ * </p>
+ * <p>
+ * The z-indexes are a small range of integers (see {@link MapObject}), so instead of inserting every object into a heap
+ * the objects are counting sorted by z-index once the query is done: the objects of each z-index are counted, the
+ * counts give the start of each z-index in the sorted array, and the objects are moved there in the order they were
+ * found. The arrays are kept between queries and only grow, so once a sink has seen its biggest query, queries don't
+ * allocate anything.
+ * </p>
+ * <p>
+ * Usage: {@link #clear()}, one or more queries with the sink, {@link #sort()}, and then {@link #get(int)} from 0 to
+ * {@link #size()}. A sink must only be used by one thread at a time.
+ * </p>
+ * Copyright 2016 The-D
+ */
+public class ZIndexBuckets implements Consumer<MapObject> {
+	// The objects in the order they were found, and after sorting in order of z-index
+	private MapObject[] objects;
+	// The objects while they're sorted
+	private MapObject[] sorted;
+	// Number of objects of each z-index, from the smallest z-index
+	private int[] counts;
+	// Number of objects
+	private int N;
+	// Smallest and biggest z-index of the objects
+	private int minZ, maxZ;
+
+	/**
+	 * Creates an empty sink.
+	 */
+	public ZIndexBuckets() {
+		this(1024);
+	}
+
+	/**
+	 * Creates an empty sink with room for the given number of objects before it grows.
+	 *
+	 * @param capacity the initial capacity
+	 */
+	public ZIndexBuckets(int capacity) {
+		objects = new MapObject[Math.max(1, capacity)];
+		sorted = new MapObject[objects.length];
+		counts = new int[64];
+		clear();
+	}
+
+	/**
+	 * Removes all objects, keeping the arrays for the next query.
+	 */
+	public void clear() {
+		Arrays.fill(objects, 0, N, null);
+		N = 0;
+		minZ = Integer.MAX_VALUE;
+		maxZ = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Adds a map object, as it's found by a query.
+	 *
+	 * @param obj the map object
+	 */
+	@Override
+	public void accept(MapObject obj) {
+		if (N == objects.length) {
+			objects = Arrays.copyOf(objects, N * 2);
+			sorted = new MapObject[N * 2];
+		}
+		objects[N++] = obj;
+		int z = obj.zIndex();
+		if (z < minZ) minZ = z;
+		if (z > maxZ) maxZ = z;
+	}
+
+	/**
+	 * Sorts the objects by z-index, keeping the order they were found in among objects with the same z-index.
+	 */
+	public void sort() {
+		if (N < 2 || minZ == maxZ) return;
+		int range = maxZ - minZ + 1;
+		if (counts.length < range + 1) counts = new int[range + 1];
+		Arrays.fill(counts, 0, range + 1, 0);
+
+		// Count the objects of each z-index, shifted by one so the prefix sums are the starts
+		for (int i = 0; i < N; i++) counts[objects[i].zIndex() - minZ + 1]++;
+		for (int z = 0; z < range; z++) counts[z + 1] += counts[z];
+		// Move each object to the next free position of its z-index
+		for (int i = 0; i < N; i++) sorted[counts[objects[i].zIndex() - minZ]++] = objects[i];
+
+		MapObject[] tmp = objects;
+		objects = sorted;
+		sorted = tmp;
+		Arrays.fill(sorted, 0, N, null);
+	}
+
+	/**
+	 * @param i the position of the object, from 0 to {@link #size()}
+	 * @return the object at the position, in order of z-index once {@link #sort()} has been called
+	 */
+	public MapObject get(int i) {
+		return objects[i];
+	}
+
+	/**
+	 * @return the number of objects
+	 */
+	public int size() {
+		return N;
+	}
+}
@@ -0,0 +1,276 @@
+package edu.itu.the_d.map.datastructures;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Spatial index split into layers by the zoom level of the map objects (see {@link MapObject#getZoomLevel()}, which
+ * comes from the {@link edu.itu.the_d.map.model.mapobjects.RoadType} or
+ * {@link edu.itu.the_d.map.model.mapobjects.RegionType} of the object). Each distinct zoom level gets a {@link TwoDTree}
+ * of its own, and the layers are kept in ascending order of zoom level.
+ * </p>
+ * <p>
+ * A single tree only filters objects by zoom level once it has reached the node holding them, so a query of the whole
+ * country zoomed out still walks every node of every building and footpath. A range query on the layered index only
+ * searches the layers with a zoom level less than or equal to the requested one, so the layers that can't contribute
+ * any objects aren't touched at all.
+ * </p>
+ * <p>
+ * The layers can be compacted like a single tree, see {@link #compact()}, after which objects can't be inserted or
+ * removed. Layers that objects have been inserted into stay dynamic. They can also be packed into R-trees instead, see
+ * {@link #pack()}.
+ * </p>
+ * Copyright 2016 The-D
+ */
+public class ZoomLayeredIndex implements MutableSpatialIndex {
+	private static final long serialVersionUID = 111123125;
+
+	// Zoom level of each layer, ascending
+	private int[] levels;
+	// The index of the objects of each zoom level
+	private SpatialIndex[] layers;
+	// Number of map objects in all the layers
+	private int size;
+	// List size to cut off the recursive generation of subtrees in the layers
+	private final int cutoffNodeSize;
+
+	/**
+	 * Constructs a new empty index with layers of leaves of up to {@link TwoDTree#CUTOFF_NODE_SIZE} objects. Used in
+	 * conjunction with {@link #constructFromList(List, List)}.
+	 */
+	public ZoomLayeredIndex() {
+		this(TwoDTree.CUTOFF_NODE_SIZE);
+	}
+
+	/**
+	 * Constructs a new empty index. Used in conjunction with {@link #constructFromList(List, List)}.
+	 *
+	 * @param cutoffNodeSize the maximum number of objects in a leaf of the layers, see {@link TwoDTree#TwoDTree(int)}
+	 */
+	public ZoomLayeredIndex(int cutoffNodeSize) {
+		this(new int[0], new SpatialIndex[0], 0, cutoffNodeSize);
+	}
+
+	private ZoomLayeredIndex(int[] levels, SpatialIndex[] layers, int size, int cutoffNodeSize) {
+		if (cutoffNodeSize < 1) throw new IllegalArgumentException("Cutoff node size must be at least 1");
+		this.levels = levels;
+		this.layers = layers;
+		this.size = size;
+		this.cutoffNodeSize = cutoffNodeSize;
+	}
+
+	/**
+	 * Constructs the layers from two input lists like {@link TwoDTree#constructFromList(List, List)}.
+	 *
+	 * @param posinfo_list input list with the map objects bounds
+	 * @param obj_list     input list with the map objects themselves
+	 */
+	public void constructFromList(List<int[]> posinfo_list, List<MapObject> obj_list) {
+		constructFromList(posinfo_list, obj_list, false);
+	}
+
+	/**
+	 * Constructs the layers from two input lists. The objects are grouped by their zoom level, and the tree of each
+	 * layer is built like {@link TwoDTree#constructFromList(List, List, boolean)}.
+	 *
+	 * @param posinfo_list input list with the map objects bounds
+	 * @param obj_list     input list with the map objects themselves
+	 * @param parallel     whether to build the subtrees of each layer in parallel
+	 */
+	public void constructFromList(List<int[]> posinfo_list, List<MapObject> obj_list, boolean parallel) {
+		if (posinfo_list.size() != obj_list.size())
+			throw new IllegalArgumentException("Input lists are not the same size");
+
+		// Group the objects by zoom level, in ascending order
+		TreeMap<Integer, List<int[]>> posinfoByLevel = new TreeMap<>();
+		TreeMap<Integer, List<MapObject>> objsByLevel = new TreeMap<>();
+		for (int i = 0; i < obj_list.size(); i++) {
+			int level = obj_list.get(i).getZoomLevel();
+			posinfoByLevel.computeIfAbsent(level, k -> new ArrayList<>()).add(posinfo_list.get(i));
+			objsByLevel.computeIfAbsent(level, k -> new ArrayList<>()).add(obj_list.get(i));
+		}
+
+		levels = new int[objsByLevel.size()];
+		layers = new SpatialIndex[objsByLevel.size()];
+		int i = 0;
+		for (Map.Entry<Integer, List<MapObject>> entry : objsByLevel.entrySet()) {
+			TwoDTree tree = new TwoDTree(cutoffNodeSize);
+			tree.constructFromList(posinfoByLevel.get(entry.getKey()), entry.getValue(), parallel);
+			levels[i] = entry.getKey();
+			layers[i++] = tree;
+		}
+		size = obj_list.size();
+	}
+
+	/**
+	 * Passes the map objects within the range to the sink, searching only the layers with a zoom level less than or
+	 * equal to the given one.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are passed
+	 * @param sink      the sink to pass the objects to
+	 */
+	public void query(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel, Consumer<MapObject> sink) {
+		for (int i = 0; i < layers.length && levels[i] <= zoomLevel; i++) {
+			layers[i].query(minlon, minlat, maxlon, maxlat, zoomLevel, sink);
+		}
+	}
+
+	/**
+	 * Estimates the number of map objects in the range from the estimates of the layers with a zoom level less than or
+	 * equal to the given one. Since the layers are split by zoom level, the objects of the other zoom levels aren't
+	 * counted at all.
+	 *
+	 * @param minlon    minimum longitude of the bounding box
+	 * @param minlat    minimum latitude of the bounding box
+	 * @param maxlon    maximum longitude of the bounding box
+	 * @param maxlat    maximum latitude of the bounding box
+	 * @param zoomLevel only objects with a zoom level less than or equal to this are counted
+	 * @return the estimated number of objects
+	 */
+	public int estimateCount(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		int count = 0;
+		for (int i = 0; i < layers.length && levels[i] <= zoomLevel; i++) {
+			count += layers[i].estimateCount(minlon, minlat, maxlon, maxlat, zoomLevel);
+		}
+		return count;
+	}
+
+	/**
+	 * Offers the roots of every layer to a nearest neighbour search.
+	 *
+	 * @param search the search to offer them to
+	 */
+	public void offerTo(NearestSearch search) {
+		for (SpatialIndex layer : layers) layer.offerTo(search);
+	}
+
+	/**
+	 * Inserts a map object into the layer of its zoom level, creating the layer if there isn't one. The first insert into
+	 * a layer turns it into a {@link LogStructuredIndex} around its tree, so the inserted objects are kept in balanced
+	 * trees of their own.
+	 *
+	 * @param posinfo the bounding box of the object (<b>int[] {longitude, latitude, offset longitude, offset latitude}</b>)
+	 * @param obj     the map object to insert
+	 * @throws IllegalStateException if the index has been compacted
+	 */
+	public void insert(int[] posinfo, MapObject obj) {
+		int level = obj.getZoomLevel();
+		int i = Arrays.binarySearch(levels, level);
+		if (i < 0) {
+			// Make room for a new layer at the insertion point
+			i = -i - 1;
+			int[] newLevels = new int[levels.length + 1];
+			SpatialIndex[] newLayers = new SpatialIndex[layers.length + 1];
+			System.arraycopy(levels, 0, newLevels, 0, i);
+			System.arraycopy(layers, 0, newLayers, 0, i);
+			System.arraycopy(levels, i, newLevels, i + 1, levels.length - i);
+			System.arraycopy(layers, i, newLayers, i + 1, layers.length - i);
+			newLevels[i] = level;
+			newLayers[i] = new LogStructuredIndex(new TwoDTree(cutoffNodeSize));
+			levels = newLevels;
+			layers = newLayers;
+		}
+		if (layers[i] instanceof TwoDTree) layers[i] = new LogStructuredIndex((TwoDTree) layers[i]);
+		mutableLayer(i).insert(posinfo, obj);
+		size++;
+	}
+
+	/**
+	 * Removes a map object from the layer of its zoom level.
+	 *
+	 * @param obj the map object to remove, compared by identity
+	 * @return true if the object was in the index
+	 * @throws IllegalStateException if the index has been compacted
+	 */
+	public boolean remove(MapObject obj) {
+		int i = Arrays.binarySearch(levels, obj.getZoomLevel());
+		if (i < 0 || !mutableLayer(i).remove(obj)) return false;
+		size--;
+		return true;
+	}
+
+	private MutableSpatialIndex mutableLayer(int i) {
+		if (!(layers[i] instanceof MutableSpatialIndex))
+			throw new IllegalStateException("The layers of a compacted index can't be changed");
+		return (MutableSpatialIndex) layers[i];
+	}
+
+	/**
+	 * Creates a copy of the index that can be changed without changing this one, see
+	 * {@link MutableSpatialIndex#copy()}. The layers are copied as {@link LogStructuredIndex LogStructuredIndexes},
+	 * which share their trees with the layers of this index.
+	 *
+	 * @return the copy
+	 * @throws IllegalStateException if the index has been compacted
+	 */
+	public ZoomLayeredIndex copy() {
+		SpatialIndex[] copies = new SpatialIndex[layers.length];
+		for (int i = 0; i < layers.length; i++) copies[i] = mutableLayer(i).copy();
+		return new ZoomLayeredIndex(levels.clone(), copies, size, cutoffNodeSize);
+	}
+
+	/**
+	 * Creates a copy of the index with every layer compacted, see {@link TwoDTree#compact()}.
+	 *
+	 * @return the compact copy
+	 */
+	public ZoomLayeredIndex compact() {
+		SpatialIndex[] compacted = new SpatialIndex[layers.length];
+		for (int i = 0; i < layers.length; i++) compacted[i] = layers[i].compact();
+		return new ZoomLayeredIndex(levels.clone(), compacted, size, cutoffNodeSize);
+	}
+
+	/**
+	 * Creates a copy of the index with every layer packed into a {@link PackedRTree}. Like {@link #compact()}, objects
+	 * can't be inserted or removed afterwards.
+	 *
+	 * @return the packed copy
+	 */
+	public ZoomLayeredIndex pack() {
+		SpatialIndex[] packed = new SpatialIndex[layers.length];
+		for (int i = 0; i < layers.length; i++) packed[i] = PackedRTree.of(layers[i]);
+		return new ZoomLayeredIndex(levels.clone(), packed, size, cutoffNodeSize);
+	}
+
+	/**
+	 * @return true if the layers have been compacted and objects can't be inserted or removed
+	 */
+	public boolean isCompact() {
+		for (SpatialIndex layer : layers) if (!(layer instanceof MutableSpatialIndex)) return true;
+		return false;
+	}
+
+	/**
+	 * @return the number of map objects in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of layers, one for each zoom level of the objects
+	 */
+	public int layerCount() {
+		return layers.length;
+	}
+
+	/**
+	 * Performs the given action for every map object in the index, layer by layer.
+	 *
+	 * @param action the action to perform
+	 */
+	public void forEach(Consumer<MapObject> action) {
+		for (SpatialIndex layer : layers) layer.forEach(action);
+	}
+}
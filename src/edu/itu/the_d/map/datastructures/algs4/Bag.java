@@ -81,6 +81,25 @@ public class Bag<Item> implements Iterable<Item>, Serializable {
         return first == null;
     }
 
+    /**
+     * Returns a copy of this bag with the items in the same order. The items themselves aren't copied.
+     *
+     * @return the copy
+     */
+    public Bag<Item> copy() {
+        Bag<Item> copy = new Bag<Item>();
+        Node<Item> last = null;
+        for (Node<Item> x = first; x != null; x = x.next) {
+            Node<Item> node = new Node<Item>();
+            node.item = x.item;
+            if (last == null) copy.first = node;
+            else last.next = node;
+            last = node;
+        }
+        copy.N = N;
+        return copy;
+    }
+
     /**
      * Returns the number of items in this bag.
      *
@@ -104,6 +123,24 @@ public class Bag<Item> implements Iterable<Item>, Serializable {
     }
 
 
+    /**
+     * Removes the given item from this bag. Items are compared by identity.
+     *
+     * @param  item the item to remove
+     * @return true if the item was in this bag
+     */
+    public boolean remove(Item item) {
+        Node<Item> prev = null;
+        for (Node<Item> x = first; x != null; prev = x, x = x.next) {
+            if (x.item != item) continue;
+            if (prev == null) first = x.next;
+            else prev.next = x.next;
+            N--;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Returns an iterator that iterates over the items in this bag in arbitrary order.
      *
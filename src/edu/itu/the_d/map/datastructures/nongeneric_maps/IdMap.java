@@ -1,97 +1,531 @@
 package edu.itu.the_d.map.datastructures.nongeneric_maps;
 
-import edu.itu.the_d.map.model.mapobjects.Road;
-import edu.itu.the_d.map.utils.Debugger;
-import edu.itu.the_d.map.utils.User;
-
 import java.awt.geom.Point2D;
+import java.io.Closeable;
 import java.io.Serializable;
 import java.util.NoSuchElementException;
 
 /**
  * Lavet af Troels. Er et ikke-generisk hash-map der mapper longs til en række værdier der bruges i forbindelse med
  * nodes.
+ * <p>
+ * The keys are kept in an open addressing table with linear probing, and the values in arrays parallel to it, so an
+ * entry takes a slot in each array instead of an object of its own. The table has a power of two length and doubles
+ * when it gets {@link #MAX_LOAD} full. Key 0 marks an empty slot, so the node with id 0 is kept in an extra slot at
+ * the end of the value arrays.
+ * </p>
+ * <p>
+ * A map can keep its nodes in a {@link MappedNodeStore} instead, outside the heap. Nodes put in increasing id order
+ * are appended to the store, and only the nodes put out of order, like the nodes a change file creates, are kept in
+ * the table.
+ * </p>
+ * <p>
+ * A {@link #copy()} of a map can be changed while the map itself is read by other threads. The copy keeps the nodes put,
+ * moved or made vertices after it was made in a table of its own, and the ids of the nodes it removed in a set, and
+ * reads every other node from the map it was copied from, which is never changed again.
+ * </p>
+ * Copyright 2016 The-D
  */
-public class IdMap implements Serializable {
-    public static final long serialVersionUID = 201602187;
+public class IdMap implements Serializable, Closeable {
+    public static final long serialVersionUID = 201610184;
+
+    // Marks an empty slot in the keys array
+    private static final long EMPTY = 0;
+    // Part of the table that can be in use before it doubles
+    private static final float MAX_LOAD = 0.75f;
 
-    private int MASK;
-    private Node[] tab;
+    private long[] keys;
+    private float[] xs, ys;
+    private int[] vertexIndex;
+    private int mask;
+    private boolean containsEmpty;
+    // The nodes kept outside the heap, or null
+    private final MappedNodeStore store;
+    // The map this is a copy of, which the nodes not in the table are read from, or null
+    private final IdMap base;
+    // Nodes of the base map which have been removed from the copy
+    private final LongSet hidden;
 
     private int N = 0;
+    // Number of nodes in the table, which is all of them unless there's a store
+    private int inTable = 0;
+    // Number of nodes which are vertices in the graph
+    private int V = 0;
 
+    /**
+     * Create a new map with room for the given number of nodes before it has to grow.
+     * @param capacity the expected number of nodes
+     */
     public IdMap(int capacity) {
-        if (capacity < 2) capacity = 2;
-        tab = new Node[capacity];
-        MASK = tab.length - 1;
+        this(capacity, null);
+    }
+
+    /**
+     * Create a new map keeping its nodes in the given store, where they're appended in increasing id order.
+     * @param capacity the expected number of nodes put out of order, which are kept in the table
+     * @param store the store to keep the nodes in, or null to keep them in the table
+     */
+    public IdMap(int capacity, MappedNodeStore store) {
+        allocate(tableLength(capacity));
+        this.store = store;
+        base = null;
+        hidden = null;
+    }
+
+    /**
+     * Create a copy of a map. A copy of a copy reads from the same base map, so copies don't chain.
+     */
+    private IdMap(IdMap map) {
+        store = null;
+        if (map.base == null) {
+            allocate(tableLength(0));
+            base = map;
+            hidden = new LongSet(16);
+        } else {
+            keys = map.keys.clone();
+            xs = map.xs.clone();
+            ys = map.ys.clone();
+            vertexIndex = map.vertexIndex.clone();
+            mask = map.mask;
+            containsEmpty = map.containsEmpty;
+            inTable = map.inTable;
+            base = map.base;
+            hidden = map.hidden.copy();
+        }
+        N = map.N;
+        V = map.V;
     }
 
-    private int hash(long key) {
-        return (Long.hashCode(key) & 0x7fffffff) % MASK;
+    /**
+     * Create a copy of the map, which can be changed without changing this map. The copy reads the nodes it hasn't
+     * changed from this map, so this map must not be changed afterwards.
+     * @return the copy
+     */
+    public IdMap copy() {
+        return new IdMap(this);
+    }
+
+    /**
+     * @return true if the nodes are kept in a {@link MappedNodeStore}
+     */
+    public boolean isMapped() {
+        return store != null || base != null && base.isMapped();
+    }
+
+    /**
+     * Close the store the nodes are kept in, if there is one. A copy closes the store of the map it was copied from,
+     * which it shares with every other copy of that map, so no map sharing it may be read afterwards.
+     */
+    public void close() {
+        if (store != null) store.close();
+        else if (base != null) base.close();
+    }
+
+    /**
+     * @return the smallest power of two table that holds the given number of nodes
+     */
+    private static int tableLength(int capacity) {
+        int length = 2;
+        while (length * MAX_LOAD < capacity && length < 1 << 30) length <<= 1;
+        return length;
+    }
+
+    /**
+     * Allocate empty arrays for a table of the given length, along with the extra slot for key 0.
+     */
+    private void allocate(int length) {
+        keys = new long[length];
+        xs = new float[length + 1];
+        ys = new float[length + 1];
+        vertexIndex = new int[length + 1];
+        mask = length - 1;
+    }
+
+    /**
+     * Convert a key to its first slot in the keys array
+     * @param key the key to hash
+     * @return an index in the keys array
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Find the slot holding a key.
+     * @param key the node id
+     * @return the index of its values, or -1 if the key isn't in the map
+     */
+    private int indexOf(long key) {
+        if (key == EMPTY) return containsEmpty ? keys.length : -1;
+        for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the record of a key in the store.
+     * @param key the node id
+     * @return the index of the record, or -1 if there's no store or the key isn't in it
+     */
+    private long recordOf(long key) {
+        return store == null ? -1 : store.find(key);
+    }
+
+    /**
+     * Find the map to read a node that isn't in the table from.
+     * @param key the node id
+     * @return the base map, or null if this isn't a copy or the copy has removed the node
+     */
+    private IdMap baseOf(long key) {
+        return base == null || hidden.contains(key) ? null : base;
+    }
+
+    /**
+     * Take a slot in the table for a key that isn't in it.
+     * @param key the node id
+     * @return the index of the slot
+     */
+    private int claim(long key) {
+        inTable++;
+        if (key == EMPTY) {
+            containsEmpty = true;
+            return keys.length;
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY) i = (i + 1) & mask;
+        keys[i] = key;
+        return i;
+    }
+
+    /**
+     * Set the values of a slot, and grow the table if it's got too full.
+     */
+    private void set(int i, float x, float y, int index) {
+        xs[i] = x;
+        ys[i] = y;
+        vertexIndex[i] = index;
+        if (inTable > keys.length * MAX_LOAD) grow();
+    }
+
+    private static NoSuchElementException noSuchKey(long key) {
+        return new NoSuchElementException("No such key " + key + " in IdMap");
     }
 
     public void put(long key, float x, float y) {
-        int h = hash(key);
-        tab[h] = new Node(key, x, y, N++, tab[h]); // Also adds graph index
+        put(key, x, y, true);
     }
 
-    public Point2D get(long key) {
-        return (Point2D) getNode(key);
+    /**
+     * Put a node into the map. Only nodes that are a vertex in the graph get a graph index, which is the number of
+     * vertices put before it. A node put again keeps its graph index, so the graph doesn't get a vertex for each time.
+     * @param key the node id
+     * @param x the x coordinate of the node
+     * @param y the y coordinate of the node
+     * @param vertex whether the node is a vertex in the graph
+     */
+    public void put(long key, float x, float y, boolean vertex) {
+        // The graph index the node already has, if any
+        int index = -1;
+        if (store != null) {
+            if (store.append(key, x, y, vertex ? V : -1)) {
+                if (vertex) V++;
+                N++;
+                return;
+            }
+            // A node put again out of order replaces its record in the store
+            long r = store.find(key);
+            if (r >= 0) {
+                index = store.vertex(r);
+                store.remove(r);
+                N--;
+            }
+        }
+        int i;
+        boolean added;
+        if (key == EMPTY) {
+            i = keys.length;
+            added = !containsEmpty;
+            containsEmpty = true;
+        } else {
+            i = slot(key);
+            while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+            added = keys[i] == EMPTY;
+            keys[i] = key;
+        }
+        if (!added) index = vertexIndex[i];
+        else {
+            inTable++;
+            // A copy keeps the graph index the node has in the base map
+            IdMap b = baseOf(key);
+            if (b != null && b.containsKey(key)) index = b.vertexOf(key);
+            else N++;
+        }
+        set(i, x, y, index >= 0 ? index : vertex ? V++ : -1);
     }
 
-    private Node getNode(long key) {
-        for (Node n = tab[hash(key)]; n != null; n = n.next) {
-            if (n.key == key) return n;
+    /**
+     * Move a node already in the map to new coordinates.
+     * @param key the node id
+     * @param x the new x coordinate
+     * @param y the new y coordinate
+     * @return false if the node isn't in the map
+     */
+    public boolean move(long key, float x, float y) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            xs[i] = x;
+            ys[i] = y;
+            return true;
         }
-        return null;
+        IdMap b = baseOf(key);
+        if (b != null && b.containsKey(key)) {
+            // The copy keeps the node in its own table, with the graph index it has in the base map
+            int index = b.vertexOf(key);
+            set(claim(key), x, y, index);
+            return true;
+        }
+        long r = recordOf(key);
+        if (r < 0) return false;
+        store.setLocation(r, x, y);
+        return true;
     }
 
-    public int getGraphVertexIndex(long key) {
-        for (Node n = tab[hash(key)]; n != null; n = n.next) {
-            if (n.key == key) return n.graph_vertex_index;
+    /**
+     * Make a node already in the map a vertex in the graph, if it isn't one already. The new vertex gets the next
+     * graph index, so it must also be added to the graph (see WayUndirectedGraph#addVertex).
+     * @param key the node id
+     * @return true if the node became a vertex
+     */
+    public boolean makeVertex(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            IdMap b = baseOf(key);
+            if (b != null && b.containsKey(key)) {
+                if (b.vertexOf(key) >= 0) return false;
+                set(claim(key), b.getX(key), b.getY(key), V++);
+                return true;
+            }
+            long r = recordOf(key);
+            if (r < 0) throw noSuchKey(key);
+            if (store.vertex(r) >= 0) return false;
+            store.setVertex(r, V++);
+            return true;
         }
-        throw new NoSuchElementException("No such key " + key + " in IdMap");
+        if (vertexIndex[i] >= 0) return false;
+        vertexIndex[i] = V++;
+        return true;
+    }
+
+    /**
+     * Check whether a node is a vertex in the graph.
+     * @param key the node id
+     * @return false if the node isn't a vertex or isn't in the map
+     */
+    public boolean isVertex(long key) {
+        return vertexOf(key) >= 0;
     }
 
-    public void setRoad(long key, Road road) {
-        getNode(key).road = road;
+    /**
+     * @param key the node id
+     * @return the graph index of the node, or -1 if it isn't a vertex or isn't in the map
+     */
+    private int vertexOf(long key) {
+        int i = indexOf(key);
+        if (i >= 0) return vertexIndex[i];
+        IdMap b = baseOf(key);
+        if (b != null) return b.vertexOf(key);
+        long r = recordOf(key);
+        return r < 0 ? -1 : store.vertex(r);
     }
 
-    public Road getRoad(long key) {
-        return getNode(key).road;
+    /**
+     * Remove a node from the map. If the node is a vertex its graph index is left unused. The nodes after it in its
+     * run of slots are shifted back into the gap, so no lookup stops at it.
+     * @param key the node id
+     * @return false if the node isn't in the map
+     */
+    public boolean remove(long key) {
+        int i = indexOf(key);
+        IdMap b = baseOf(key);
+        boolean inBase = b != null && b.containsKey(key);
+        // The base map isn't changed, so the copy hides the node instead
+        if (inBase) hidden.add(key);
+        if (i < 0) {
+            if (inBase) {
+                N--;
+                return true;
+            }
+            long r = recordOf(key);
+            if (r < 0) return false;
+            store.remove(r);
+            N--;
+            return true;
+        }
+        N--;
+        inTable--;
+        if (key == EMPTY) {
+            containsEmpty = false;
+            return true;
+        }
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            // A node can fill the gap if the gap is between its first slot and the slot it's in
+            if (((j - slot(keys[j])) & mask) < ((j - i) & mask)) continue;
+            keys[i] = keys[j];
+            xs[i] = xs[j];
+            ys[i] = ys[j];
+            vertexIndex[i] = vertexIndex[j];
+            i = j;
+        }
+        keys[i] = EMPTY;
+        return true;
+    }
+
+    /**
+     * @param key the node id
+     * @return true if the node is in the map
+     */
+    public boolean containsKey(long key) {
+        if (indexOf(key) >= 0) return true;
+        IdMap b = baseOf(key);
+        return b != null ? b.containsKey(key) : recordOf(key) >= 0;
+    }
+
+    /**
+     * Get the coordinates of a node. The point is a copy, so moving the node doesn't change it.
+     * @param key the node id
+     * @return the coordinates, or null if the node isn't in the map
+     */
+    public Point2D get(long key) {
+        int i = indexOf(key);
+        if (i >= 0) return new Point2D.Float(xs[i], ys[i]);
+        IdMap b = baseOf(key);
+        if (b != null) return b.get(key);
+        long r = recordOf(key);
+        return r < 0 ? null : new Point2D.Float(store.x(r), store.y(r));
+    }
+
+    /**
+     * Get the x coordinate of a node without creating a point for it.
+     * @param key the node id
+     * @return the x coordinate
+     */
+    public float getX(long key) {
+        int i = indexOf(key);
+        if (i >= 0) return xs[i];
+        IdMap b = baseOf(key);
+        if (b != null) return b.getX(key);
+        return store.x(existingRecord(key));
+    }
+
+    /**
+     * Get the y coordinate of a node without creating a point for it.
+     * @param key the node id
+     * @return the y coordinate
+     */
+    public float getY(long key) {
+        int i = indexOf(key);
+        if (i >= 0) return ys[i];
+        IdMap b = baseOf(key);
+        if (b != null) return b.getY(key);
+        return store.y(existingRecord(key));
+    }
+
+    /**
+     * Find the record of a key in the store, or throw if it isn't in the store.
+     */
+    private long existingRecord(long key) {
+        long r = recordOf(key);
+        if (r < 0) throw noSuchKey(key);
+        return r;
+    }
+
+    public int getGraphVertexIndex(long key) {
+        int v = vertexOf(key);
+        if (v < 0) throw containsKey(key) ? new NoSuchElementException("Key " + key + " is not a graph vertex") : noSuchKey(key);
+        return v;
+    }
+
+    /**
+     * @return the number of nodes in the map
+     */
+    public int size() {
+        return N;
     }
 
     public long[] getAllKeys() {
         long[] res = new long[N];
         int res_index = 0;
-        int max_depth = 0;
-        for (int i=0; i<=MASK; i++) {
-            int depth = 0;
-            for (Node n = tab[i]; n != null; n = n.next) {
-                depth++;
-                res[res_index++] = n.key;
+        if (containsEmpty) res[res_index++] = EMPTY;
+        for (long key : keys) {
+            if (key != EMPTY) res[res_index++] = key;
+        }
+        if (base != null) {
+            for (long key : base.getAllKeys()) {
+                if (!hidden.contains(key) && indexOf(key) < 0) res[res_index++] = key;
+            }
+        }
+        if (store != null) {
+            for (long r = 0; r < store.size(); r++) {
+                if (!store.isRemoved(r)) res[res_index++] = store.id(r);
             }
-            if (depth > max_depth) max_depth = depth;
         }
+        return res;
+    }
 
-        Debugger.print(User.AESK, "idmapdepth: " + max_depth);
-        //System.out.println(res.length);
+    /**
+     * @return the number of nodes which are vertices in the graph
+     */
+    public int getVertexCount() {
+        return V;
+    }
 
+    /**
+     * Get the keys of the graph vertices, indexed by their graph index.
+     * @return an array where the key of vertex v is at index v
+     */
+    public long[] getVertexKeys() {
+        long[] res = new long[V];
+        if (base != null) {
+            // The vertices the copy has removed leave their graph index unused, like in a map that isn't a copy
+            long[] baseKeys = base.getVertexKeys();
+            for (int v = 0; v < baseKeys.length; v++) {
+                if (!hidden.contains(baseKeys[v])) res[v] = baseKeys[v];
+            }
+        }
+        if (containsEmpty && vertexIndex[keys.length] >= 0) res[vertexIndex[keys.length]] = EMPTY;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && vertexIndex[i] >= 0) res[vertexIndex[i]] = keys[i];
+        }
+        if (store != null) {
+            for (long r = 0; r < store.size(); r++) {
+                if (store.vertex(r) >= 0) res[store.vertex(r)] = store.id(r);
+            }
+        }
         return res;
     }
 
-    private class Node extends Point2D.Float {
-        public static final long serialVersionUID = 20160216;
-        Node next;
-        long key;
-        int graph_vertex_index;
-        Road road;
-
-        Node(long _key, float x, float y, int id, Node _next) {
-            super(x, y);
-            key = _key;
-            graph_vertex_index = id;
-            next = _next;
+    /**
+     * Double the table and put every node into it again.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        float[] oldXs = xs, oldYs = ys;
+        int[] oldVertexIndex = vertexIndex;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY) continue;
+            int i = slot(oldKeys[j]);
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            xs[i] = oldXs[j];
+            ys[i] = oldYs[j];
+            vertexIndex[i] = oldVertexIndex[j];
         }
+        // The slot for key 0 is the last one
+        xs[keys.length] = oldXs[oldKeys.length];
+        ys[keys.length] = oldYs[oldKeys.length];
+        vertexIndex[keys.length] = oldVertexIndex[oldKeys.length];
     }
 }
@@ -0,0 +1,108 @@
+package edu.itu.the_d.map.datastructures.nongeneric_maps;
+
+import java.io.Serializable;
+
+/**
+ * Non generic hash set of longs. The keys are stored directly in an open addressing table, so a set of millions of
+ * node ids takes a few bytes per id instead of an object per id. The table doubles when it gets half full.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class LongSet implements Serializable {
+    public static final long serialVersionUID = 201610185;
+
+    // Marks an empty slot. The key itself is tracked by a flag of its own
+    private static final long EMPTY = 0;
+
+    private long[] tab;
+    private int mask;
+    private int size;
+    private boolean containsEmpty;
+
+    /**
+     * Create a new set with room for the given number of keys before it has to grow.
+     * @param capacity the expected number of keys
+     */
+    public LongSet(int capacity) {
+        tab = new long[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2];
+        mask = tab.length - 1;
+    }
+
+    /**
+     * Convert a key to its first slot in the tab array
+     * @param key the key to hash
+     * @return an index in the tab array
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Add a key to the set.
+     * @param key the key to add
+     * @return true if the key wasn't in the set already
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmpty) return false;
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int i = slot(key);
+        for (; tab[i] != EMPTY; i = (i + 1) & mask) {
+            if (tab[i] == key) return false;
+        }
+        tab[i] = key;
+        if (++size * 2 > tab.length) grow();
+        return true;
+    }
+
+    /**
+     * Check whether the set holds the given key
+     * @param key the key to look for
+     * @return true if the key is in the set
+     */
+    public boolean contains(long key) {
+        if (key == EMPTY) return containsEmpty;
+        for (int i = slot(key); tab[i] != EMPTY; i = (i + 1) & mask) {
+            if (tab[i] == key) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a copy of the set, which can be changed without changing this set
+     */
+    public LongSet copy() {
+        LongSet copy = new LongSet(0);
+        copy.tab = tab.clone();
+        copy.mask = mask;
+        copy.size = size;
+        copy.containsEmpty = containsEmpty;
+        return copy;
+    }
+
+    /**
+     * @return the number of keys in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Double the table and rehash every key into it.
+     */
+    private void grow() {
+        long[] old = tab;
+        tab = new long[old.length * 2];
+        mask = tab.length - 1;
+        for (long key : old) {
+            if (key == EMPTY) continue;
+            int i = slot(key);
+            while (tab[i] != EMPTY) i = (i + 1) & mask;
+            tab[i] = key;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package edu.itu.the_d.map.datastructures.nongeneric_maps;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Node coordinates kept outside the heap, in a memory-mapped file of fixed-width records sorted by node id. A record
+ * holds the id, the x and y coordinates and the graph index of the node, or -1 if it isn't a vertex. The file is
+ * mapped in segments, so it can be larger than a single buffer, and the operating system pages the records in and out
+ * as they're used, so the heap doesn't grow with the number of nodes.
+ * <p>
+ * Records can only be appended in increasing id order, which is the order osm and pbf files list their nodes in. A
+ * node is found by interpolation search, alternating with binary search steps so a skewed distribution of ids can't
+ * make it slower than a binary search. Records are removed by marking them, since the order must be kept.
+ * </p>
+ * <p>
+ * The records are read by several threads while ways are converted, and only written by one thread at a time. When
+ * serialized, the records are written to the stream, and read back into a new file.
+ * </p>
+ * <p>
+ * The file is only open while a segment is mapped, since the mapping stays valid after it's closed. {@link #close()}
+ * drops the segments and deletes the file, and a file that can't be deleted yet is removed when the program exits.
+ * </p>
+ * Copyright 2016 The-D
+ */
+public class MappedNodeStore implements Serializable, Closeable {
+    public static final long serialVersionUID = 201610183;
+
+    // Layout of a record: id, x, y and graph index
+    private static final int ID = 0, X = 8, Y = 12, VERTEX = 16, RECORD = 20;
+    // Graph index of a removed record
+    private static final int REMOVED = Integer.MIN_VALUE;
+    // Records per mapped segment, about 1.3 GB. The last segment starts smaller and doubles until it's full
+    private static final int SEGMENT_BITS = 26, SEGMENT_RECORDS = 1 << SEGMENT_BITS, FIRST_RECORDS = 1 << 16;
+
+    private transient File path;
+    private transient MappedByteBuffer[] segments;
+    private transient long count, capacity;
+    private transient long lastId;
+
+    private MappedNodeStore(File path) {
+        this.path = path;
+        // In case the store is never closed
+        path.deleteOnExit();
+        segments = new MappedByteBuffer[0];
+        lastId = Long.MIN_VALUE;
+    }
+
+    /**
+     * Create an empty store in a temporary file, which is removed again when the store is closed or the program exits.
+     * @return the store
+     * @throws IOException if the file can't be created
+     */
+    public static MappedNodeStore createTemp() throws IOException {
+        return new MappedNodeStore(File.createTempFile("nodes", ".bin"));
+    }
+
+    /**
+     * Append a node after the nodes already in the store.
+     * @param id the node id, which must be greater than the ids in the store
+     * @param x the x coordinate of the node
+     * @param y the y coordinate of the node
+     * @param vertex the graph index of the node, or -1 if it isn't a vertex
+     * @return false if the id isn't greater than the ids in the store, in which case nothing is stored
+     */
+    public boolean append(long id, float x, float y, int vertex) {
+        if (id <= lastId) return false;
+        if (count == capacity) grow();
+        int offset = offset(count);
+        MappedByteBuffer segment = segment(count);
+        segment.putLong(offset + ID, id);
+        segment.putFloat(offset + X, x);
+        segment.putFloat(offset + Y, y);
+        segment.putInt(offset + VERTEX, vertex);
+        lastId = id;
+        count++;
+        return true;
+    }
+
+    /**
+     * Make room for more records, by mapping the last segment again at twice the size, or mapping a new segment if it's
+     * full. The file grows to hold the mapping.
+     */
+    private void grow() {
+        int s = segments.length - 1;
+        int records = s < 0 ? SEGMENT_RECORDS : segments[s].capacity() / RECORD;
+        if (records == SEGMENT_RECORDS) {
+            segments = Arrays.copyOf(segments, ++s + 1);
+            records = FIRST_RECORDS;
+        } else records *= 2;
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            segments[s] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) s * SEGMENT_RECORDS * RECORD,
+                    (long) records * RECORD);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not map node store", e);
+        }
+        capacity = (long) s * SEGMENT_RECORDS + records;
+    }
+
+    private MappedByteBuffer segment(long r) {
+        return segments[(int) (r >>> SEGMENT_BITS)];
+    }
+
+    private static int offset(long r) {
+        return (int) (r & (SEGMENT_RECORDS - 1)) * RECORD;
+    }
+
+    /**
+     * Find the record of a node.
+     * @param id the node id
+     * @return the index of the record, or -1 if the node isn't in the store or has been removed
+     */
+    public long find(long id) {
+        long lo = 0, hi = count - 1;
+        boolean interpolate = true;
+        while (lo <= hi) {
+            long loId = id(lo), hiId = id(hi);
+            if (id < loId || id > hiId) return -1;
+            long mid;
+            if (interpolate && hiId > loId) mid = lo + (long) ((double) (id - loId) / (hiId - loId) * (hi - lo));
+            else mid = (lo + hi) >>> 1;
+            interpolate = !interpolate;
+            long midId = id(mid);
+            if (midId == id) return vertex(mid) == REMOVED ? -1 : mid;
+            if (midId < id) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @param r the index of a record
+     * @return the node id of the record
+     */
+    public long id(long r) {
+        return segment(r).getLong(offset(r) + ID);
+    }
+
+    /**
+     * @param r the index of a record
+     * @return the x coordinate of the node
+     */
+    public float x(long r) {
+        return segment(r).getFloat(offset(r) + X);
+    }
+
+    /**
+     * @param r the index of a record
+     * @return the y coordinate of the node
+     */
+    public float y(long r) {
+        return segment(r).getFloat(offset(r) + Y);
+    }
+
+    /**
+     * @param r the index of a record
+     * @return the graph index of the node, or -1 if it isn't a vertex
+     */
+    public int vertex(long r) {
+        return segment(r).getInt(offset(r) + VERTEX);
+    }
+
+    /**
+     * @param r the index of a record
+     * @return true if the record has been removed
+     */
+    public boolean isRemoved(long r) {
+        return vertex(r) == REMOVED;
+    }
+
+    /**
+     * Move a node to new coordinates.
+     * @param r the index of the record
+     * @param x the new x coordinate
+     * @param y the new y coordinate
+     */
+    public void setLocation(long r, float x, float y) {
+        segment(r).putFloat(offset(r) + X, x);
+        segment(r).putFloat(offset(r) + Y, y);
+    }
+
+    /**
+     * @param r the index of the record
+     * @param vertex the new graph index of the node
+     */
+    public void setVertex(long r, int vertex) {
+        segment(r).putInt(offset(r) + VERTEX, vertex);
+    }
+
+    /**
+     * Mark a record as removed. It keeps its place, so the records stay sorted.
+     * @param r the index of the record
+     */
+    public void remove(long r) {
+        setVertex(r, REMOVED);
+    }
+
+    /**
+     * @return the number of records, including removed ones
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Drop the records and delete the file. The segments are unmapped once they're garbage collected, and on systems
+     * that don't delete a mapped file the file is removed when the program exits instead.
+     */
+    public void close() {
+        segments = new MappedByteBuffer[0];
+        count = capacity = 0;
+        lastId = Long.MIN_VALUE;
+        path.delete();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeLong(count);
+        for (long r = 0; r < count; r++) {
+            out.writeLong(id(r));
+            out.writeFloat(x(r));
+            out.writeFloat(y(r));
+            out.writeInt(vertex(r));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        MappedNodeStore store = createTemp();
+        path = store.path;
+        segments = store.segments;
+        lastId = store.lastId;
+        long n = in.readLong();
+        for (long r = 0; r < n; r++) append(in.readLong(), in.readFloat(), in.readFloat(), in.readInt());
+    }
+}
@@ -0,0 +1,148 @@
+package edu.itu.the_d.map.datastructures.nongeneric_maps;
+
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+
+import java.util.Arrays;
+
+/**
+ * Non generic hash map of way ids to the map objects made from the way. Most ways make a single object, but clipped
+ * ways make one per part. Like the {@link LongArrayMap}, the keys are stored directly in an open addressing table, with
+ * the values in an array parallel to it, and the table doubles when it gets half full.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class WayObjectMap {
+    // Marks an empty slot. The key itself is kept apart, with its value in emptyValue
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private MapObject[][] vals;
+    private int mask;
+    private int size;
+    private MapObject[] emptyValue;
+
+    /**
+     * Create a new map with room for the given number of ways before it has to grow.
+     * @param capacity the expected number of ways
+     */
+    public WayObjectMap(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2);
+    }
+
+    private void allocate(int length) {
+        keys = new long[length];
+        vals = new MapObject[length][];
+        mask = length - 1;
+    }
+
+    /**
+     * Convert a key to its first slot in the keys array
+     * @param key the key to hash
+     * @return an index in the keys array
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Put the objects of a way into the map, replacing the objects it had.
+     * @param key the way id
+     * @param value the objects, which mustn't be null
+     */
+    public void put(long key, MapObject[] value) {
+        if (key == EMPTY) {
+            if (emptyValue == null) size++;
+            emptyValue = value;
+            return;
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+        vals[i] = value;
+        if (keys[i] == key) return;
+        keys[i] = key;
+        if (++size * 2 > keys.length) grow();
+    }
+
+    /**
+     * Add an object to the objects of a way.
+     * @param key the way id
+     * @param obj the object
+     */
+    public void add(long key, MapObject obj) {
+        MapObject[] objects = get(key);
+        if (objects == null) objects = new MapObject[]{obj};
+        else {
+            objects = Arrays.copyOf(objects, objects.length + 1);
+            objects[objects.length - 1] = obj;
+        }
+        put(key, objects);
+    }
+
+    /**
+     * @param key the way id
+     * @return the objects of the way, or null if it isn't in the map
+     */
+    public MapObject[] get(long key) {
+        if (key == EMPTY) return emptyValue;
+        for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) return vals[i];
+        }
+        return null;
+    }
+
+    /**
+     * Remove a way from the map. The keys after it in its run of slots are shifted back into the gap, so no lookup
+     * stops at it.
+     * @param key the way id
+     * @return the objects of the way, or null if it wasn't in the map
+     */
+    public MapObject[] remove(long key) {
+        if (key == EMPTY) {
+            MapObject[] value = emptyValue;
+            if (value != null) size--;
+            emptyValue = null;
+            return value;
+        }
+        int i = slot(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) return null;
+            i = (i + 1) & mask;
+        }
+        MapObject[] value = vals[i];
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            // A key can fill the gap if the gap is between its first slot and the slot it's in
+            if (((j - slot(keys[j])) & mask) < ((j - i) & mask)) continue;
+            keys[i] = keys[j];
+            vals[i] = vals[j];
+            i = j;
+        }
+        keys[i] = EMPTY;
+        vals[i] = null;
+        return value;
+    }
+
+    /**
+     * @return the number of ways in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Double the table and rehash every key into it.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        MapObject[][] oldVals = vals;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY) continue;
+            int i = slot(oldKeys[j]);
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            vals[i] = oldVals[j];
+        }
+    }
+}
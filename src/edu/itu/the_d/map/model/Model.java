@@ -1,17 +1,26 @@
 package edu.itu.the_d.map.model;
 
+import edu.itu.the_d.map.dataprocessing.ChangeApplier;
+import edu.itu.the_d.map.dataprocessing.CoastlineChunker;
 import edu.itu.the_d.map.dataprocessing.Dispatcher;
+import edu.itu.the_d.map.dataprocessing.IngestFilter;
+import edu.itu.the_d.map.dataprocessing.OSCParser;
 import edu.itu.the_d.map.datastructures.*;
 import edu.itu.the_d.map.datastructures.algs4.MinPQ;
 import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.MappedNodeStore;
 import edu.itu.the_d.map.model.mapobjects.AddressSearcher;
 import edu.itu.the_d.map.model.mapobjects.MapObject;
+import edu.itu.the_d.map.model.mapobjects.RegionType;
 import edu.itu.the_d.map.model.mapobjects.Road;
+import edu.itu.the_d.map.model.mapobjects.RoadType;
 import edu.itu.the_d.map.utils.*;
 import edu.itu.the_d.map.view.View;
 
 import java.awt.*;
+import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.*;
@@ -19,6 +28,9 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Observable;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * <p>
@@ -37,6 +49,9 @@ public class Model extends Observable implements Serializable {
 	public static BufferedImage pin_from_image = ImageLoader.loadImage("pin_from.png", 56, false);
 	public static BufferedImage pin_nn_image = ImageLoader.loadImage("pin.png", 56, false);
 
+	// The zoom levels of the road and region types, ascending, which are the classes of detail a tile can leave out
+	private static final int[] DETAIL_LEVELS = detailLevels();
+
 	// Location of temporary pins
 	public Point2D.Float pinLocation_nn = new Point2D.Float(0, 0);
 	public Point2D.Float pinLocation_from = new Point2D.Float(0, 0);
@@ -52,14 +67,16 @@ public class Model extends Observable implements Serializable {
 	// Correction for the latitude of the loaded map
 	public float lonfactor;
 
-	// Address searcher object
-	public AddressSearcher addressSearcher;
+	// Address searcher object. Like the objectMap, it's replaced by a changed copy when changes are applied
+	public volatile AddressSearcher addressSearcher;
 
-	// List of coastlines are held in a separate data structure because of their size
-	public List<Pair<int[], MapObject>> coastlines;
+	// List of coastlines are held in a separate data structure because of their size, see indexCoastlines(). Once the
+	// map is loaded the list is only replaced, never changed, so it's read without locking
+	public volatile List<Pair<int[], MapObject>> coastlines;
 
-	// Map of all the nodes
-	public IdMap objectMap;
+	// Map of all the nodes. Like the graph, it's replaced by a changed copy when changes are applied, never changed
+	// once loaded
+	public volatile IdMap objectMap;
 
 	// Font reference for drawing text on the map itself
 	public Font primaryFont;
@@ -70,19 +87,25 @@ public class Model extends Observable implements Serializable {
 	// Bounding coordinates of the map
 	float minlon, minlat, maxlon, maxlat;
 
-	// 2d-tree with all the map objects (except coastlines)
-	private TwoDTree data;
+	// Spatial index with all the map objects (except coastlines), a 2d-tree or a compacted one. The indexes are only
+	// replaced by new ones once they're built, never changed, so they're read without locking
+	private volatile SpatialIndex data;
+	// Spatial index with the chunks of the coastlines, or null if they haven't been indexed
+	private volatile SpatialIndex coastlineIndex;
 	// Graph for finding paths between addresses and nodes
-	private WayUndirectedGraph graph;
+	private volatile WayUndirectedGraph graph;
 
 	// Path of current route shown on the map
 	private Path2D.Float routePath;
 
+	// Applies osm change files, created when the first one is applied
+	private transient ChangeApplier changeApplier;
+
 	/**
 	 * Creates empty model
 	 */
 	public Model() {
-		data = new TwoDTree(); // Init a new KdTree with 2 dimensions (longitude, latitude)
+		data = new ZoomLayeredIndex(); // Init a new KdTree with 2 dimensions (longitude, latitude) for each zoom level
 		addressSearcher = new AddressSearcher();
 		geoLocation = new GeoLocation();
 		coastlines = new ArrayList<>();
@@ -96,6 +119,43 @@ public class Model extends Observable implements Serializable {
 	 * @param filename a (relative) path to the file
 	 */
 	public static Model createModel(String filename) {
+		return createModel(filename, false);
+	}
+
+	/**
+	 * Creates a new model from the given file. Osm, zip and pbf files can be read in two passes, which only keeps the
+	 * nodes that are part of the drawn ways. See {@link Dispatcher#constructModelFromOSMFile(String, long, Model, boolean)}.
+	 *
+	 * @param filename a (relative) path to the file
+	 * @param twoPass  whether to read osm, zip and pbf files in two passes
+	 */
+	public static Model createModel(String filename, boolean twoPass) {
+		return createModel(filename, twoPass, null);
+	}
+
+	/**
+	 * Creates a new model from the part of the given file accepted by the filter. The filter only applies to osm, zip
+	 * and pbf files. See {@link Dispatcher#constructModelFromOSMFile(String, long, Model, boolean, IngestFilter)}.
+	 *
+	 * @param filename a (relative) path to the file
+	 * @param twoPass  whether to read osm, zip and pbf files in two passes
+	 * @param filter   the filter to read the file through, or null to load all of it
+	 */
+	public static Model createModel(String filename, boolean twoPass, IngestFilter filter) {
+		return createModel(filename, twoPass, filter, false);
+	}
+
+	/**
+	 * Creates a new model from the part of the given file accepted by the filter, optionally keeping the nodes in a
+	 * memory-mapped file instead of on the heap (see {@link MappedNodeStore}), which lets files with far more nodes
+	 * than fit in the heap be loaded.
+	 *
+	 * @param filename    a (relative) path to the file
+	 * @param twoPass     whether to read osm, zip and pbf files in two passes
+	 * @param filter      the filter to read the file through, or null to load all of it
+	 * @param mappedNodes whether to keep the nodes of osm, zip and pbf files in a memory-mapped file
+	 */
+	public static Model createModel(String filename, boolean twoPass, IngestFilter filter, boolean mappedNodes) {
 		// Turn on the loading view
 		LoadingView.turnOn();
 
@@ -136,26 +196,51 @@ public class Model extends Observable implements Serializable {
 		long fileSize = sizeGet.length();
 		// Multiplying by compression ratio found in some test osm files
 		long fileSizeZip = (long) (fileSize * 13.7f);
+		// PBF files are roughly 20 times smaller than the osm xml they hold
+		long fileSizePbf = (long) (fileSize * 20f);
 		// Hand crafted ratio from file size to number of tags
 		long nodeCount = (long) (fileSize / 234f / 4f);
 		long nodeCountZip = (long) (fileSizeZip / 234f / 4f);
-
-		// Branch to set different size values if the file is a zip file
-		if (filename.endsWith(".zip")) {
-			model.objectMap = new IdMap((int) nodeCountZip);
+		long nodeCountPbf = (long) (fileSizePbf / 234f / 4f);
+
+		// Branch to set different size values if the file is a zip or pbf file
+		if (filename.endsWith(".pbf")) {
+			// In two passes the dispatcher sizes the map once it knows the number of nodes
+			model.objectMap = nodeMap(twoPass ? 0 : (int) nodeCountPbf, mappedNodes);
+			Debugger.print(User.AESK, "IDMAP SIZE: " + nodeCountPbf);
+			System.out.println("File size in bytes: " + fileSizePbf);
+			Dispatcher.constructModelFromOSMFile(filename, fileSizePbf, model, twoPass, filter);
+		} else if (filename.endsWith(".zip")) {
+			model.objectMap = nodeMap(twoPass ? 0 : (int) nodeCountZip, mappedNodes);
 			Debugger.print(User.AESK, "IDMAP SIZE: " + nodeCountZip);
 			System.out.println("File size in bytes: " + fileSizeZip);
-			Dispatcher.constructModelFromOSMFile(filename, fileSizeZip, model);
+			Dispatcher.constructModelFromOSMFile(filename, fileSizeZip, model, twoPass, filter);
 		} else {
-			model.objectMap = new IdMap((int) nodeCount);
+			model.objectMap = nodeMap(twoPass ? 0 : (int) nodeCount, mappedNodes);
 			Debugger.print(User.AESK, "IDMAP SIZE: " + nodeCount);
 			System.out.println("File size in bytes: " + fileSize);
-			Dispatcher.constructModelFromOSMFile(filename, fileSize, model);
+			Dispatcher.constructModelFromOSMFile(filename, fileSize, model, twoPass, filter);
 		}
 		LoadingView.turnOff();
 		return model;
 	}
 
+	/**
+	 * Creates the map for the nodes of a file.
+	 *
+	 * @param capacity    the expected number of nodes
+	 * @param mappedNodes whether to keep the nodes in a memory-mapped file, where the capacity isn't needed
+	 * @return the map
+	 */
+	private static IdMap nodeMap(int capacity, boolean mappedNodes) {
+		if (!mappedNodes) return new IdMap(capacity);
+		try {
+			return new IdMap(0, MappedNodeStore.createTemp());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Method for loading a serialized .obj file.
 	 *
@@ -165,7 +250,10 @@ public class Model extends Observable implements Serializable {
 	private static Model load(InputStream inputStream) {
 		try {
 			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(inputStream));
-			return (Model) in.readObject();
+			Model model = (Model) in.readObject();
+			// Files saved before the coastlines were indexed only have the whole coastlines
+			if (model.coastlineIndex == null) model.indexCoastlines();
+			return model;
 		} catch (IOException | ClassNotFoundException e) {
 			throw new RuntimeException(e);
 		}
@@ -308,6 +396,19 @@ public class Model extends Observable implements Serializable {
 		this.routePath = routePath;
 	}
 
+	/**
+	 * Applies an osm change file (.osc or .osc.gz) to the loaded map and notifies the observers. See
+	 * {@link ChangeApplier} for what is updated.
+	 *
+	 * @param filename a (relative) path to the change file
+	 * @throws IOException if the change file can't be read
+	 */
+	public synchronized void applyChanges(String filename) throws IOException {
+		if (changeApplier == null) changeApplier = new ChangeApplier(this);
+		changeApplier.apply(OSCParser.parse(filename));
+		dirty();
+	}
+
 	/**
 	 * Notify observers that the model has changed.
 	 */
@@ -322,14 +423,16 @@ public class Model extends Observable implements Serializable {
 	 * @return {@link List list of strings} which shows the route list
 	 */
 	public List<String> generateDijkstra(long fromID, long toID) {
+		// The graph may be replaced by a changed copy meanwhile, so the route is found in the one read here
+		WayUndirectedGraph graph = this.graph;
 
 		// A list of the route list
 		List<String> routeList = new ArrayList<>();
 		List<Double> distList = new ArrayList<>();
 		distList.add(0d);
 
-		// Generates Dijkstra given the graph, the source, the target point and model as parameters
-		Dijkstra dijkstra = new Dijkstra(graph, graph.getIndex(fromID), graph.getIndex(toID), this);
+		// Generates Dijkstra given the graph, the source and the target point as parameters
+		Dijkstra dijkstra = new Dijkstra(graph, graph.getIndex(fromID), graph.getIndex(toID));
 
 		// The path represented as a Path2D.Float
 		Path2D.Float path = new Path2D.Float();
@@ -357,7 +460,7 @@ public class Model extends Observable implements Serializable {
 		for (WayEdge e : dijkstra.pathTo(graph.getIndex(toID))) {
 			// If it's the first edge, initializes from to the lastFromV and moves to its location
 			if (first) {
-				Point2D from = objectMap.get(graph.getID(lastFromV));
+				Point2D from = graph.getPoint(lastFromV);
 				pinLocation_from.setLocation(from);
 				path.moveTo(from.getX(), from.getY());
 				first = false;
@@ -366,36 +469,18 @@ public class Model extends Observable implements Serializable {
 			// Add edge length to current road distance
 			currentDist += e.length;
 
-			// The name of the vertex at the start of the edge
-			String fromName = null;
-
-            /* Try to set fromName to name of the road of lastFromV, which is an integer that represents
-             * the last vertex at the starting position of the edge
-             */
-
-			try {
-				fromName = objectMap.getRoad(graph.getID(lastFromV)).getName();
-			} catch (NullPointerException ex) {
-			}
+			// The name of the road the edge is part of, read from the road table of the graph
+			Road road = graph.getRoad(e);
+			String name = road == null ? null : road.getName();
 
 			// The other end of the edge e, stored in an integer toV
 			int toV = e.other(lastFromV);
 
-			// The name of the vertex at the end position of the edge
-			String toName = null;
-
-			// Try to get the name of the road at the end position of the edge
-			try {
-				toName = objectMap.getRoad(graph.getID(toV)).getName();
-			} catch (NullPointerException ex) {
-			}
-
-            /* If the name of the vertices at the starting and end positions are the same
-             * and the route list doesn't already contain the name of the end position:
+            /* If the edge is on a named road and the route list doesn't already contain its name:
              * Add the name to the route list
              */
-			if (fromName != null && fromName.equals(toName) && !routeList.contains(toName)) {
-				routeList.add(toName);
+			if (name != null && !routeList.contains(name)) {
+				routeList.add(name);
 				// Because we start a new road, set the current distance to the first edge's length
 				currentDist = e.length;
 				// Just add a new entry to the distance list
@@ -407,7 +492,7 @@ public class Model extends Observable implements Serializable {
 			distList.set(currentDistIndex, currentDist);
 
 			// Store the Point2D at the end position of the edge
-			Point2D to = objectMap.get(graph.getID(toV));
+			Point2D to = graph.getPoint(toV);
 			pinLocation_to.setLocation(to);
 
 			// Line to the position of the Point2D at the end position of the edge
@@ -447,14 +532,80 @@ public class Model extends Observable implements Serializable {
 	}
 
 	/**
-	 * Get a reference to the model's 2d-tree
+	 * Get a reference to the model's spatial index
 	 *
 	 * @return
 	 */
-	public TwoDTree getTreeRef() {
+	public SpatialIndex getTreeRef() {
 		return data;
 	}
 
+	/**
+	 * Set the model's spatial index, once it's been built from the map objects. The index must not be changed
+	 * afterwards, since it's read without locking.
+	 *
+	 * @param data the spatial index
+	 */
+	public synchronized void setTreeRef(SpatialIndex data) {
+		this.data = data;
+	}
+
+	/**
+	 * Replaces the objectMap, graph, address searcher and spatial index by the copies changes have been applied to, see
+	 * {@link ChangeApplier}. The spatial index is replaced last, so a reader that gets a road from the new index and
+	 * then reads the objectMap finds the road's nodes.
+	 *
+	 * @param objectMap       the changed node map
+	 * @param graph           the changed graph, which looks up its vertices in the node map
+	 * @param addressSearcher the changed address searcher
+	 * @param data            the changed spatial index
+	 */
+	public synchronized void publishChanges(IdMap objectMap, WayUndirectedGraph graph, AddressSearcher addressSearcher,
+	                                        SpatialIndex data) {
+		this.objectMap = objectMap;
+		this.graph = graph;
+		this.addressSearcher = addressSearcher;
+		this.data = data;
+	}
+
+	/**
+	 * Replaces the model's 2d-trees by compact, read-only copies, which take less memory and are faster to query and
+	 * serialize. Changes can't be applied to the map after this. See {@link FlatTwoDTree}.
+	 */
+	public synchronized void compactIndex() {
+		data = data.compact();
+		if (coastlineIndex != null) coastlineIndex = coastlineIndex.compact();
+	}
+
+	/**
+	 * Replaces the model's 2d-trees by R-trees packed in Hilbert order, which return fewer objects outside the range for
+	 * maps of long roads and big regions. Changes can't be applied to the map after this. See {@link PackedRTree}.
+	 */
+	public synchronized void packIndex() {
+		data = data instanceof ZoomLayeredIndex ? ((ZoomLayeredIndex) data).pack() : PackedRTree.of(data);
+	}
+
+	/**
+	 * Splits the coastlines into chunks of bounded size (see {@link CoastlineChunker}), replaces the coastlines by the
+	 * chunks and puts the chunks in a 2d-tree of their own. A range query then only returns the chunks intersecting the
+	 * range instead of every coastline.
+	 */
+	public synchronized void indexCoastlines() {
+		List<Pair<int[], MapObject>> chunks = CoastlineChunker.chunk(coastlines);
+		List<int[]> posinfo = new ArrayList<>(chunks.size());
+		List<MapObject> objs = new ArrayList<>(chunks.size());
+		for (Pair<int[], MapObject> chunk : chunks) {
+			// The tree widens the bounds it's built from, so it gets copies
+			posinfo.add(chunk.valA.clone());
+			objs.add(chunk.valB);
+		}
+		TwoDTree tree = new TwoDTree();
+		tree.constructFromList(posinfo, objs);
+		// The index is published before the chunks, so readers falling back to the list never miss a coastline
+		coastlineIndex = tree;
+		coastlines = chunks;
+	}
+
 	/**
 	 * Get all data within the map bounds from the 2d-tree
 	 *
@@ -463,8 +614,9 @@ public class Model extends Observable implements Serializable {
 	 * @see TwoDTree
 	 * @see MapObject
 	 */
-	public synchronized MinPQ<MapObject> getAllData() {
-		return getDataInRange(minlon, minlat, maxlon, maxlat, Integer.MAX_VALUE);
+	public MinPQ<MapObject> getAllData() {
+		// The latitudes of the map bounds are negated, so the minimum is the biggest of them
+		return getDataInRange(minlon, Math.min(minlat, maxlat), maxlon, Math.max(minlat, maxlat), Integer.MAX_VALUE);
 	}
 
 	/**
@@ -478,10 +630,27 @@ public class Model extends Observable implements Serializable {
 	 * @see TwoDTree
 	 * @see MapObject
 	 */
-	public synchronized MinPQ<MapObject> getDataInRange(Point2D lower, Point2D upper, int zoomLevel) {
+	public MinPQ<MapObject> getDataInRange(Point2D lower, Point2D upper, int zoomLevel) {
 		return getDataInRange(lower.getX(), lower.getY(), upper.getX(), upper.getY(), zoomLevel);
 	}
 
+	/**
+	 * Get data within the range specified by the two point parameters and below the specified zoom level, like
+	 * {@link #getDataInRange(Point2D, Point2D, int)}, but into a sink that's reused between calls. The sink is cleared
+	 * first and sorted by z-index when it's returned.
+	 *
+	 * @param lower     lower coordinate of range
+	 * @param upper     upper coordinate of range
+	 * @param zoomLevel zoom level to return objects for
+	 * @param res       the sink to put the map objects in
+	 * @see ZIndexBuckets
+	 */
+	public void getDataInRange(Point2D lower, Point2D upper, int zoomLevel, ZIndexBuckets res) {
+		res.clear();
+		query(lower.getX(), lower.getY(), upper.getX(), upper.getY(), zoomLevel, res);
+		res.sort();
+	}
+
 	/**
 	 * Get data within the range specified by the two point parameters and below the specified zoom level.
 	 *
@@ -494,107 +663,118 @@ public class Model extends Observable implements Serializable {
 	 * @see TwoDTree
 	 * @see MapObject
 	 */
-	private synchronized MinPQ<MapObject> getDataInRange(double minlon, double minlat, double maxlon, double maxlat, int zoomLevel) {
-		// Convert map coordinates to tree coordinates
-		int int_minlon = (int) (minlon * Math.pow(10, 7));
-		int int_minlat = (int) -(maxlat * Math.pow(10, 7));
-		int int_maxlon = (int) (maxlon * Math.pow(10, 7));
-		int int_maxlat = (int) -(minlat * Math.pow(10, 7));
+	private MinPQ<MapObject> getDataInRange(double minlon, double minlat, double maxlon, double maxlat, int zoomLevel) {
+		MinPQ<MapObject> res = new MinPQ<>();
+		query(minlon, minlat, maxlon, maxlat, zoomLevel, res::insert);
+		return res;
+	}
+
+	/**
+	 * Passes the data within the range specified by the parameters and below the specified zoom level to a sink.
+	 *
+	 * @param minlon    the minimum bounding longitude
+	 * @param minlat    the maximum bounding latitude
+	 * @param maxlon    the minimum bounding longitude
+	 * @param maxlat    the maximum bounding latitude
+	 * @param zoomLevel zoom level to return objects for
+	 * @param sink      the sink to pass the map objects to
+	 */
+	private void query(double minlon, double minlat, double maxlon, double maxlat, int zoomLevel, Consumer<MapObject> sink) {
+		// The latitudes are negated in the tree, so the maximum latitude gives the minimum tree latitude
+		int int_minlon = treeLon(minlon), int_minlat = treeLat(maxlat);
+		int int_maxlon = treeLon(maxlon), int_maxlat = treeLat(minlat);
 
 		// Get data from the 2d-tree
-		MinPQ<MapObject> res = data.getRange(int_minlon, int_minlat, int_maxlon, int_maxlat, zoomLevel);
+		data.query(int_minlon, int_minlat, int_maxlon, int_maxlat, zoomLevel, sink);
 		// Also add coastlines
 		// These are not contained in the 2d-tree since many of them are extremely large and thus would make the structure less effective
+		SpatialIndex coastlineIndex = this.coastlineIndex;
+		if (coastlineIndex != null) {
+			coastlineIndex.query(int_minlon, int_minlat, int_maxlon, int_maxlat, zoomLevel, sink);
+			return;
+		}
 		for (Pair<int[], MapObject> segment : coastlines) {
 			int[] posinfo = segment.valA;
-			if (posinfo[TwoDTree.LON] <= int_maxlon || posinfo[TwoDTree.LON + TwoDTree.MAX] >= int_minlon
-					|| posinfo[TwoDTree.LAT] <= int_maxlat || posinfo[TwoDTree.LAT + TwoDTree.MAX] >= int_minlat) {
-				res.insert(segment.valB);
+			if (posinfo[TwoDTree.LON] <= int_maxlon && posinfo[TwoDTree.LON + TwoDTree.MAX] >= int_minlon
+					&& posinfo[TwoDTree.LAT] <= int_maxlat && posinfo[TwoDTree.LAT + TwoDTree.MAX] >= int_minlat) {
+				sink.accept(segment.valB);
 			}
 		}
-
-		return res;
 	}
 
 	/**
-	 * Computes the dot product AB x AC, used by the nearestNeighbor method
-	 * to find line distance.
+	 * Estimates the number of map objects within the range specified by the two point parameters and below the
+	 * specified zoom level, without getting them, see {@link SpatialIndex#estimateCount(int, int, int, int, int)}.
 	 *
-	 * @param pointA of type double[]
-	 * @param pointB of tyoe double[]
-	 * @param pointC of type double[]
-	 * @return the dot product
+	 * @param lower     lower coordinate of range
+	 * @param upper     upper coordinate of range
+	 * @param zoomLevel zoom level to count objects for
+	 * @return the estimated number of map objects, coastlines included
 	 */
-	private double dotProduct(double[] pointA, double[] pointB, double[] pointC) {
-		double[] AB = new double[2];
-		double[] BC = new double[2];
-		AB[0] = pointB[0] - pointA[0];
-		AB[1] = pointB[1] - pointA[1];
-		BC[0] = pointC[0] - pointB[0];
-		BC[1] = pointC[1] - pointB[1];
-		double dot = AB[0] * BC[0] + AB[1] * BC[1];
+	public int estimateCount(Point2D lower, Point2D upper, int zoomLevel) {
+		return estimateCount(treeLon(lower.getX()), treeLat(upper.getY()), treeLon(upper.getX()), treeLat(lower.getY()), zoomLevel);
+	}
 
-		return dot;
+	private int estimateCount(int minlon, int minlat, int maxlon, int maxlat, int zoomLevel) {
+		int count = data.estimateCount(minlon, minlat, maxlon, maxlat, zoomLevel);
+		SpatialIndex coastlineIndex = this.coastlineIndex;
+		if (coastlineIndex != null) return count + coastlineIndex.estimateCount(minlon, minlat, maxlon, maxlat, zoomLevel);
+		for (Pair<int[], MapObject> segment : coastlines) {
+			int[] posinfo = segment.valA;
+			if (posinfo[TwoDTree.LON] <= maxlon && posinfo[TwoDTree.LON + TwoDTree.MAX] >= minlon
+					&& posinfo[TwoDTree.LAT] <= maxlat && posinfo[TwoDTree.LAT + TwoDTree.MAX] >= minlat) count++;
+		}
+		return count;
 	}
 
 	/**
-	 * Computes the cross product AB x AC, used by the nearestNeighbor method
-	 * to find line distance.
+	 * Finds the zoom level to get the data within a range at so it's drawn in time. While the estimated number of map
+	 * objects in the range is over the budget, the most detailed class of objects left, like footpaths or buildings,
+	 * is left out by lowering the zoom level to below it. The least detailed class is always kept.
 	 *
-	 * @param pointA of type double[]
-	 * @param pointB of type double[]
-	 * @param pointC of type double[]
-	 * @return the cross product.
+	 * @param lower     lower coordinate of range
+	 * @param upper     upper coordinate of range
+	 * @param zoomLevel the zoom level of the view
+	 * @param budget    the number of map objects that can be drawn in time
+	 * @return the zoom level to get the data at, at most the given one
+	 * @see #estimateCount(Point2D, Point2D, int)
 	 */
-	private double crossProduct(double[] pointA, double[] pointB, double[] pointC) {
-		double[] AB = new double[2];
-		double[] AC = new double[2];
-		AB[0] = pointB[0] - pointA[0];
-		AB[1] = pointB[1] - pointA[1];
-		AC[0] = pointC[0] - pointA[0];
-		AC[1] = pointC[1] - pointA[1];
-		double cross = AB[0] * AC[1] - AB[1] * AC[0];
-
-		return cross;
+	public int detailLevel(Point2D lower, Point2D upper, int zoomLevel, int budget) {
+		int minlon = treeLon(lower.getX()), minlat = treeLat(upper.getY());
+		int maxlon = treeLon(upper.getX()), maxlat = treeLat(lower.getY());
+		for (int i = DETAIL_LEVELS.length - 1; i > 0; i--) {
+			if (DETAIL_LEVELS[i] > zoomLevel) continue;
+			if (estimateCount(minlon, minlat, maxlon, maxlat, zoomLevel) <= budget) break;
+			zoomLevel = DETAIL_LEVELS[i] - 1;
+		}
+		return zoomLevel;
 	}
 
 	/**
-	 * Computes distance from A to B
-	 *
-	 * @param pointA of type double[]
-	 * @param pointB of type double[]
-	 * @return distance
+	 * @return the distinct zoom levels of the road and region types, ascending
 	 */
-	private double distance(double[] pointA, double[] pointB) {
-		double d1 = pointA[0] - pointB[0];
-		double d2 = pointA[1] - pointB[1];
+	private static int[] detailLevels() {
+		TreeSet<Integer> levels = new TreeSet<>();
+		for (RoadType type : RoadType.values()) if (type.getZoomLevel() >= 0) levels.add(type.getZoomLevel());
+		for (RegionType type : RegionType.values()) if (type.getZoomLevel() >= 0) levels.add(type.getZoomLevel());
+		int[] res = new int[levels.size()];
+		int i = 0;
+		for (int level : levels) res[i++] = level;
+		return res;
+	}
 
-		return Math.sqrt(d1 * d1 + d2 * d2);
+	/**
+	 * Converts a longitude in map coordinates to tree coordinates.
+	 */
+	private static int treeLon(double lon) {
+		return (int) (lon * Math.pow(10, 7));
 	}
 
 	/**
-	 * Computes the distance from AB to C.
-	 * If isSegment is true, AB is a segment, not line.
-	 *
-	 * @param pointA    of type double[]
-	 * @param pointB    of type double[]
-	 * @param pointC    of type double[]
-	 * @param isSegment of type boolean
-	 * @return distance
+	 * Converts a latitude in map coordinates to tree coordinates, where the latitudes are negated.
 	 */
-	private double linetoP(double[] pointA, double[] pointB, double[] pointC, boolean isSegment) {
-		double dist = crossProduct(pointA, pointB, pointC) / distance(pointA, pointB);
-		if (isSegment) {
-			double dot1 = dotProduct(pointA, pointB, pointC);
-			if (dot1 > 0) {
-				return Double.MAX_VALUE; //distance(pointB, pointC);
-			}
-			double dot2 = dotProduct(pointB, pointA, pointC);
-			if (dot2 > 0) {
-				return Double.MAX_VALUE; //distance(pointA, pointC);
-			}
-		}
-		return Math.abs(dist);
+	private static int treeLat(double lat) {
+		return (int) -(lat * Math.pow(10, 7));
 	}
 
 	/**
@@ -609,104 +789,106 @@ public class Model extends Observable implements Serializable {
 	}
 
 	/**
-	 * Finds the nearest MapObject to a point p.
+	 * Finds the node nearest to a point p on the nearest road that's allowed for the vehicle type. The road is found by
+	 * a best-first search of the spatial index (see {@link #nearest(Point2D, int, Predicate)}), so there's always a
+	 * road found if the map has one, however far from the point it is. The node is the end of the road's nearest
+	 * segment that's nearest to the point.
 	 *
-	 * @param p a point clicked
-	 * @return nearest ID of node in a Road.
+	 * @param p       a point clicked
+	 * @param vehicle the vehicle type the road must allow, or null for any road
+	 * @return a pin with the name of the road and the id of the node, or null if there are no roads
 	 */
 	public Pin nearestNeighbor(Point2D p, VehicleType vehicle) {
-		double x = p.getX();
-		double y = p.getY();
-
-		/**
-		 * .000357 coordinate constant that approximately equals 500 meters.
-		 * We use this constant to get all map data within a range of 500 meters
-		 * from the specified point..
-		 */
-		int searchMinLon = (int) ((x - .005000 * lonfactor) * Math.pow(10, 7));
-		int searchMaxLon = (int) ((x + .005000 * lonfactor) * Math.pow(10, 7));
-		int searchMaxLat = (int) -((y - .005000) * Math.pow(10, 7));
-		int searchMinLat = (int) -((y + .005000) * Math.pow(10, 7));
-
-
-		double[] pointC = new double[]{x, y};
-
-		// Get all objects in a range around the search point
-		MinPQ<MapObject> closeObjects = data.getRange(searchMinLon, searchMinLat, searchMaxLon, searchMaxLat, Integer.MAX_VALUE);
-
-		// Initialize variables for later use
-		long nearestID = 0;
-		double nearestDist = Integer.MAX_VALUE;
-		String name = null;
-		long prevRef = 0;
-
-		// Iterate through each object in the resulting list, updating the best candidate along the way
-		for (MapObject o : closeObjects) {
-			// Only checks roads
-			if (o instanceof Road) {
-				Road r = (Road) o;
-
-				boolean first = true;
-				double pointAx, pointAy, pointBx, pointBy;
-				double[] pointA, pointB;
-				pointA = null;
-
-				// Iterate through all references of the current road
-				for (long ref : r.getRefs()) {
-					// Exclude this if the type of the road is not allowed for this vehicle type
-					if (vehicle != null && !VehicleType.isAllowedType(vehicle, objectMap.getRoad(ref).getType()))
-						continue;
-
-					if (first) { // Special case for the first object
-						pointAx = objectMap.get(ref).getX();
-						pointAy = objectMap.get(ref).getY();
-						pointA = new double[]{pointAx, pointAy};
-						first = false;
-					} else {
-		                /*
-                        finds the shortest distance from a point C, to
-                        the line AB, and saves the name of that road.
-                         */
-						pointBx = objectMap.get(ref).getX();
-						pointBy = objectMap.get(ref).getY();
-						pointB = new double[]{pointBx, pointBy};
-						double ldist = linetoP(pointA, pointB, pointC, true);
-						// Update the best candidate if the distance is smaller than the current best
-						if (ldist < nearestDist) {
-							nearestDist = ldist;
-							double distA = distance(pointA, pointC);
-							double distB = distance(pointB, pointC);
-							name = r.getName();
-							if (distB < distA) {
-								nearestID = ref;
-							} else {
-								nearestID = prevRef;
-							}
-						}
-						pointA = pointB;
-					}
-					/*
-                    finds the nearest road to where the mouse is clicked.
-                     */
-					double dist = objectMap.get(ref).distance(p);
-
-					// Update best candidate if necessary
-					if (dist < nearestDist) {
-						nearestDist = dist;
-						nearestID = ref;
-						name = r.getName();
-					}
-
-					prevRef = ref;
+		List<NearestSearch.Neighbor> nearest = nearest(p, 1,
+				o -> o instanceof Road && (vehicle == null || VehicleType.isAllowedType(vehicle, ((Road) o).getType())));
+		if (nearest.isEmpty()) return null;
+		Road r = (Road) nearest.get(0).obj;
+
+		// The objectMap is read after the index, and changes replace the index last, so it holds the nodes of the road
+		// unless changes applied since the road was found deleted some of them, which are skipped
+		IdMap objectMap = this.objectMap;
+		long[] refs = r.getRefs();
+		long nearestID = 0, prevID = 0;
+		double nearestDist = Double.MAX_VALUE;
+		boolean first = true;
+		// Railways and waterways aren't in the graph, so the coordinates are read from the objectMap, without
+		// creating a point for each node
+		float ax = 0, ay = 0;
+		for (long ref : refs) {
+			if (!objectMap.containsKey(ref)) continue;
+			float bx = objectMap.getX(ref), by = objectMap.getY(ref);
+			if (first) {
+				nearestID = ref;
+				first = false;
+			} else {
+				double dist = Line2D.ptSegDist(ax, ay, bx, by, p.getX(), p.getY());
+				// Update the best candidate if the segment is closer than the current best
+				if (dist < nearestDist) {
+					nearestDist = dist;
+					nearestID = p.distance(ax, ay) <= p.distance(bx, by) ? prevID : ref;
 				}
 			}
+			ax = bx;
+			ay = by;
+			prevID = ref;
 		}
+		if (first) return null;
+		return new Pin(r.getName(), objectMap.get(nearestID), nearestID);
+	}
 
-		if (nearestID == 0) return null;
-		Point2D obj = objectMap.get(nearestID);
-		return new Pin(name, obj, nearestID);
+	/**
+	 * Finds the k map objects nearest to a point by a best-first search of the spatial index, see {@link NearestSearch}.
+	 * The distances are exact: to the nearest segment of a road, and to the outline of a region, or 0 inside it.
+	 *
+	 * @param p      the point in map coordinates
+	 * @param k      the number of objects to find
+	 * @param filter only objects it accepts are found, for instance roads of some types, or null to find any object
+	 * @return up to k objects with their distances in map coordinates, nearest first
+	 */
+	public List<NearestSearch.Neighbor> nearest(Point2D p, int k, Predicate<MapObject> filter) {
+		// Convert map coordinates to tree coordinates, where distances are 10^7 times bigger
+		int lon = (int) (p.getX() * Math.pow(10, 7));
+		int lat = (int) -(p.getY() * Math.pow(10, 7));
+		List<NearestSearch.Neighbor> res = new ArrayList<>(k);
+		for (NearestSearch.Neighbor n : data.nearest(lon, lat, k, filter, o -> distance(o, p) * Math.pow(10, 7))) {
+			res.add(new NearestSearch.Neighbor(n.obj, n.distance / Math.pow(10, 7)));
+		}
+		return res;
 	}
 
+	/**
+	 * Computes the distance from a point to a map object: to the nearest segment of a road, or to the outline of a
+	 * region, which is 0 if the point is inside it.
+	 *
+	 * @param o the map object
+	 * @param p the point in map coordinates
+	 * @return the distance in map coordinates
+	 */
+	private static double distance(MapObject o, Point2D p) {
+		Shape shape = o.getShape();
+		// A road is only its line, but a region covers its inside
+		if (!(o instanceof Road) && shape.contains(p)) return 0;
+		if (shape instanceof PolygonApprox) return ((PolygonApprox) shape).distTo(p);
+
+		double dist = Double.MAX_VALUE;
+		double[] coords = new double[6];
+		double startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (PathIterator it = shape.getPathIterator(null, 1e-6); !it.isDone(); it.next()) {
+			int type = it.currentSegment(coords);
+			if (type == PathIterator.SEG_MOVETO) {
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+				continue;
+			}
+			// A closed subpath ends with a segment back to its start
+			double x = type == PathIterator.SEG_CLOSE ? startX : coords[0];
+			double y = type == PathIterator.SEG_CLOSE ? startY : coords[1];
+			dist = Math.min(dist, Line2D.ptSegDist(lastX, lastY, x, y, p.getX(), p.getY()));
+			lastX = x;
+			lastY = y;
+		}
+		return dist;
+	}
 
 	/**
 	 * Saves the current Model object state to the file specified by the parameter.
@@ -10,6 +10,7 @@ import edu.itu.the_d.map.view.SuggestionType;
 import edu.itu.the_d.map.view.SuggestionView;
 import edu.itu.the_d.map.view.View;
 
+import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -99,6 +100,49 @@ public class AddressSearcher implements Serializable {
         Collections.sort(cities, (address2, address1) -> ((Integer) address1.getPopulation()).compareTo(address2.getPopulation()));
     }
 
+    /**
+     * Creates a copy of the searcher to {@link #update(Map, Set)}, so searches can go on in this one meanwhile. The copy
+     * shares the addresses array, which update replaces rather than changes, and has a list of cities of its own.
+     *
+     * @return the copy
+     */
+    public AddressSearcher copy() {
+        AddressSearcher copy = new AddressSearcher();
+        copy.tmp_addresses = null;
+        copy.addresses = addresses;
+        copy.cities = new ArrayList<>(cities);
+        return copy;
+    }
+
+    /**
+     * Updates the sorted addresses after they've been initialized, for instance from an osm change file. Addresses at
+     * the removed points are removed first, then the changed addresses are added, replacing any address of the same
+     * name like the tmp_addresses hashmap does while parsing. The changes are sorted on their own and merged into the
+     * addresses array, so the whole array isn't sorted again. Searches mustn't run in the searcher meanwhile, so
+     * updates are made to a {@link #copy()}.
+     *
+     * @param changed the new and changed addresses by name
+     * @param removed the points of the removed addresses
+     */
+    public void update(Map<String, Address> changed, Set<Point2D.Float> removed) {
+        Address[] added = changed.values().toArray(new Address[changed.size()]);
+        Arrays.sort(added);
+
+        Address[] merged = new Address[addresses.length + added.length];
+        int n = 0, j = 0;
+        for (Address addr : addresses) {
+            if (removed.contains(addr.getPoint()) || changed.containsKey(addr.getName())) continue;
+            while (j < added.length && added[j].compareTo(addr) < 0) merged[n++] = added[j++];
+            merged[n++] = addr;
+        }
+        while (j < added.length) merged[n++] = added[j++];
+        addresses = Arrays.copyOf(merged, n);
+
+        cities.removeIf(addr -> removed.contains(addr.getPoint()) || changed.containsKey(addr.getName()));
+        for (Address addr : added) if (addr.getType() == SuggestionType.CITY) cities.add(addr);
+        Collections.sort(cities, (address2, address1) -> ((Integer) address1.getPopulation()).compareTo(address2.getPopulation()));
+    }
+
 
     /**
      * Search in the address array for any address object that matches or partially matches a given string value
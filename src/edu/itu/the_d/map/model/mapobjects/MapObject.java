@@ -19,6 +19,7 @@ abstract public class MapObject implements Drawable, Comparable<MapObject>, Seri
 
 	protected int z_index; // Z-index that shows at which layer the map object should be drawn.
 	protected Shape path; // The path of the map object
+	protected long osmId; // Id of the osm way the object was made from, or 0
 
 	/**
 	 * Used to construct an empty MapObject, in which the variables values are set later
@@ -78,6 +79,33 @@ abstract public class MapObject implements Drawable, Comparable<MapObject>, Seri
 		return lon;
 	}
 
+	/**
+	 * Get the path of the map object, in map coordinates.
+	 *
+	 * @return the shape that is drawn
+	 */
+	public Shape getShape() {
+		return path;
+	}
+
+	/**
+	 * Get the id of the osm way the object was made from. Used to find the object again when the way changes.
+	 *
+	 * @return the id of the way, or 0 if the object wasn't made from a single way
+	 */
+	public long getOsmId() {
+		return osmId;
+	}
+
+	/**
+	 * Set the id of the osm way the object was made from.
+	 *
+	 * @param osmId the id of the way
+	 */
+	public void setOsmId(long osmId) {
+		this.osmId = osmId;
+	}
+
 	/**
 	 * CompareTo method from {@link java.lang.Comparable} interface
 	 * Compares which z_index is higher.
@@ -42,11 +42,11 @@ public class Region extends MapObject implements Serializable {
 	/**
 	 * Get the color of the RegionType and fills it.
 	 * The regions are filled so they are drawn below roads even though the methods are named wrong
-	 * The method is synchronized due to multiple threads trying to call it
+	 * The method only reads the object, so several tile threads can draw it at once
 	 *
 	 * @param g the graphics context to draw to - supplied by the caller
 	 */
-	synchronized public void drawOutline(Graphics2D g) {
+	public void drawOutline(Graphics2D g) {
 		// This is actually the region's fill
 		ColorObject colorObj = ColorTheme.getColorObject(type);
 		if (colorObj != null && colorObj.getFillColor() != null) {
@@ -59,11 +59,11 @@ public class Region extends MapObject implements Serializable {
 	 * The regions are filled so they are drawn below roads even though the methods are named wrong
 	 * The body of the method is therefore empty due to regions not having outlines
 	 * <p>
-	 * The method is synchronized due to multiple threads trying to call it
+	 * The method only reads the object, so several tile threads can draw it at once
 	 *
 	 * @param g the graphics context to draw to - supplied by the caller
 	 */
-	synchronized public void drawFill(Graphics2D g) {
+	public void drawFill(Graphics2D g) {
 
 	}
 }
@@ -2,7 +2,6 @@ package edu.itu.the_d.map.model.mapobjects;
 
 import java.awt.*;
 import java.io.Serializable;
-import java.util.List;
 
 /**
  * Drawable map object
@@ -13,8 +12,9 @@ public class Road extends MapObject implements Serializable {
 	private static final long serialVersionUID = 118;
 
 	private String name; // The name of the road
-	private List<Long> refs; // A list of all the points, represented by a long, on the road
+	private long[] refs; // All the points, represented by a long, on the road
 	private RoadType type; // The RoadType
+	private boolean bridge; // Whether the road is a bridge
 
 	/**
 	 * Constructs a Road object from a specified road type. The priority and the z_index
@@ -25,7 +25,7 @@ public class Road extends MapObject implements Serializable {
 	 * @param type The type of road @see #RoadType
 	 * @param path The path used for drawing the road on screen
 	 */
-	public Road(int lat, int lon, RoadType type, Shape path, List<Long> refs, String name) {
+	public Road(int lat, int lon, RoadType type, Shape path, long[] refs, String name) {
 		super(lat, lon, path, type.getZIndex());
 		this.type = type;
 		this.refs = refs;
@@ -36,9 +36,17 @@ public class Road extends MapObject implements Serializable {
 	 * Should be drawn above everything else and therefore has a high z-index
 	 */
 	public void setBridge() {
+		bridge = true;
 		z_index = 1000;
 	}
 
+	/**
+	 * @return true if the road is a bridge
+	 */
+	public boolean isBridge() {
+		return bridge;
+	}
+
 	/**
 	 * Returns the name of the road
 	 *
@@ -49,11 +57,11 @@ public class Road extends MapObject implements Serializable {
 	}
 
 	/**
-	 * Returns a list of all the points, given by a Long, on the road
+	 * Returns all the points, given by a long, on the road
 	 *
-	 * @return List<Long>
+	 * @return long[]
 	 */
-	public List<Long> getRefs() {
+	public long[] getRefs() {
 		return refs;
 	}
 
@@ -73,11 +81,11 @@ public class Road extends MapObject implements Serializable {
 
 	/**
 	 * Get the color of the RoadType and draws it.
-	 * The method is synchronized due to multiple threads trying to call it
+	 * The method only reads the object, so several tile threads can draw it at once
 	 *
 	 * @param g the graphics context to draw to - supplied by the caller
 	 */
-	synchronized public void drawOutline(Graphics2D g) {
+	public void drawOutline(Graphics2D g) {
 		ColorObject colorObj = ColorTheme.getColorObject(type);
 		if (colorObj != null && colorObj.getDrawColor() != null) {
 			g.setStroke(type.getOuterStroke());
@@ -88,11 +96,11 @@ public class Road extends MapObject implements Serializable {
 
 	/**
 	 * Get the color of the RoadType and fills it.
-	 * The method is synchronized due to multiple threads trying to call it
+	 * The method only reads the object, so several tile threads can draw it at once
 	 *
 	 * @param g the graphics context to draw to - supplied by the caller
 	 */
-	synchronized public void drawFill(Graphics2D g) {
+	public void drawFill(Graphics2D g) {
 		ColorObject colorObj = ColorTheme.getColorObject(type);
 		if (colorObj != null && colorObj.getFillColor() != null) {
 			g.setStroke(type.getInnerStroke());
@@ -0,0 +1,160 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.dataprocessing.ChangeApplier;
+import edu.itu.the_d.map.dataprocessing.OSCParser;
+import edu.itu.the_d.map.datastructures.WayEdge;
+import edu.itu.the_d.map.datastructures.WayUndirectedGraph;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.model.Model;
+import edu.itu.the_d.map.model.mapobjects.Address;
+import edu.itu.the_d.map.model.mapobjects.AddressSearcher;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+import edu.itu.the_d.map.model.mapobjects.Road;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the {@link OSCParser} and the {@link ChangeApplier}.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class ChangeApplierTest extends TestCase {
+    private static final String CHANGES =
+            "<osmChange version=\"0.6\">\n" +
+            " <create>\n" +
+            "  <node id=\"9000000001\" version=\"1\" lat=\"55.6170\" lon=\"12.5935\">\n" +
+            "   <tag k=\"addr:street\" v=\"Testvej\"/>\n" +
+            "   <tag k=\"addr:housenumber\" v=\"1\"/>\n" +
+            "  </node>\n" +
+            "  <way id=\"9000000002\" version=\"1\">\n" +
+            "   <nd ref=\"1038057298\"/>\n" +
+            "   <nd ref=\"9000000001\"/>\n" +
+            "   <tag k=\"highway\" v=\"residential\"/>\n" +
+            "  </way>\n" +
+            " </create>\n" +
+            " <modify>\n" +
+            "  <node id=\"1038057260\" version=\"2\" lat=\"55.6175\" lon=\"12.5940\"/>\n" +
+            "  <way id=\"89541343\" version=\"6\">\n" +
+            "   <nd ref=\"1038057298\"/>\n" +
+            "   <nd ref=\"1038057277\"/>\n" +
+            "   <tag k=\"highway\" v=\"service\"/>\n" +
+            "   <tag k=\"name\" v=\"2. vej\"/>\n" +
+            "  </way>\n" +
+            " </modify>\n" +
+            " <delete>\n" +
+            "  <way id=\"402252705\" version=\"2\"/>\n" +
+            "  <relation id=\"3194111\" version=\"12\"/>\n" +
+            " </delete>\n" +
+            "</osmChange>\n";
+
+    @Test
+    public void testParse() throws IOException {
+        List<OSCParser.Change> changes = OSCParser.parse(new ByteArrayInputStream(CHANGES.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(6, changes.size());
+        assertEquals(OSCParser.Action.CREATE, changes.get(0).action);
+        assertEquals(55.6170f, changes.get(0).osmObject.getLat());
+        assertEquals(2, changes.get(1).osmObject.getRefSize());
+        assertEquals(OSCParser.Action.DELETE, changes.get(5).action);
+    }
+
+    @Test
+    public void testApply() throws IOException {
+        Model model = Model.createModel("resources/resources/test/test.osm");
+        int size = model.getTreeRef().size();
+        int edges = countEdges(model.getGraph());
+        int vertices = model.getGraph().V();
+        IdMap oldMap = model.objectMap;
+        WayUndirectedGraph oldGraph = model.getGraph();
+        Point2D oldLocation = oldMap.get(1038057260);
+        AddressSearcher oldSearcher = model.addressSearcher;
+        Address[] oldAddresses = oldSearcher.getAddresses();
+
+        ChangeApplier applier = new ChangeApplier(model);
+        applier.apply(OSCParser.parse(new ByteArrayInputStream(CHANGES.getBytes(StandardCharsets.UTF_8))));
+
+        // One way created and one deleted, the modified way lost a node and an edge
+        assertEquals(size, model.getTreeRef().size());
+        assertEquals(edges - 1, countEdges(model.getGraph()));
+        assertEquals(vertices + 1, model.getGraph().V());
+        assertEquals(1, applier.getRebuiltRoadCount());
+        assertEquals(1, applier.getSkippedCount());
+        assertEquals(-55.6175f, (float) model.objectMap.get(1038057260).getY());
+        // The graph keeps its own copy of the coordinates of the vertices, which must follow the moved nodes
+        WayUndirectedGraph graph = model.getGraph();
+        for (int v = 0; v < graph.V(); v++) assertEquals(model.objectMap.get(graph.getID(v)), graph.getPoint(v));
+        // The edges of created and rebuilt roads refer to the current roads in the road table
+        Set<MapObject> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        model.getTreeRef().forEach(live::add);
+        for (int v = 0; v < graph.V(); v++) {
+            for (WayEdge e : graph.adj(v)) {
+                Road road = graph.getRoad(e);
+                assertNotNull(road);
+                assertTrue(live.contains(road));
+            }
+        }
+
+        // The changes were made to copies, so readers holding the old map and graph still see them unchanged
+        assertNotSame(oldMap, model.objectMap);
+        assertNotSame(oldGraph, model.getGraph());
+        assertEquals(oldLocation, oldMap.get(1038057260));
+        assertFalse(oldMap.containsKey(9000000001L));
+        assertTrue(model.objectMap.containsKey(9000000001L));
+        assertEquals(edges, countEdges(oldGraph));
+        assertEquals(vertices, oldGraph.V());
+        assertNotSame(oldSearcher, model.addressSearcher);
+        assertSame(oldAddresses, oldSearcher.getAddresses());
+        for (Address addr : oldAddresses) assertFalse("Testvej 1".equals(addr.getName()));
+
+        boolean found = false;
+        for (Address addr : model.addressSearcher.getAddresses()) found |= "Testvej 1".equals(addr.getName());
+        assertTrue(found);
+    }
+
+    @Test
+    public void testOverlappingWays() throws IOException {
+        Model model = Model.createModel("resources/resources/test/test.osm");
+        WayUndirectedGraph graph = model.getGraph();
+        WayEdge shared = graph.adj(0).iterator().next();
+        Road road = graph.getRoad(shared);
+        int edges = countEdges(graph);
+
+        // A new way over the same two nodes as an edge of an existing road, and then the existing road deleted
+        String create = "<osmChange version=\"0.6\"><create><way id=\"9000000003\" version=\"1\">" +
+                "<nd ref=\"" + graph.getID(shared.fromV) + "\"/><nd ref=\"" + graph.getID(shared.toV) + "\"/>" +
+                "<tag k=\"highway\" v=\"residential\"/></way></create></osmChange>";
+        String delete = "<osmChange version=\"0.6\"><delete><way id=\"" + road.getOsmId() + "\" version=\"2\"/>" +
+                "</delete></osmChange>";
+        ChangeApplier applier = new ChangeApplier(model);
+        applier.apply(OSCParser.parse(new ByteArrayInputStream(create.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(edges + 1, countEdges(model.getGraph()));
+        applier.apply(OSCParser.parse(new ByteArrayInputStream(delete.getBytes(StandardCharsets.UTF_8))));
+
+        // Only the edges of the deleted road are removed, and the new way keeps its edge
+        graph = model.getGraph();
+        boolean found = false;
+        for (int v = 0; v < graph.V(); v++) {
+            for (WayEdge e : graph.adj(v)) {
+                assertNotSame(road, graph.getRoad(e));
+                found |= e.fromV == shared.fromV && e.toV == shared.toV && graph.getRoad(e).getOsmId() == 9000000003L;
+            }
+        }
+        assertTrue(found);
+    }
+
+    private static int countEdges(WayUndirectedGraph graph) {
+        int count = 0;
+        for (int v = 0; v < graph.V(); v++) {
+            for (WayEdge e : graph.adj(v)) if (e.fromV == v) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.dataprocessing.ChunkPipe;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the {@link ChunkPipe} used between the stages of the ingestion.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class ChunkPipeTest extends TestCase {
+
+    @Test
+    public void testOrderAcrossChunks() throws InterruptedException {
+        int count = ChunkPipe.CHUNK_SIZE * 3 + 17;
+        ChunkPipe<Integer> pipe = new ChunkPipe<>("test", count);
+        for (int i = 0; i < count; i++) pipe.put(i);
+        pipe.close();
+
+        List<Integer> res = new ArrayList<>();
+        assertEquals(count, pipe.drainTo(res));
+        for (int i = 0; i < count; i++) assertEquals(i, (int) res.get(i));
+        // The end of the stream is sticky
+        assertNull(pipe.take());
+    }
+
+    @Test
+    public void testEmptyPipe() throws InterruptedException {
+        ChunkPipe<Integer> pipe = new ChunkPipe<>("test", 1);
+        pipe.close();
+        assertNull(pipe.take());
+    }
+
+    @Test
+    public void testConcurrentStagesStall() throws InterruptedException {
+        // Room for a single chunk only, so the producer has to wait for the consumer and the other way around
+        int count = ChunkPipe.CHUNK_SIZE * 50;
+        ChunkPipe<Integer> pipe = new ChunkPipe<>("test", 1);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) pipe.put(i);
+                pipe.close();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e.toString());
+            }
+        });
+        producer.start();
+
+        long sum = 0;
+        int taken = 0;
+        Integer element;
+        while ((element = pipe.take()) != null) {
+            assertEquals(taken++, (int) element);
+            sum += element;
+        }
+        producer.join();
+
+        assertEquals(count, taken);
+        assertEquals((long) count * (count - 1) / 2, sum);
+        assertTrue(pipe.getProducerStalls() + pipe.getConsumerStalls() > 0);
+        assertTrue(pipe.getStallReport().startsWith("test: " + count + " elements in 50 chunks"));
+    }
+}
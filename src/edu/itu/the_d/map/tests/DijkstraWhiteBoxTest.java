@@ -6,7 +6,6 @@ import edu.itu.the_d.map.datastructures.WayEdge;
 import edu.itu.the_d.map.datastructures.WayUndirectedGraph;
 import edu.itu.the_d.map.datastructures.algs4.MinPQ;
 import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
-import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.mapobjects.MapObject;
 import edu.itu.the_d.map.model.mapobjects.Region;
 import edu.itu.the_d.map.model.mapobjects.RegionType;
@@ -26,17 +25,14 @@ import static org.junit.Assert.assertTrue;
  */
 public class DijkstraWhiteBoxTest{
 
-	private static Model model = Model.createModel("resources/resources/bornholm.osm.zip");
-
 	@Test
 	public void testA() {
 		IdMap map = new IdMap(2);
-		model.objectMap = map;
 		map.put(0, 5, 5);
 		WayUndirectedGraph graph = new WayUndirectedGraph(map);
 		int s = 0; // Source
 		int p = 0; // Target
-		Dijkstra dijkstra = new Dijkstra(graph, s, p, model);
+		Dijkstra dijkstra = new Dijkstra(graph, s, p);
 
 		// The test passes if no errors are encountered
 	}
@@ -48,13 +44,12 @@ public class DijkstraWhiteBoxTest{
 		map.put(1, 6, 5);
 		map.put(2, 7, 5);
 
-		model.objectMap = map;
 		WayUndirectedGraph graph = new WayUndirectedGraph(map);
 		graph.addEdge(new WayEdge(0, 1, 0, 1, 0, (byte) 63));
 		graph.addEdge(new WayEdge(1, 2, 0, 1, 0, (byte) 63));
 		int s = 0; // Source
 		int p = 2; // Target
-		Dijkstra dijkstra = new Dijkstra(graph, s, p, model);
+		Dijkstra dijkstra = new Dijkstra(graph, s, p);
 
 		assertTrue(dijkstra.hasPathTo(p));
 
@@ -71,27 +66,25 @@ public class DijkstraWhiteBoxTest{
 	@Test(expected = IllegalArgumentException.class)
 	public void testD() {
 		IdMap map = new IdMap(3);
-		model.objectMap = map;
 		map.put(0, 5, 5);
 		map.put(1, 5, 5);
 		WayUndirectedGraph graph = new WayUndirectedGraph(map);
 		graph.addEdge(new WayEdge(0, 1, 0, -1, 0, (byte) 0));
 		int s = 0; // Source
 		int p = 0; // Target
-		Dijkstra dijkstra = new Dijkstra(graph, s, p, model);
+		Dijkstra dijkstra = new Dijkstra(graph, s, p);
 	}
 
 	@Test
 	public void testE() {
 		IdMap map = new IdMap(3);
-		model.objectMap = map;
 		map.put(0, 5, 5);
 		map.put(1, 5, 5);
 		WayUndirectedGraph graph = new WayUndirectedGraph(map);
 		graph.addEdge(new WayEdge(0, 1, 0, 0, 0, (byte) 0));
 		int s = 0; // Source
 		int p = 1; // Target
-		Dijkstra dijkstra = new Dijkstra(graph, s, p, model);
+		Dijkstra dijkstra = new Dijkstra(graph, s, p);
 
 		// The test passes if no errors are encountered
 	}
@@ -99,10 +92,9 @@ public class DijkstraWhiteBoxTest{
 	@Test (expected = ArrayIndexOutOfBoundsException.class)
 	public void testF() {
 		IdMap map = new IdMap(3);
-		model.objectMap = map;
 		WayUndirectedGraph graph = new WayUndirectedGraph(map);
 		int s = 0; // Source
 		int p = 0; // Target
-		Dijkstra dijkstra = new Dijkstra(graph, s, p, model);
+		Dijkstra dijkstra = new Dijkstra(graph, s, p);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.MappedNodeStore;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Tests the open addressing {@link IdMap}.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class IdMapTest extends TestCase {
+
+    @Test
+    public void testGrowsPastCapacity() {
+        IdMap map = new IdMap(0);
+        for (long id = 0; id < 10000; id++) map.put(id * 1000, id, -id, id % 2 == 0);
+        assertEquals(10000, map.size());
+        assertEquals(5000, map.getVertexCount());
+        for (long id = 0; id < 10000; id++) {
+            assertEquals(new Point2D.Float(id, -id), map.get(id * 1000));
+            assertEquals(id % 2 == 0, map.isVertex(id * 1000));
+        }
+        assertEquals(0, map.getGraphVertexIndex(0));
+        assertEquals(1, map.getGraphVertexIndex(2000));
+        assertEquals(2000, map.getVertexKeys()[1]);
+        assertNull(map.get(1));
+        assertFalse(map.containsKey(1));
+    }
+
+    @Test
+    public void testRemoveKeepsOtherKeys() {
+        IdMap map = new IdMap(16);
+        Random random = new Random(7);
+        long[] ids = new long[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextInt(100000) + 1;
+            map.put(ids[i], i, i);
+        }
+        long[] distinct = Arrays.stream(ids).distinct().toArray();
+        assertEquals(distinct.length, map.size());
+        // Remove every other key and check that the rest can still be found
+        for (int i = 0; i < distinct.length; i += 2) assertTrue(map.remove(distinct[i]));
+        assertFalse(map.remove(distinct[0]));
+        for (int i = 0; i < distinct.length; i++) assertEquals(i % 2 == 1, map.containsKey(distinct[i]));
+        assertEquals(distinct.length / 2, map.getAllKeys().length);
+    }
+
+    @Test
+    public void testMoveAndMissingKeys() {
+        IdMap map = new IdMap(2);
+        map.put(42, 1, 2, false);
+        Point2D before = map.get(42);
+        assertTrue(map.move(42, 3, 4));
+        assertFalse(map.move(43, 3, 4));
+        // The points are copies, so a moved node doesn't change them
+        assertEquals(new Point2D.Float(1, 2), before);
+        assertEquals(3f, map.getX(42));
+        assertEquals(4f, map.getY(42));
+        assertTrue(map.makeVertex(42));
+        assertFalse(map.makeVertex(42));
+        assertEquals(0, map.getGraphVertexIndex(42));
+        try {
+            map.getX(43);
+            fail();
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPutAgainKeepsGraphIndex() throws IOException {
+        IdMap map = new IdMap(4);
+        map.put(1, 0, 0, true);
+        map.put(2, 0, 0, false);
+        map.put(1, 5, 5, true);
+        // A node that wasn't a vertex becomes one, and a vertex put again as a plain node stays one
+        map.put(2, 6, 6, true);
+        map.put(1, 7, 7, false);
+        assertEquals(2, map.getVertexCount());
+        assertEquals(0, map.getGraphVertexIndex(1));
+        assertEquals(1, map.getGraphVertexIndex(2));
+        assertTrue(Arrays.equals(new long[]{1, 2}, map.getVertexKeys()));
+        assertEquals(new Point2D.Float(7, 7), map.get(1));
+
+        // The same for nodes put again out of order into a mapped map, whose first record is in the store
+        IdMap mapped = new IdMap(0, MappedNodeStore.createTemp());
+        mapped.put(10, 0, 0, true);
+        mapped.put(20, 0, 0, true);
+        mapped.put(10, 1, 1, true);
+        mapped.put(10, 2, 2, true);
+        assertEquals(2, mapped.getVertexCount());
+        assertEquals(2, mapped.size());
+        assertTrue(Arrays.equals(new long[]{10, 20}, mapped.getVertexKeys()));
+        assertEquals(new Point2D.Float(2, 2), mapped.get(10));
+        mapped.close();
+    }
+
+    @Test
+    public void testCopyLeavesOriginal() {
+        IdMap map = new IdMap(4);
+        for (long id = 0; id < 100; id++) map.put(id, id, id, id % 2 == 0);
+        IdMap copy = map.copy();
+        assertTrue(copy.move(1, -1, -1));
+        assertTrue(copy.makeVertex(3));
+        assertTrue(copy.remove(4));
+        assertTrue(copy.remove(0));
+        copy.put(200, 2, 2, true);
+        copy.put(6, 6, 7, false);
+
+        // The original is unchanged
+        assertEquals(100, map.size());
+        assertEquals(50, map.getVertexCount());
+        assertEquals(new Point2D.Float(1, 1), map.get(1));
+        assertFalse(map.isVertex(3));
+        assertTrue(map.containsKey(4));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(200));
+
+        // The copy reads the nodes it hasn't changed from the original, and keeps the graph index of changed ones
+        assertEquals(99, copy.size());
+        assertEquals(52, copy.getVertexCount());
+        assertEquals(new Point2D.Float(-1, -1), copy.get(1));
+        assertEquals(50, copy.getGraphVertexIndex(3));
+        assertEquals(51, copy.getGraphVertexIndex(200));
+        assertEquals(3, copy.getGraphVertexIndex(6));
+        assertEquals(7f, copy.getY(6));
+        assertFalse(copy.containsKey(4));
+        assertFalse(copy.containsKey(0));
+        assertFalse(copy.move(4, 0, 0));
+        assertEquals(99, copy.getAllKeys().length);
+        long[] vertexKeys = copy.getVertexKeys();
+        assertEquals(8, vertexKeys[4]);
+        assertEquals(3, vertexKeys[50]);
+        assertEquals(200, vertexKeys[51]);
+
+        // A copy of the copy doesn't change the copy, and a removed node can be put again
+        IdMap second = copy.copy();
+        second.put(4, 4, 4, false);
+        assertTrue(second.move(200, 3, 3));
+        assertTrue(second.containsKey(4));
+        assertFalse(copy.containsKey(4));
+        assertEquals(new Point2D.Float(2, 2), copy.get(200));
+        assertEquals(new Point2D.Float(3, 3), second.get(200));
+        assertEquals(100, second.size());
+    }
+
+    @Test
+    public void testMappedStore() throws IOException, ClassNotFoundException {
+        MappedNodeStore store = MappedNodeStore.createTemp();
+        IdMap map = new IdMap(0, store);
+        assertTrue(map.isMapped());
+        // Sparse ids in increasing order go to the store, and the ones out of order to the table
+        for (long id = 1; id <= 100000; id++) map.put(id * id, id, -id, id % 3 == 0);
+        map.put(5, 1, 1, false);
+        // Putting a node from the store again moves it to the table
+        map.put(16, 2, 2, false);
+        assertEquals(100001, map.size());
+        for (long id = 1; id <= 100000; id += 7) {
+            if (id == 4) continue;
+            assertEquals((float) id, map.getX(id * id));
+            assertEquals(id % 3 == 0, map.isVertex(id * id));
+        }
+        assertEquals(new Point2D.Float(1, 1), map.get(5));
+        assertEquals(new Point2D.Float(2, 2), map.get(16));
+        assertFalse(map.containsKey(17));
+        assertEquals(81, map.getVertexKeys()[2]);
+        assertEquals(2, map.getGraphVertexIndex(81));
+
+        assertTrue(map.move(25, 7, 8));
+        assertTrue(map.makeVertex(25));
+        assertEquals(map.getVertexCount() - 1, map.getGraphVertexIndex(25));
+        assertTrue(map.remove(36));
+        assertFalse(map.containsKey(36));
+        assertFalse(map.remove(36));
+        assertEquals(100000, map.getAllKeys().length);
+
+        // The records are written to the stream and read back into a new file
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+        IdMap read = (IdMap) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(new Point2D.Float(7, 8), read.get(25));
+        assertEquals(new Point2D.Float(2, 2), read.get(16));
+        assertFalse(read.containsKey(36));
+        assertTrue(Arrays.equals(map.getVertexKeys(), read.getVertexKeys()));
+
+        // Closing a copy closes the store of the map it was copied from
+        map.copy().close();
+        assertEquals(0, store.size());
+        read.close();
+    }
+}
@@ -0,0 +1,111 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.dataprocessing.*;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests the {@link IngestFilter} and the parsers reading through it.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class IngestFilterTest extends TestCase {
+
+    @Test
+    public void testClipAtBoundary() {
+        IdMap stored = new IdMap(16);
+        for (long id : new long[]{1, 2, 4, 5, 6, 8}) stored.put(id, 0, 0);
+        long[] crossing = {1, 2, 3, 4, 5, 6, 7, 8};
+        long[] inside = {4, 5, 6};
+
+        IngestFilter clip = IngestFilter.bbox(0, 0, 1, 1, IngestFilter.CrossingPolicy.CLIP);
+        List<long[]> parts = clip.clip(crossing, stored);
+        // The single node left at the end is no way on its own
+        assertEquals(2, parts.size());
+        assertEquals(2, parts.get(0).length);
+        assertEquals(2, parts.get(0)[1]);
+        assertEquals(3, parts.get(1).length);
+        assertEquals(4, parts.get(1)[0]);
+        assertSame(inside, clip.clip(inside, stored).get(0));
+        assertTrue(clip.clip(new long[]{3, 7}, stored).isEmpty());
+
+        IngestFilter drop = IngestFilter.bbox(0, 0, 1, 1, IngestFilter.CrossingPolicy.DROP);
+        assertTrue(drop.clip(crossing, stored).isEmpty());
+        assertEquals(1, drop.clip(inside, stored).size());
+    }
+
+    @Test
+    public void testClosedAreaCrossingBoundary() {
+        IngestFilter clip = IngestFilter.bbox(0, 0, 1, 1, IngestFilter.CrossingPolicy.CLIP);
+        ReferencedNodes referenced = new ReferencedNodes(16, clip);
+        float[][] nodes = {{0.5f, 0.5f}, {0.5f, 2}, {2, 2}, {2, 0.5f}, {0.6f, 0.6f}, {0.5f, 3}};
+        for (int i = 0; i < nodes.length; i++) referenced.add(node(i + 1, nodes[i][0], nodes[i][1]));
+        OSMObject area = way(10, 1, 2, 3, 4, 1);
+        area.addTags("landuse", "grass");
+        OSMObject line = way(11, 5, 6);
+        line.addTags("highway", "residential");
+        referenced.add(area);
+        referenced.add(line);
+
+        // The closed way keeps its nodes outside the area, so the parser lets them through in the second pass
+        for (long id = 1; id <= 4; id++) assertTrue(referenced.keepsNode(id));
+        assertTrue(clip.accepts(node(3, 2, 2)));
+        // An open way is still clipped, and loses its node outside the area
+        assertTrue(referenced.keepsWay(11));
+        assertFalse(referenced.keepsNode(6));
+        assertFalse(clip.accepts(node(6, 0.5f, 3)));
+
+        IdMap stored = new IdMap(16);
+        for (long id = 1; id <= 5; id++) stored.put(id, 0, 0);
+        long[] refs = area.copyRefs();
+        assertSame(refs, clip.clip(refs, stored).get(0));
+        // Without its nodes outside the area, the closed way is dropped rather than split into open fragments
+        stored.remove(3);
+        assertTrue(clip.clip(refs, stored).isEmpty());
+        // Ways of relations are kept whole too, even if they aren't closed
+        stored.remove(2);
+        assertTrue(clip.clip(new long[]{5, 1, 2}, true, stored).isEmpty());
+        assertEquals(1, clip.clip(new long[]{5, 1, 2}, false, stored).size());
+    }
+
+    private static OSMObject node(long id, float lat, float lon) {
+        OSMObject node = new OSMObject();
+        node.setType(OSMType.NODE);
+        node.setId(id);
+        node.setLat(lat);
+        node.setLon(lon);
+        return node;
+    }
+
+    private static OSMObject way(long id, long... refs) {
+        OSMObject way = new OSMObject();
+        way.setType(OSMType.WAY);
+        way.setId(id);
+        for (long ref : refs) way.addRef(ref);
+        return way;
+    }
+
+    @Test
+    public void testParserDropsRejected() throws InterruptedException {
+        IngestFilter filter = IngestFilter.bbox(55.6168, 12.59216, 55.61794, 12.59509, IngestFilter.CrossingPolicy.CLIP, "landuse");
+        ChunkPipe<OSMObject> pipe = new ChunkPipe<>("test", 50000);
+        new OSMParser("resources/resources/test/test.osm", pipe, OSMParser.SCANNER, null, filter).run();
+
+        int nodes = 0, ways = 0;
+        OSMObject osmObj;
+        while ((osmObj = pipe.take()) != null) {
+            if (osmObj.getType() == OSMType.NODE) {
+                assertTrue(filter.isInside(osmObj.getLat(), osmObj.getLon()));
+                nodes++;
+            } else if (osmObj.getType() == OSMType.WAY) {
+                assertFalse(osmObj.hasTag(TagDictionary.HIGHWAY));
+                ways++;
+            }
+        }
+        assertTrue(nodes > 0 && nodes < 149);
+        assertTrue(ways > 0 && ways < 10);
+    }
+}
@@ -1,6 +1,12 @@
 package edu.itu.the_d.map.tests;
 
+import edu.itu.the_d.map.datastructures.LogStructuredIndex;
+import edu.itu.the_d.map.datastructures.NearestSearch;
+import edu.itu.the_d.map.datastructures.PackedRTree;
+import edu.itu.the_d.map.datastructures.SpatialIndex;
 import edu.itu.the_d.map.datastructures.TwoDTree;
+import edu.itu.the_d.map.datastructures.ZIndexBuckets;
+import edu.itu.the_d.map.datastructures.ZoomLayeredIndex;
 import edu.itu.the_d.map.datastructures.algs4.MinPQ;
 import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.mapobjects.MapObject;
@@ -11,7 +17,15 @@ import org.junit.Test;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Tests the {@link TwoDTree}.
@@ -19,7 +33,7 @@ import java.util.List;
  */
 public class KDTreeTest extends TestCase {
     private static Model model = Model.createModel("resources/resources/small.osm.zip");
-    private static TwoDTree tree = model.getTreeRef();
+    private static SpatialIndex tree = model.getTreeRef();
 
     @Test
     public void testGetAllData() {
@@ -54,4 +68,382 @@ public class KDTreeTest extends TestCase {
         assertEquals(1, range.size());
         assertEquals(testObject, range.delMin());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelSameTree() {
+        Random random = new Random(42);
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(random, 50000, posinfo, RegionType.GRASS);
+        TwoDTree sequential = new TwoDTree();
+        sequential.constructFromList(copy(posinfo), new ArrayList<>(objs));
+        TwoDTree parallel = new TwoDTree();
+        parallel.constructFromList(copy(posinfo), new ArrayList<>(objs), true);
+
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < 20; i++) {
+            int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+            List<MapObject> expected = new ArrayList<>(), actual = new ArrayList<>();
+            for (MapObject o : sequential.getRange(lon, lat, lon + 50000, lat + 50000)) expected.add(o);
+            for (MapObject o : parallel.getRange(lon, lat, lon + 50000, lat + 50000)) actual.add(o);
+            assertTrue(expected.size() > 0);
+            assertEquals(expected.size(), actual.size());
+            assertTrue(actual.containsAll(expected));
+        }
+    }
+
+    @Test
+    public void testCompactSameResult() {
+        SpatialIndex flat = tree.compact();
+        assertNotSame(tree, flat);
+        assertEquals(tree.size(), flat.size());
+
+        int minlon = (int) (model.getMinlon() * Math.pow(10, 7)), maxlon = (int) (model.getMaxlon() * Math.pow(10, 7));
+        int minlat = (int) -(model.getMaxlat() * Math.pow(10, 7)), maxlat = (int) -(model.getMinlat() * Math.pow(10, 7));
+        int w = (maxlon - minlon) / 4, h = (maxlat - minlat) / 4;
+        for (int x = minlon; x < maxlon; x += w) {
+            for (int y = minlat; y < maxlat; y += h) {
+                for (int zoom : new int[]{100, 20000, Integer.MAX_VALUE}) {
+                    List<MapObject> expected = new ArrayList<>(), actual = new ArrayList<>();
+                    for (MapObject o : tree.getRange(x, y, x + w, y + h, zoom)) expected.add(o);
+                    for (MapObject o : flat.getRange(x, y, x + w, y + h, zoom)) actual.add(o);
+                    assertEquals(expected.size(), actual.size());
+                    assertTrue(actual.containsAll(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBucketsReturnIntersecting() {
+        Random random = new Random(7);
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(random, 20000, posinfo, RegionType.GRASS);
+        for (int bucket : new int[]{1, 4, 16, 64}) {
+            TwoDTree buckets = new TwoDTree(bucket);
+            buckets.constructFromList(copy(posinfo), objs);
+            assertEquals(objs.size(), buckets.size());
+
+            for (int i = 0; i < 20; i++) {
+                int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+                List<MapObject> actual = new ArrayList<>();
+                for (MapObject o : buckets.getRange(lon, lat, lon + 20000, lat + 20000)) actual.add(o);
+                for (int k = 0; k < objs.size(); k++) {
+                    int[] p = posinfo.get(k);
+                    if (p[0] <= lon + 20000 && p[2] >= lon && p[1] <= lat + 20000 && p[3] >= lat)
+                        assertTrue(actual.contains(objs.get(k)));
+                }
+            }
+
+            Region inserted = new Region(500000, 500000, RegionType.GRASS, null);
+            buckets.insert(new int[]{500000, 500000, 500100, 500100}, inserted);
+            assertTrue(contains(buckets.getRange(500050, 500050, 500060, 500060), inserted));
+            assertTrue(buckets.remove(inserted));
+            assertFalse(contains(buckets.getRange(500050, 500050, 500060, 500060), inserted));
+        }
+    }
+
+    @Test
+    public void testLayersSameResult() {
+        Random random = new Random(11);
+        int[] zoomLevels = {0, 500, 5000, 40000};
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(random, 20000, posinfo, Arrays.copyOf(RegionType.values(), RegionType.values().length - 1));
+        ZoomLayeredIndex layered = new ZoomLayeredIndex();
+        layered.constructFromList(copy(posinfo), new ArrayList<>(objs));
+        assertEquals(objs.size(), layered.size());
+        assertTrue(layered.layerCount() > 1);
+
+        // The layers return every object intersecting the range that's shown at the zoom level, and no others
+        for (int i = 0; i < 20; i++) {
+            int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+            for (int zoom : zoomLevels) {
+                List<MapObject> actual = new ArrayList<>();
+                for (MapObject o : layered.getRange(lon, lat, lon + 50000, lat + 50000, zoom)) actual.add(o);
+                for (MapObject o : actual) assertTrue(o.getZoomLevel() <= zoom);
+                for (int k = 0; k < objs.size(); k++) {
+                    int[] p = posinfo.get(k);
+                    if (objs.get(k).getZoomLevel() <= zoom && p[0] <= lon + 50000 && p[2] >= lon && p[1] <= lat + 50000 && p[3] >= lat)
+                        assertTrue(actual.contains(objs.get(k)));
+                }
+            }
+        }
+
+        Region inserted = new Region(500000, 500000, RegionType.BUILDING, null);
+        layered.insert(new int[]{500000, 500000, 500100, 500100}, inserted);
+        assertFalse(contains(layered.getRange(500050, 500050, 500060, 500060, 20000), inserted));
+        assertTrue(contains(layered.getRange(500050, 500050, 500060, 500060, 40000), inserted));
+        assertTrue(layered.remove(inserted));
+        assertEquals(objs.size(), layered.size());
+    }
+
+    @Test
+    public void testRTreeReturnsIntersecting() {
+        Random random = new Random(13);
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(random, 5000, posinfo, RegionType.BUILDING);
+        for (int nodeSize : new int[]{2, 16}) {
+            PackedRTree rtree = new PackedRTree(posinfo, objs, nodeSize);
+            assertEquals(objs.size(), rtree.size());
+            // The tree compares the bounds of the objects themselves, so it returns exactly the intersecting ones
+            for (int i = 0; i < 20; i++) {
+                int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+                List<MapObject> actual = new ArrayList<>();
+                rtree.query(lon, lat, lon + 30000, lat + 30000, Integer.MAX_VALUE, actual::add);
+                int expected = 0;
+                for (int k = 0; k < objs.size(); k++) {
+                    int[] p = posinfo.get(k);
+                    if (p[0] <= lon + 30000 && p[2] >= lon && p[1] <= lat + 30000 && p[3] >= lat) {
+                        expected++;
+                        assertTrue(actual.contains(objs.get(k)));
+                    }
+                }
+                assertEquals(expected, actual.size());
+            }
+        }
+        assertEquals(0, new PackedRTree(new ArrayList<>(), new ArrayList<>()).getRange(0, 0, 10, 10).size());
+
+        // Packing the model's layers keeps every object
+        ZoomLayeredIndex packed = ((ZoomLayeredIndex) tree).pack();
+        assertEquals(tree.size(), packed.size());
+        assertTrue(packed.isCompact());
+        assertEquals(tree.size(), packed.getRange(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testNestedQueriesKeepTheirStack() {
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(new Random(29), 3000, posinfo, RegionType.BUILDING);
+        TwoDTree twoD = new TwoDTree(4);
+        twoD.constructFromList(copy(posinfo), objs);
+        SpatialIndex[] indexes = {twoD.compact(), new PackedRTree(posinfo, objs, 4)};
+        for (SpatialIndex index : indexes) {
+            // The queries reuse the stack of the thread, so a sink querying the index mustn't disturb the outer query
+            List<MapObject> expected = new ArrayList<>(), actual = new ArrayList<>();
+            index.query(0, 0, 500000, 500000, Integer.MAX_VALUE, expected::add);
+            index.query(0, 0, 500000, 500000, Integer.MAX_VALUE, o -> {
+                actual.add(o);
+                index.query(500000, 500000, 1000000, 1000000, Integer.MAX_VALUE, inner -> {
+                });
+            });
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        Random random = new Random(17);
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(random, 3000, posinfo, RegionType.BUILDING, RegionType.PARK, RegionType.PARK);
+        Map<MapObject, int[]> boundsOf = new IdentityHashMap<>();
+        for (int i = 0; i < objs.size(); i++) boundsOf.put(objs.get(i), posinfo.get(i).clone());
+        TwoDTree twoD = new TwoDTree(4);
+        twoD.constructFromList(copy(posinfo), objs);
+        ZoomLayeredIndex layered = new ZoomLayeredIndex();
+        layered.constructFromList(copy(posinfo.subList(0, 2000)), objs.subList(0, 2000));
+        // The last objects are inserted, so some are in the buffer and some in the levels of a log-structured layer
+        for (int i = 2000; i < objs.size(); i++) layered.insert(posinfo.get(i).clone(), objs.get(i));
+        SpatialIndex[] indexes = {twoD, twoD.compact(), new PackedRTree(posinfo, objs), layered};
+
+        for (int q = 0; q < 20; q++) {
+            int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+            // The distance to the centre of the bounds is never less than the distance to the bounds
+            ToDoubleFunction<MapObject> distance = o -> {
+                int[] p = boundsOf.get(o);
+                return Point2D.distance(lon, lat, (p[0] + p[2]) / 2.0, (p[1] + p[3]) / 2.0);
+            };
+            Predicate<MapObject> buildings = o -> ((Region) o).getType() == RegionType.BUILDING;
+            List<Double> expected = new ArrayList<>();
+            for (MapObject o : objs) if (buildings.test(o)) expected.add(distance.applyAsDouble(o));
+            Collections.sort(expected);
+
+            for (SpatialIndex index : indexes) {
+                List<NearestSearch.Neighbor> nearest = index.nearest(lon, lat, 10, buildings, distance);
+                assertEquals(10, nearest.size());
+                for (int i = 0; i < 10; i++) {
+                    assertTrue(buildings.test(nearest.get(i).obj));
+                    assertEquals(expected.get(i), nearest.get(i).distance, 1e-9);
+                }
+            }
+        }
+        assertEquals(3, new PackedRTree(posinfo.subList(0, 3), objs.subList(0, 3)).nearest(0, 0, 5, null, o -> 0).size());
+    }
+
+    /**
+     * Makes regions with random bounds of up to 5000 by 5000 inside a square from 0 to 1000000.
+     * @param random  the random numbers to place the regions by
+     * @param n       the number of regions
+     * @param posinfo the list the bounds are added to, in the order of the regions
+     * @param types   the types the regions get in turn
+     * @return the regions
+     */
+    private static List<MapObject> randomRegions(Random random, int n, List<int[]> posinfo, RegionType... types) {
+        List<MapObject> objs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+            posinfo.add(new int[]{lon, lat, lon + random.nextInt(5000), lat + random.nextInt(5000)});
+            objs.add(new Region(lat, lon, types[i % types.length], null));
+        }
+        return objs;
+    }
+
+    /**
+     * @return copies of the bounds, since the 2d-trees widen the bounds they're built from
+     */
+    private static List<int[]> copy(List<int[]> posinfo) {
+        List<int[]> copy = new ArrayList<>(posinfo.size());
+        for (int[] p : posinfo) copy.add(p.clone());
+        return copy;
+    }
+
+    @Test
+    public void testSinkSortedByZIndex() {
+        int minlon = (int) (model.getMinlon() * Math.pow(10, 7)), maxlon = (int) (model.getMaxlon() * Math.pow(10, 7));
+        int minlat = (int) -(model.getMaxlat() * Math.pow(10, 7)), maxlat = (int) -(model.getMinlat() * Math.pow(10, 7));
+        ZIndexBuckets buckets = new ZIndexBuckets(4);
+        for (int zoom : new int[]{100, 20000, Integer.MAX_VALUE}) {
+            List<MapObject> expected = new ArrayList<>();
+            for (MapObject o : tree.getRange(minlon, minlat, maxlon, maxlat, zoom)) expected.add(o);
+
+            buckets.clear();
+            tree.query(minlon, minlat, maxlon, maxlat, zoom, buckets);
+            buckets.sort();
+            assertEquals(expected.size(), buckets.size());
+            List<MapObject> actual = new ArrayList<>();
+            for (int i = 0; i < buckets.size(); i++) {
+                actual.add(buckets.get(i));
+                assertEquals(expected.get(i).zIndex(), buckets.get(i).zIndex());
+            }
+            assertTrue(actual.containsAll(expected));
+        }
+    }
+
+    @Test
+    public void testLogStructuredInsertRemove() {
+        Random random = new Random(13);
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(random, 7000, posinfo, RegionType.GRASS);
+        // The first 2000 objects are built into the base tree, the rest are inserted one by one
+        TwoDTree base = new TwoDTree();
+        base.constructFromList(copy(posinfo.subList(0, 2000)), new ArrayList<>(objs.subList(0, 2000)));
+        LogStructuredIndex index = new LogStructuredIndex(base);
+        for (int i = 2000; i < objs.size(); i++) index.insert(posinfo.get(i), objs.get(i));
+        assertEquals(objs.size(), index.size());
+        assertTrue(index.levelCount() > 1);
+
+        // Remove every third object, from the base tree, the levels and the buffer
+        List<MapObject> live = new ArrayList<>();
+        for (int i = 0; i < objs.size(); i++) {
+            if (i % 3 == 0) assertTrue(index.remove(objs.get(i)));
+            else live.add(objs.get(i));
+        }
+        assertFalse(index.remove(objs.get(0)));
+        assertEquals(live.size(), index.size());
+
+        for (int i = 0; i < 20; i++) {
+            int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+            List<MapObject> actual = new ArrayList<>();
+            index.query(lon, lat, lon + 50000, lat + 50000, Integer.MAX_VALUE, actual::add);
+            for (int k = 0; k < objs.size(); k++) {
+                int[] p = posinfo.get(k);
+                boolean intersects = p[0] <= lon + 50000 && p[2] >= lon && p[1] <= lat + 50000 && p[3] >= lat;
+                if (k % 3 == 0) assertFalse(actual.contains(objs.get(k)));
+                else if (intersects) assertTrue(actual.contains(objs.get(k)));
+            }
+        }
+    }
+
+    @Test
+    public void testCopyLeavesOriginal() {
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(new Random(19), 5000, posinfo, RegionType.GRASS, RegionType.BUILDING);
+        ZoomLayeredIndex original = new ZoomLayeredIndex();
+        original.constructFromList(copy(posinfo.subList(0, 3000)), objs.subList(0, 3000));
+        for (int i = 3000; i < 4000; i++) original.insert(posinfo.get(i).clone(), objs.get(i));
+
+        // Remove every third object from the copy, from the base trees, the levels and the buffers, and insert the rest
+        ZoomLayeredIndex copy = original.copy();
+        Set<MapObject> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 4000; i += 3) {
+            assertTrue(copy.remove(objs.get(i)));
+            removed.add(objs.get(i));
+        }
+        for (int i = 4000; i < objs.size(); i++) copy.insert(posinfo.get(i).clone(), objs.get(i));
+
+        List<MapObject> inOriginal = new ArrayList<>();
+        original.forEach(inOriginal::add);
+        assertEquals(4000, original.size());
+        assertEquals(4000, inOriginal.size());
+
+        List<MapObject> inCopy = new ArrayList<>();
+        copy.forEach(inCopy::add);
+        assertEquals(objs.size() - removed.size(), copy.size());
+        assertEquals(copy.size(), inCopy.size());
+        for (MapObject obj : inCopy) assertFalse(removed.contains(obj));
+
+        // The nearest objects of the copy skip the removed ones too
+        for (NearestSearch.Neighbor n : copy.nearest(500000, 500000, 200, null, o -> 0)) {
+            assertFalse(removed.contains(n.obj));
+        }
+    }
+
+    @Test
+    public void testEstimateCountCoversQuery() {
+        Random random = new Random(23);
+        int[] zoomLevels = {0, 5000, 40000};
+        List<int[]> posinfo = new ArrayList<>();
+        List<MapObject> objs = randomRegions(random, 6000, posinfo, RegionType.COASTLINE, RegionType.PARK, RegionType.BUILDING);
+        TwoDTree twoD = new TwoDTree();
+        twoD.constructFromList(copy(posinfo.subList(0, 5000)), objs.subList(0, 5000));
+        ZoomLayeredIndex layered = new ZoomLayeredIndex();
+        layered.constructFromList(copy(posinfo.subList(0, 5000)), objs.subList(0, 5000));
+        // Inserted and removed objects are counted too
+        for (int i = 5000; i < objs.size(); i++) {
+            twoD.insert(posinfo.get(i).clone(), objs.get(i));
+            layered.insert(posinfo.get(i).clone(), objs.get(i));
+        }
+        List<int[]> livePos = new ArrayList<>();
+        List<MapObject> liveObjs = new ArrayList<>();
+        for (int i = 0; i < objs.size(); i++) {
+            if (i % 7 == 0) {
+                assertTrue(twoD.remove(objs.get(i)));
+                assertTrue(layered.remove(objs.get(i)));
+            } else {
+                livePos.add(posinfo.get(i));
+                liveObjs.add(objs.get(i));
+            }
+        }
+        SpatialIndex[] indexes = {twoD, twoD.compact(), new PackedRTree(livePos, liveObjs), layered, layered.copy()};
+
+        for (SpatialIndex index : indexes) {
+            // Removed objects may still be counted by the log-structured layers
+            int all = index.estimateCount(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            assertTrue(all >= index.size() && all <= objs.size());
+            if (!(index instanceof ZoomLayeredIndex)) assertEquals(index.size(), all);
+            assertEquals(0, index.estimateCount(2000000, 2000000, 3000000, 3000000, Integer.MAX_VALUE));
+            for (int i = 0; i < 20; i++) {
+                int lon = random.nextInt(1000000), lat = random.nextInt(1000000);
+                for (int zoom : zoomLevels) {
+                    int[] count = new int[1];
+                    index.query(lon, lat, lon + 100000, lat + 100000, zoom, o -> count[0]++);
+                    int estimate = index.estimateCount(lon, lat, lon + 100000, lat + 100000, zoom);
+                    assertTrue(estimate >= count[0]);
+                    assertTrue(estimate <= all);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidBucketSize() {
+        try {
+            new TwoDTree(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private static boolean contains(MinPQ<MapObject> range, MapObject obj) {
+        for (MapObject o : range) if (o == obj) return true;
+        return false;
+    }
+}
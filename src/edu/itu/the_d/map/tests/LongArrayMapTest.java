@@ -0,0 +1,89 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.datastructures.nongeneric_maps.LongArrayMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the open addressing {@link LongArrayMap}.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class LongArrayMapTest extends TestCase {
+
+    @Test
+    public void testPutAndGet() {
+        LongArrayMap map = new LongArrayMap(4);
+        long[] refs = {1, 2, 3};
+        map.put(42, refs);
+        map.put(-7, new long[]{4});
+        assertSame(refs, map.get(42));
+        assertTrue(Arrays.equals(new long[]{4}, map.get(-7)));
+        assertEquals(2, map.size());
+        // Putting a key again replaces its value
+        map.put(42, new long[]{5});
+        assertTrue(Arrays.equals(new long[]{5}, map.get(42)));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testGrowsPastCapacity() {
+        LongArrayMap map = new LongArrayMap(0);
+        for (long id = 1; id <= 10000; id++) map.put(id * 1000, new long[]{id});
+        assertEquals(10000, map.size());
+        for (long id = 1; id <= 10000; id++) assertEquals(id, map.get(id * 1000)[0]);
+        assertNull(map.get(1));
+    }
+
+    @Test
+    public void testKeyZero() {
+        LongArrayMap map = new LongArrayMap(2);
+        assertNull(map.get(0));
+        map.put(0, new long[]{1});
+        map.put(1, new long[]{2});
+        assertEquals(2, map.size());
+        assertEquals(1, map.get(0)[0]);
+        assertEquals(1, map.remove(0)[0]);
+        assertNull(map.get(0));
+        assertNull(map.remove(0));
+        assertEquals(1, map.size());
+        assertEquals(2, map.get(1)[0]);
+    }
+
+    @Test
+    public void testMissingKeys() {
+        LongArrayMap map = new LongArrayMap(16);
+        assertNull(map.get(5));
+        assertNull(map.remove(5));
+        map.put(5, new long[0]);
+        assertNull(map.get(6));
+        assertNull(map.remove(6));
+        assertEquals(1, map.size());
+        map.clear();
+        assertNull(map.get(5));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testRemoveKeepsOtherKeys() {
+        LongArrayMap map = new LongArrayMap(16);
+        Map<Long, long[]> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) assertSame(expected.remove(key), map.remove(key));
+            else {
+                long[] value = {i};
+                expected.put(key, value);
+                map.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000; key++) assertSame(expected.get(key), map.get(key));
+    }
+}
@@ -2,6 +2,11 @@ package edu.itu.the_d.map.tests;
 
 import edu.itu.the_d.map.dataprocessing.*;
 import edu.itu.the_d.map.datastructures.Pair;
+import edu.itu.the_d.map.datastructures.WayEdge;
+import edu.itu.the_d.map.datastructures.WayUndirectedGraph;
+import edu.itu.the_d.map.datastructures.ZIndexBuckets;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.IdMap;
+import edu.itu.the_d.map.datastructures.nongeneric_maps.MappedNodeStore;
 import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.mapobjects.MapObject;
 import edu.itu.the_d.map.model.mapobjects.Region;
@@ -12,12 +17,13 @@ import junit.framework.TestCase;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.List;
+import java.util.Random;
 
 import static edu.itu.the_d.map.model.mapobjects.RegionType.COASTLINE;
 import static edu.itu.the_d.map.model.mapobjects.RegionType.UNSPECIFIED;
@@ -28,6 +34,8 @@ import static edu.itu.the_d.map.model.mapobjects.RegionType.WATER;
  * Copyright 2016 The-D
  */
 public class MapObjectFactoryTest extends TestCase {
+	private static final String TEST_FILE = "resources/resources/test/test.osm";
+
 	@Rule
 
 
@@ -36,7 +44,7 @@ public class MapObjectFactoryTest extends TestCase {
 	public void testnodeLatLon() throws InterruptedException{
 		LoadingView.turnOn();
 
-		BlockingQueue<OSMObject> osmobjQueue = new ArrayBlockingQueue<>(10000);
+		ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", 10000);
 
 		OSMObject osmObject = new OSMObject();
 		osmObject.addTags("minlat", "55.6631000");
@@ -60,37 +68,64 @@ public class MapObjectFactoryTest extends TestCase {
 		osmobjQueue.put(osmObject);
 		osmobjQueue.put(osmObject1);
 		osmobjQueue.put(osmObject2);
+		osmobjQueue.close();
 
-		BlockingQueue<Pair<int[], MapObject>> mapObjQueue = new ArrayBlockingQueue<>(50000);
+		ChunkPipe<Pair<int[], MapObject>> mapObjQueue = new ChunkPipe<>("test", 50000);
 
 		Model model = new Model();
-		MapObjectFactory objectFactory = new MapObjectFactory(osmobjQueue, mapObjQueue, new AtomicBoolean(true), new AtomicBoolean(true), model, 0L);
+		MapObjectFactory objectFactory = new MapObjectFactory(osmobjQueue, mapObjQueue, model, 0L);
 
 		objectFactory.run();
 		assertEquals(new Point2D.Float(7.092855F, -55.678905F), model.objectMap.get(697801));
 		assertEquals(new Point2D.Float(0F, -0F), model.objectMap.get(54862));
 	}
 
+	// Without bounds the projection is centered on the first node, and the bounds are the extent of the nodes
+	@Test
+	public void testBoundsFromNodes() throws InterruptedException {
+		ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", 10000);
+		float[][] nodes = {{55.6789058F, 12.5774728F}, {55.67F, 12.6F}, {55.69F, 12.55F}};
+		for (int i = 0; i < nodes.length; i++) {
+			OSMObject node = new OSMObject();
+			node.setType(OSMType.NODE);
+			node.setId(i + 1);
+			node.setLat(nodes[i][0]);
+			node.setLon(nodes[i][1]);
+			osmobjQueue.put(node);
+		}
+		osmobjQueue.close();
+
+		Model model = new Model();
+		new MapObjectFactory(osmobjQueue, new ChunkPipe<>("test", 50000), model, 0L).run();
+		float lonfactor = (float) Math.cos(Math.PI / 180 * 55.6789058F);
+		assertEquals(lonfactor, model.lonfactor);
+		assertEquals(new Point2D.Float(12.5774728F * lonfactor, -55.6789058F), model.objectMap.get(1));
+		assertEquals(12.55F * lonfactor, model.getMinlon());
+		assertEquals(12.6F * lonfactor, model.getMaxlon());
+		assertEquals(-55.67F, model.getMinlat());
+		assertEquals(-55.69F, model.getMaxlat());
+	}
+
 	// Test case B, checks that mapobjects of type road are set as they should.
 	@Test
 	public void testWayPaths(){
 		LoadingView.turnOn();
 
-		BlockingQueue<OSMObject> osmobjQueue = new ArrayBlockingQueue<>(50000);
-		OSMParser parser = new OSMParser("resources/resources/test/test.osm", osmobjQueue, new AtomicBoolean(false));
-		BlockingQueue<Pair<int[], MapObject>> mapObjQueue = new ArrayBlockingQueue<>(50000);
+		ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", 50000);
+		OSMParser parser = new OSMParser("resources/resources/test/test.osm", osmobjQueue);
+		ChunkPipe<Pair<int[], MapObject>> mapObjQueue = new ChunkPipe<>("test", 50000);
 
 
 		Model model = new Model();
-		MapObjectFactory objectFactory = new MapObjectFactory(osmobjQueue, mapObjQueue, new AtomicBoolean(true), new AtomicBoolean(true), model, 5000000L);
+		MapObjectFactory objectFactory = new MapObjectFactory(osmobjQueue, mapObjQueue, model, 5000000L);
 
 		parser.run();
 		objectFactory.run();
 		int count = 0;
-		while (!mapObjQueue.isEmpty()) {
+		while (true) {
 			try {
-				Pair<int[], MapObject> obj = mapObjQueue.poll(10, TimeUnit.MILLISECONDS);
-				if (obj == null) continue;
+				Pair<int[], MapObject> obj = mapObjQueue.take();
+				if (obj == null) break;
 				//System.out.println(Arrays.toString(obj.valA));
 				if (obj.valB instanceof Road) {
 					Road r = (Road) obj.valB;
@@ -117,4 +152,133 @@ public class MapObjectFactoryTest extends TestCase {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	// Test case C, checks that converting ways on several worker threads gives the same result as on a single one.
+	@Test
+	public void testWorkersSameResult() throws InterruptedException {
+		LoadingView.turnOn();
+
+		List<String> single = convertWithWorkers(1);
+		List<String> multiple = convertWithWorkers(4);
+		assertFalse(single.isEmpty());
+		assertEquals(single, multiple);
+	}
+
+	// Test case D, checks that the two-pass mode creates the same map objects and edges from fewer nodes and vertices.
+	@Test
+	public void testTwoPassSameResult() throws InterruptedException {
+		LoadingView.turnOn();
+
+		Model onePass = new Model();
+		List<String> all = convert(onePass, 1, null);
+		ReferencedNodes referenced = ReferencedNodes.collect(TEST_FILE, 1000, 1, null);
+		Model twoPass = new Model();
+		List<String> kept = convert(twoPass, 1, referenced);
+
+		assertEquals(all, kept);
+		assertTrue(twoPass.getGraph().V() < onePass.getGraph().V());
+		assertTrue(twoPass.objectMap.getAllKeys().length < onePass.objectMap.getAllKeys().length);
+		// Every stored node is referenced, and every vertex is a highway node
+		for (long id : twoPass.objectMap.getAllKeys()) assertTrue(referenced.keepsNode(id));
+		for (int v = 0; v < twoPass.getGraph().V(); v++) {
+			assertTrue(referenced.isHighwayNode(twoPass.getGraph().getID(v)));
+			assertEquals(v, twoPass.getGraph().getIndex(twoPass.getGraph().getID(v)));
+			assertEquals(twoPass.objectMap.get(twoPass.getGraph().getID(v)), twoPass.getGraph().getPoint(v));
+		}
+	}
+
+	// Test case D1, checks that every edge refers to the road it's part of in the road table of the graph
+	@Test
+	public void testEdgeRoads() throws InterruptedException {
+		Model model = new Model();
+		convert(model, 4, null);
+		WayUndirectedGraph graph = model.getGraph();
+		for (int v = 0; v < graph.V(); v++) {
+			for (WayEdge e : graph.adj(v)) {
+				List<Long> refs = new ArrayList<>();
+				for (long ref : graph.getRoad(e).getRefs()) refs.add(ref);
+				assertTrue(refs.contains(graph.getID(e.fromV)));
+				assertTrue(refs.contains(graph.getID(e.toV)));
+			}
+		}
+	}
+
+	// Test case D2, checks that keeping the nodes in a memory-mapped store gives the same result as keeping them on the heap
+	@Test
+	public void testMappedNodesSameResult() throws InterruptedException, IOException {
+		List<String> heap = convertWithWorkers(1);
+		Model mapped = new Model();
+		mapped.objectMap = new IdMap(0, MappedNodeStore.createTemp());
+		assertEquals(heap, convert(mapped, 1, null));
+		assertTrue(mapped.objectMap.isMapped());
+		mapped.objectMap.close();
+	}
+
+	// Test case E, checks that coastlines are split into chunks covering the same area, which a tile only gets if it overlaps them
+	@Test
+	public void testCoastlineChunks() {
+		// A round island with too many segments for a single chunk
+		Path2D.Float island = new Path2D.Float();
+		double cx = 12.6, cy = -55.6, radius = 0.2;
+		for (int i = 0; i < 4000; i++) {
+			double angle = 2 * Math.PI * i / 4000;
+			float x = (float) (cx + radius * Math.cos(angle)), y = (float) (cy + radius * Math.sin(angle));
+			if (i == 0) island.moveTo(x, y);
+			else island.lineTo(x, y);
+		}
+		island.closePath();
+		Model model = new Model();
+		int[] bounds = {(int) ((cx - radius) * 1e7), (int) -((cy + radius) * 1e7), (int) ((cx + radius) * 1e7), (int) -((cy - radius) * 1e7)};
+		model.coastlines.add(new Pair<>(bounds, new Region(bounds[1], bounds[0], COASTLINE, island)));
+		model.indexCoastlines();
+
+		int chunks = model.coastlines.size();
+		assertTrue(chunks > 1);
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			double x = cx - 0.25 + random.nextDouble() * 0.5, y = cy - 0.25 + random.nextDouble() * 0.5;
+			// Points on the coast may be on either side of a segment
+			if (Math.abs(Point2D.distance(x, y, cx, cy) - radius) < 0.001) continue;
+			boolean inChunk = false;
+			for (Pair<int[], MapObject> chunk : model.coastlines) inChunk |= chunk.valB.getShape().contains(x, y);
+			assertEquals(island.contains(x, y), inChunk);
+		}
+
+		ZIndexBuckets res = new ZIndexBuckets();
+		model.getDataInRange(new Point2D.Double(cx + 0.3, cy), new Point2D.Double(cx + 0.31, cy + 0.01), 1, res);
+		assertEquals(0, res.size());
+		model.getDataInRange(new Point2D.Double(cx, cy), new Point2D.Double(cx + 0.01, cy + 0.01), 1, res);
+		assertTrue(res.size() >= 1 && res.size() < chunks);
+	}
+
+	/**
+	 * Converts the test file with the given number of workers and describes the map objects and graph edges created,
+	 * in the order they were created.
+	 */
+	private List<String> convertWithWorkers(int workers) throws InterruptedException {
+		return convert(new Model(), workers, null);
+	}
+
+	/**
+	 * Converts the test file into the given model and describes the map objects and graph edges created. The edges
+	 * are described by the ids of their nodes, so they can be compared across graphs with different vertices.
+	 */
+	private List<String> convert(Model model, int workers, ReferencedNodes referenced) throws InterruptedException {
+		ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", 50000);
+		new OSMParser(TEST_FILE, osmobjQueue).run();
+		ChunkPipe<Pair<int[], MapObject>> mapObjQueue = new ChunkPipe<>("test", 50000);
+
+		new MapObjectFactory(osmobjQueue, mapObjQueue, model, 5000000L, workers, null, referenced).run();
+
+		List<String> res = new ArrayList<>();
+		Pair<int[], MapObject> obj;
+		while ((obj = mapObjQueue.take()) != null) {
+			res.add(Arrays.toString(obj.valA) + " " + obj.valB.getClass().getSimpleName() + " " + obj.valB.getZoomLevel());
+		}
+		WayUndirectedGraph graph = model.getGraph();
+		for (int v = 0; v < graph.V(); v++) {
+			for (WayEdge e : graph.adj(v)) res.add(graph.getID(e.fromV) + "-" + graph.getID(e.toV) + " " + e.length + " " + e.timeWeight);
+		}
+		return res;
+	}
+}
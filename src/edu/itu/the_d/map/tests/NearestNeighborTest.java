@@ -1,12 +1,17 @@
 package edu.itu.the_d.map.tests;
 
+import edu.itu.the_d.map.datastructures.NearestSearch;
+import edu.itu.the_d.map.datastructures.PolygonApprox;
 import edu.itu.the_d.map.model.Model;
+import edu.itu.the_d.map.model.mapobjects.Region;
+import edu.itu.the_d.map.model.mapobjects.Road;
 import junit.framework.TestCase;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.awt.geom.Point2D;
+import java.util.List;
 
 /**
  * Tests the nearest neighbor algorithm.
@@ -52,4 +57,37 @@ public class NearestNeighborTest extends TestCase {
 
     }
 
+    @Test
+    public void testFarFromRoads() {
+        // A point far outside the map still finds a road, and the roads are found nearest first
+        Point2D far = new Point2D.Double(m.getMaxlon() + 0.1, m.getMinlat());
+        Assert.assertNotNull(m.nearestNeighbor(far));
+        List<NearestSearch.Neighbor> nearest = m.nearest(far, 5, o -> o instanceof Road);
+        Assert.assertEquals(5, nearest.size());
+        for (int i = 1; i < nearest.size(); i++) Assert.assertTrue(nearest.get(i - 1).distance <= nearest.get(i).distance);
+        Assert.assertTrue(nearest.get(0).distance > 0.05);
+    }
+
+    @Test
+    public void testInsideRegion() {
+        // Find a point inside one of the regions of a way near the middle of the map
+        Point2D center = new Point2D.Double((m.getMinlon() + m.getMaxlon()) / 2, (m.getMinlat() + m.getMaxlat()) / 2);
+        Point2D inside = null;
+        for (NearestSearch.Neighbor n : m.nearest(center, 20, o -> o instanceof Region && o.getShape() instanceof PolygonApprox)) {
+            PolygonApprox shape = (PolygonApprox) n.obj.getShape();
+            for (int i = 1; i < 10 && inside == null; i++) {
+                for (int j = 1; j < 10 && inside == null; j++) {
+                    Point2D q = new Point2D.Double(shape.getMinX() + shape.getWidth() * i / 10, shape.getMinY() + shape.getHeight() * j / 10);
+                    if (shape.contains(q)) inside = q;
+                }
+            }
+            if (inside != null) break;
+        }
+        Assert.assertNotNull(inside);
+        // The region the point is inside is nearer than the outline of any region
+        List<NearestSearch.Neighbor> nearest = m.nearest(inside, 1, o -> o instanceof Region);
+        Assert.assertEquals(0, nearest.get(0).distance, 0);
+        Assert.assertTrue(nearest.get(0).obj.getShape().contains(inside));
+    }
+
 }
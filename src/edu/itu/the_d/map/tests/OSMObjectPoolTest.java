@@ -0,0 +1,94 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.dataprocessing.ChunkPipe;
+import edu.itu.the_d.map.dataprocessing.OSMObject;
+import edu.itu.the_d.map.dataprocessing.OSMObjectPool;
+import edu.itu.the_d.map.dataprocessing.OSMParser;
+import edu.itu.the_d.map.dataprocessing.OSMType;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the {@link OSMObjectPool} the parsers and the factory recycle their objects through.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class OSMObjectPoolTest extends TestCase {
+
+    @Test
+    public void testPooledObjectsAreReused() {
+        OSMObjectPool pool = new OSMObjectPool(4);
+        OSMObject relation = pool.acquire();
+        relation.setType(OSMType.RELATION);
+        relation.setId(1);
+        relation.addMember(2, "outer");
+        relation.addTags("type", "multipolygon");
+        relation.addRef(3);
+        pool.release(relation);
+        // The released object is handed out again, without any of the relation's data
+        OSMObject reused = pool.acquire();
+        assertSame(relation, reused);
+        assertEquals(OSMType.UNKNOWN, reused.getType());
+        assertEquals(0, reused.getId());
+        assertEquals(0, reused.getMemberCount());
+        assertEquals(0, reused.getTagCount());
+        assertEquals(0, reused.getRefSize());
+        assertNull(reused.getTag("type"));
+    }
+
+    @Test
+    public void testSameWithPool() throws InterruptedException {
+        // Release every object as soon as it's been copied, like the MapObjectFactory does
+        OSMObjectPool pool = new OSMObjectPool(16);
+        ChunkPipe<OSMObject> queue = new ChunkPipe<>("test", OSMScannerTest.QUEUE_SIZE);
+        new OSMParser(OSMScannerTest.A1, queue, OSMParser.SCANNER, pool).run();
+        List<String> pooled = new ArrayList<>();
+        OSMObject o;
+        while ((o = queue.take()) != null) {
+            pooled.add(describe(o));
+            pool.release(o);
+        }
+        List<String> expected = new ArrayList<>();
+        for (OSMObject osmObject : OSMScannerTest.parse(OSMScannerTest.A1, OSMParser.SCANNER)) expected.add(describe(osmObject));
+        assertEquals(expected, pooled);
+    }
+
+    @Test
+    public void testChunksHandedBetweenThreads() throws InterruptedException {
+        // Room for two chunks, so the third chunk released is left to the garbage collector
+        OSMObjectPool pool = new OSMObjectPool(OSMObjectPool.CHUNK_SIZE * 2);
+        Set<OSMObject> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        Thread releaser = new Thread(() -> {
+            for (int i = 0; i < OSMObjectPool.CHUNK_SIZE * 4 + 10; i++) {
+                OSMObject o = new OSMObject();
+                o.setId(i + 1);
+                released.add(o);
+                pool.release(o);
+            }
+        });
+        releaser.start();
+        releaser.join();
+
+        // The objects in full chunks are handed to this thread, the ones left in the releaser's chunk aren't
+        Set<OSMObject> acquired = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < OSMObjectPool.CHUNK_SIZE * 2; i++) {
+            OSMObject o = pool.acquire();
+            assertTrue(released.contains(o));
+            assertEquals(0, o.getId());
+            acquired.add(o);
+        }
+        assertEquals(OSMObjectPool.CHUNK_SIZE * 2, acquired.size());
+        assertFalse(released.contains(pool.acquire()));
+    }
+
+    private static String describe(OSMObject o) {
+        return o.getType() + " " + o.getId() + " " + o.getLat() + " " + o.getLon() + " " + Arrays.toString(o.copyRefs()) + " " + OSMScannerTest.members(o) + " " + OSMScannerTest.tags(o);
+    }
+}
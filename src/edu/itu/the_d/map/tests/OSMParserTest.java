@@ -1,13 +1,12 @@
 package edu.itu.the_d.map.tests;
 
+import edu.itu.the_d.map.dataprocessing.ChunkPipe;
 import edu.itu.the_d.map.dataprocessing.OSMObject;
 import edu.itu.the_d.map.dataprocessing.OSMParser;
 import junit.framework.TestCase;
 import org.junit.Test;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayList;
 
 /**
  * Created by Lucas on 01-05-2016.
@@ -22,19 +21,19 @@ public class OSMParserTest extends TestCase {
     static final String A4 = "resources/resources/test/test-wrong-order.osm";
 
     @Test
-    public void testRunCorrectInput() { //ID: A
-        BlockingQueue<OSMObject> osmobjQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-        OSMParser parser = new OSMParser(A1, osmobjQueue, new AtomicBoolean(false));
+    public void testRunCorrectInput() throws InterruptedException { //ID: A
+        ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", QUEUE_SIZE);
+        OSMParser parser = new OSMParser(A1, osmobjQueue);
         parser.run();
-        assertEquals(OSM_OBJECT_COUNT, osmobjQueue.size());
+        assertEquals(OSM_OBJECT_COUNT, osmobjQueue.drainTo(new ArrayList<>()));
     }
 
 
     @Test
     public void testRunInputMissingAtrributes() { //ID: B
         try {
-            BlockingQueue<OSMObject> osmobjQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-            OSMParser parser = new OSMParser(A2, osmobjQueue, new AtomicBoolean(false));
+            ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", QUEUE_SIZE);
+            OSMParser parser = new OSMParser(A2, osmobjQueue);
             parser.run();
             fail();
         } catch (Exception e) {
@@ -43,20 +42,20 @@ public class OSMParserTest extends TestCase {
 
 
     @Test
-    public void testRunInputMissingTags() { //ID: C
-        BlockingQueue<OSMObject> osmobjQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-        OSMParser parser = new OSMParser(A3, osmobjQueue, new AtomicBoolean(false));
+    public void testRunInputMissingTags() throws InterruptedException { //ID: C
+        ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", QUEUE_SIZE);
+        OSMParser parser = new OSMParser(A3, osmobjQueue);
         parser.run();
-        assertEquals(OSM_OBJECT_COUNT, osmobjQueue.size());
+        assertEquals(OSM_OBJECT_COUNT, osmobjQueue.drainTo(new ArrayList<>()));
     }
 
 
     @Test
-    public void testRunInputWrongOrder() { //ID: D
-        BlockingQueue<OSMObject> osmobjQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-        OSMParser parser = new OSMParser(A4, osmobjQueue, new AtomicBoolean(false));
+    public void testRunInputWrongOrder() throws InterruptedException { //ID: D
+        ChunkPipe<OSMObject> osmobjQueue = new ChunkPipe<>("test", QUEUE_SIZE);
+        OSMParser parser = new OSMParser(A4, osmobjQueue);
         parser.run();
-        assertEquals(OSM_OBJECT_COUNT, osmobjQueue.size());
+        assertEquals(OSM_OBJECT_COUNT, osmobjQueue.drainTo(new ArrayList<>()));
     }
 
 
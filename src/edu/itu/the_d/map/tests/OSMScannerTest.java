@@ -0,0 +1,119 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.dataprocessing.ChunkPipe;
+import edu.itu.the_d.map.dataprocessing.OSMObject;
+import edu.itu.the_d.map.dataprocessing.OSMParser;
+import edu.itu.the_d.map.dataprocessing.OSMScanner;
+import edu.itu.the_d.map.dataprocessing.TagDictionary;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Tests that the {@link OSMScanner} produces the same objects as the StAX based parser.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class OSMScannerTest extends TestCase {
+
+    static final int QUEUE_SIZE = 1000000;
+    static final String A1 = "resources/resources/test/test.osm";
+    static final String A3 = "resources/resources/test/test-missing-tags.osm";
+    static final String A4 = "resources/resources/test/test-wrong-order.osm";
+    static final String SMALL = "resources/resources/small.osm.zip";
+
+    @Test
+    public void testSameAsStax() throws InterruptedException {
+        for (String file : new String[]{A1, A3, A4, SMALL}) {
+            assertSameObjects(file, parse(file, OSMParser.STAX), parse(file, OSMParser.SCANNER));
+        }
+    }
+
+    @Test
+    public void testEntitiesAndComments() throws Exception {
+        String xml = "<?xml version='1.0' encoding='UTF-8'?>\n<osm><!-- a <node> comment -->\n" +
+                "<way id=\"7\"><nd ref=\"1\"/><nd ref='2' />" +
+                "<tag k=\"name\" v=\"A &amp; B &lt;&gt; &quot;&apos; &#230;&#xF8; å &unknown\"/>" +
+                "<tag k=\"note\" v=\"a > b\"/></way></osm>";
+        OSMScanner scanner = new OSMScanner(Channels.newChannel(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+        OSMObject way = scanner.next();
+        assertEquals(7, way.getId());
+        assertTrue(Arrays.equals(new long[]{1L, 2L}, way.copyRefs()));
+        assertEquals("A & B <> \"' æø å &unknown", way.getTag("name"));
+        // Keys that aren't used by the MapObjectFactory are skipped
+        assertNull(way.getTag("note"));
+        assertNull(scanner.next());
+    }
+
+    @Test
+    public void testCoordinatesMatchParseFloat() throws Exception {
+        String[] values = {"55.6761000", "12.5683371", "-0.0000001", "0", "180.0", "-90", "55.67610005", "1e-3", "56.1234567890123456789"};
+        StringBuilder xml = new StringBuilder("<osm>");
+        for (int i = 0; i < values.length; i++) {
+            xml.append("<node id=\"").append(i).append("\" lat=\"").append(values[i]).append("\" lon=\"").append(values[i]).append("\"/>");
+        }
+        xml.append("</osm>");
+        OSMScanner scanner = new OSMScanner(Channels.newChannel(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8))));
+        for (String value : values) {
+            OSMObject node = scanner.next();
+            assertEquals(Float.floatToIntBits(Float.parseFloat(value)), Float.floatToIntBits(node.getLat()));
+            assertEquals(Float.floatToIntBits(Float.parseFloat(value)), Float.floatToIntBits(node.getLon()));
+        }
+    }
+
+    @Test
+    public void testCoordinatesWithoutDigitsAreRejected() throws Exception {
+        for (String value : new String[]{"", "-", ".", "-.", "1.2.3"}) {
+            String xml = "<osm><node id=\"1\" lat=\"" + value + "\" lon=\"12.5\"/></osm>";
+            OSMScanner scanner = new OSMScanner(Channels.newChannel(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+            try {
+                scanner.next();
+                fail(value);
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
+
+    static List<OSMObject> parse(String file, int mode) throws InterruptedException {
+        ChunkPipe<OSMObject> queue = new ChunkPipe<>("test", QUEUE_SIZE);
+        new OSMParser(file, queue, mode).run();
+        List<OSMObject> res = new ArrayList<>();
+        queue.drainTo(res);
+        return res;
+    }
+
+    static Set<String> members(OSMObject o) {
+        Set<String> res = new HashSet<>();
+        for (int i = 0; i < o.getMemberCount(); i++) res.add(o.getMemberRef(i) + " " + o.getMemberRole(i));
+        return res;
+    }
+
+    static Map<String, String> tags(OSMObject o) {
+        Map<String, String> res = new HashMap<>();
+        for (int key = 0; key < TagDictionary.KEY_COUNT; key++) {
+            if (!o.hasTag(key)) continue;
+            res.put(TagDictionary.key(key), TagDictionary.isFreeText(key) ? o.getTagText(key) : "#" + o.getTagCode(key));
+        }
+        for (int i = 0; i < o.getTagCount(); i++) res.put(o.getTagKey(i), o.getTagValue(i));
+        return res;
+    }
+
+    private static void assertSameObjects(String file, List<OSMObject> expected, List<OSMObject> actual) {
+        assertEquals(file, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            OSMObject e = expected.get(i), a = actual.get(i);
+            assertEquals(file, e.getType(), a.getType());
+            assertEquals(file, e.getId(), a.getId());
+            assertEquals(file, Float.floatToIntBits(e.getLat()), Float.floatToIntBits(a.getLat()));
+            assertEquals(file, Float.floatToIntBits(e.getLon()), Float.floatToIntBits(a.getLon()));
+            assertTrue(file, Arrays.equals(e.copyRefs(), a.copyRefs()));
+            assertEquals(file, members(e), members(a));
+            assertEquals(file, tags(e), tags(a));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.dataprocessing.ChunkPipe;
+import edu.itu.the_d.map.dataprocessing.OSMObject;
+import edu.itu.the_d.map.dataprocessing.OSMParser;
+import edu.itu.the_d.map.dataprocessing.OSMType;
+import edu.itu.the_d.map.dataprocessing.PBFParser;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Tests that the {@link PBFParser} produces the same objects, in the same order, as the {@link OSMParser} does for the
+ * osm file the pbf file was made from. The pbf file holds both dense and plain nodes spread over several blocks.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class PBFParserTest extends TestCase {
+
+    static final int QUEUE_SIZE = 10000;
+    static final int OSM_OBJECT_COUNT = 149;
+    static final String OSM = "resources/resources/test/test.osm";
+    static final String PBF = "resources/resources/test/test.osm.pbf";
+
+    @Test
+    public void testRunCorrectInput() throws InterruptedException {
+        ChunkPipe<OSMObject> queue = new ChunkPipe<>("test", QUEUE_SIZE);
+        new PBFParser(PBF, queue).run();
+        // Draining only returns once the parser has closed the pipe
+        assertEquals(OSM_OBJECT_COUNT, queue.drainTo(new ArrayList<>()));
+    }
+
+    @Test
+    public void testTruncatedFileClosesPipe() throws IOException, InterruptedException {
+        byte[] bytes = Files.readAllBytes(Paths.get(PBF));
+        File truncated = File.createTempFile("truncated", ".pbf");
+        truncated.deleteOnExit();
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+        ChunkPipe<OSMObject> queue = new ChunkPipe<>("test", QUEUE_SIZE);
+        try {
+            new PBFParser(truncated.getPath(), queue, 2).run();
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        // The objects read before the error are still handed over, followed by the end of the pipe
+        assertTrue(queue.drainTo(new ArrayList<>()) < OSM_OBJECT_COUNT);
+    }
+
+    @Test
+    public void testSameAsOSMParser() throws InterruptedException {
+        ChunkPipe<OSMObject> queue = new ChunkPipe<>("test", QUEUE_SIZE);
+        new OSMParser(OSM, queue).run();
+        List<OSMObject> expected = new ArrayList<>();
+        queue.drainTo(expected);
+
+        for (int threads : new int[]{1, 4}) {
+            queue = new ChunkPipe<>("test", QUEUE_SIZE);
+            new PBFParser(PBF, queue, threads).run();
+            List<OSMObject> actual = new ArrayList<>();
+            queue.drainTo(actual);
+
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                OSMObject e = expected.get(i), a = actual.get(i);
+                assertEquals(e.getType(), a.getType());
+                if (e.getType() == OSMType.BOUNDS) {
+                    for (String key : new String[]{"minlat", "minlon", "maxlat", "maxlon"}) {
+                        assertEquals(Float.parseFloat(e.getTag(key)), Float.parseFloat(a.getTag(key)));
+                    }
+                    continue;
+                }
+                assertEquals(e.getId(), a.getId());
+                assertEquals(Float.floatToIntBits(e.getLat()), Float.floatToIntBits(a.getLat()));
+                assertEquals(Float.floatToIntBits(e.getLon()), Float.floatToIntBits(a.getLon()));
+                assertTrue(Arrays.equals(e.copyRefs(), a.copyRefs()));
+                assertEquals(OSMScannerTest.members(e), OSMScannerTest.members(a));
+                assertEquals(OSMScannerTest.tags(e), OSMScannerTest.tags(a));
+            }
+        }
+    }
+}
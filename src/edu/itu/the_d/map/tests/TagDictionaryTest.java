@@ -0,0 +1,58 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.dataprocessing.OSMObject;
+import edu.itu.the_d.map.dataprocessing.OSMScanner;
+import edu.itu.the_d.map.dataprocessing.TagDictionary;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests the lookups of the {@link TagDictionary}, and that the parsers store tags by their codes.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class TagDictionaryTest extends TestCase {
+
+    @Test
+    public void testLookups() {
+        for (int key = 0; key < TagDictionary.KEY_COUNT; key++) {
+            byte[] bytes = ("x" + TagDictionary.key(key) + "x").getBytes(StandardCharsets.US_ASCII);
+            assertEquals(key, TagDictionary.keyCode(TagDictionary.key(key)));
+            assertEquals(key, TagDictionary.keyCode(bytes, 1, bytes.length - 1));
+        }
+        for (int value = TagDictionary.OTHER + 1; value < TagDictionary.VALUE_COUNT; value++) {
+            byte[] bytes = TagDictionary.value(value).getBytes(StandardCharsets.US_ASCII);
+            assertEquals(value, TagDictionary.valueCode(TagDictionary.value(value)));
+            assertEquals(value, TagDictionary.valueCode(bytes, 0, bytes.length));
+        }
+        byte[] unknown = "motorwa".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(TagDictionary.UNKNOWN_KEY, TagDictionary.keyCode("note"));
+        assertEquals(TagDictionary.UNKNOWN_KEY, TagDictionary.keyCode(unknown, 0, unknown.length));
+        assertEquals(TagDictionary.OTHER, TagDictionary.valueCode("motorwa"));
+        assertEquals(TagDictionary.OTHER, TagDictionary.valueCode(unknown, 0, unknown.length));
+        assertNull(TagDictionary.value(TagDictionary.OTHER));
+    }
+
+    @Test
+    public void testScannerStoresCodes() throws Exception {
+        String xml = "<osm><way id=\"1\"><nd ref=\"2\"/>" +
+                "<tag k=\"highway\" v=\"&#109;otorway\"/><tag k=\"oneway\" v=\"yes\"/><tag k=\"building\" v=\"house\"/>" +
+                "<tag k=\"name\" v=\"Vej\"/><tag k=\"note\" v=\"x\"/></way></osm>";
+        OSMScanner scanner = new OSMScanner(Channels.newChannel(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+        OSMObject way = scanner.next();
+        assertEquals(TagDictionary.valueCode("motorway"), way.getTagCode(TagDictionary.HIGHWAY));
+        assertEquals(TagDictionary.valueCode("yes"), way.getTagCode(TagDictionary.ONEWAY));
+        // A value the dictionary doesn't know is still there, but only as OTHER
+        assertEquals(TagDictionary.OTHER, way.getTagCode(TagDictionary.BUILDING));
+        assertTrue(way.hasTag(TagDictionary.BUILDING));
+        assertFalse(way.hasTag(TagDictionary.RAILWAY));
+        assertEquals("Vej", way.getTagText(TagDictionary.NAME));
+        assertEquals("Vej", way.getTag("name"));
+        assertEquals("motorway", way.getTag("highway"));
+        assertNull(way.getTag("note"));
+    }
+}
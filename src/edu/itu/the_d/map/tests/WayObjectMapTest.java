@@ -0,0 +1,43 @@
+package edu.itu.the_d.map.tests;
+
+import edu.itu.the_d.map.datastructures.nongeneric_maps.WayObjectMap;
+import edu.itu.the_d.map.model.mapobjects.MapObject;
+import edu.itu.the_d.map.model.mapobjects.Region;
+import edu.itu.the_d.map.model.mapobjects.RegionType;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Tests the open addressing {@link WayObjectMap}.
+ * <p>
+ * Copyright 2016 The-D
+ */
+public class WayObjectMapTest extends TestCase {
+
+    @Test
+    public void testAddAndRemove() {
+        WayObjectMap map = new WayObjectMap(0);
+        MapObject[] objects = new MapObject[10000];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new Region(i, i, RegionType.UNSPECIFIED, null);
+            // Every way has two objects, like a way clipped into two parts
+            map.add(i / 2, objects[i]);
+        }
+        assertEquals(5000, map.size());
+        for (int way = 0; way < 5000; way++) {
+            MapObject[] parts = map.get(way);
+            assertEquals(2, parts.length);
+            assertSame(objects[way * 2], parts[0]);
+            assertSame(objects[way * 2 + 1], parts[1]);
+        }
+        assertNull(map.get(5000));
+
+        // Key 0 is kept apart from the table
+        assertSame(objects[1], map.remove(0)[1]);
+        assertNull(map.get(0));
+        assertNull(map.remove(0));
+        for (int way = 1; way < 5000; way += 2) assertEquals(2, map.remove(way).length);
+        for (int way = 1; way < 5000; way++) assertEquals(way % 2 == 0, map.get(way) != null);
+        assertEquals(2499, map.size());
+    }
+}
@@ -103,6 +103,8 @@ public final class LoadingView extends JFrame {
 	 * Creates an instance if there's not already one and sets it to be visible.
 	 */
 	public static void turnOn() {
+		// There is no screen to show the loading view on when running headless
+		if (GraphicsEnvironment.isHeadless()) return;
 		if (instance == null) instance = new LoadingView();
 
 		instance.infoField.setText("Loading...");
@@ -136,6 +138,8 @@ public final class LoadingView extends JFrame {
 	public static void hasFailed(String errorMsg) {
 		if (hasFailed) return;
 		hasFailed = true;
+		// Nothing to display if the loading view isn't shown (e.g. when running headless)
+		if (instance == null) return;
 
 		// Kill the timer
 		instance.timer.purge();
@@ -161,7 +165,7 @@ public final class LoadingView extends JFrame {
 	 * @param msg The message to display.
 	 */
 	public static void setInfoMsg(String msg) {
-		if (hasFailed) return;
+		if (hasFailed || instance == null) return;
 		instance.infoField.setText(msg);
 	}
 
@@ -171,7 +175,7 @@ public final class LoadingView extends JFrame {
 	 * @param percentage A number in between 0 and 100 to symbolize the current percentage that has been loaded.
 	 */
 	public static void setLoadPercentage(double percentage) {
-		if (hasFailed) return;
+		if (hasFailed || instance == null) return;
 		// The width of the loadingBar is simply calculated by WIDTH * (percentage/100)
 		instance.loadingBar.setMaximumSize(new Dimension((int) (WIDTH * (percentage / 100.0)), 4));
 	}
@@ -1,12 +1,12 @@
 package edu.itu.the_d.map.view;
 
-import edu.itu.the_d.map.datastructures.algs4.MinPQ;
+import edu.itu.the_d.map.datastructures.ZIndexBuckets;
 import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.mapobjects.ColorTheme;
-import edu.itu.the_d.map.model.mapobjects.MapObject;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.util.Queue;
 import java.util.concurrent.ExecutorService;
@@ -18,12 +18,24 @@ import java.util.concurrent.PriorityBlockingQueue;
  * Copyright 2016 The-D
  */
 public class MapTileWorker implements Runnable {
+	/**
+	 * Number of map objects a tile can draw in time. Tiles estimated to hold more leave out their most detailed classes
+	 * of objects, see {@link Model#detailLevel(Point2D, Point2D, int, int)}.
+	 */
+	public static final int TILE_BUDGET = 20000;
+	/**
+	 * Number of map objects above which a tile is drawn without antialiasing, which takes most of the time of dense tiles.
+	 */
+	public static final int ANTIALIAS_BUDGET = 8000;
+
 	private MapTileFactory factory;
 	private Model modelRef;
 	private MapView mapViewRef;
 
 	private Queue<Bounds> boundsQueue;
 	private volatile boolean isWorking;
+	// The map data of the current tile, reused for every tile the worker draws
+	private final ZIndexBuckets mapObjects = new ZIndexBuckets();
 
 	/**
 	 * Set up MapTileWorker for production. Basically takes references to objects which is needed during the work.
@@ -82,15 +94,18 @@ public class MapTileWorker implements Runnable {
 			// Get the graphics of the image to paint on
 			Graphics2D g2d = image.createGraphics();
 
-			// Get the actual map data from the KdTree.
-			// The Map Transform is used to receive the data.
-			MinPQ<MapObject> mapObjects = modelRef.getDataInRange(
-					mapViewRef.inverse(bounds.x, bounds.y), // x, y
-					mapViewRef.inverse(bounds.x + bounds.width, bounds.y + bounds.height), // x+width, y+height
-					(int) mapViewRef.getZoomLevel()); // Zoomlevel
+			// The Map Transform is used to find the range of the tile
+			Point2D lower = mapViewRef.inverse(bounds.x, bounds.y); // x, y
+			Point2D upper = mapViewRef.inverse(bounds.x + bounds.width, bounds.y + bounds.height); // x+width, y+height
+			// Leave out the most detailed objects of tiles that hold too many to draw in time
+			int zoomLevel = modelRef.detailLevel(lower, upper, (int) mapViewRef.getZoomLevel(), TILE_BUDGET);
+
+			// Get the actual map data from the KdTree, sorted by z-index.
+			modelRef.getDataInRange(lower, upper, zoomLevel, mapObjects);
 
-			// Enable antialiasing
-			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			// Enable antialiasing, unless there's too much to draw
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, mapObjects.size() > ANTIALIAS_BUDGET ?
+					RenderingHints.VALUE_ANTIALIAS_OFF : RenderingHints.VALUE_ANTIALIAS_ON);
 
 			if (ColorTheme.themeCode == 0) g2d.setColor(new Color(0xB3D1FF));
 			else if (ColorTheme.themeCode == 1) g2d.setColor(new Color(0x003466));
@@ -110,13 +125,13 @@ public class MapTileWorker implements Runnable {
 			g2d.setTransform(mapTransform);
 
 			// Draw the outlines for all the data
-			for (MapObject mapObject : mapObjects) {
-				mapObject.drawOutline(g2d);
+			for (int i = 0; i < mapObjects.size(); i++) {
+				mapObjects.get(i).drawOutline(g2d);
 			}
 
 			// Then draw the fills for all the data
-			for (MapObject mapObject : mapObjects) {
-				mapObject.drawFill(g2d);
+			for (int i = 0; i < mapObjects.size(); i++) {
+				mapObjects.get(i).drawFill(g2d);
 			}
 
 			// If debug mode is on, outline the image and display the draw-priority (z-index) in the centre
@@ -136,6 +151,8 @@ public class MapTileWorker implements Runnable {
 			// Finally hand over the produced image to the factory
 			factory.addFinishedImage(image, bounds.x, bounds.y);
 		}
+		// Don't hold on to the map objects of the last tile
+		mapObjects.clear();
 
 		// If the queue is empty (and this part of the code is reached), it is no longer working
 		isWorking = false;
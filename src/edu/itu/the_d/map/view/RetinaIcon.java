@@ -42,12 +42,13 @@ public class RetinaIcon extends ImageIcon {
         isRetina = false;
         isSet = true;
 
+        // Check if running OSX. This check avoids a strange error on devices running Windows.
+        // Without a screen (headless) there is no device to check either.
+        if (!System.getProperty("os.name").equals("Mac OS X") || GraphicsEnvironment.isHeadless()) return false;
+
         // Get the graphicsDevice
         GraphicsDevice graphicsDevice = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
 
-        // Check if running OSX. This check avoids a strange error on devices running Windows.
-        if (!System.getProperty("os.name").equals("Mac OS X")) return false;
-
         try {
             // Get the field
             Field field = graphicsDevice.getClass().getDeclaredField("scale");
@@ -4,6 +4,7 @@ import edu.itu.the_d.map.datastructures.Dijkstra;
 import edu.itu.the_d.map.model.Model;
 import edu.itu.the_d.map.model.Pin;
 import edu.itu.the_d.map.model.mapobjects.Address;
+import edu.itu.the_d.map.model.mapobjects.AddressSearcher;
 import edu.itu.the_d.map.utils.*;
 
 import javax.swing.*;
@@ -973,17 +974,19 @@ public class View extends JFrame implements Observer {
 	 * because that's a point of interest.
 	 */
 	private void inferAddressPoint(Address address) {
+		// The searcher is replaced when changes are applied, so the addresses and the search must come from the same one
+		AddressSearcher searcher = m.addressSearcher;
 		if (address.getPoi() != null) {
-			address.setPoint(m.addressSearcher.getAddresses()[m.addressSearcher.binarySearch(address.getPoi())].getPoint());
+			address.setPoint(searcher.getAddresses()[searcher.binarySearch(address.getPoi())].getPoint());
 			address.setName(address.getPoi());
 		} else if (address.getStreet() != null) {
-			address.setPoint(m.addressSearcher.getAddresses()[m.addressSearcher.binarySearch(address.getStreet())].getPoint());
+			address.setPoint(searcher.getAddresses()[searcher.binarySearch(address.getStreet())].getPoint());
 			address.setName(address.getStreet());
 		} else if (address.getCity() != null) {
-			address.setPoint(m.addressSearcher.getAddresses()[m.addressSearcher.binarySearch(address.getCity())].getPoint());
+			address.setPoint(searcher.getAddresses()[searcher.binarySearch(address.getCity())].getPoint());
 			address.setName(address.getCity());
 		} else if (address.getPostcode() != null) {
-			address.setPoint(m.addressSearcher.getAddresses()[m.addressSearcher.binarySearch(address.getPostcode())].getPoint());
+			address.setPoint(searcher.getAddresses()[searcher.binarySearch(address.getPostcode())].getPoint());
 			address.setName(address.getPostcode());
 		} else {
 			address.setPoint(null);